@@ -0,0 +1,148 @@
+package com.zing.zalo.gifplayer;
+
+import android.graphics.Bitmap;
+
+/**
+ * Ring of frame buffers composed ahead of their display time. Slots following the presented one
+ * hold frames ready to be presented, so presenting a frame only moves the index. Presented slot
+ * and the one last recorded by {@link #recordDraw()} are never written, since with hardware
+ * acceleration the bitmap is read by RenderThread after draw() returns, until the next draw()
+ * records another one.<br>
+ * Access to slot state is synchronized on the ring, rendering itself is done outside of the lock.
+ */
+final class DecodeAheadRing {
+    private final Bitmap[] mSlots;
+    private final long[] mDelays;
+    private final int[] mFrameIndices;
+    private int mPresented;
+    private int mLastRendered;
+    private int mReadyCount;
+    private int mDrawn = -1;
+
+    /**
+     * @param initialBuffer buffer holding currently presented frame, it becomes the first slot
+     * @param depth         maximum number of frames composed ahead
+     */
+    DecodeAheadRing(Bitmap initialBuffer, int depth) {
+        // one more slot for the presented frame and one for the frame which may still be read by RenderThread
+        mSlots = new Bitmap[depth + 2];
+        mDelays = new long[mSlots.length];
+        mFrameIndices = new int[mSlots.length];
+        mSlots[0] = initialBuffer;
+    }
+
+    /**
+     * Finds the slot following the last rendered one, buffer is taken from {@link GifBitmapPool}
+     * on first use.
+     *
+     * @return index of the slot or -1 if ring is full, which includes the slot recorded for drawing
+     */
+    synchronized int acquireSlot() {
+        final int slot = (mLastRendered + 1) % mSlots.length;
+        if (slot == mPresented || slot == mDrawn) {
+            return -1;
+        }
+        if (mSlots[slot] == null) {
+            final Bitmap template = mSlots[0];
+            mSlots[slot] = GifBitmapPool.getInstance().acquire(template.getWidth(), template.getHeight(), template.getConfig());
+        }
+        return slot;
+    }
+
+    synchronized Bitmap getSlot(int slot) {
+        return mSlots[slot];
+    }
+
+    /**
+     * @return buffer holding canvas left by the last rendered frame
+     */
+    synchronized Bitmap getLastRendered() {
+        return mSlots[mLastRendered];
+    }
+
+    /**
+     * Marks acquired slot as ready to be presented.
+     *
+     * @param delay      display time of the frame as returned by renderer
+     * @param frameIndex index of the frame following the rendered one
+     */
+    synchronized void commit(int slot, long delay, int frameIndex) {
+        mDelays[slot] = delay;
+        mFrameIndices[slot] = frameIndex;
+        mLastRendered = slot;
+        mReadyCount++;
+    }
+
+    /**
+     * Presents acquired slot right away, eg. after seeking. Frames which are ready are dropped,
+     * so the slot should be acquired after {@link #clear()}.
+     *
+     * @param delay      display time of the frame
+     * @param frameIndex index of the frame following the rendered one
+     */
+    synchronized void presentNow(int slot, long delay, int frameIndex) {
+        mDelays[slot] = delay;
+        mFrameIndices[slot] = frameIndex;
+        mPresented = slot;
+        mLastRendered = slot;
+        mReadyCount = 0;
+    }
+
+    /**
+     * Presents the oldest ready frame.
+     *
+     * @return false if there is no frame ready
+     */
+    synchronized boolean present() {
+        if (mReadyCount == 0) {
+            return false;
+        }
+        mPresented = (mPresented + 1) % mSlots.length;
+        mReadyCount--;
+        return true;
+    }
+
+    synchronized Bitmap getPresented() {
+        return mSlots[mPresented];
+    }
+
+    synchronized long getPresentedDelay() {
+        return mDelays[mPresented];
+    }
+
+    synchronized int getPresentedFrameIndex() {
+        return mFrameIndices[mPresented];
+    }
+
+    /**
+     * Drops frames which are ready but not presented yet, eg. after seeking. Rendering continues
+     * from the presented frame.
+     */
+    synchronized void clear() {
+        mReadyCount = 0;
+        mLastRendered = mPresented;
+    }
+
+    /**
+     * Protects presented buffer from being overwritten until the next call, which releases
+     * the buffer recorded before unless the same one is presented again.
+     *
+     * @return presented buffer
+     */
+    synchronized Bitmap recordDraw() {
+        mDrawn = mPresented;
+        return mSlots[mPresented];
+    }
+
+    /**
+     * Gives all the buffers, including the initial one, back to {@link GifBitmapPool}.
+     */
+    synchronized void recycle() {
+        final GifBitmapPool pool = GifBitmapPool.getInstance();
+        for (int i = 0; i < mSlots.length; i++) {
+            pool.release(mSlots[i]);
+            mSlots[i] = null;
+        }
+        mReadyCount = 0;
+    }
+}
@@ -0,0 +1,340 @@
+package com.zing.zalo.gifplayer;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes previews of many GIFs in parallel, using the same decoder as {@link GifDrawable}.
+ * It does not depend on Android, so it can run on plain JVM with the headless build of the
+ * native library, see {@code src/main/jni/Headless.mk}.<br>
+ * Native memory of the decoders running at once is bounded by a budget. Each GIF reserves its
+ * estimated memory before it is opened, and waits until enough of the budget is free.
+ * All methods are thread-safe.
+ */
+public final class GifBatchDecoder implements Closeable {
+    /**
+     * Estimated native memory per pixel of the logical screen: raster of color indices and
+     * backup of the canvas for frames disposed to previous.
+     */
+    private static final int NATIVE_BYTES_PER_PIXEL = 5;
+
+    static {
+        System.loadLibrary("gifplayer");
+    }
+
+    private final ExecutorService mExecutor;
+    private final long mMemoryBudget;
+    /**
+     * Bytes reserved by the running decoders, guarded by the decoder.
+     */
+    private long mReservedBytes;
+
+    /**
+     * @param threadCount  number of GIFs decoded in parallel
+     * @param memoryBudget maximum number of bytes of native memory used by the decoders at once
+     * @throws IllegalArgumentException if threadCount or memoryBudget is not positive
+     */
+    public GifBatchDecoder(int threadCount, long memoryBudget) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threadCount);
+        }
+        if (memoryBudget < 1) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+        }
+        mMemoryBudget = memoryBudget;
+        mExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "GifBatchDecoder-" + mThreadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Schedules decoding of the file.
+     *
+     * @param filePath     path to the GIF file
+     * @param frameCount   maximum number of frames in the preview, evenly spaced over the animation
+     * @param maxDimension maximum width and height of the frames, bigger GIFs are downscaled
+     *                     keeping aspect ratio, 0 keeps the original size
+     * @return preview, {@link Future#get()} throws {@link java.util.concurrent.ExecutionException}
+     * caused by {@link GifIOException} if file cannot be decoded or it does not fit in the budget
+     * @throws java.util.concurrent.RejectedExecutionException if decoder is closed
+     */
+    public Future<Preview> submit(final String filePath, final int frameCount, final int maxDimension) {
+        if (filePath == null) {
+            throw new NullPointerException("Input source is null");
+        }
+        return mExecutor.submit(new Callable<Preview>() {
+            @Override
+            public Preview call() throws Exception {
+                final byte[] header = new byte[10];
+                final InputStream stream = new FileInputStream(filePath);
+                final int headerLength;
+                try {
+                    headerLength = readFully(stream, header);
+                } finally {
+                    stream.close();
+                }
+                final long reserved = reserve(header, headerLength);
+                try {
+                    return decode(openFile(filePath, getMaxSize()), frameCount, maxDimension, reserved);
+                } finally {
+                    release(reserved);
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules decoding of the GIF data, which must not be modified until the preview is done.
+     *
+     * @see #submit(String, int, int)
+     */
+    public Future<Preview> submit(final byte[] bytes, final int frameCount, final int maxDimension) {
+        if (bytes == null) {
+            throw new NullPointerException("Input source is null");
+        }
+        return mExecutor.submit(new Callable<Preview>() {
+            @Override
+            public Preview call() throws Exception {
+                final long reserved = reserve(bytes, bytes.length);
+                try {
+                    return decode(openByteArray(bytes, getMaxSize()), frameCount, maxDimension, reserved);
+                } finally {
+                    release(reserved);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops accepting GIFs, already submitted ones are still decoded.
+     */
+    @Override
+    public void close() {
+        mExecutor.shutdown();
+    }
+
+    private int getMaxSize() {
+        return (int) Math.min(mMemoryBudget, Integer.MAX_VALUE);
+    }
+
+    private static int readFully(InputStream stream, byte[] buffer) throws IOException {
+        int length = 0;
+        while (length < buffer.length) {
+            final int read = stream.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Reserves memory estimated from the logical screen size, waiting until it is available.
+     * Data too short to contain the size reserves nothing, it fails to open anyway.
+     *
+     * @return number of reserved bytes
+     */
+    private long reserve(byte[] header, int length) throws GifIOException, InterruptedException {
+        if (length < 10) {
+            return 0;
+        }
+        final int width = (header[6] & 0xff) | (header[7] & 0xff) << 8;
+        final int height = (header[8] & 0xff) | (header[9] & 0xff) << 8;
+        final long bytes = (long) width * height * NATIVE_BYTES_PER_PIXEL;
+        if (bytes > mMemoryBudget) {
+            throw new GifIOException(GifError.D_GIF_ERR_EXCEED_SIZE_LIMIT.errorCode);
+        }
+        synchronized (this) {
+            while (mReservedBytes + bytes > mMemoryBudget) {
+                wait();
+            }
+            mReservedBytes += bytes;
+        }
+        return bytes;
+    }
+
+    private synchronized void release(long bytes) {
+        mReservedBytes -= bytes;
+        notifyAll();
+    }
+
+    private Preview decode(long gifInfoPtr, int frameCount, int maxDimension, long reserved) {
+        try {
+            final int[] metadata = new int[3];
+            getMetadata(gifInfoPtr, metadata);
+            // frames bigger than the logical screen enlarge it, such excess is accounted without waiting
+            final long excess = (long) metadata[0] * metadata[1] * NATIVE_BYTES_PER_PIXEL - reserved;
+            if (excess > 0) {
+                synchronized (this) {
+                    mReservedBytes += excess;
+                }
+            }
+            try {
+                return decodeFrames(gifInfoPtr, metadata, frameCount, maxDimension);
+            } finally {
+                if (excess > 0) {
+                    release(excess);
+                }
+            }
+        } finally {
+            free(gifInfoPtr);
+        }
+    }
+
+    private static Preview decodeFrames(long gifInfoPtr, int[] metadata, int frameCount, int maxDimension) {
+        final int sourceFrameCount = metadata[2];
+        final int width = metadata[0];
+        final int height = metadata[1];
+        if (maxDimension > 0 && (width > maxDimension || height > maxDimension)) {
+            if (width >= height) {
+                setTargetSize(gifInfoPtr, maxDimension, Math.max(1, (int) ((long) height * maxDimension / width)));
+            } else {
+                setTargetSize(gifInfoPtr, Math.max(1, (int) ((long) width * maxDimension / height)), maxDimension);
+            }
+            getMetadata(gifInfoPtr, metadata);
+        }
+        final int count = Math.max(1, Math.min(frameCount, sourceFrameCount));
+        final int[] frameIndices = new int[count];
+        final int[] durations = new int[count];
+        final int[][] frames = new int[count][];
+        for (int i = 0; i < count; i++) {
+            // ascending indices, so frames are composed incrementally
+            frameIndices[i] = (int) ((long) i * sourceFrameCount / count);
+            frames[i] = new int[metadata[0] * metadata[1]];
+            durations[i] = renderFrame(gifInfoPtr, frameIndices[i], frames[i]);
+            toArgb(frames[i]);
+        }
+        return new Preview(metadata[0], metadata[1], sourceFrameCount, frameIndices, durations, frames);
+    }
+
+    /**
+     * Converts pixels stored in R, G, B, A byte order to ints in ARGB order. Partially transparent
+     * pixels, left by area averaged downscaling in premultiplied form, are un-premultiplied.
+     */
+    private static void toArgb(int[] pixels) {
+        final boolean isLittleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+        for (int i = 0; i < pixels.length; i++) {
+            int pixel = pixels[i];
+            if (isLittleEndian) {
+                pixel = (pixel & 0xff00ff00) | (pixel & 0xff0000) >>> 16 | (pixel & 0xff) << 16;
+            } else {
+                pixel = pixel >>> 8 | pixel << 24;
+            }
+            final int alpha = pixel >>> 24;
+            if (alpha != 0 && alpha != 0xff) {
+                pixel = alpha << 24
+                        | unpremultiply(pixel >>> 16 & 0xff, alpha) << 16
+                        | unpremultiply(pixel >>> 8 & 0xff, alpha) << 8
+                        | unpremultiply(pixel & 0xff, alpha);
+            }
+            pixels[i] = pixel;
+        }
+    }
+
+    private static int unpremultiply(int component, int alpha) {
+        return Math.min(0xff, (component * 0xff + alpha / 2) / alpha);
+    }
+
+    private static native long openFile(String filePath, int maxSize) throws GifIOException;
+
+    private static native long openByteArray(byte[] bytes, int maxSize) throws GifIOException;
+
+    private static native void getMetadata(long gifInfoPtr, int[] metadata);
+
+    private static native void setTargetSize(long gifInfoPtr, int width, int height);
+
+    private static native int renderFrame(long gifInfoPtr, int index, int[] pixels);
+
+    private static native void free(long gifInfoPtr);
+
+    /**
+     * Decoded frames of one GIF.
+     */
+    public static final class Preview {
+        private final int mWidth;
+        private final int mHeight;
+        private final int mSourceFrameCount;
+        private final int[] mFrameIndices;
+        private final int[] mDurations;
+        private final int[][] mFrames;
+
+        Preview(int width, int height, int sourceFrameCount, int[] frameIndices, int[] durations, int[][] frames) {
+            mWidth = width;
+            mHeight = height;
+            mSourceFrameCount = sourceFrameCount;
+            mFrameIndices = frameIndices;
+            mDurations = durations;
+            mFrames = frames;
+        }
+
+        /**
+         * @return width of the frames, after downscaling
+         */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        /**
+         * @return height of the frames, after downscaling
+         */
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * @return number of frames of the whole animation
+         */
+        public int getSourceFrameCount() {
+            return mSourceFrameCount;
+        }
+
+        /**
+         * @return number of frames in the preview
+         */
+        public int getFrameCount() {
+            return mFrames.length;
+        }
+
+        /**
+         * @param n index of the frame in the preview
+         * @return index of the frame in the animation
+         */
+        public int getFrameIndex(int n) {
+            return mFrameIndices[n];
+        }
+
+        /**
+         * @param n index of the frame in the preview
+         * @return display duration of the frame in milliseconds
+         */
+        public int getDuration(int n) {
+            return mDurations[n];
+        }
+
+        /**
+         * @param n index of the frame in the preview
+         * @return pixels of the frame, row after row, as non-premultiplied ARGB ints like
+         * {@code BufferedImage.TYPE_INT_ARGB}
+         */
+        public int[] getPixels(int n) {
+            return mFrames[n];
+        }
+    }
+}
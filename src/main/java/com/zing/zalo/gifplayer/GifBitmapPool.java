@@ -0,0 +1,152 @@
+package com.zing.zalo.gifplayer;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Process-wide pool of frame buffers, bucketed by dimensions and config. Drawables take their
+ * buffers from the pool when GIF is loaded and give them back when they are recycled, so
+ * scrolling through many GIFs of the same size does not allocate and free large bitmaps.<br>
+ * Pool holds at most {@link #getMaxSize()} bytes, least recently released bitmaps are recycled
+ * first when that limit is exceeded. All methods are thread-safe.
+ */
+public final class GifBitmapPool {
+    private final HashMap<Long, ArrayDeque<Bitmap>> mBuckets = new HashMap<>();
+    /**
+     * Pooled bitmaps, least recently released first.
+     */
+    private final ArrayDeque<Bitmap> mReleaseOrder = new ArrayDeque<>();
+    private long mMaxSize;
+    private long mSize;
+
+    private GifBitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    @SuppressWarnings("StaticNonFinalField") //double-checked singleton initialization
+    private static volatile GifBitmapPool instance = null;
+
+    /**
+     * @return the pool, initially limited to 1/16 of the maximum heap size
+     */
+    public static GifBitmapPool getInstance() {
+        if (instance == null) {
+            synchronized (GifBitmapPool.class) {
+                if (instance == null) {
+                    instance = new GifBitmapPool(Runtime.getRuntime().maxMemory() / 16);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static long getKey(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+
+    private static long getSize(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Takes transparent bitmap from the pool or creates a new one if there is no pooled bitmap
+     * of given dimensions and config.
+     *
+     * @param width  width of the bitmap
+     * @param height height of the bitmap
+     * @param config config of the bitmap
+     * @return mutable bitmap, it may be given back by {@link #release(Bitmap)}
+     * @throws OutOfMemoryError if new bitmap cannot be allocated
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = null;
+        synchronized (this) {
+            final long key = getKey(width, height, config);
+            final ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+            // bitmaps might have been recycled by their former users
+            while (bitmap == null && bucket != null && !bucket.isEmpty()) {
+                final Bitmap pooled = bucket.pollLast();
+                mReleaseOrder.removeLastOccurrence(pooled);
+                mSize -= getSize(pooled);
+                if (!pooled.isRecycled()) {
+                    bitmap = pooled;
+                }
+            }
+            if (bucket != null && bucket.isEmpty()) {
+                mBuckets.remove(key);
+            }
+        }
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Gives the bitmap back to the pool, it must not be used by the caller afterwards.
+     * Bitmaps which are recycled, immutable or already pooled are ignored.
+     *
+     * @param bitmap bitmap to be reused, may be null
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || mReleaseOrder.contains(bitmap)) {
+            return;
+        }
+        final long key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            mBuckets.put(key, bucket);
+        }
+        bucket.addLast(bitmap);
+        mReleaseOrder.addLast(bitmap);
+        mSize += getSize(bitmap);
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Changes the limit of pool size, bitmaps exceeding new limit are recycled.
+     *
+     * @param maxSize maximum number of bytes held by pooled bitmaps, 0 disables pooling
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return number of bytes held by pooled bitmaps
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    /**
+     * Recycles all the pooled bitmaps, eg. when system is running low on memory.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private void trimToSize(long maxSize) {
+        while (mSize > maxSize) {
+            final Bitmap bitmap = mReleaseOrder.pollFirst();
+            final long key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            final ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+            bucket.removeFirstOccurrence(bitmap);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(key);
+            }
+            mSize -= getSize(bitmap);
+            bitmap.recycle();
+        }
+    }
+}
@@ -12,6 +12,7 @@ import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffColorFilter;
+import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Shader;
@@ -21,7 +22,7 @@ import android.os.Build;
 import android.os.StrictMode;
 import android.view.View;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -32,7 +33,6 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import static com.zing.zalo.gifplayer.InvalidationHandler.MSG_TYPE_ANIMATION_COMPLETED;
-import static com.zing.zalo.gifplayer.InvalidationHandler.MSG_TYPE_INVALIDATION;
 
 /**
  * A {@link Drawable} which can be used to hold GIF images, especially animations.
@@ -52,11 +52,21 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
     public static final int MODE_CHAT = 0;
     public static final int MODE_FEED = 1;
     public static final int MODE_INPUTSTREAM = 2;
+    public static final int MODE_INCREMENTAL = 3;
     ScheduledThreadPoolExecutor mExecutor;
 
     volatile boolean mIsRunning = false;
     long mNextFrameRenderTime = -1;
     public String gifPath;
+    /**
+     * Paint replacing pixels of the destination, alpha included, used to copy frames between buffers.
+     */
+    static final Paint COPY_PAINT = new Paint();
+
+    static {
+        COPY_PAINT.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+    }
+
     final Rect mDstRect = new Rect();
     /**
      * Paint used to draw on a Canvas
@@ -76,6 +86,7 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
     PorterDuffColorFilter mTintFilter;
     PorterDuff.Mode mTintMode;
     InvalidationHandler mInvalidationHandler;
+    GifFrameCoordinator mFrameCoordinator;
 
     Rect mSrcRect;
     ScheduledFuture<?> mSchedule;
@@ -87,6 +98,36 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
     volatile boolean mIsAnimationCompleted;
     volatile boolean mIsDecoded;
     int mMaxGifSize = GIF_MAX_SIZE_CHAT;
+    int mSnapshotInterval;
+    int mSnapshotBudget;
+    int mAnimationCacheBudget;
+    int mTargetWidth, mTargetHeight;
+    boolean mTargetAreaAveraged;
+    /**
+     * Data appended before the header has arrived completely, null afterwards.
+     */
+    ByteArrayOutputStream mPendingData;
+    int mDecodeAheadDepth;
+    boolean mRgb565Allowed;
+    boolean mRealTimePlayback;
+    volatile DecodeAheadRing mDecodeAheadRing;
+    /**
+     * Caller's buffer holding the canvas left by the last composed frame, null if it is held by
+     * the drawable's own buffer. Guarded by the handle lock.
+     */
+    WeakReference<Object> mFrameTarget;
+    /**
+     * Buffer bound to the rounded corners shader.
+     */
+    Bitmap mShaderBitmap;
+    boolean mPartialInvalidation;
+    final int[] mDirtyBounds = new int[4];
+    /**
+     * Area changed by frames rendered since the last invalidation, in coordinates of the bounds.
+     * Guarded by itself.
+     */
+    final Rect mInvalidationRect = new Rect();
+    boolean mInvalidateAll;
 
     int mCurrentMode = MODE_CHAT;
 
@@ -100,6 +141,8 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
      * Only metadata is read, no graphic data is decoded here.
      * In practice can be called from main thread. However it will violate
      * {@link StrictMode} policy if disk reads detection is enabled.<br>
+     * File is memory mapped while the drawable is open, so it should be replaced by renaming
+     * a new file over it rather than rewritten in place.
      *
      * @param filePath path to the GIF file
      * @throws IOException          when opening failed
@@ -108,8 +151,9 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
     public GifDrawable(String filePath, int maxSize) {
         mMaxGifSize = maxSize;
         gifPath = filePath;
-        mExecutor = GifRenderingExecutor.getInstance();
+        mExecutor = GifRenderingExecutor.getInstance().acquireLane();
         mInvalidationHandler = new InvalidationHandler(this);
+        mFrameCoordinator = GifFrameCoordinator.getInstance();
     }
 
     /**
@@ -122,24 +166,21 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
     public GifDrawable(File file, int maxSize) {
         mMaxGifSize = maxSize;
         gifPath = file.getPath();
-        mExecutor = GifRenderingExecutor.getInstance();
+        mExecutor = GifRenderingExecutor.getInstance().acquireLane();
         mInvalidationHandler = new InvalidationHandler(this);
+        mFrameCoordinator = GifFrameCoordinator.getInstance();
     }
 
     public GifDrawable(){
-        mExecutor = GifRenderingExecutor.getInstance();
+        mExecutor = GifRenderingExecutor.getInstance().acquireLane();
         mInvalidationHandler = new InvalidationHandler(this);
+        mFrameCoordinator = GifFrameCoordinator.getInstance();
     }
 
     void init() {
         try {
             mNativeInfoHandle = new GifInfoHandle(gifPath, false, mMaxGifSize);
-            mIsDecoded = true;
-            mBuffer = Bitmap.createBitmap(mNativeInfoHandle.getWidth(), mNativeInfoHandle.getHeight(), Bitmap.Config.ARGB_8888);
-            mSrcRect = new Rect(0, 0, mNativeInfoHandle.getWidth(), mNativeInfoHandle.getHeight());
-            mScaledWidth = mNativeInfoHandle.getWidth();
-            mScaledHeight = mNativeInfoHandle.getHeight();
-            setLoopCount(0);
+            setUpHandle();
         } catch (OutOfMemoryError e) {
             e.printStackTrace();
         } catch (Throwable e) {
@@ -147,26 +188,114 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
         }
     }
 
+    /**
+     * Reads GIF from given stream. Stream content is copied into native memory once and
+     * the stream is closed afterwards, so it does not need to support marking.
+     *
+     * @param is stream to read from
+     */
     public void read(InputStream is){
         try{
-            mNativeInfoHandle = new GifInfoHandle(new BufferedInputStream(is), false, mMaxGifSize);
-            mIsDecoded = true;
-            mBuffer = Bitmap.createBitmap(mNativeInfoHandle.getWidth(), mNativeInfoHandle.getHeight(), Bitmap.Config.ARGB_8888);
-            mSrcRect = new Rect(0, 0, mNativeInfoHandle.getWidth(), mNativeInfoHandle.getHeight());
-            mScaledWidth = mNativeInfoHandle.getWidth();
-            mScaledHeight = mNativeInfoHandle.getHeight();
-            setLoopCount(0);
+            mNativeInfoHandle = GifInfoHandle.spoolStream(is, false, mMaxGifSize);
+            setUpHandle();
         }catch (Throwable ex){
             ex.printStackTrace();
         }
     }
 
+    /**
+     * Appends data of GIF which is still arriving, eg. being downloaded. Animation starts as soon
+     * as the first frame has arrived and waits at the last received frame until the following one
+     * arrives. Growing file or buffer can be followed by appending its new bytes only.
+     * Drawable must not be used with other sources.
+     *
+     * @param bytes  array holding the data
+     * @param offset position of the data in the array
+     * @param length number of bytes to append
+     * @throws IndexOutOfBoundsException if offset or length is out of array bounds
+     */
+    public void appendData(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || length > bytes.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        try {
+            if (mCurrentMode != MODE_INCREMENTAL) {
+                mCurrentMode = MODE_INCREMENTAL;
+                mPendingData = new ByteArrayOutputStream();
+            }
+            if (mPendingData != null) {
+                mPendingData.write(bytes, offset, length);
+                final byte[] data = mPendingData.toByteArray();
+                final int headerLength = GifInfoHandle.getHeaderLength(data, data.length);
+                if (headerLength < 0 || data.length < headerLength) {
+                    return;
+                }
+                mPendingData = null;
+                mNativeInfoHandle = GifInfoHandle.openGrowing(data, data.length, mMaxGifSize);
+                setUpHandle();
+            } else if (mNativeInfoHandle != null) {
+                final int frameCount = mNativeInfoHandle.getNumberOfFrames();
+                mNativeInfoHandle.appendData(bytes, offset, length);
+                // loop count is declared together with the first frame
+                if (frameCount == 0 && mNativeInfoHandle.getNumberOfFrames() > 0) {
+                    setLoopCount(0);
+                }
+            }
+        } catch (Throwable ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Appends remaining bytes of the buffer, see {@link #appendData(byte[], int, int)}.
+     * Buffer position is moved to its limit.
+     *
+     * @param buffer buffer holding the data
+     */
+    public void appendData(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        appendData(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Marks appended data as complete, animation then loops over all the frames received.
+     * Incomplete trailing frame, eg. of interrupted download, is discarded.
+     */
+    public void finishData() {
+        mPendingData = null;
+        if (mCurrentMode == MODE_INCREMENTAL && mNativeInfoHandle != null) {
+            mNativeInfoHandle.finishData();
+        }
+    }
+
+    void setUpHandle() {
+        mIsDecoded = true;
+        if (mTargetWidth > 0 && mTargetHeight > 0)
+            mNativeInfoHandle.setTargetSize(mTargetWidth, mTargetHeight, mTargetAreaAveraged);
+        final Bitmap.Config config = mRgb565Allowed && (mNativeInfoHandle.isOpaque() || mNativeInfoHandle.isAnimationOpaque())
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        mBuffer = GifBitmapPool.getInstance().acquire(mNativeInfoHandle.getWidth(), mNativeInfoHandle.getHeight(), config);
+        mSrcRect = new Rect(0, 0, mNativeInfoHandle.getWidth(), mNativeInfoHandle.getHeight());
+        mScaledWidth = mNativeInfoHandle.getWidth();
+        mScaledHeight = mNativeInfoHandle.getHeight();
+        if (mDecodeAheadDepth > 0)
+            mDecodeAheadRing = new DecodeAheadRing(mBuffer, mDecodeAheadDepth);
+        setLoopCount(0);
+        if (mSnapshotInterval > 0)
+            mNativeInfoHandle.setSnapshotCache(mSnapshotInterval, mSnapshotBudget);
+        if (mAnimationCacheBudget > 0)
+            mNativeInfoHandle.setAnimationCache(mAnimationCacheBudget);
+        if (mRealTimePlayback)
+            mNativeInfoHandle.setRealTimePlayback(true);
+    }
+
     public void setParentView(View view) {
         parentView = new WeakReference<View>(view);
     }
 
     /**
-     * Frees any memory allocated native way.
+     * Frees any memory allocated native way and gives frame buffers back to {@link GifBitmapPool}.
      * Operation is irreversible. After this call, nothing will be drawn.
      * This method is idempotent, subsequent calls have no effect.
      * Like {@link Bitmap#recycle()} this is an advanced call and
@@ -175,8 +304,12 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
     public void recycle() {
         try {
             shutdown();
-            if (mBuffer != null)
-                mBuffer.recycle();
+            // ring holds the buffer as one of its slots
+            if (mDecodeAheadRing != null)
+                mDecodeAheadRing.recycle();
+            else
+                GifBitmapPool.getInstance().release(mBuffer);
+            mDecodeAheadRing = null;
             mBuffer = null;
         }catch (Exception ex){
             ex.printStackTrace();
@@ -187,7 +320,7 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
         try {
             mIsDecoded = false;
             mIsRunning = false;
-            mInvalidationHandler.removeMessages(MSG_TYPE_INVALIDATION);
+            mFrameCoordinator.cancelInvalidation(this);
             if (mNativeInfoHandle != null)
                 mNativeInfoHandle.recycle();
             mNativeInfoHandle = null;
@@ -289,7 +422,7 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
 
     void waitForPendingRenderTask() {
         try {
-            mInvalidationHandler.removeMessages(MSG_TYPE_INVALIDATION);
+            mFrameCoordinator.cancelInvalidation(this);
             if (mSchedule != null) {
                 mSchedule.cancel(false);
             }
@@ -306,11 +439,15 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
 
     @Override
     public int getDelay(int n) {
-        int delay = -1;
-        if ((n >= 0) && (n < getFrameCount())) {
-            delay = getFrameDuration(n);
+        final GifInfoHandle handle = mNativeInfoHandle;
+        if (handle == null)
+            return -1;
+        // single snapshot, so frame count cannot change between the check and the lookup
+        final GifMetadata metadata = handle.getMetadata();
+        if ((n >= 0) && (n < metadata.getFrameCount())) {
+            return metadata.getFrameDuration(n);
         }
-        return delay;
+        return -1;
     }
 
     /**
@@ -350,6 +487,118 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
             mNativeInfoHandle.setLoopCount(loopCount);
     }
 
+    /**
+     * Decodes frames directly at given size instead of the original one, which saves memory
+     * and drawing time when the GIF is displayed smaller than its size. Has effect only if called
+     * before the GIF is loaded. Aspect ratio is not preserved, sizes are never increased.
+     *
+     * @param width        target width in pixels
+     * @param height       target height in pixels
+     * @param areaAveraged true to average colors of all covered pixels (smoother, slower),
+     *                     false to pick single pixel
+     */
+    public void setTargetSize(int width, int height, boolean areaAveraged) {
+        mTargetWidth = width;
+        mTargetHeight = height;
+        mTargetAreaAveraged = areaAveraged;
+    }
+
+    /**
+     * Enables composing up to {@code depth} frames ahead of their display time in the background,
+     * so slow frames do not delay the display and presenting a frame only swaps the buffers.
+     * Each frame composed ahead takes a buffer of the frame size, plus one more buffer is used
+     * for the frame which may still be drawn. Has effect only if called before the GIF is loaded.
+     *
+     * @param depth maximum number of frames composed ahead, 0 disables it
+     */
+    public void setDecodeAhead(int depth) {
+        mDecodeAheadDepth = depth;
+    }
+
+    /**
+     * Allows frame buffers with {@link Bitmap.Config#RGB_565} config for GIFs without any
+     * transparent pixel. Such buffers take half of the memory and frames are composed directly
+     * in 16-bit form, at the cost of reduced color depth. GIFs which may be transparent keep using
+     * {@link Bitmap.Config#ARGB_8888}. Has effect only if called before the GIF is loaded.
+     *
+     * @param allowed true to use 16-bit buffers for opaque GIFs
+     */
+    public void setRgb565Allowed(boolean allowed) {
+        mRgb565Allowed = allowed;
+    }
+
+    /**
+     * Makes the parent view invalidated only in the area changed by each frame, instead of
+     * as a whole. The area is given in coordinates of the drawable bounds, so it can be used
+     * only if the bounds are expressed in coordinates of the parent view, eg. when the view draws
+     * the drawable itself without translation. Frames composed ahead, see
+     * {@link #setDecodeAhead(int)}, invalidate the whole view.
+     *
+     * @param enabled true to invalidate only the changed area
+     */
+    public void setPartialInvalidation(boolean enabled) {
+        mPartialInvalidation = enabled;
+    }
+
+    /**
+     * Makes the animation keep wall clock time on devices which render frames slower than their
+     * durations. Frames whose display time has passed are composed without being presented, so
+     * eg. 3 second animation takes 3 seconds instead of being played in slow motion. Frames are
+     * skipped only within a loop, the last frame of each loop is always presented. Frames composed
+     * ahead, see {@link #setDecodeAhead(int)}, are all presented.
+     *
+     * @param enabled true to skip late frames
+     * @see #getDroppedFrameCount()
+     */
+    public void setRealTimePlayback(boolean enabled) {
+        mRealTimePlayback = enabled;
+        if (mNativeInfoHandle != null)
+            mNativeInfoHandle.setRealTimePlayback(enabled);
+    }
+
+    /**
+     * Returns number of frames skipped to keep wall clock time, see {@link #setRealTimePlayback(boolean)}.
+     * If drawable is recycled 0 is returned.
+     *
+     * @return number of frames composed without being presented
+     */
+    public int getDroppedFrameCount() {
+        final GifInfoHandle handle = mNativeInfoHandle;
+        return handle != null ? handle.getDroppedFrameCount() : 0;
+    }
+
+    /**
+     * Enables cache of composited frames taken every {@code interval} frames during playback and
+     * seeking. Later seeks, {@link #getFrame(int)} calls and state restores start from the nearest
+     * cached frame, so they decode at most {@code interval} frames.
+     * Cache is empty initially and it is filled as the animation is played or seeked.
+     *
+     * @param interval distance between cached frames, 0 disables cache
+     * @param maxBytes upper limit of native memory used by cached frames
+     */
+    public void setSnapshotCache(int interval, int maxBytes) {
+        mSnapshotInterval = interval;
+        mSnapshotBudget = maxBytes;
+        if (mNativeInfoHandle != null)
+            mNativeInfoHandle.setSnapshotCache(interval, maxBytes);
+    }
+
+    /**
+     * Enables cache of all the composited frames, filled during the first loop of the animation.
+     * Next loops, seeks and {@link #getFrame(int)} calls are served from the cache without decoding.
+     * Frames are stored run-length encoded or, if they have at most 256 colors, as 8-bit indices
+     * to their palettes, expanded to ARGB when drawn. So cached frame usually takes at most quarter
+     * of its decoded size. If the cache exceeds {@code maxBytes} it is dropped and frames are
+     * decoded as if it was disabled.
+     *
+     * @param maxBytes upper limit of native memory used by cached frames, 0 disables cache
+     */
+    public void setAnimationCache(int maxBytes) {
+        mAnimationCacheBudget = maxBytes;
+        if (mNativeInfoHandle != null)
+            mNativeInfoHandle.setAnimationCache(maxBytes);
+    }
+
     /**
      * Gets the image contents of frame n.
      *
@@ -357,30 +606,203 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
      */
     @Override
     public Bitmap getFrame(int n){
-        Bitmap bitmap = null;
+        return getFrame(n, false);
+    }
+
+    /**
+     * Gets the image contents of frame n.
+     * If isReuse is true, frame is copied into a bitmap taken from {@link GifBitmapPool}, which
+     * may be given back to the pool when it is not needed anymore.
+     *
+     * @return BufferedBitmap representation of frame, or null if n is invalid.
+     */
+    @Override
+    public Bitmap getFrame(int n, boolean isReuse) {
+        if (!isReuse) {
+            if (seekToFrameInBuffer(n))
+                return getCurrentFrame();
+            return null;
+        }
+        return getFrame(n, null);
+    }
+
+    /**
+     * Gets the image contents of frame n, copied into the given bitmap if it has the same
+     * dimensions as the frame and it is mutable. Otherwise bitmap from {@link GifBitmapPool} is used.
+     * All the pixels of the bitmap are replaced, so none of its previous content shows through
+     * transparent areas of the frame.
+     *
+     * @param reusable bitmap to be overwritten, may be null
+     * @return bitmap holding the frame, or null if n is invalid
+     */
+    public Bitmap getFrame(int n, Bitmap reusable) {
+        final GifInfoHandle handle = mNativeInfoHandle;
+        if (handle == null)
+            return null;
         try {
-            if (getFrameCount() <= 0)
-                return bitmap;
-            n = n % getFrameCount();
-            if (mNativeInfoHandle != null) {
-                mNativeInfoHandle.seekToFrame(n, mBuffer);
-                bitmap = getCurrentFrame();
+            // playback and other seeks must not replace the frame before it is copied
+            synchronized (handle) {
+                if (!seekToFrameInBuffer(n))
+                    return null;
+                final Bitmap buffer = mBuffer;
+                if (reusable == null || reusable.isRecycled() || !reusable.isMutable()
+                        || reusable.getWidth() != buffer.getWidth() || reusable.getHeight() != buffer.getHeight()) {
+                    reusable = GifBitmapPool.getInstance().acquire(buffer.getWidth(), buffer.getHeight(), buffer.getConfig());
+                }
+                new Canvas(reusable).drawBitmap(buffer, 0, 0, COPY_PAINT);
+            }
+            return reusable;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+    boolean seekToFrameInBuffer(int n) {
+        try {
+            final int frameCount = getFrameCount();
+            if (frameCount <= 0)
+                return false;
+            n = n % frameCount;
+            if (mNativeInfoHandle != null && mBuffer != null) {
+                synchronized (mNativeInfoHandle) {
+                    final DecodeAheadRing ring = mDecodeAheadRing;
+                    if (ring == null) {
+                        attachBuffer(mNativeInfoHandle, null);
+                        mNativeInfoHandle.seekToFrame(n, mBuffer);
+                        return true;
+                    }
+                    return seekToFrameInRing(mNativeInfoHandle, ring, n);
+                }
             }
         }catch (Exception ex){
             ex.printStackTrace();
         }
-        return bitmap;
+        return false;
     }
 
     /**
-     * Gets the image contents of frame n.
-     * GifDecoder doesn't care isReuse
+     * Composes frame n into a free slot of the ring and presents it, since presented buffer may be
+     * drawn meanwhile. Frames composed ahead follow the previous position, so they are dropped.
+     * Must be called with the handle lock held.
      *
-     * @return BufferedBitmap representation of frame, or null if n is invalid.
+     * @return false if there is no free slot
      */
-    @Override
-    public Bitmap getFrame(int n, boolean isReuse) {
-        return getFrame(n);
+    private boolean seekToFrameInRing(GifInfoHandle handle, DecodeAheadRing ring, int n) {
+        final Bitmap lastRendered = ring.getLastRendered();
+        ring.clear();
+        final int slot = ring.acquireSlot();
+        if (slot < 0) {
+            // position follows the dropped frames, whose canvas is gone, so composition starts over
+            handle.reset();
+            return false;
+        }
+        final Bitmap buffer = ring.getSlot(slot);
+        attachBuffer(handle, null);
+        // composition continues from the canvas left by the last rendered frame
+        if (buffer != lastRendered)
+            new Canvas(buffer).drawBitmap(lastRendered, 0, 0, COPY_PAINT);
+        handle.seekToFrame(n, buffer);
+        ring.presentNow(slot, handle.getFrameDuration(n), handle.getCurrentFrameIndex());
+        mBuffer = buffer;
+        return true;
+    }
+
+    /**
+     * Composes frame n straight into the given array, without allocating any bitmap. Each int holds
+     * bytes in R, G, B, A order of the native byte order, eg. 0xAABBGGRR on little endian devices.
+     * Consecutive frames composed into the same array are decoded incrementally, so the array
+     * should not be modified between such calls. Moves animation position like {@link #getFrame(int)}.
+     *
+     * @param n      index of the frame, taken modulo frame count
+     * @param pixels array receiving the canvas, row after row
+     * @param stride distance between starts of rows, at least {@link #getIntrinsicWidth()}
+     * @return true if frame has been composed, false if drawable is recycled or it has no frames
+     * @throws IllegalArgumentException  if stride is less than width
+     * @throws IndexOutOfBoundsException if array is too small
+     */
+    public boolean getFrame(int n, int[] pixels, int stride) {
+        final GifInfoHandle handle = mNativeInfoHandle;
+        final int frameCount = getFrameCount();
+        if (handle == null || frameCount <= 0)
+            return false;
+        synchronized (handle) {
+            detachBuffer(handle, pixels);
+            handle.seekToFrame(n % frameCount, pixels, stride);
+        }
+        return true;
+    }
+
+    /**
+     * Composes frame n straight into the given direct buffer, starting at its index 0. Pixels are
+     * stored as 4 bytes in R, G, B, A order or, if isRgb565 is true, as native endian shorts in
+     * RGB_565 format. Otherwise it behaves like {@link #getFrame(int, int[], int)}.
+     *
+     * @param buffer   direct buffer receiving the canvas, row after row
+     * @param stride   distance between starts of rows in pixels, at least {@link #getIntrinsicWidth()}
+     * @param isRgb565 true for 2 bytes per pixel, false for 4 bytes per pixel
+     * @throws IllegalArgumentException if buffer is not direct, it is read only or stride is less than width
+     */
+    public boolean getFrame(int n, ByteBuffer buffer, int stride, boolean isRgb565) {
+        final GifInfoHandle handle = mNativeInfoHandle;
+        final int frameCount = getFrameCount();
+        if (handle == null || frameCount <= 0)
+            return false;
+        synchronized (handle) {
+            detachBuffer(handle, buffer);
+            handle.seekToFrame(n % frameCount, buffer, stride, isRgb565);
+        }
+        return true;
+    }
+
+    /**
+     * Opens cursor rendering frames of this GIF independently of the playback, so frames can be
+     * extracted on another thread without stalling the animation or moving its position.
+     *
+     * @return new cursor, it should be recycled when it is not needed anymore
+     * @throws IllegalStateException         if drawable is recycled or GIF has not been loaded yet
+     * @throws UnsupportedOperationException if GIF is loaded from {@link InputStream} without
+     *                                       spooling or its data has not arrived completely yet
+     * @see GifFrameCursor
+     */
+    public GifFrameCursor openCursor() {
+        final GifInfoHandle handle = mNativeInfoHandle;
+        if (handle == null) {
+            throw new IllegalStateException("GIF is not loaded");
+        }
+        return new GifFrameCursor(handle.openCursor());
+    }
+
+    /**
+     * Makes frames composed into the caller's buffer. Composition starts over from the first frame
+     * if the last one went elsewhere, since this buffer does not hold its canvas.
+     * Must be called with the handle lock held.
+     */
+    private void detachBuffer(GifInfoHandle handle, Object target) {
+        if (mDecodeAheadRing != null)
+            mDecodeAheadRing.clear();
+        if (mFrameTarget == null || mFrameTarget.get() != target) {
+            handle.reset();
+            mFrameTarget = new WeakReference<>(target);
+        }
+    }
+
+    /**
+     * Recomposes the current frame into the drawable's buffer if frames have been composed into
+     * the caller's one since, so playback continues over the right canvas.
+     * Must be called with the handle lock held.
+     *
+     * @param buffer buffer to be recomposed, free slot if decode ahead ring is used, null if the
+     *               caller composes the desired frame itself
+     */
+    private void attachBuffer(GifInfoHandle handle, Bitmap buffer) {
+        if (mFrameTarget == null)
+            return;
+        mFrameTarget = null;
+        final int nextIndex = handle.getCurrentFrameIndex();
+        handle.reset();
+        if (buffer != null && nextIndex > 0)
+            handle.seekToFrame(nextIndex - 1, buffer);
     }
 
     @Override
@@ -479,7 +901,9 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
 
     @Override
     public void draw(Canvas canvas) {
-        if (mRenderingBitmap != null) {
+        final DecodeAheadRing ring = mDecodeAheadRing;
+        final Bitmap bitmap = ring != null ? ring.recordDraw() : mBuffer;
+        if (mRenderingBitmap != null && bitmap != null) {
             final boolean clearColorFilter;
             if (mIsRunning && mTintFilter != null && mPaint.getColorFilter() == null) {
                 mPaint.setColorFilter(mTintFilter);
@@ -488,8 +912,10 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
                 clearColorFilter = false;
             }
             if (mPaint.getShader() == null) {
-                canvas.drawBitmap(mBuffer, null, mDstRect, mPaint);
+                canvas.drawBitmap(bitmap, null, mDstRect, mPaint);
             } else {
+                if (bitmap != mShaderBitmap)
+                    bindShader(bitmap);
                 canvas.drawRoundRect(mDstRectF, mCornerRadius, mCornerRadius, mPaint);
             }
 
@@ -505,7 +931,7 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
             }
         }
         if (mIsRunning && !mIsAnimationCompleted && mNextFrameRenderTime != Integer.MIN_VALUE) {
-            long renderDelay = Math.max(mNextFrameRenderTime - System.currentTimeMillis(), 0);
+            long renderDelay = Math.max(mNextFrameRenderTime - mFrameCoordinator.uptimeMillis(), 0);
 
             mNextFrameRenderTime = Integer.MIN_VALUE;
             mExecutor.remove(loadFrameRunnable);
@@ -759,6 +1185,19 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
         } else {
             bitmapShader = null;
         }
+        mShaderBitmap = mBuffer;
+        mPaint.setShader(bitmapShader);
+    }
+
+    /**
+     * Replaces shader by the one drawing given buffer, keeping its transformation.
+     */
+    void bindShader(Bitmap bitmap) {
+        final Matrix shaderMatrix = new Matrix();
+        mPaint.getShader().getLocalMatrix(shaderMatrix);
+        final Shader bitmapShader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        bitmapShader.setLocalMatrix(shaderMatrix);
+        mShaderBitmap = bitmap;
         mPaint.setShader(bitmapShader);
     }
 
@@ -811,7 +1250,13 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
         @Override
         public void run() {
             if (mNativeInfoHandle != null) {
-                if (mNativeInfoHandle.reset()) {
+                final boolean isReset;
+                synchronized (mNativeInfoHandle) {
+                    isReset = mNativeInfoHandle.reset();
+                    if (isReset && mDecodeAheadRing != null)
+                        mDecodeAheadRing.clear();
+                }
+                if (isReset) {
                     start();
                 }
             }
@@ -827,28 +1272,104 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
         }
     };
 
+    Runnable decodeAheadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final DecodeAheadRing ring = mDecodeAheadRing;
+            // single frame per task, so frames of other drawables sharing the executor are not delayed
+            if (mIsRunning && ring != null && !isRecycled() && decodeAhead(ring)) {
+                mExecutor.execute(this);
+            }
+        }
+    };
+
+    /**
+     * Composes the next frame into a free slot of the ring.
+     *
+     * @return false if the ring is full
+     */
+    boolean decodeAhead(DecodeAheadRing ring) {
+        final GifInfoHandle handle = mNativeInfoHandle;
+        if (handle == null) {
+            return false;
+        }
+        // handle lock keeps seeking and resetting from interleaving with composing
+        synchronized (handle) {
+            final int slot = ring.acquireSlot();
+            if (slot < 0) {
+                return false;
+            }
+            final Bitmap buffer = ring.getSlot(slot);
+            final long delay;
+            if (mFrameTarget != null) {
+                // last rendered slot does not hold the canvas, current frame is recomposed into the free one
+                attachBuffer(handle, buffer);
+                delay = handle.renderFrame(buffer);
+            } else {
+                delay = handle.renderFrameAhead(ring.getLastRendered(), buffer);
+            }
+            ring.commit(slot, delay, handle.getCurrentFrameIndex());
+        }
+        return true;
+    }
+
+    /**
+     * Renders the next frame into the buffer or presents the one composed ahead.
+     *
+     * @return invalidation delay, negative if it is unknown
+     */
+    long renderNextFrame() {
+        final DecodeAheadRing ring = mDecodeAheadRing;
+        final GifInfoHandle handle = mNativeInfoHandle;
+        if (ring == null) {
+            synchronized (handle) {
+                attachBuffer(handle, mBuffer);
+                return handle.renderFrame(mBuffer);
+            }
+        }
+        final long delay;
+        // seeking presents frames as well, so presented buffer is taken under the same lock
+        synchronized (handle) {
+            if (!ring.present()) {
+                decodeAhead(ring);
+                ring.present();
+            }
+            mBuffer = ring.getPresented();
+            delay = ring.getPresentedDelay();
+        }
+        mExecutor.execute(decodeAheadRunnable);
+        return delay;
+    }
+
+    int getPresentedFrameIndex() {
+        final DecodeAheadRing ring = mDecodeAheadRing;
+        return ring != null ? ring.getPresentedFrameIndex() : getCurrentFrameIndex();
+    }
+
     private final int MAX_RENDER_DELAY_VALUE = 2000;
     private final int DEFAULT_RENDER_DELAY_VALUE = 200;
     void loadFrame() {
         if (mIsRunning) {
             if (!mIsDecoded) {
-                if(mCurrentMode != MODE_INPUTSTREAM) {
+                if(mCurrentMode != MODE_INPUTSTREAM && mCurrentMode != MODE_INCREMENTAL) {
                     init();
                 }
             }
 
             if (mNativeInfoHandle != null && mBuffer != null) {
                 try {
-                    long invalidationDelay = Math.min(mNativeInfoHandle.renderFrame(mBuffer), MAX_RENDER_DELAY_VALUE);
+                    long invalidationDelay = Math.min(renderNextFrame(), MAX_RENDER_DELAY_VALUE);
                     // If delay value is invalid, just delay 200ms
                     if (invalidationDelay < 0)
                         invalidationDelay = DEFAULT_RENDER_DELAY_VALUE;
 
                     if (invalidationDelay >= 0) {
                         mRenderingBitmap = mBuffer;
-                        mNextFrameRenderTime = System.currentTimeMillis() + invalidationDelay;
+                        if (mPartialInvalidation)
+                            addRenderedArea();
+                        mNextFrameRenderTime = mFrameCoordinator.uptimeMillis() + invalidationDelay;
                         // The first frame is 1, the last frame is 0. WTF
-                        if (mListener != null && getCurrentFrameIndex() == 0 && !GIF_AUTO_REPEAT) {
+                        if (mListener != null && getPresentedFrameIndex() == 0 && !GIF_AUTO_REPEAT) {
                             mIsAnimationCompleted = true;
                             mInvalidationHandler.sendEmptyMessage(MSG_TYPE_ANIMATION_COMPLETED);
                         }
@@ -863,11 +1384,51 @@ public class GifDrawable extends Drawable implements Animatable, IAnimationDecod
                 }
             }
             if (mIsRunning){
-                mInvalidationHandler.sendEmptyMessage(MSG_TYPE_INVALIDATION);
+                mFrameCoordinator.requestInvalidation(this);
             }
         }
     }
 
+    /**
+     * Adds area changed by the rendered frame, scaled to the bounds, to the area to be invalidated.
+     * Filtering spreads the change to the neighbouring pixels, so area is enlarged by one pixel.
+     */
+    void addRenderedArea() {
+        final Bitmap buffer = mBuffer;
+        if (mDecodeAheadRing != null || buffer == null || !mNativeInfoHandle.getDirtyRect(mDirtyBounds)) {
+            synchronized (mInvalidationRect) {
+                mInvalidateAll = true;
+            }
+            return;
+        }
+        final Rect bounds = mDstRect;
+        final float scaleX = (float) bounds.width() / buffer.getWidth();
+        final float scaleY = (float) bounds.height() / buffer.getHeight();
+        final int left = bounds.left + (int) Math.floor(mDirtyBounds[0] * scaleX) - 1;
+        final int top = bounds.top + (int) Math.floor(mDirtyBounds[1] * scaleY) - 1;
+        final int right = bounds.left + (int) Math.ceil(mDirtyBounds[2] * scaleX) + 1;
+        final int bottom = bounds.top + (int) Math.ceil(mDirtyBounds[3] * scaleY) + 1;
+        synchronized (mInvalidationRect) {
+            mInvalidationRect.union(left, top, right, bottom);
+        }
+    }
+
+    /**
+     * Takes area to be invalidated, collected since the previous call.
+     *
+     * @param outRect receives the area
+     * @return false if the whole view has to be invalidated
+     */
+    boolean takeInvalidationRect(Rect outRect) {
+        synchronized (mInvalidationRect) {
+            final boolean isPartial = !mInvalidateAll && !mInvalidationRect.isEmpty();
+            outRect.set(mInvalidationRect);
+            mInvalidationRect.setEmpty();
+            mInvalidateAll = false;
+            return isPartial;
+        }
+    }
+
     public void resetState() {
         mIsRunning = false;
     }
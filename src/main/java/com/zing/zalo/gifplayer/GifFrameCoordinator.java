@@ -0,0 +1,179 @@
+package com.zing.zalo.gifplayer;
+
+import android.annotation.TargetApi;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Invalidates views of all the drawables having frames ready, once per display frame. Rendering
+ * threads only request invalidation, so running drawables do not post separate messages to
+ * the main thread and their invalidations are aligned with vsync.<br>
+ * Time used to schedule frames is also taken from here, so both can be replaced in tests.
+ */
+final class GifFrameCoordinator implements Runnable {
+
+    /**
+     * Source of the time and of the display frame callbacks.
+     */
+    interface FrameClock {
+        /**
+         * @return current time in milliseconds, not affected by wall clock changes
+         */
+        long uptimeMillis();
+
+        /**
+         * Requests single run of the frame on the main thread, before the next display frame
+         * is drawn. May be called from any thread.
+         */
+        void postFrame(Runnable frame);
+    }
+
+    private final FrameClock mClock;
+    /**
+     * Drawables waiting for the next display frame, guarded by the coordinator.
+     */
+    private final Set<GifDrawable> mPending = new LinkedHashSet<>();
+    private boolean mIsFrameCallbackPosted;
+    /**
+     * Drawables being invalidated, accessed only on the main thread.
+     */
+    private final ArrayList<GifDrawable> mInvalidated = new ArrayList<>();
+    private final Rect mInvalidationRect = new Rect();
+
+    GifFrameCoordinator(FrameClock clock) {
+        mClock = clock;
+    }
+
+    @SuppressWarnings("StaticNonFinalField") //double-checked singleton initialization
+    private static volatile GifFrameCoordinator instance = null;
+
+    static GifFrameCoordinator getInstance() {
+        if (instance == null) {
+            synchronized (GifFrameCoordinator.class) {
+                if (instance == null) {
+                    instance = new GifFrameCoordinator(new MainThreadClock());
+                }
+            }
+        }
+        return instance;
+    }
+
+    long uptimeMillis() {
+        return mClock.uptimeMillis();
+    }
+
+    /**
+     * Schedules invalidation of the drawable's view at the next display frame. Requests made
+     * before that frame are coalesced.
+     */
+    void requestInvalidation(GifDrawable drawable) {
+        final boolean isPostNeeded;
+        synchronized (this) {
+            mPending.add(drawable);
+            isPostNeeded = !mIsFrameCallbackPosted;
+            mIsFrameCallbackPosted = true;
+        }
+        if (isPostNeeded) {
+            mClock.postFrame(this);
+        }
+    }
+
+    /**
+     * Cancels pending invalidation, eg. when drawable is stopped.
+     */
+    synchronized void cancelInvalidation(GifDrawable drawable) {
+        mPending.remove(drawable);
+    }
+
+    /**
+     * Invalidates views of the drawables requested since the previous display frame.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            mInvalidated.addAll(mPending);
+            mPending.clear();
+            mIsFrameCallbackPosted = false;
+        }
+        for (GifDrawable drawable : mInvalidated) {
+            final View view = drawable.parentView != null ? drawable.parentView.get() : null;
+            if (view != null) {
+                if (drawable.takeInvalidationRect(mInvalidationRect))
+                    view.invalidate(mInvalidationRect);
+                else
+                    view.invalidate();
+            }
+        }
+        mInvalidated.clear();
+    }
+
+    /**
+     * Clock driven by {@link Choreographer} of the main thread. Before Jelly Bean, where there
+     * is no choreographer, frames are posted to the main thread directly.
+     */
+    private static final class MainThreadClock implements FrameClock, Runnable {
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+        private volatile Runnable mFrame;
+        /**
+         * Accessed only on the main thread and only since Jelly Bean.
+         */
+        private ChoreographerFrame mChoreographerFrame;
+
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public void postFrame(Runnable frame) {
+            mFrame = frame;
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                run();
+            } else {
+                mMainHandler.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                if (mChoreographerFrame == null || mChoreographerFrame.mFrame != mFrame)
+                    mChoreographerFrame = new ChoreographerFrame(mFrame);
+                mChoreographerFrame.post();
+            } else {
+                mFrame.run();
+            }
+        }
+    }
+
+    /**
+     * Runs the frame from {@link Choreographer} callback. Choreographer is referenced only from
+     * here, so other classes can be loaded before Jelly Bean.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class ChoreographerFrame implements Choreographer.FrameCallback {
+        final Runnable mFrame;
+
+        ChoreographerFrame(Runnable frame) {
+            mFrame = frame;
+        }
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrame.run();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.zing.zalo.gifplayer;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+
+/**
+ * Renders frames of the GIF played by {@link GifDrawable} without disturbing its playback.
+ * Cursor shares parsed frame metadata and color maps with the drawable, but it has its own
+ * source position, raster and canvas. It does not take the lock of the drawable, so frames,
+ * eg. thumbnails, can be extracted on another thread while the animation is running.<br>
+ * Native memory of the GIF is freed when both the drawable and all its cursors are recycled,
+ * so cursor should be recycled as soon as it is not needed. All methods are thread-safe.
+ */
+public final class GifFrameCursor {
+    private final GifInfoHandle mNativeInfoHandle;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameCount;
+    /**
+     * Buffer holding the canvas of the last composed frame, guarded by the handle lock
+     */
+    private WeakReference<Object> mFrameTarget;
+
+    GifFrameCursor(GifInfoHandle handle) {
+        mNativeInfoHandle = handle;
+        mWidth = handle.getWidth();
+        mHeight = handle.getHeight();
+        mFrameCount = handle.getNumberOfFrames();
+    }
+
+    /**
+     * @return width of the frames, after downsampling of the drawable if any
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return height of the frames, after downsampling of the drawable if any
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return number of frames
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @param index index of the frame
+     * @return duration of the given frame in milliseconds
+     * @throws IndexOutOfBoundsException if index &lt; 0 or index &gt;= number of frames
+     */
+    public int getFrameDuration(int index) {
+        return mNativeInfoHandle.getFrameDuration(index);
+    }
+
+    /**
+     * Composes frame n into the given array, like {@link GifDrawable#getFrame(int, int[], int)}
+     * does, but position of the animation is not changed. Consecutive frames composed into the
+     * same array are decoded incrementally, so the array should not be modified between such calls.
+     *
+     * @param n      index of the frame
+     * @param pixels array receiving the canvas, row after row
+     * @param stride distance between starts of rows, at least {@link #getWidth()}
+     * @return true if frame has been composed, false if cursor is recycled
+     * @throws IllegalArgumentException  if stride is less than width
+     * @throws IndexOutOfBoundsException if frame index is out of bounds or array is too small
+     */
+    public boolean getFrame(int n, int[] pixels, int stride) {
+        synchronized (mNativeInfoHandle) {
+            if (mNativeInfoHandle.isRecycled())
+                return false;
+            setFrameTarget(pixels);
+            mNativeInfoHandle.seekToFrame(n, pixels, stride);
+        }
+        return true;
+    }
+
+    /**
+     * Composes frame n into the given direct buffer, like
+     * {@link GifDrawable#getFrame(int, ByteBuffer, int, boolean)} does, but position of the
+     * animation is not changed.
+     *
+     * @param buffer   direct buffer receiving the canvas, row after row
+     * @param stride   distance between starts of rows in pixels, at least {@link #getWidth()}
+     * @param isRgb565 true for 2 bytes per pixel, false for 4 bytes per pixel
+     * @throws IllegalArgumentException if buffer is not direct, it is read only or stride is less than width
+     * @see #getFrame(int, int[], int)
+     */
+    public boolean getFrame(int n, ByteBuffer buffer, int stride, boolean isRgb565) {
+        synchronized (mNativeInfoHandle) {
+            if (mNativeInfoHandle.isRecycled())
+                return false;
+            setFrameTarget(buffer);
+            mNativeInfoHandle.seekToFrame(n, buffer, stride, isRgb565);
+        }
+        return true;
+    }
+
+    /**
+     * Composition starts over from the first frame if the last one went elsewhere, since the
+     * target does not hold its canvas. Must be called with the handle lock held.
+     */
+    private void setFrameTarget(Object target) {
+        if (mFrameTarget == null || mFrameTarget.get() != target) {
+            mNativeInfoHandle.reset();
+            mFrameTarget = new WeakReference<>(target);
+        }
+    }
+
+    /**
+     * Frees native memory of the cursor, memory shared with the drawable is freed when the
+     * drawable and all its cursors are recycled. Frames cannot be composed afterwards.
+     */
+    public void recycle() {
+        synchronized (mNativeInfoHandle) {
+            mNativeInfoHandle.recycle();
+            mFrameTarget = null;
+        }
+    }
+
+    /**
+     * @return true if cursor is recycled
+     */
+    public boolean isRecycled() {
+        return mNativeInfoHandle.isRecycled();
+    }
+}
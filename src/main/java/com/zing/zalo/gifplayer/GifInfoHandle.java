@@ -28,6 +28,26 @@ final class GifInfoHandle {
 
     private volatile long gifInfoPtr;
 
+    /**
+     * Handle whose parsed metadata is shared by this cursor, null if this handle is not a cursor
+     */
+    private GifInfoHandle source;
+
+    /**
+     * Frees native structure when the handle is recycled or becomes unreachable, null if there
+     * is no native structure
+     */
+    private GifInfoReference reference;
+    /**
+     * Native memory last reported to the reference, guarded by the handle lock
+     */
+    private long reportedByteCount;
+
+    /**
+     * Metadata of the GIF, replaced whenever it changes, so it can be read without locking
+     */
+    private volatile GifMetadata metadata = GifMetadata.EMPTY;
+
     static final GifInfoHandle NULL_INFO = new GifInfoHandle();
 
     static {
@@ -41,20 +61,35 @@ final class GifInfoHandle {
     private GifInfoHandle() {
     }
 
+    private GifInfoHandle(long gifInfoPtr) {
+        this.gifInfoPtr = gifInfoPtr;
+        track(null);
+    }
+
+    private GifInfoHandle(long gifInfoPtr, GifInfoHandle source) {
+        this.gifInfoPtr = gifInfoPtr;
+        this.source = source;
+        track(source.reference);
+    }
+
     GifInfoHandle(FileDescriptor fd, boolean justDecodeMetaData, int maxSize) throws GifIOException {
         gifInfoPtr = openFd(fd, 0, justDecodeMetaData, maxSize);
+        track(null);
     }
 
     GifInfoHandle(byte[] bytes, boolean justDecodeMetaData, int maxSize) throws GifIOException {
         gifInfoPtr = openByteArray(bytes, justDecodeMetaData, maxSize);
+        track(null);
     }
 
     GifInfoHandle(ByteBuffer buffer, boolean justDecodeMetaData, int maxSize) throws GifIOException {
         gifInfoPtr = openDirectByteBuffer(buffer, justDecodeMetaData, maxSize);
+        track(null);
     }
 
     GifInfoHandle(String filePath, boolean justDecodeMetaData, int maxSize) throws GifIOException {
         gifInfoPtr = openFile(filePath, justDecodeMetaData, maxSize);
+        track(null);
     }
 
     GifInfoHandle(InputStream stream, boolean justDecodeMetaData, int maxSize) throws GifIOException {
@@ -62,11 +97,13 @@ final class GifInfoHandle {
             throw new IllegalArgumentException("InputStream does not support marking");
         }
         gifInfoPtr = openStream(stream, justDecodeMetaData, maxSize);
+        track(null);
     }
 
     GifInfoHandle(AssetFileDescriptor afd, boolean justDecodeMetaData, int maxSize) throws IOException {
         try {
             gifInfoPtr = openFd(afd.getFileDescriptor(), afd.getStartOffset(), justDecodeMetaData, maxSize);
+            track(null);
         } finally {
             afd.close();
         }
@@ -79,21 +116,91 @@ final class GifInfoHandle {
         return new GifInfoHandle(resolver.openAssetFileDescriptor(uri, "r"), justDecodeMetaData, maxSize);
     }
 
+    /**
+     * Reads whole stream into native memory and opens GIF from there. Unlike
+     * {@link #GifInfoHandle(InputStream, boolean, int)} stream does not need to support marking
+     * and it is closed as soon as it is consumed.
+     */
+    static GifInfoHandle spoolStream(InputStream stream, boolean justDecodeMetaData, int maxSize) throws IOException {
+        try {
+            return new GifInfoHandle(openSpooledStream(stream, justDecodeMetaData, maxSize));
+        } finally {
+            stream.close();
+        }
+    }
+
     static native long openFd(FileDescriptor fd, long offset, boolean justDecodeMetaData, int maxSize) throws GifIOException;
 
+    /**
+     * Opens GIF file reading only its header and logical screen descriptor. Frames have to be
+     * scanned by {@link #scanFrames()} before their count or durations are queried.
+     */
+    static GifInfoHandle openHeader(String filePath) throws GifIOException {
+        return new GifInfoHandle(openFileHeader(filePath));
+    }
+
+    /**
+     * Opens GIF from data which is still arriving, eg. being downloaded. Frames become available
+     * as soon as their data is appended by {@link #appendData(byte[], int, int)}. Rendering waits
+     * for the next frame instead of looping until {@link #finishData()} is called or the trailer
+     * arrives. Surface and OpenGL rendering are not supported for such sources.
+     *
+     * @param bytes  data received so far, it has to contain at least the whole header,
+     *               see {@link #getHeaderLength(byte[], int)}
+     * @param length number of valid bytes in the array
+     */
+    static GifInfoHandle openGrowing(byte[] bytes, int length, int maxSize) throws GifIOException {
+        return new GifInfoHandle(openIncremental(bytes, length, maxSize));
+    }
+
+    /**
+     * Computes length of the header, logical screen descriptor and global color table.
+     *
+     * @param bytes  beginning of the GIF data
+     * @param length number of valid bytes in the array
+     * @return header length or -1 if not enough bytes are available to compute it
+     */
+    static int getHeaderLength(byte[] bytes, int length) {
+        if (length < 11) {
+            return -1;
+        }
+        final int flags = bytes[10] & 0xff;
+        return (flags & 0x80) != 0 ? 13 + (3 << ((flags & 0x07) + 1)) : 13;
+    }
+
     static native long openByteArray(byte[] bytes, boolean justDecodeMetaData, int maxSize) throws GifIOException;
 
     static native long openDirectByteBuffer(ByteBuffer buffer, boolean justDecodeMetaData, int maxSize) throws GifIOException;
 
     static native long openStream(InputStream stream, boolean justDecodeMetaData, int maxSize) throws GifIOException;
 
+    static native long openSpooledStream(InputStream stream, boolean justDecodeMetaData, int maxSize) throws IOException;
+
     static native long openFile(String filePath, boolean justDecodeMetaData, int maxSize) throws GifIOException;
 
+    static native long openFileHeader(String filePath) throws GifIOException;
+
+    static native long openIncremental(byte[] bytes, int length, int maxSize) throws GifIOException;
+
+    private static native void appendData(long gifInfoPtr, byte[] bytes, int offset, int length);
+
+    private static native void finishData(long gifInfoPtr);
+
+    private static native void scanFrames(long gifInfoPtr) throws GifIOException;
+
     private static native long renderFrame(long gifFileInPtr, Bitmap frameBuffer);
 
+    private static native boolean getDirtyRect(long gifFileInPtr, int[] rect);
+
+    private static native long renderFrameAhead(long gifFileInPtr, Bitmap previousFrameBuffer, Bitmap frameBuffer);
+
     private static native void bindSurface(long gifInfoPtr, Surface surface, long[] savedState);
 
-    private static native void free(long gifFileInPtr);
+    static native void free(long gifFileInPtr);
+
+    private static native long openCursor(long gifInfoPtr);
+
+    static native void freeCursor(long gifInfoPtr);
 
     private static native boolean reset(long gifFileInPtr);
 
@@ -101,20 +208,20 @@ final class GifInfoHandle {
 
     private static native String getComment(long gifFileInPtr);
 
-    private static native int getLoopCount(long gifFileInPtr);
-
     private static native void setLoopCount(long gifFileInPtr, int loopCount);
 
     private static native long getSourceLength(long gifFileInPtr);
 
-    private static native int getDuration(long gifFileInPtr);
-
     private static native int getCurrentPosition(long gifFileInPtr);
 
     private static native void seekToTime(long gifFileInPtr, int pos, Bitmap buffer);
 
     private static native void seekToFrame(long gifFileInPtr, int frameNr, Bitmap buffer);
 
+    private static native void seekToFrameInBuffer(long gifInfoPtr, int frameNr, ByteBuffer buffer, int stride, boolean isRgb565);
+
+    private static native void seekToFrameInArray(long gifInfoPtr, int frameNr, int[] pixels, int stride);
+
     private static native void saveRemainder(long gifFileInPtr);
 
     private static native long restoreRemainder(long gifFileInPtr);
@@ -127,6 +234,10 @@ final class GifInfoHandle {
 
     private static native int getCurrentLoop(long gifFileInPtr);
 
+    private static native void setRealTimePlayback(long gifInfoPtr, boolean isRealTime);
+
+    private static native int getDroppedFrameCount(long gifInfoPtr);
+
     private static native void postUnbindSurface(long gifFileInPtr);
 
     private static native boolean isAnimationCompleted(long gifInfoPtr);
@@ -135,17 +246,15 @@ final class GifInfoHandle {
 
     private static native int restoreSavedState(long gifInfoPtr, long[] savedState, Bitmap mBuffer);
 
-    private static native int getFrameDuration(long gifInfoPtr, int index);
+    private static native int[] getMetadata(long gifInfoPtr);
 
     private static native void setOptions(long gifInfoPtr, int sampleSize, boolean isOpaque);
 
-    private static native int getWidth(long gifFileInPtr);
-
-    private static native int getHeight(long gifFileInPtr);
+    private static native void setSnapshotCache(long gifInfoPtr, int interval, int budget);
 
-    private static native int getNumberOfFrames(long gifInfoPtr);
+    private static native void setAnimationCache(long gifInfoPtr, int budget);
 
-    private static native boolean isOpaque(long gifInfoPtr);
+    private static native void setTargetSize(long gifInfoPtr, int width, int height, boolean isAreaAveraged);
 
     private static native void startDecoderThread(long gifInfoPtr);
 
@@ -160,16 +269,121 @@ final class GifInfoHandle {
     private static native void initTexImageDescriptor(long gifInfoPtr);
 
     synchronized long renderFrame(Bitmap frameBuffer) {
-        return renderFrame(gifInfoPtr, frameBuffer);
+        final long invalidationDelay = renderFrame(gifInfoPtr, frameBuffer);
+        reportAllocation();
+        return invalidationDelay;
+    }
+
+    /**
+     * Gets area of the frame buffer changed by rendering since the previous call. Seeking and
+     * restoring the state change the whole buffer.
+     *
+     * @param rect array receiving left, top, right and bottom edge of the area in buffer pixels
+     * @return false if nothing has changed, rect is not modified then
+     */
+    synchronized boolean getDirtyRect(int[] rect) {
+        return getDirtyRect(gifInfoPtr, rect);
+    }
+
+    /**
+     * Renders the next frame over the canvas left by the previous frame in another buffer.
+     *
+     * @return display time of the frame in milliseconds, negative if animation has ended
+     */
+    synchronized long renderFrameAhead(Bitmap previousFrameBuffer, Bitmap frameBuffer) {
+        final long delay = renderFrameAhead(gifInfoPtr, previousFrameBuffer, frameBuffer);
+        reportAllocation();
+        return delay;
     }
 
     void bindSurface(Surface surface, long[] savedState) {
         bindSurface(gifInfoPtr, surface, savedState);
     }
 
+    /**
+     * Frees native structure, the one shared with cursors is kept until they are recycled too.
+     */
     synchronized void recycle() {
-        free(gifInfoPtr);
+        if (reference != null) {
+            reference.release();
+        }
         gifInfoPtr = 0L;
+        metadata = GifMetadata.EMPTY;
+    }
+
+    /**
+     * Registers just opened native structure for release and publishes its metadata.
+     *
+     * @param sourceReference reference of the handle this one is a cursor of, null if it is not a cursor
+     */
+    private void track(GifInfoReference sourceReference) {
+        reference = GifInfoReference.register(this, gifInfoPtr, sourceReference);
+        metadata = fetchMetadata(gifInfoPtr);
+        reportAllocation();
+    }
+
+    /**
+     * Reports current size of native structure to the runtime, after it may have changed.
+     * Caches, snapshots and backup of the disposed area grow while frames are composed, so it is
+     * called after rendering and seeking too, runtime is notified only if the size has changed.
+     * Must be called with the handle lock held.
+     */
+    private void reportAllocation() {
+        if (reference == null) {
+            return;
+        }
+        final long byteCount = getAllocationByteCount(gifInfoPtr);
+        if (byteCount != reportedByteCount) {
+            reportedByteCount = byteCount;
+            reference.reportAllocation(byteCount);
+        }
+    }
+
+    private static GifMetadata fetchMetadata(long gifInfoPtr) {
+        final int[] values = getMetadata(gifInfoPtr);
+        return values != null ? new GifMetadata(values) : GifMetadata.EMPTY;
+    }
+
+    /**
+     * Publishes metadata again after it may have changed. Must be called with the handle lock held.
+     */
+    private void refreshMetadata() {
+        metadata = fetchMetadata(gifInfoPtr);
+    }
+
+    /**
+     * @return the latest metadata snapshot, it is obtained without locking the handle
+     */
+    GifMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Opens cursor over the same parsed GIF. Cursor shares frame metadata, control blocks and
+     * color maps with this handle, but it has its own source position, raster and canvas. It is
+     * synchronized on itself, so it can render frames in parallel with this handle. Native
+     * memory of this handle is freed when both this handle and all its cursors are recycled.
+     * Cursor of a cursor shares metadata of the same handle.
+     *
+     * @return new cursor
+     * @throws IllegalStateException         if this handle is recycled
+     * @throws UnsupportedOperationException if frames cannot be rendered by cursors, eg. when
+     *                                       source is a file stream or an {@link InputStream}
+     *                                       which has not been spooled, the data is incomplete or
+     *                                       only metadata has been decoded
+     */
+    synchronized GifInfoHandle openCursor() {
+        if (source != null) {
+            return source.openCursor();
+        }
+        if (gifInfoPtr == 0L) {
+            throw new IllegalStateException("Handle is recycled");
+        }
+        final long cursorPtr = openCursor(gifInfoPtr);
+        if (cursorPtr == 0L) {
+            throw new UnsupportedOperationException("Source does not support cursors");
+        }
+        return new GifInfoHandle(cursorPtr, this);
     }
 
     synchronized long restoreRemainder() {
@@ -188,8 +402,8 @@ final class GifInfoHandle {
         return getComment(gifInfoPtr);
     }
 
-    synchronized int getLoopCount() {
-        return getLoopCount(gifInfoPtr);
+    int getLoopCount() {
+        return metadata.getLoopCount();
     }
 
     void setLoopCount(final int loopCount) {
@@ -198,6 +412,7 @@ final class GifInfoHandle {
         }
         synchronized (this) {
             setLoopCount(gifInfoPtr, loopCount);
+            refreshMetadata();
         }
     }
 
@@ -221,8 +436,8 @@ final class GifInfoHandle {
         }
     }
 
-    synchronized int getDuration() {
-        return getDuration(gifInfoPtr);
+    int getDuration() {
+        return metadata.getDuration();
     }
 
     synchronized int getCurrentPosition() {
@@ -237,12 +452,82 @@ final class GifInfoHandle {
         return getCurrentLoop(gifInfoPtr);
     }
 
+    /**
+     * Makes {@link #renderFrame(Bitmap)} compose frames whose display time has already passed
+     * without presenting them, so playback keeps wall clock time when rendering falls behind.
+     *
+     * @param isRealTime true to skip late frames, false to present every frame
+     */
+    synchronized void setRealTimePlayback(boolean isRealTime) {
+        setRealTimePlayback(gifInfoPtr, isRealTime);
+    }
+
+    /**
+     * @return number of frames skipped so far by wall clock playback
+     */
+    synchronized int getDroppedFrameCount() {
+        return getDroppedFrameCount(gifInfoPtr);
+    }
+
     synchronized void seekToTime(final int position, final Bitmap buffer) {
         seekToTime(gifInfoPtr, position, buffer);
+        reportAllocation();
     }
 
     synchronized void seekToFrame(final int frameIndex, final Bitmap buffer) {
         seekToFrame(gifInfoPtr, frameIndex, buffer);
+        reportAllocation();
+    }
+
+    /**
+     * Composes the frame into the direct buffer, starting at its index 0 regardless of the position.
+     * Pixels are stored as 4 bytes in R, G, B, A order or, if isRgb565 is true, as native
+     * endian shorts in RGB_565 format. Like {@link #seekToFrame(int, Bitmap)}, composition
+     * continues from the previously sought frame if it precedes the desired one, so the buffer
+     * has to hold the canvas left by the previous call in such case. Only visible pixels of each row
+     * are written, padding between rows is left intact, so the buffer may end right after the last
+     * pixel of the last row.
+     *
+     * @param frameIndex index of the frame
+     * @param buffer     direct buffer receiving the canvas
+     * @param stride     distance between starts of rows, in pixels
+     * @param isRgb565   true for 2 bytes per pixel, false for 4 bytes per pixel
+     * @throws IllegalArgumentException  if buffer is not direct or it is read only
+     * @throws IndexOutOfBoundsException if frame index is out of bounds or buffer is too small
+     */
+    synchronized void seekToFrame(final int frameIndex, final ByteBuffer buffer, final int stride, final boolean isRgb565) {
+        if (!buffer.isDirect() || buffer.isReadOnly()) {
+            throw new IllegalArgumentException("Buffer must be direct and writable");
+        }
+        checkCanvasBounds(frameIndex, buffer.capacity() / (isRgb565 ? 2 : 4), stride);
+        seekToFrameInBuffer(gifInfoPtr, frameIndex, buffer, stride, isRgb565);
+        reportAllocation();
+    }
+
+    /**
+     * Composes the frame into the array, as {@link #seekToFrame(int, ByteBuffer, int, boolean)}
+     * does in RGBA format. So each int holds bytes in R, G, B, A order of the native byte order,
+     * eg. 0xAABBGGRR on little endian devices. Array may be copied by the virtual machine.
+     */
+    synchronized void seekToFrame(final int frameIndex, final int[] pixels, final int stride) {
+        checkCanvasBounds(frameIndex, pixels.length, stride);
+        seekToFrameInArray(gifInfoPtr, frameIndex, pixels, stride);
+        reportAllocation();
+    }
+
+    private void checkCanvasBounds(final int frameIndex, final int capacity, final int stride) {
+        final GifMetadata metadata = this.metadata;
+        if (frameIndex < 0 || frameIndex >= metadata.getFrameCount()) {
+            throw new IndexOutOfBoundsException("Frame index is out of bounds");
+        }
+        final int width = metadata.getWidth();
+        final int height = metadata.getHeight();
+        if (stride < width) {
+            throw new IllegalArgumentException("Stride " + stride + " is less than width " + width);
+        }
+        if ((long) stride * (height - 1) + width > capacity) {
+            throw new IndexOutOfBoundsException("Buffer is too small for " + width + "x" + height + " canvas");
+        }
     }
 
     synchronized long getAllocationByteCount() {
@@ -253,15 +538,6 @@ final class GifInfoHandle {
         return gifInfoPtr == 0L;
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            recycle();
-        } finally {
-            super.finalize();
-        }
-    }
-
     synchronized void postUnbindSurface() {
         postUnbindSurface(gifInfoPtr);
     }
@@ -275,36 +551,129 @@ final class GifInfoHandle {
     }
 
     synchronized int restoreSavedState(long[] savedState, Bitmap mBuffer) {
-        return restoreSavedState(gifInfoPtr, savedState, mBuffer);
+        final int invalidationDelay = restoreSavedState(gifInfoPtr, savedState, mBuffer);
+        reportAllocation();
+        return invalidationDelay;
     }
 
+    /**
+     * @throws IndexOutOfBoundsException if index &lt; 0 or index &gt;= number of frames
+     */
     int getFrameDuration(final int index) {
-        synchronized (this) {
-            if (index < 0 || index >= getNumberOfFrames(gifInfoPtr)) {
-                throw new IndexOutOfBoundsException("Frame index is out of bounds");
-            }
-            return getFrameDuration(gifInfoPtr, index);
-        }
+        return metadata.getFrameDuration(index);
     }
 
-    void setOptions(int sampleSize, boolean isOpaque) {
+    /**
+     * Sets sample size, which downscales frames like {@link #setTargetSize(int, int, boolean)},
+     * and whether the canvas is treated as opaque.
+     *
+     * @throws IllegalStateException if cursors have been opened, since they share frame geometry
+     */
+    synchronized void setOptions(int sampleSize, boolean isOpaque) {
+        if (source != null || (reference != null && reference.hasCursors())) {
+            throw new IllegalStateException("Options cannot be changed after cursors have been opened");
+        }
         setOptions(gifInfoPtr, sampleSize, isOpaque);
+        refreshMetadata();
+        reportAllocation();
+    }
+
+    /**
+     * Enables caching of composited canvas every {@code interval} frames, so seeking and state
+     * restoring need to decode at most {@code interval} frames. Has no effect on sources which
+     * cannot be repositioned, like {@link InputStream}s opened without spooling.
+     *
+     * @param interval distance between cached frames, 0 disables cache and frees its memory
+     * @param budget   maximum number of bytes used by cached frames
+     */
+    synchronized void setSnapshotCache(int interval, int budget) {
+        setSnapshotCache(gifInfoPtr, interval, budget);
+        reportAllocation();
     }
 
-    synchronized int getWidth() {
-        return getWidth(gifInfoPtr);
+    /**
+     * Enables caching of every composited frame during the first loop, so next loops are played
+     * from the cache without decoding. Cache is dropped and playback keeps decoding if the frames
+     * do not fit in the budget.
+     *
+     * @param budget maximum number of bytes used by cached frames, 0 disables cache and frees its memory
+     */
+    synchronized void setAnimationCache(int budget) {
+        setAnimationCache(gifInfoPtr, budget);
+        reportAllocation();
     }
 
-    synchronized int getHeight() {
-        return getHeight(gifInfoPtr);
+    /**
+     * Makes frames decoded directly at given size, so only the downscaled frame is kept in memory.
+     * Has to be called before the first frame is rendered, size can be set only once.
+     * Sizes out of range &lt;1, original size&gt; keep the original ones.
+     *
+     * @param width          target width
+     * @param height         target height
+     * @param isAreaAveraged true to average all pixels covered by each target pixel, false to pick one of them
+     * @throws IllegalStateException if cursors have been opened, since they share frame geometry
+     */
+    synchronized void setTargetSize(int width, int height, boolean isAreaAveraged) {
+        if (source != null || (reference != null && reference.hasCursors())) {
+            throw new IllegalStateException("Size cannot be changed after cursors have been opened");
+        }
+        setTargetSize(gifInfoPtr, width, height, isAreaAveraged);
+        refreshMetadata();
+        reportAllocation();
     }
 
-    synchronized int getNumberOfFrames() {
-        return getNumberOfFrames(gifInfoPtr);
+    /**
+     * Appends data to the source opened by {@link #openGrowing(byte[], int, int)} and scans
+     * frames which have arrived completely. Has no effect on other sources or after the source
+     * has been finished.
+     */
+    synchronized void appendData(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || length > bytes.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        appendData(gifInfoPtr, bytes, offset, length);
+        refreshMetadata();
     }
 
-    synchronized boolean isOpaque() {
-        return isOpaque(gifInfoPtr);
+    /**
+     * Marks the source opened by {@link #openGrowing(byte[], int, int)} as complete, so animation
+     * loops over frames received so far. Incomplete trailing frame is discarded.
+     */
+    synchronized void finishData() {
+        finishData(gifInfoPtr);
+        refreshMetadata();
+    }
+
+    int getWidth() {
+        return metadata.getWidth();
+    }
+
+    int getHeight() {
+        return metadata.getHeight();
+    }
+
+    synchronized void scanFrames() throws GifIOException {
+        try {
+            scanFrames(gifInfoPtr);
+        } finally {
+            refreshMetadata();
+        }
+    }
+
+    int getNumberOfFrames() {
+        return metadata.getFrameCount();
+    }
+
+    boolean isOpaque() {
+        return metadata.isOpaque();
+    }
+
+    /**
+     * @return true if no pixel of any frame can be transparent, false also if frames of
+     * incomplete source are not known yet
+     */
+    boolean isAnimationOpaque() {
+        return metadata.isAnimationOpaque();
     }
 
     void glTexImage2D(int target, int level) {
@@ -328,7 +697,7 @@ final class GifInfoHandle {
     }
 
     void seekToFrameGL(final int index) {
-        if (index < 0 || index >= getNumberOfFrames(gifInfoPtr)) {
+        if (index < 0 || index >= metadata.getFrameCount()) {
             throw new IndexOutOfBoundsException("Frame index is out of bounds");
         }
         seekToFrameGL(gifInfoPtr, index);
@@ -0,0 +1,187 @@
+package com.zing.zalo.gifplayer;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Owner of the native structure of {@link GifInfoHandle}. Structure is freed when the handle is
+ * recycled or, if it has not been, as soon as the handle becomes phantom reachable. Such
+ * references are released by a dedicated daemon thread, so native memory does not wait for
+ * finalization of the handle, which takes at least one more garbage collection.<br>
+ * Native memory is reported to the runtime, so garbage collector takes it into account when
+ * deciding whether unreachable handles should be collected.
+ */
+final class GifInfoReference extends PhantomReference<GifInfoHandle> {
+    private static final ReferenceQueue<GifInfoHandle> QUEUE = new ReferenceQueue<>();
+    /**
+     * References have to be reachable until they are enqueued
+     */
+    private static final Set<GifInfoReference> PENDING = Collections.synchronizedSet(new HashSet<GifInfoReference>());
+
+    static {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        final Reference<? extends GifInfoHandle> reference = QUEUE.remove();
+                        ((GifInfoReference) reference).release();
+                    } catch (InterruptedException ignored) {
+                        // keep draining, handles are released only by this thread
+                    } catch (Throwable ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            }
+        }, "GifInfoReference-release");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Reference of the handle whose data and metadata are shared by this cursor, null if handle
+     * is not a cursor
+     */
+    private final GifInfoReference mSource;
+    /**
+     * Pointer to native structure, 0 once it has been freed
+     */
+    private long mGifInfoPtr;
+    private boolean mIsReleased;
+    /**
+     * Number of cursors sharing data of this handle which have not been released yet
+     */
+    private int mCursorCount;
+    private long mReportedBytes;
+
+    private GifInfoReference(GifInfoHandle handle, long gifInfoPtr, GifInfoReference source) {
+        super(handle, QUEUE);
+        mGifInfoPtr = gifInfoPtr;
+        mSource = source;
+    }
+
+    /**
+     * Starts tracking native structure of the handle.
+     *
+     * @param source reference of the handle this one is a cursor of, null if it is not a cursor
+     */
+    static GifInfoReference register(GifInfoHandle handle, long gifInfoPtr, GifInfoReference source) {
+        final GifInfoReference reference = new GifInfoReference(handle, gifInfoPtr, source);
+        if (source != null) {
+            source.onCursorOpened();
+        }
+        PENDING.add(reference);
+        return reference;
+    }
+
+    /**
+     * Frees the native structure, unless it is still shared by cursors. In such case it is freed
+     * when the last cursor is released. Subsequent calls have no effect.
+     */
+    synchronized void release() {
+        if (mIsReleased) {
+            return;
+        }
+        mIsReleased = true;
+        PENDING.remove(this);
+        clear();
+        if (mSource != null) {
+            GifInfoHandle.freeCursor(mGifInfoPtr);
+            mGifInfoPtr = 0L;
+            reportAllocation(0L);
+            mSource.onCursorReleased();
+        } else if (mCursorCount == 0) {
+            freeNative();
+        }
+    }
+
+    private synchronized void onCursorOpened() {
+        mCursorCount++;
+    }
+
+    private synchronized void onCursorReleased() {
+        if (--mCursorCount == 0 && mIsReleased && mGifInfoPtr != 0L) {
+            freeNative();
+        }
+    }
+
+    private void freeNative() {
+        GifInfoHandle.free(mGifInfoPtr);
+        mGifInfoPtr = 0L;
+        reportAllocation(0L);
+    }
+
+    /**
+     * @return true if cursors sharing data of this handle have not been released yet
+     */
+    synchronized boolean hasCursors() {
+        return mCursorCount > 0;
+    }
+
+    /**
+     * Reports change of native memory held by the handle to the runtime.
+     *
+     * @param byteCount number of bytes currently allocated
+     */
+    synchronized void reportAllocation(long byteCount) {
+        final long delta = byteCount - mReportedBytes;
+        mReportedBytes = byteCount;
+        if (delta > 0) {
+            NativeAllocationRegistry.registerNativeAllocation(delta);
+        } else if (delta < 0) {
+            NativeAllocationRegistry.registerNativeFree(-delta);
+        }
+    }
+
+    /**
+     * Access to hidden {@code dalvik.system.VMRuntime} methods, which make native allocations
+     * count towards the heap growth triggering garbage collection. Reporting is silently skipped
+     * if the methods are not accessible.
+     */
+    private static final class NativeAllocationRegistry {
+        private static final Object RUNTIME;
+        private static final Method REGISTER_NATIVE_ALLOCATION;
+        private static final Method REGISTER_NATIVE_FREE;
+
+        static {
+            Object runtime = null;
+            Method registerNativeAllocation = null;
+            Method registerNativeFree = null;
+            try {
+                final Class<?> runtimeClass = Class.forName("dalvik.system.VMRuntime");
+                runtime = runtimeClass.getMethod("getRuntime").invoke(null);
+                registerNativeAllocation = runtimeClass.getMethod("registerNativeAllocation", int.class);
+                registerNativeFree = runtimeClass.getMethod("registerNativeFree", int.class);
+            } catch (Throwable ignored) {
+                runtime = null;
+            }
+            RUNTIME = runtime;
+            REGISTER_NATIVE_ALLOCATION = registerNativeAllocation;
+            REGISTER_NATIVE_FREE = registerNativeFree;
+        }
+
+        static void registerNativeAllocation(long byteCount) {
+            invoke(REGISTER_NATIVE_ALLOCATION, byteCount);
+        }
+
+        static void registerNativeFree(long byteCount) {
+            invoke(REGISTER_NATIVE_FREE, byteCount);
+        }
+
+        private static void invoke(Method method, long byteCount) {
+            if (RUNTIME == null) {
+                return;
+            }
+            try {
+                method.invoke(RUNTIME, (int) Math.min(byteCount, Integer.MAX_VALUE));
+            } catch (Throwable ignored) {
+                // reporting is only a hint for the garbage collector
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.zing.zalo.gifplayer;
+
+/**
+ * Immutable snapshot of GIF metadata which changes only when frames are scanned or decoding
+ * options are set. It is fetched from native code by a single call and published by
+ * {@link GifInfoHandle}, so it can be queried without locking the handle, which is held
+ * while frames are rendered.
+ */
+final class GifMetadata {
+    /**
+     * Number of values preceding frame durations in the native array
+     */
+    private static final int HEADER_LENGTH = 5;
+    private static final int FLAG_OPAQUE = 1;
+    private static final int FLAG_ANIMATION_OPAQUE = 2;
+
+    /**
+     * Metadata of recycled handle, it has no frames
+     */
+    static final GifMetadata EMPTY = new GifMetadata(new int[HEADER_LENGTH]);
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mLoopCount;
+    private final int mFlags;
+    private final int[] mDurations;
+    private final int mDuration;
+
+    /**
+     * @param values width, height, frame count, loop count, opacity flags and frame durations,
+     *               as returned by native code
+     */
+    GifMetadata(int[] values) {
+        mWidth = values[0];
+        mHeight = values[1];
+        final int frameCount = values[2];
+        mLoopCount = values[3];
+        mFlags = values[4];
+        mDurations = new int[frameCount];
+        System.arraycopy(values, HEADER_LENGTH, mDurations, 0, frameCount);
+        int duration = 0;
+        for (int frameDuration : mDurations) {
+            duration += frameDuration;
+        }
+        mDuration = duration;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    int getFrameCount() {
+        return mDurations.length;
+    }
+
+    int getLoopCount() {
+        return mLoopCount;
+    }
+
+    boolean isOpaque() {
+        return (mFlags & FLAG_OPAQUE) != 0;
+    }
+
+    /**
+     * @return true if no pixel of any frame can be transparent, false also if frames of
+     * incomplete source are not known yet
+     */
+    boolean isAnimationOpaque() {
+        return (mFlags & FLAG_ANIMATION_OPAQUE) != 0;
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException if index &lt; 0 or index &gt;= number of frames
+     */
+    int getFrameDuration(int index) {
+        if (index < 0 || index >= mDurations.length) {
+            throw new IndexOutOfBoundsException("Frame index is out of bounds");
+        }
+        return mDurations[index];
+    }
+
+    /**
+     * @return duration of one loop in milliseconds
+     */
+    int getDuration() {
+        return mDuration;
+    }
+}
@@ -0,0 +1,107 @@
+package com.zing.zalo.gifplayer;
+
+/**
+ * Cheap check of GIF file before it is decoded. Opening reads only the header and logical
+ * screen descriptor, so dimensions and size limit verdict are available without reading any
+ * frame. Frames are scanned lazily, on first query of frame count or durations.<br>
+ * Probe holds an open file until {@link #recycle()} is called.
+ */
+public final class GifProbe {
+    private final GifInfoHandle mNativeInfoHandle;
+    private final int mWidth;
+    private final int mHeight;
+    private boolean mFramesScanned;
+
+    private GifProbe(GifInfoHandle handle) {
+        mNativeInfoHandle = handle;
+        mWidth = handle.getWidth();
+        mHeight = handle.getHeight();
+    }
+
+    /**
+     * Opens the file and reads its header.
+     *
+     * @param filePath path to the GIF file
+     * @return probe of the file
+     * @throws GifIOException       when file cannot be opened or it is not a GIF
+     * @throws NullPointerException if filePath is null
+     */
+    public static GifProbe open(String filePath) throws GifIOException {
+        return new GifProbe(GifInfoHandle.openHeader(filePath));
+    }
+
+    /**
+     * @return width of the logical screen declared in header
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return height of the logical screen declared in header
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Tells whether decoding would be rejected because of size limit, eg.
+     * {@link GifDrawable#GIF_MAX_SIZE_CHAT}. Frames bigger than the logical screen can still
+     * enlarge it, so GIF passing this check may be rejected later in rare cases.
+     *
+     * @param maxSize maximum size of decoded frame in bytes
+     * @return true if declared size exceeds the limit
+     */
+    public boolean exceedsSize(int maxSize) {
+        return (long) mWidth * mHeight * 4 > maxSize;
+    }
+
+    /**
+     * Scans all the frames if it has not been done yet.
+     *
+     * @return number of frames
+     * @throws GifIOException when file does not contain any frame
+     */
+    public int getNumberOfFrames() throws GifIOException {
+        scanFrames();
+        return mNativeInfoHandle.getNumberOfFrames();
+    }
+
+    /**
+     * Scans all the frames if it has not been done yet.
+     *
+     * @return duration of one loop of the animation in milliseconds
+     * @throws GifIOException when file does not contain any frame
+     */
+    public int getDuration() throws GifIOException {
+        scanFrames();
+        return mNativeInfoHandle.getDuration();
+    }
+
+    /**
+     * Scans all the frames if it has not been done yet.
+     *
+     * @param index index of the frame
+     * @return duration of the given frame in milliseconds
+     * @throws GifIOException            when file does not contain any frame
+     * @throws IndexOutOfBoundsException if index is not in range &lt;0, number of frames - 1&gt;
+     */
+    public int getFrameDuration(int index) throws GifIOException {
+        scanFrames();
+        return mNativeInfoHandle.getFrameDuration(index);
+    }
+
+    /**
+     * Closes the file and frees native memory, probe cannot be used afterwards.
+     */
+    public void recycle() {
+        mNativeInfoHandle.recycle();
+    }
+
+    private synchronized void scanFrames() throws GifIOException {
+        if (!mFramesScanned) {
+            mNativeInfoHandle.scanFrames();
+            mFramesScanned = true;
+        }
+    }
+}
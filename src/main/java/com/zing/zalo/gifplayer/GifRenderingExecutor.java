@@ -1,15 +1,49 @@
 package com.zing.zalo.gifplayer;
 
+import android.os.Process;
+
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Default executor for rendering tasks - {@link ScheduledThreadPoolExecutor}
- * with 1 worker thread and {@link DiscardPolicy}.
+ * Default executor for rendering tasks - set of lanes, each of them is a {@link ScheduledThreadPoolExecutor}
+ * with 1 worker thread and {@link ScheduledThreadPoolExecutor.DiscardPolicy}. Every drawable is bound to a single lane,
+ * so its tasks are still executed in order, while different drawables are rendered in parallel.<br>
+ * By default there is one lane per available processor. Idle worker threads are terminated.
  */
-final class GifRenderingExecutor extends ScheduledThreadPoolExecutor {
+public final class GifRenderingExecutor {
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private final ScheduledThreadPoolExecutor[] mLanes;
+    private final AtomicInteger mNextLane = new AtomicInteger();
 
-    private GifRenderingExecutor() {
-        super(1, new DiscardPolicy());
+    private GifRenderingExecutor(int threadCount, final int threadPriority) {
+        final ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(threadPriority);
+                        runnable.run();
+                    }
+                }, "GifRenderingExecutor-" + mThreadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        mLanes = new ScheduledThreadPoolExecutor[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final ScheduledThreadPoolExecutor lane = new ScheduledThreadPoolExecutor(1, threadFactory,
+                    new ScheduledThreadPoolExecutor.DiscardPolicy());
+            lane.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            lane.allowCoreThreadTimeOut(true);
+            mLanes[i] = lane;
+        }
     }
 
     @SuppressWarnings("StaticNonFinalField") //double-checked singleton initialization
@@ -19,10 +53,55 @@ final class GifRenderingExecutor extends ScheduledThreadPoolExecutor {
         if (instance == null) {
             synchronized (GifRenderingExecutor.class) {
                 if (instance == null) {
-                    instance = new GifRenderingExecutor();
+                    instance = new GifRenderingExecutor(Runtime.getRuntime().availableProcessors(),
+                            Process.THREAD_PRIORITY_DEFAULT);
                 }
             }
         }
         return instance;
     }
+
+    /**
+     * Replaces the default executor. Drawables constructed afterwards use the new one, existing ones
+     * keep their lanes until they are garbage collected.
+     *
+     * @param threadCount    number of lanes, each of them has a single worker thread
+     * @param threadPriority priority of worker threads, as used by {@link Process#setThreadPriority(int)}
+     * @throws IllegalArgumentException if threadCount is not positive
+     */
+    public static void configure(int threadCount, int threadPriority) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threadCount);
+        }
+        synchronized (GifRenderingExecutor.class) {
+            instance = new GifRenderingExecutor(threadCount, threadPriority);
+        }
+    }
+
+    /**
+     * @return number of lanes, which is also the maximum number of worker threads
+     */
+    public int getThreadCount() {
+        return mLanes.length;
+    }
+
+    /**
+     * Picks the lane with the least queued tasks, ties are broken in round robin order.
+     *
+     * @return single threaded executor to which all the tasks of one drawable are submitted
+     */
+    ScheduledThreadPoolExecutor acquireLane() {
+        final int start = (mNextLane.getAndIncrement() & Integer.MAX_VALUE) % mLanes.length;
+        ScheduledThreadPoolExecutor leastLoaded = mLanes[start];
+        int leastQueued = leastLoaded.getQueue().size();
+        for (int i = 1; i < mLanes.length && leastQueued > 0; i++) {
+            final ScheduledThreadPoolExecutor lane = mLanes[(start + i) % mLanes.length];
+            final int queued = lane.getQueue().size();
+            if (queued < leastQueued) {
+                leastLoaded = lane;
+                leastQueued = queued;
+            }
+        }
+        return leastLoaded;
+    }
 }
@@ -8,7 +8,6 @@ import java.lang.ref.WeakReference;
 
 class InvalidationHandler extends Handler {
 
-    static final int MSG_TYPE_INVALIDATION = 1;
     static final int MSG_TYPE_ANIMATION_COMPLETED = 2;
 
     private final WeakReference<GifDrawable> mDrawableRef;
@@ -24,10 +23,7 @@ class InvalidationHandler extends Handler {
         if (gifDrawable == null) {
             return;
         }
-        if (msg.what == MSG_TYPE_INVALIDATION) {
-            if (gifDrawable.parentView != null && gifDrawable.parentView.get() != null)
-                gifDrawable.parentView.get().invalidate();
-        } else if (msg.what == MSG_TYPE_ANIMATION_COMPLETED){
+        if (msg.what == MSG_TYPE_ANIMATION_COMPLETED){
             if(gifDrawable.mListener != null)
                 gifDrawable.mListener.onAnimationCompleted();
         }
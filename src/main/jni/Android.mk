@@ -26,9 +26,12 @@ LOCAL_SRC_FILES := \
 	exception.c \
 	time.c \
 	control.c \
+	snapshot.c \
+	sampling.c \
 	memset.arm.S \
         surface.c \
 	opengl.c \
+	batch.c \
 	giflib/dgif_lib.c \
 	giflib/gifalloc.c \
 	giflib/openbsd-reallocarray.c \
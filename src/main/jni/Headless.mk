@@ -0,0 +1,46 @@
+# Headless build of the decoding core for plain JVM on linux-x86_64, used by GifBatchDecoder.
+# Sources depending on Android graphics are left out, headless.c replaces bitmap.c.
+# Usage: make -f Headless.mk [JAVA_HOME=/path/to/jdk]
+
+JAVA_HOME ?= $(shell dirname $$(dirname $$(readlink -f $$(which javac))))
+OUT_DIR := ../../../build/headless/linux-x86_64
+OBJ_DIR := $(OUT_DIR)/obj
+
+CC ?= gcc
+# bionic provides __unused and includes stdint.h and string.h from its headers, glibc does not
+CFLAGS := -m64 -O2 -fPIC -Wall -Wextra -std=c11 -fvisibility=hidden -D_GNU_SOURCE \
+	-D'__unused=__attribute__((unused))' -include stdint.h -include string.h \
+	-I$(JAVA_HOME)/include -I$(JAVA_HOME)/include/linux
+LDFLAGS := -m64 -shared -Wl,--no-undefined
+LDLIBS := -lpthread
+
+SRC_FILES := \
+	drawing.c \
+	gif.c \
+	metadata.c \
+	open_close.c \
+	decoding.c \
+	exception.c \
+	time.c \
+	control.c \
+	snapshot.c \
+	sampling.c \
+	batch.c \
+	headless.c \
+	giflib/dgif_lib.c \
+	giflib/gifalloc.c \
+	giflib/openbsd-reallocarray.c \
+
+OBJ_FILES := $(SRC_FILES:%.c=$(OBJ_DIR)/%.o)
+
+$(OUT_DIR)/libgifplayer.so: $(OBJ_FILES)
+	$(CC) $(LDFLAGS) -o $@ $^ $(LDLIBS)
+
+$(OBJ_DIR)/%.o: %.c gif.h
+	@mkdir -p $(dir $@)
+	$(CC) $(CFLAGS) -c -o $@ $<
+
+clean:
+	rm -rf $(OUT_DIR)
+
+.PHONY: clean
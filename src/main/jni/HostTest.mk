@@ -0,0 +1,107 @@
+# Host tests and benchmarks of the decoding core on linux-x86_64, sources are in src/test/jni.
+# Usage: make -f HostTest.mk [test|bench|disposal-corpus] [JAVA_HOME=/path/to/jdk] [SANITIZE=1]
+# Extra GIF files may be passed to tests and benchmarks with GIFS="a.gif b.gif".
+# disposal-corpus regenerates GIFs and goldens of the disposal corpus, which are kept in git.
+
+JAVA_HOME ?= $(shell dirname $$(dirname $$(readlink -f $$(which javac))))
+TEST_DIR := ../../test/jni
+OUT_DIR := ../../../build/hosttest/linux-x86_64
+
+CC ?= gcc
+# flags of Headless.mk, symbols stay visible so tests can reach the internals
+CFLAGS := -m64 -O2 -g -Wall -Wextra -std=c11 -D_GNU_SOURCE \
+	-D'__unused=__attribute__((unused))' -include stdint.h -include string.h \
+	-I. -I$(TEST_DIR) -I$(JAVA_HOME)/include -I$(JAVA_HOME)/include/linux
+LDLIBS := -lpthread -lm
+ifeq ($(SANITIZE),1)
+CFLAGS += -fsanitize=address,undefined -fno-omit-frame-pointer
+LDFLAGS += -fsanitize=address,undefined
+OUT_DIR := $(OUT_DIR)-sanitize
+endif
+OBJ_DIR := $(OUT_DIR)/obj
+
+GIFLIB_SRC_FILES := \
+	giflib/dgif_lib.c \
+	giflib/gifalloc.c \
+	giflib/openbsd-reallocarray.c \
+
+GIFLIB_OBJ_FILES := $(GIFLIB_SRC_FILES:%.c=$(OBJ_DIR)/%.o)
+
+# sources of Headless.mk except drawing.c, which blit tests include to reach its static functions
+CORE_SRC_FILES := \
+	gif.c \
+	metadata.c \
+	open_close.c \
+	decoding.c \
+	exception.c \
+	time.c \
+	control.c \
+	snapshot.c \
+	sampling.c \
+	batch.c \
+	headless.c \
+
+CORE_OBJ_FILES := $(CORE_SRC_FILES:%.c=$(OBJ_DIR)/%.o) $(GIFLIB_OBJ_FILES)
+
+# drawing.c code paths selected by predefined macros, NEON one is emulated lane by lane
+BLIT_VARIANTS := sse2 scalar neon
+BLIT_FLAGS_sse2 :=
+BLIT_FLAGS_scalar := -U__SSE2__
+BLIT_FLAGS_neon := -U__SSE2__ -D__ARM_NEON -I$(TEST_DIR)/neon
+BLIT_TESTS := $(BLIT_VARIANTS:%=$(OUT_DIR)/blit_test_%)
+
+# frame skip test includes bitmap.c built on stub NDK header and time.c reading fake clock
+FRAME_SKIP_OBJ_FILES := $(filter-out $(OBJ_DIR)/headless.o $(OBJ_DIR)/time.o,$(CORE_OBJ_FILES))
+
+DISPOSAL_CORPUS_DIR := $(TEST_DIR)/disposal
+DISPOSAL_CORPUS := $(wildcard $(DISPOSAL_CORPUS_DIR)/*.gif)
+
+test: $(OUT_DIR)/lzw_test $(BLIT_TESTS) $(OUT_DIR)/disposal_test $(OUT_DIR)/frame_skip_test
+	$(OUT_DIR)/lzw_test $(DISPOSAL_CORPUS) $(GIFS)
+	$(foreach blitTest,$(BLIT_TESTS),$(blitTest) &&) true
+	$(OUT_DIR)/disposal_test $(DISPOSAL_CORPUS)
+	$(OUT_DIR)/frame_skip_test $(DISPOSAL_CORPUS) $(GIFS)
+
+bench: $(OUT_DIR)/lzw_test $(BLIT_TESTS)
+	$(OUT_DIR)/lzw_test bench $(GIFS)
+	$(foreach blitTest,$(BLIT_TESTS),$(blitTest) bench &&) true
+
+$(OUT_DIR)/lzw_test: $(OBJ_DIR)/test/lzw_test.o $(OBJ_DIR)/test/lzw_reference.o $(GIFLIB_OBJ_FILES)
+	$(CC) $(LDFLAGS) -o $@ $^ $(LDLIBS)
+
+disposal-corpus: $(OUT_DIR)/disposal_test
+	@mkdir -p $(DISPOSAL_CORPUS_DIR)
+	$(OUT_DIR)/disposal_test generate $(DISPOSAL_CORPUS_DIR)
+
+$(OUT_DIR)/disposal_test: $(OBJ_DIR)/test/disposal_test.o $(OBJ_DIR)/drawing.o $(CORE_OBJ_FILES)
+	$(CC) $(LDFLAGS) -o $@ $^ $(LDLIBS)
+
+$(OUT_DIR)/frame_skip_test: $(OBJ_DIR)/test/frame_skip_test.o $(OBJ_DIR)/drawing.o $(FRAME_SKIP_OBJ_FILES)
+	$(CC) $(LDFLAGS) -o $@ $^ $(LDLIBS)
+
+$(OUT_DIR)/blit_test_%: $(OBJ_DIR)/test/blit_test_%.o $(CORE_OBJ_FILES)
+	$(CC) $(LDFLAGS) -o $@ $^ $(LDLIBS)
+
+$(OBJ_DIR)/test/blit_test_%.o: $(TEST_DIR)/blit_test.c $(TEST_DIR)/test.h $(TEST_DIR)/neon/arm_neon.h drawing.c gif.h
+	@mkdir -p $(dir $@)
+	$(CC) $(CFLAGS) $(BLIT_FLAGS_$*) -c -o $@ $<
+
+$(OBJ_DIR)/test/frame_skip_test.o: $(TEST_DIR)/frame_skip_test.c $(TEST_DIR)/test.h $(TEST_DIR)/fake_jni.h \
+		$(TEST_DIR)/ndk/android/bitmap.h bitmap.c time.c gif.h
+	@mkdir -p $(dir $@)
+	$(CC) $(CFLAGS) -I$(TEST_DIR)/ndk -c -o $@ $<
+
+$(OBJ_DIR)/%.o: %.c gif.h
+	@mkdir -p $(dir $@)
+	$(CC) $(CFLAGS) -c -o $@ $<
+
+$(OBJ_DIR)/test/%.o: $(TEST_DIR)/%.c $(TEST_DIR)/test.h $(TEST_DIR)/fake_jni.h
+	@mkdir -p $(dir $@)
+	$(CC) $(CFLAGS) -c -o $@ $<
+
+clean:
+	rm -rf $(OUT_DIR) $(OUT_DIR)-sanitize
+
+.SECONDARY:
+
+.PHONY: test bench disposal-corpus clean
@@ -0,0 +1,67 @@
+#include "gif.h"
+
+//entry points of GifBatchDecoder reuse the ones of GifInfoHandle, none of them needs Android graphics
+jlong Java_com_zing_zalo_gifplayer_GifInfoHandle_openFile(JNIEnv *env, jclass class, jstring jfname,
+                                                        jboolean justDecodeMetaData, jint maxSize);
+
+jlong Java_com_zing_zalo_gifplayer_GifInfoHandle_openByteArray(JNIEnv *env, jclass class, jbyteArray bytes,
+                                                             jboolean justDecodeMetaData, jint maxSize);
+
+void Java_com_zing_zalo_gifplayer_GifInfoHandle_free(JNIEnv *env, jclass handleClass, jlong gifInfo);
+
+__unused JNIEXPORT jlong JNICALL
+Java_com_zing_zalo_gifplayer_GifBatchDecoder_openFile(JNIEnv *env, jclass class, jstring jfname, jint maxSize) {
+	return Java_com_zing_zalo_gifplayer_GifInfoHandle_openFile(env, class, jfname, JNI_FALSE, maxSize);
+}
+
+__unused JNIEXPORT jlong JNICALL
+Java_com_zing_zalo_gifplayer_GifBatchDecoder_openByteArray(JNIEnv *env, jclass class, jbyteArray bytes, jint maxSize) {
+	return Java_com_zing_zalo_gifplayer_GifInfoHandle_openByteArray(env, class, bytes, JNI_FALSE, maxSize);
+}
+
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifBatchDecoder_getMetadata(JNIEnv *env, jclass __unused class, jlong gifInfo,
+                                                       jintArray metadata) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL)
+		return;
+	const jint values[] = {
+			(jint) info->gifFilePtr->SWidth,
+			(jint) info->gifFilePtr->SHeight,
+			(jint) info->gifFilePtr->ImageCount
+	};
+	(*env)->SetIntArrayRegion(env, metadata, 0, sizeof(values) / sizeof(jint), values);
+}
+
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifBatchDecoder_setTargetSize(JNIEnv *env, jclass __unused class, jlong gifInfo,
+                                                         jint width, jint height) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL)
+		return;
+	if (!setTargetSize(info, (GifWord) width, (GifWord) height, true))
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+}
+
+__unused JNIEXPORT jint JNICALL
+Java_com_zing_zalo_gifplayer_GifBatchDecoder_renderFrame(JNIEnv *env, jclass __unused class, jlong gifInfo,
+                                                       jint desiredIndex, jintArray array) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL)
+		return 0;
+	jint *pixels = (*env)->GetIntArrayElements(env, array, NULL);
+	if (pixels == NULL) {
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return 0;
+	}
+	setCanvasFormat(info, false);
+	info->stride = (int32_t) info->gifFilePtr->SWidth;
+	seek(info, (uint_fast32_t) desiredIndex, pixels);
+	(*env)->ReleaseIntArrayElements(env, array, pixels, 0);
+	return (jint) info->controlBlock[desiredIndex].DelayTime;
+}
+
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifBatchDecoder_free(JNIEnv *env, jclass class, jlong gifInfo) {
+	Java_com_zing_zalo_gifplayer_GifInfoHandle_free(env, class, gifInfo);
+}
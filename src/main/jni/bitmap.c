@@ -3,9 +3,11 @@
 
 int lockPixels(JNIEnv *env, jobject jbitmap, GifInfo *info, void **pixels) {
 	AndroidBitmapInfo bitmapInfo;
-	if (AndroidBitmap_getInfo(env, jbitmap, &bitmapInfo) == ANDROID_BITMAP_RESULT_SUCCESS)
-		info->stride = bitmapInfo.width;
-	else {
+	if (AndroidBitmap_getInfo(env, jbitmap, &bitmapInfo) == ANDROID_BITMAP_RESULT_SUCCESS) {
+		//canvas format follows the bitmap, rows may be padded
+		setCanvasFormat(info, bitmapInfo.format == ANDROID_BITMAP_FORMAT_RGB_565);
+		info->stride = (int32_t) (bitmapInfo.stride / getCanvasPixelSize(info));
+	} else {
 		throwException(env, RUNTIME_EXCEPTION_BARE, "Could not get bitmap info");
 		return -2;
 	}
@@ -52,6 +54,49 @@ void unlockPixels(JNIEnv *env, jobject jbitmap) {
 	throwException(env, RUNTIME_EXCEPTION_BARE, message);
 }
 
+static inline long long getScaledFrameDuration(const GifInfo *info, uint_fast32_t index) {
+	return (long long) (info->controlBlock[index].DelayTime / info->speedFactor);
+}
+
+/**
+ * Composes frames whose display time has already passed without presenting them, so wall clock
+ * playback keeps time when rendering falls behind. Frames are skipped only within the current loop.
+ * Lag longer than the rest of the loop comes from a pause rather than from slow rendering,
+ * nothing is skipped then.
+ * @return time at which the frame to be presented was scheduled
+ */
+static long skipLateFrames(void *pixels, GifInfo *info, long renderStartTime) {
+	if (!info->isRealTimePlayback || info->nextStartTime == 0 || info->nextStartTime >= renderStartTime)
+		return renderStartTime;
+	long long lag = renderStartTime - info->nextStartTime;
+	const uint_fast32_t lastIndex = info->gifFilePtr->ImageCount - 1;
+	long long loopRemainder = 0;
+	uint_fast32_t i;
+	for (i = info->currentIndex; i <= lastIndex; i++)
+		loopRemainder += getScaledFrameDuration(info, i);
+	if (lag >= loopRemainder)
+		return renderStartTime;
+
+	while (info->currentIndex < lastIndex) {
+		const long long frameDuration = getScaledFrameDuration(info, info->currentIndex);
+		if (lag < frameDuration)
+			break;
+		addFrameDirtyArea(info, &info->dirtyRect);
+		//cached frames are complete canvases, so skipped ones need not be drawn
+		if (isAnimationCached(info)) {
+			getFrameDuration(info);
+		} else {
+			DDGifSlurp(info, true, false);
+			if (info->currentIndex == 0)
+				prepareCanvas(pixels, info);
+			getBitmap((argb *) pixels, info);
+		}
+		lag -= frameDuration;
+		info->droppedFrameCount++;
+	}
+	return (long) (renderStartTime - lag);
+}
+
 __unused JNIEXPORT jlong JNICALL
 Java_com_zing_zalo_gifplayer_GifInfoHandle_renderFrame(JNIEnv *env, jclass __unused handleClass,
                                                     jlong gifInfo, jobject jbitmap) {
@@ -60,14 +105,79 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_renderFrame(JNIEnv *env, jclass __unu
 		return -1;
 
 	long renderStartTime = getRealTime();
+	if (info->currentIndex >= info->gifFilePtr->ImageCount) {
+		if (info->isDataIncomplete)
+			return calculateInvalidationDelay(info, renderStartTime, INCOMPLETE_DATA_POLL_INTERVAL_MS);
+		return -1;
+	}
 	void *pixels;
 	if (lockPixels(env, jbitmap, info, &pixels) != 0) {
 		return 0;
 	}
-	DDGifSlurp(info, true, false);
-	if (info->currentIndex == 0)
-		prepareCanvas(pixels, info);
-	const uint_fast32_t frameDuration = getBitmap((argb *) pixels, info);
+	renderStartTime = skipLateFrames(pixels, info, renderStartTime);
+	addFrameDirtyArea(info, &info->dirtyRect);
+	uint_fast32_t frameDuration;
+	if (isAnimationCached(info)) {
+		frameDuration = playCachedFrame(pixels, info);
+	} else {
+		DDGifSlurp(info, true, false);
+		if (info->currentIndex == 0)
+			prepareCanvas(pixels, info);
+		frameDuration = getBitmap((argb *) pixels, info);
+	}
 	unlockPixels(env, jbitmap);
 	return calculateInvalidationDelay(info, renderStartTime, frameDuration);
 }
+
+__unused JNIEXPORT jlong JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_renderFrameAhead(JNIEnv *env, jclass __unused handleClass, jlong gifInfo,
+                                                         jobject jpreviousBitmap, jobject jbitmap) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL)
+		return -1;
+
+	//frame is composed over the canvas left by the previous one, which lives in another buffer
+	void *previousPixels;
+	if (lockPixels(env, jpreviousBitmap, info, &previousPixels) != 0) {
+		return 0;
+	}
+	const size_t canvasSize = info->stride * info->gifFilePtr->SHeight * getCanvasPixelSize(info);
+	void *pixels;
+	if (lockPixels(env, jbitmap, info, &pixels) != 0) {
+		unlockPixels(env, jpreviousBitmap);
+		return 0;
+	}
+	memcpy(pixels, previousPixels, canvasSize);
+	unlockPixels(env, jpreviousBitmap);
+
+	uint_fast32_t frameDuration;
+	if (info->currentIndex >= info->gifFilePtr->ImageCount) {
+		frameDuration = info->isDataIncomplete ? INCOMPLETE_DATA_POLL_INTERVAL_MS : 0;
+	} else if (isAnimationCached(info)) {
+		addFrameDirtyArea(info, &info->dirtyRect);
+		frameDuration = playCachedFrame(pixels, info);
+	} else {
+		addFrameDirtyArea(info, &info->dirtyRect);
+		DDGifSlurp(info, true, false);
+		if (info->currentIndex == 0)
+			prepareCanvas(pixels, info);
+		frameDuration = getBitmap((argb *) pixels, info);
+	}
+	unlockPixels(env, jbitmap);
+	return calculateInvalidationDelay(info, getRealTime(), frameDuration);
+}
+
+__unused JNIEXPORT jboolean JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_getDirtyRect(JNIEnv *env, jclass __unused handleClass,
+                                                     jlong gifInfo, jintArray jrect) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL)
+		return JNI_FALSE;
+	const DirtyRect dirtyRect = info->dirtyRect;
+	info->dirtyRect = (DirtyRect) {0, 0, 0, 0};
+	if (dirtyRect.right <= dirtyRect.left || dirtyRect.bottom <= dirtyRect.top)
+		return JNI_FALSE;
+	const jint rect[4] = {(jint) dirtyRect.left, (jint) dirtyRect.top, (jint) dirtyRect.right, (jint) dirtyRect.bottom};
+	(*env)->SetIntArrayRegion(env, jrect, 0, 4, rect);
+	return JNI_TRUE;
+}
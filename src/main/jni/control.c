@@ -31,6 +31,15 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_setSpeedFactor(JNIEnv __unused *env,
 	info->speedFactor = factor;
 }
 
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_setRealTimePlayback(JNIEnv __unused *env, jclass __unused handleClass,
+                                                            jlong gifInfo, jboolean isRealTime) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL)
+		return;
+	info->isRealTimePlayback = isRealTime == JNI_TRUE;
+}
+
 static uint_fast32_t seekBitmap(GifInfo *info, JNIEnv *env, jint desiredIndex, jobject jbitmap) {
 	void *pixels;
 	if (lockPixels(env, jbitmap, info, &pixels) != 0) {
@@ -43,6 +52,14 @@ static uint_fast32_t seekBitmap(GifInfo *info, JNIEnv *env, jint desiredIndex, j
 
 uint_fast32_t seek(GifInfo *info, uint_fast32_t desiredIndex, const void *pixels) {
 	GifFileType *const gifFilePtr = info->gifFilePtr;
+	//incremental source may have no frames yet
+	if (gifFilePtr->ImageCount == 0)
+		return 0;
+	markCanvasDirty(info);
+	if (isAnimationCached(info)) {
+		info->currentIndex = desiredIndex < gifFilePtr->ImageCount ? desiredIndex : gifFilePtr->ImageCount - 1;
+		return playCachedFrame((argb *) pixels, info);
+	}
 	if (desiredIndex < info->currentIndex || info->currentIndex == 0) {
 		if (!reset(info)) {
 			gifFilePtr->Error = D_GIF_ERR_REWIND_FAILED;
@@ -59,25 +76,46 @@ uint_fast32_t seek(GifInfo *info, uint_fast32_t desiredIndex, const void *pixels
 		const GifImageDesc imageDesc = info->gifFilePtr->SavedImages[i].ImageDesc;
 		if (gifFilePtr->SWidth == imageDesc.Width && gifFilePtr->SHeight == imageDesc.Height) {
 			const GraphicsControlBlock controlBlock = info->controlBlock[i];
-			if (controlBlock.TransparentColor == NO_TRANSPARENT_COLOR) {
+			//area restored after such frame would come from skipped ones
+			if (controlBlock.DisposalMode == DISPOSE_PREVIOUS) {
+				continue;
+			} else if (controlBlock.TransparentColor == NO_TRANSPARENT_COLOR) {
 				break;
-			} else if (controlBlock.DisposalMode == DISPOSE_BACKGROUND) {
+			} else if (controlBlock.DisposalMode == DISPOSE_BACKGROUND && i < desiredIndex) {
+				//transparent frame shows skipped ones, only frames following its disposal start from clear canvas
 				break;
 			}
 		}
 	}
 
-	if (i > 0) {
-		while (info->currentIndex < i - 1) {
+	const uint_fast32_t startIndex = i;
+	// frames drawn over canvas left from skipped ones cannot be captured as snapshots
+	uint_fast32_t firstConsistentIndex = info->currentIndex;
+	if (restoreSnapshot((argb *) pixels, info, startIndex, desiredIndex)) {
+		firstConsistentIndex = info->currentIndex;
+	} else if (startIndex > info->currentIndex) {
+		//areas of skipped frames are not saved, so they cannot be restored
+		info->backupIndex = -1;
+		if (info->frameOffsets != NULL && info->frameOffsets[startIndex] >= 0) {
+			if (info->seekFunction(info, info->frameOffsets[startIndex]) != 0) {
+				return 0;
+			}
+			info->currentIndex = startIndex;
+		}
+		while (info->currentIndex < startIndex) {
 			DDGifSlurp(info, false, true);
 			++info->currentIndex;
 		}
+		firstConsistentIndex = info->controlBlock[i].TransparentColor == NO_TRANSPARENT_COLOR ? i : i + 1;
 	}
 
-	do {
+	while (info->currentIndex <= desiredIndex) {
 		DDGifSlurp(info, true, false);
 		drawNextBitmap((argb *) pixels, info);
-	} while (info->currentIndex++ < desiredIndex);
+		if (info->snapshotCache != NULL && info->currentIndex >= firstConsistentIndex)
+			captureSnapshot(pixels, info);
+		info->currentIndex++;
+	}
 	--info->currentIndex;
 	return getFrameDuration(info);
 }
@@ -125,6 +163,50 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_seekToFrame(JNIEnv *env, jclass __unu
 		info->lastFrameRemainder = 0;
 }
 
+static void seekPixels(GifInfo *info, jint desiredIndex, void *pixels, jint stride, jboolean isRgb565) {
+	setCanvasFormat(info, isRgb565 == JNI_TRUE);
+	info->stride = stride;
+	uint_fast32_t lastFrameDuration = seek(info, (uint_fast32_t) desiredIndex, pixels);
+
+	info->nextStartTime = getRealTime() + (long) (lastFrameDuration / info->speedFactor);
+	if (info->lastFrameRemainder != -1)
+		info->lastFrameRemainder = 0;
+}
+
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_seekToFrameInBuffer(JNIEnv *env, jclass __unused handleClass,
+                                                            jlong gifInfo, jint desiredIndex, jobject buffer,
+                                                            jint stride, jboolean isRgb565) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL) {
+		return;
+	}
+	void *pixels = (*env)->GetDirectBufferAddress(env, buffer);
+	if (pixels == NULL) {
+		throwException(env, RUNTIME_EXCEPTION_BARE, "Buffer is not direct");
+		return;
+	}
+	seekPixels(info, desiredIndex, pixels, stride, isRgb565);
+}
+
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_seekToFrameInArray(JNIEnv *env, jclass __unused handleClass,
+                                                           jlong gifInfo, jint desiredIndex, jintArray array,
+                                                           jint stride) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL) {
+		return;
+	}
+	//not a critical section, stream sources call back into Java while frames are decoded
+	jint *pixels = (*env)->GetIntArrayElements(env, array, NULL);
+	if (pixels == NULL) {
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return;
+	}
+	seekPixels(info, desiredIndex, pixels, stride, JNI_FALSE);
+	(*env)->ReleaseIntArrayElements(env, array, pixels, 0);
+}
+
 __unused JNIEXPORT void JNICALL
 Java_com_zing_zalo_gifplayer_GifInfoHandle_saveRemainder(JNIEnv *__unused  env, jclass __unused handleClass,
                                                       jlong gifInfo) {
@@ -1,7 +1,16 @@
 #include "gif.h"
+#include "giflib/gif_lib_private.h"
 
 static bool updateGCB(GifInfo *info, uint_fast32_t *lastAllocatedGCBIndex) {
 	if (*lastAllocatedGCBIndex < info->gifFilePtr->ImageCount) {
+		if (info->tellFunction != NULL) {
+			long long *tmpOffsets = reallocarray(info->frameOffsets, info->gifFilePtr->ImageCount + 1, sizeof(long long));
+			if (tmpOffsets == NULL) {
+				info->gifFilePtr->Error = D_GIF_ERR_NOT_ENOUGH_MEM;
+				return false;
+			}
+			info->frameOffsets = tmpOffsets;
+		}
 		GraphicsControlBlock *tmpInfos = reallocarray(info->controlBlock, info->gifFilePtr->ImageCount + 1, sizeof(GraphicsControlBlock));
 		if (tmpInfos == NULL) {
 			info->gifFilePtr->Error = D_GIF_ERR_NOT_ENOUGH_MEM;
@@ -21,10 +30,13 @@ void DDGifSlurp(GifInfo *info, bool decode, bool exitAfterFrame) {
 	GifFileType *gifFilePtr;
 	gifFilePtr = info->gifFilePtr;
 	uint_fast32_t lastAllocatedGCBIndex = 0;
+	const bool isInitialPass = !decode && !exitAfterFrame;
+	long long recordOffset = -1;
 	do {
+		if (isInitialPass && info->tellFunction != NULL)
+			recordOffset = info->tellFunction(info);
 		if (DGifGetRecordType(gifFilePtr, &RecordType) == GIF_ERROR)
 			return;
-		bool isInitialPass = !decode && !exitAfterFrame;
 		switch (RecordType) {
 			case IMAGE_DESC_RECORD_TYPE:
 
@@ -51,9 +63,16 @@ void DDGifSlurp(GifInfo *info, bool decode, bool exitAfterFrame) {
 					if (!updateGCB(info, &lastAllocatedGCBIndex)) {
 						return;
 					}
+					if (info->frameOffsets != NULL) {
+						info->frameOffsets[gifFilePtr->ImageCount - 1] = recordOffset;
+					}
 				}
 
 				if (decode) {
+					if (info->lineBuffer != NULL) {
+						decodeScaledFrame(info);
+						return;
+					}
 					int_fast32_t widthOverflow = gifFilePtr->Image.Width - info->originalWidth;
 					int_fast32_t heightOverflow = gifFilePtr->Image.Height - info->originalHeight;
 					if (widthOverflow > 0 || heightOverflow > 0) {
@@ -84,23 +103,6 @@ void DDGifSlurp(GifInfo *info, bool decode, bool exitAfterFrame) {
 						}
 					}
 
-					if (info->sampleSize > 1) {
-						unsigned char *dst = info->rasterBits;
-						unsigned char *src = info->rasterBits;
-						unsigned char *const srcEndImage = info->rasterBits + gifFilePtr->Image.Width * gifFilePtr->Image.Height;
-						do {
-							unsigned char *srcNextLineStart = src + gifFilePtr->Image.Width * info->sampleSize;
-							unsigned char *const srcEndLine = src + gifFilePtr->Image.Width;
-							unsigned char *dstEndLine = dst + gifFilePtr->Image.Width / info->sampleSize;
-							do {
-								*dst = *src;
-								dst++;
-								src += info->sampleSize;
-							} while (src < srcEndLine);
-							dst = dstEndLine;
-							src = srcNextLineStart;
-						} while (src < srcEndImage);
-					}
 					return;
 				} else {
 					do {
@@ -146,6 +148,86 @@ void DDGifSlurp(GifInfo *info, bool decode, bool exitAfterFrame) {
 	info->rewindFunction(info);
 }
 
+/**
+ * @return position following terminator of the sub-block sequence, 0 if it has not arrived yet
+ */
+static size_t skipSubBlocks(const GifByteType *data, size_t pos, size_t length) {
+	while (pos < length) {
+		if (data[pos] == 0)
+			return pos + 1;
+		pos += data[pos] + 1;
+	}
+	return 0;
+}
+
+size_t findNextFrameEnd(const jbyte *bytes, size_t pos, size_t length, bool *isTrailer) {
+	const GifByteType *data = (const GifByteType *) bytes;
+	while (pos < length) {
+		switch (data[pos]) {
+			case EXTENSION_INTRODUCER:
+				pos = skipSubBlocks(data, pos + 2, length);
+				if (pos == 0)
+					return 0;
+				break;
+			case DESCRIPTOR_INTRODUCER: {
+				if (pos + 10 > length)
+					return 0;
+				const GifByteType flags = data[pos + 9];
+				pos += 10;
+				if (flags & 0x80)
+					pos += 3 << ((flags & 0x07) + 1);
+				//LZW minimum code size precedes image data
+				return skipSubBlocks(data, pos + 1, length);
+			}
+			case TERMINATOR_INTRODUCER:
+				*isTrailer = true;
+				return 0;
+			default: //malformed record is reported by the decoder
+				return pos + 1;
+		}
+	}
+	return 0;
+}
+
+bool scanNextFrame(GifInfo *info) {
+	GifFileType *const gifFilePtr = info->gifFilePtr;
+	const GifWord width = gifFilePtr->SWidth;
+	const GifWord height = gifFilePtr->SHeight;
+	const int previousError = gifFilePtr->Error;
+	const uint_fast32_t imageCount = gifFilePtr->ImageCount;
+	const uint_fast16_t loopCount = info->loopCount;
+	//frames overflowing logical screen are moved in original coordinates
+	gifFilePtr->SWidth = info->originalWidth;
+	gifFilePtr->SHeight = info->originalHeight;
+	DDGifSlurp(info, false, false);
+	//record following the frame has not arrived yet, so scan ends with read failure
+	const bool isFrameValid = gifFilePtr->ImageCount == imageCount + 1
+	                          && gifFilePtr->Error == D_GIF_ERR_READ_FAILED
+	                          && gifFilePtr->SWidth == info->originalWidth
+	                          && gifFilePtr->SHeight == info->originalHeight;
+	gifFilePtr->SWidth = width;
+	gifFilePtr->SHeight = height;
+	if (gifFilePtr->Error != D_GIF_ERR_NOT_ENOUGH_MEM)
+		gifFilePtr->Error = previousError;
+	//loop count is declared before the first frame, later one would override the one set by user
+	if (imageCount > 0)
+		info->loopCount = loopCount;
+
+	if (!isFrameValid) {
+		while (gifFilePtr->ImageCount > imageCount) {
+			SavedImage *sp = &gifFilePtr->SavedImages[--gifFilePtr->ImageCount];
+			if (info->paletteColorMap == sp->ImageDesc.ColorMap)
+				info->paletteColorMap = NULL;
+			GifFreeMapObject(sp->ImageDesc.ColorMap);
+			sp->ImageDesc.ColorMap = NULL;
+		}
+		return false;
+	}
+	if (width != info->originalWidth || height != info->originalHeight)
+		scaleFrameDesc(info, &gifFilePtr->SavedImages[imageCount].ImageDesc);
+	return true;
+}
+
 static int readExtensions(int ExtFunction, GifByteType *ExtData, GifInfo *info) {
 	if (ExtData == NULL)
 		return GIF_OK;
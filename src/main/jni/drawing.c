@@ -7,66 +7,270 @@ extern void arm_memset32(uint32_t* dst, uint32_t value, int count);
 extern void memset32_neon(uint32_t* dst, uint32_t value, int count);
 #define MEMSET_ARGB(dst, value, count) memset32_neon(dst, value, (int) count)
 #else
-#define MEMSET_ARGB(dst, value, count) memset(dst, value, count * sizeof(argb))
+static inline void memset32(uint32_t *dst, uint32_t value, size_t count) {
+	for (; count > 0; count--) {
+		*dst++ = value;
+	}
+}
+#define MEMSET_ARGB(dst, value, count) memset32(dst, value, count)
+#endif
+
+#if defined (__ARM_NEON) || defined (__ARM_NEON__)
+#include <arm_neon.h>
+#define HAS_NEON
+#elif defined (__SSE2__)
+#include <emmintrin.h>
+#endif
+
+/**
+ * Number of indices compared with transparent one at once.
+ */
+#define KEY_CHUNK_LENGTH 16
+
+typedef enum {
+	CHUNK_OPAQUE,
+	CHUNK_TRANSPARENT,
+	CHUNK_MIXED
+} ChunkTransparency;
+
+static const uint32_t *getExpandedPalette(GifInfo *info, const ColorMapObject *cmap) {
+	if (info->paletteColorMap == cmap) {
+		return info->palette;
+	}
+	const GifColorType black = {0, 0, 0};
+	argb color = {.alpha = 0xFF};
+	uint_fast16_t i;
+	for (i = 0; i < 256; i++) {
+		color.rgb = i < cmap->ColorCount ? cmap->Colors[i] : black;
+		memcpy(info->palette + i, &color, sizeof(uint32_t));
+	}
+	info->paletteColorMap = cmap;
+	return info->palette;
+}
+
+static inline void blitLine(uint32_t *dst, const GifPixelType *src, uint_fast32_t length, const uint32_t *palette) {
+	for (; length > 0; length--) {
+		*dst++ = palette[*src++];
+	}
+}
+
+#if defined (HAS_NEON) || defined (__SSE2__)
+static inline ChunkTransparency getChunkTransparency(const GifPixelType *src, GifPixelType transpIndex) {
+#ifdef HAS_NEON
+	const uint8x16_t matches = vceqq_u8(vld1q_u8(src), vdupq_n_u8(transpIndex));
+	const uint64x2_t halves = vreinterpretq_u64_u8(matches);
+	const uint64_t anyMatch = vgetq_lane_u64(halves, 0) | vgetq_lane_u64(halves, 1);
+	const uint64_t allMatch = vgetq_lane_u64(halves, 0) & vgetq_lane_u64(halves, 1);
+	if (anyMatch == 0)
+		return CHUNK_OPAQUE;
+	return allMatch == UINT64_MAX ? CHUNK_TRANSPARENT : CHUNK_MIXED;
+#else
+	const __m128i matches = _mm_cmpeq_epi8(_mm_loadu_si128((const __m128i *) src), _mm_set1_epi8((char) transpIndex));
+	const int mask = _mm_movemask_epi8(matches);
+	if (mask == 0)
+		return CHUNK_OPAQUE;
+	return mask == 0xFFFF ? CHUNK_TRANSPARENT : CHUNK_MIXED;
 #endif
+}
 
+/**
+ * Pixels of chunks mixing transparent and opaque ones are selected without branches,
+ * since such chunks are usually unpredictable.
+ */
+static inline void blitMixedChunk(uint32_t *dst, const GifPixelType *src, const uint32_t *palette,
+                                  GifPixelType transpIndex) {
+#ifdef HAS_NEON
+	const uint8x16_t matches = vceqq_u8(vld1q_u8(src), vdupq_n_u8(transpIndex));
+	const uint8x16x2_t matches16 = vzipq_u8(matches, matches);
+	const uint16x8x2_t lowMatches32 = vzipq_u16(vreinterpretq_u16_u8(matches16.val[0]), vreinterpretq_u16_u8(matches16.val[0]));
+	const uint16x8x2_t highMatches32 = vzipq_u16(vreinterpretq_u16_u8(matches16.val[1]), vreinterpretq_u16_u8(matches16.val[1]));
+	const uint32x4_t keyMasks[4] = {
+			vreinterpretq_u32_u16(lowMatches32.val[0]), vreinterpretq_u32_u16(lowMatches32.val[1]),
+			vreinterpretq_u32_u16(highMatches32.val[0]), vreinterpretq_u32_u16(highMatches32.val[1])
+	};
+#else
+	const __m128i matches = _mm_cmpeq_epi8(_mm_loadu_si128((const __m128i *) src), _mm_set1_epi8((char) transpIndex));
+	const __m128i lowMatches16 = _mm_unpacklo_epi8(matches, matches);
+	const __m128i highMatches16 = _mm_unpackhi_epi8(matches, matches);
+	const __m128i keyMasks[4] = {
+			_mm_unpacklo_epi16(lowMatches16, lowMatches16), _mm_unpackhi_epi16(lowMatches16, lowMatches16),
+			_mm_unpacklo_epi16(highMatches16, highMatches16), _mm_unpackhi_epi16(highMatches16, highMatches16)
+	};
+#endif
+	uint_fast8_t i;
+	for (i = 0; i < KEY_CHUNK_LENGTH / 4; i++, src += 4, dst += 4) {
+		const uint32_t colors[4] = {palette[src[0]], palette[src[1]], palette[src[2]], palette[src[3]]};
+#ifdef HAS_NEON
+		vst1q_u32(dst, vbslq_u32(keyMasks[i], vld1q_u32(dst), vld1q_u32(colors)));
+#else
+		const __m128i previous = _mm_loadu_si128((const __m128i *) dst);
+		const __m128i blended = _mm_or_si128(_mm_and_si128(keyMasks[i], previous),
+		                                     _mm_andnot_si128(keyMasks[i], _mm_loadu_si128((const __m128i *) colors)));
+		_mm_storeu_si128((__m128i *) dst, blended);
+#endif
+	}
+}
+#endif
+
+/**
+ * Copies pixels other than transparent ones. Where SIMD is available indices are compared
+ * in chunks, so runs of opaque or transparent pixels are handled without per-pixel checks.
+ */
+static inline void blitKeyedLine(uint32_t *dst, const GifPixelType *src, uint_fast32_t length,
+                                 const uint32_t *palette, GifPixelType transpIndex) {
+	uint_fast32_t x = 0;
+#if defined (HAS_NEON) || defined (__SSE2__)
+	for (; x + KEY_CHUNK_LENGTH <= length; x += KEY_CHUNK_LENGTH) {
+		const ChunkTransparency transparency = getChunkTransparency(src + x, transpIndex);
+		if (transparency == CHUNK_OPAQUE) {
+			blitLine(dst + x, src + x, KEY_CHUNK_LENGTH, palette);
+		} else if (transparency == CHUNK_MIXED) {
+			blitMixedChunk(dst + x, src + x, palette, transpIndex);
+		}
+	}
+#endif
+	for (; x < length; x++) {
+		if (src[x] != transpIndex) {
+			dst[x] = palette[src[x]];
+		}
+	}
+}
+
+/**
+ * Writes whole 32-bit pixels from the palette expanded once per color map. Drawn pixels
+ * are always opaque, so the same loops serve opaque and non-opaque canvases.
+ */
 static inline void blitNormal(argb *bm, GifInfo *info, SavedImage *frame, ColorMapObject *cmap) {
+	const uint32_t *palette = getExpandedPalette(info, cmap);
+	const GifPixelType *src = info->rasterBits;
+	uint32_t *dst = (uint32_t *) GET_ADDR(bm, info->stride, frame->ImageDesc.Left, frame->ImageDesc.Top);
+	const uint_fast32_t width = (uint_fast32_t) frame->ImageDesc.Width;
+
+	uint_fast16_t y = frame->ImageDesc.Height;
+	const int_fast16_t transpIndex = info->controlBlock[info->currentIndex].TransparentColor;
+	for (; y > 0; y--) {
+		if (transpIndex == NO_TRANSPARENT_COLOR) {
+			blitLine(dst, src, width, palette);
+		} else {
+			blitKeyedLine(dst, src, width, palette, (GifPixelType) transpIndex);
+		}
+		src += width;
+		dst += info->stride;
+	}
+}
+
+/**
+ * Writes 16-bit pixels through the palette converted once per frame, canvas is always opaque.
+ */
+static inline void blitRgb565(uint16_t *bm, GifInfo *info, SavedImage *frame, ColorMapObject *cmap) {
+	uint16_t palette[256];
+	uint_fast16_t i;
+	for (i = 0; i < 256; i++) {
+		palette[i] = i < cmap->ColorCount ? toRgb565(cmap->Colors[i]) : 0;
+	}
 	unsigned char *src = info->rasterBits;
-	argb *dst = GET_ADDR(bm, info->stride, frame->ImageDesc.Left, frame->ImageDesc.Top);
+	uint16_t *dst = GET_ADDR(bm, info->stride, frame->ImageDesc.Left, frame->ImageDesc.Top);
 
 	uint_fast16_t x, y = frame->ImageDesc.Height;
 	const int_fast16_t transpIndex = info->controlBlock[info->currentIndex].TransparentColor;
-	if (info->isOpaque) {
-		if (transpIndex == NO_TRANSPARENT_COLOR) {
-			for (; y > 0; y--) {
-				for (x = frame->ImageDesc.Width; x > 0; x--, src++, dst++) {
-					dst->rgb = cmap->Colors[*src];
-				}
-				dst += info->stride - frame->ImageDesc.Width;
+	if (transpIndex == NO_TRANSPARENT_COLOR) {
+		for (; y > 0; y--) {
+			for (x = frame->ImageDesc.Width; x > 0; x--, src++, dst++) {
+				*dst = palette[*src];
 			}
-		} else {
-			for (; y > 0; y--) {
-				for (x = frame->ImageDesc.Width; x > 0; x--, src++, dst++) {
-					if (*src != transpIndex) {
-						dst->rgb = cmap->Colors[*src];
-					}
+			dst += info->stride - frame->ImageDesc.Width;
+		}
+	} else {
+		for (; y > 0; y--) {
+			for (x = frame->ImageDesc.Width; x > 0; x--, src++, dst++) {
+				if (*src != transpIndex) {
+					*dst = palette[*src];
 				}
-				dst += info->stride - frame->ImageDesc.Width;
 			}
+			dst += info->stride - frame->ImageDesc.Width;
 		}
+	}
+}
+
+static inline void blendAveragedPixel(argb *dst, const uint32_t *sums, uint_fast32_t area) {
+	const uint_fast32_t opaqueCount = sums[3];
+	if (opaqueCount == area) {
+		dst->rgb.Red = (GifByteType) ((sums[0] + area / 2) / area);
+		dst->rgb.Green = (GifByteType) ((sums[1] + area / 2) / area);
+		dst->rgb.Blue = (GifByteType) ((sums[2] + area / 2) / area);
+		dst->alpha = 0xFF;
 	} else {
-		if (transpIndex == NO_TRANSPARENT_COLOR) {
-			for (; y > 0; y--) {
-				MEMSET_ARGB((uint32_t *) dst, UINT32_MAX, frame->ImageDesc.Width);
-				for (x = frame->ImageDesc.Width; x > 0; x--, src++, dst++) {
-					dst->rgb = cmap->Colors[*src];
-				}
-				dst += info->stride - frame->ImageDesc.Width;
+		const uint_fast32_t alpha = (opaqueCount * 0xFF + area / 2) / area;
+		const uint_fast32_t inverseAlpha = 0xFF - alpha;
+		dst->rgb.Red = (GifByteType) ((sums[0] + area / 2) / area + (dst->rgb.Red * inverseAlpha + 0x7F) / 0xFF);
+		dst->rgb.Green = (GifByteType) ((sums[1] + area / 2) / area + (dst->rgb.Green * inverseAlpha + 0x7F) / 0xFF);
+		dst->rgb.Blue = (GifByteType) ((sums[2] + area / 2) / area + (dst->rgb.Blue * inverseAlpha + 0x7F) / 0xFF);
+		dst->alpha = (uint8_t) (alpha + (dst->alpha * inverseAlpha + 0x7F) / 0xFF);
+	}
+}
+
+/**
+ * Blends averaged colors of the downscaled frame, partially covered pixels are composited
+ * onto the canvas in premultiplied form.
+ */
+static inline void blitAreaAveraged(argb *bm, GifInfo *info, SavedImage *frame) {
+	const uint_fast32_t srcWidth = (uint_fast32_t) info->gifFilePtr->Image.Width;
+	const uint_fast32_t srcHeight = (uint_fast32_t) info->gifFilePtr->Image.Height;
+	const uint_fast32_t dstWidth = (uint_fast32_t) frame->ImageDesc.Width;
+	const uint_fast32_t dstHeight = (uint_fast32_t) frame->ImageDesc.Height;
+	//sums are not valid if decoded image does not match the frame
+	if (srcWidth < dstWidth || srcHeight < dstHeight)
+		return;
+	const uint32_t *sums = info->areaSums;
+	const size_t firstPixel = (size_t) frame->ImageDesc.Top * info->stride + frame->ImageDesc.Left;
+
+	uint_fast32_t x, y, srcY = 0;
+	for (y = 0; y < dstHeight; y++) {
+		argb *dst = bm + firstPixel + y * info->stride;
+		uint16_t *dst565 = (uint16_t *) bm + firstPixel + y * info->stride;
+		const uint_fast32_t nextSrcY = (uint_fast32_t) (((uint_fast64_t) (y + 1) * srcHeight + dstHeight - 1) / dstHeight);
+		const uint_fast32_t footprintHeight = nextSrcY - srcY;
+		uint_fast32_t srcX = 0, remainder = dstWidth - 1;
+		for (x = 0; x < dstWidth; x++, sums += 4, dst++, dst565++) {
+			uint_fast32_t nextSrcX = srcX + srcWidth / dstWidth;
+			remainder += srcWidth % dstWidth;
+			if (remainder >= dstWidth) {
+				nextSrcX++;
+				remainder -= dstWidth;
 			}
-		} else {
-			for (; y > 0; y--) {
-				for (x = frame->ImageDesc.Width; x > 0; x--, src++, dst++) {
-					if (*src != transpIndex) {
-						dst->rgb = cmap->Colors[*src];
-						dst->alpha = 0xFF;
-					}
-				}
-				dst += info->stride - frame->ImageDesc.Width;
+			const uint_fast32_t area = (nextSrcX - srcX) * footprintHeight;
+			srcX = nextSrcX;
+			if (sums[3] == 0) {
+				continue;
+			}
+			if (info->isRgb565) {
+				argb pixel = {.rgb = fromRgb565(*dst565), .alpha = 0xFF};
+				blendAveragedPixel(&pixel, sums, area);
+				*dst565 = toRgb565(pixel.rgb);
+			} else {
+				blendAveragedPixel(dst, sums, area);
 			}
 		}
+		srcY = nextSrcY;
 	}
 }
 
-static void drawFrame(argb *bm, GifInfo *info, SavedImage *frame) {
-	ColorMapObject *cmap;
+ColorMapObject *getFrameColorMap(const GifInfo *info, const SavedImage *frame) {
 	if (frame->ImageDesc.ColorMap != NULL)
-		cmap = frame->ImageDesc.ColorMap;// use local color table
+		return frame->ImageDesc.ColorMap;// use local color table
 	else if (info->gifFilePtr->SColorMap != NULL)
-		cmap = info->gifFilePtr->SColorMap;
+		return info->gifFilePtr->SColorMap;
 	else
-		cmap = getDefColorMap();
+		return getDefColorMap();
+}
 
-	blitNormal(bm, info, frame, cmap);
+static void drawFrame(argb *bm, GifInfo *info, SavedImage *frame) {
+	if (info->areaSums != NULL)
+		blitAreaAveraged(bm, info, frame);
+	else if (info->isRgb565)
+		blitRgb565((uint16_t *) bm, info, frame, getFrameColorMap(info, frame));
+	else
+		blitNormal(bm, info, frame, getFrameColorMap(info, frame));
 }
 
 // return true if area of 'target' is completely covers area of 'covered'
@@ -82,6 +286,46 @@ static bool checkIfCover(const SavedImage *target, const SavedImage *covered) {
 	return false;
 }
 
+/**
+ * Copies area of the frame between the canvas and the backup, which holds the area without gaps.
+ */
+static void copyFrameArea(argb *bm, const GifInfo *info, const GifImageDesc *area, bool isRestoring) {
+	const size_t pixelSize = getCanvasPixelSize(info);
+	const size_t rowSize = area->Width * pixelSize;
+	uint8_t *canvasRow = (uint8_t *) bm + ((size_t) area->Top * info->stride + area->Left) * pixelSize;
+	uint8_t *backupRow = (uint8_t *) info->backupPtr;
+	uint_fast16_t y;
+	for (y = 0; y < area->Height; y++) {
+		if (isRestoring)
+			memcpy(canvasRow, backupRow, rowSize);
+		else
+			memcpy(backupRow, canvasRow, rowSize);
+		canvasRow += info->stride * pixelSize;
+		backupRow += rowSize;
+	}
+}
+
+/**
+ * Saves area which is going to be covered by the current frame, so it can be restored when
+ * the frame is disposed. Backup grows to the largest area saved.
+ */
+static void backupFrameArea(argb *bm, GifInfo *info) {
+	const GifImageDesc *area = &info->gifFilePtr->SavedImages[info->currentIndex].ImageDesc;
+	const size_t size = (size_t) area->Width * area->Height * getCanvasPixelSize(info);
+	if (size > info->backupSize) {
+		argb *tmpBackup = realloc(info->backupPtr, size);
+		if (tmpBackup == NULL) {
+			info->gifFilePtr->Error = D_GIF_ERR_NOT_ENOUGH_MEM;
+			info->backupIndex = -1;
+			return;
+		}
+		info->backupPtr = tmpBackup;
+		info->backupSize = size;
+	}
+	copyFrameArea(bm, info, area, false);
+	info->backupIndex = (int_fast32_t) info->currentIndex;
+}
+
 static inline void disposeFrameIfNeeded(argb *bm, GifInfo *info) {
 	GifFileType *fGif = info->gifFilePtr;
 	SavedImage *cur = &fGif->SavedImages[info->currentIndex - 1];
@@ -90,47 +334,70 @@ static inline void disposeFrameIfNeeded(argb *bm, GifInfo *info) {
 	// and completely covers current area
 	uint_fast8_t curDisposal = info->controlBlock[info->currentIndex - 1].DisposalMode;
 	bool nextTrans = info->controlBlock[info->currentIndex].TransparentColor != NO_TRANSPARENT_COLOR;
-	uint_fast8_t nextDisposal = info->controlBlock[info->currentIndex].DisposalMode;
+	// area saved for the next frame has to be disposed even if it is going to be covered
+	bool nextSaved = info->controlBlock[info->currentIndex].DisposalMode == DISPOSE_PREVIOUS;
 
-	if ((curDisposal == DISPOSE_PREVIOUS || nextDisposal == DISPOSE_PREVIOUS) && info->backupPtr == NULL) {
-		info->backupPtr = calloc(info->stride * fGif->SHeight, sizeof(argb));
-		if (!info->backupPtr) {
-			info->gifFilePtr->Error = D_GIF_ERR_NOT_ENOUGH_MEM; //TODO throw OOME
-			return;
-		}
-	}
-	argb *backup = info->backupPtr;
-	if (nextTrans || !checkIfCover(next, cur)) {
-		if (curDisposal == DISPOSE_BACKGROUND) {// restore to background (under this image) color
+	if (nextTrans || nextSaved || !checkIfCover(next, cur)) {
+		if (curDisposal == DISPOSE_BACKGROUND && info->isRgb565) {
+			uint16_t *dst = GET_ADDR((uint16_t *) bm, info->stride, cur->ImageDesc.Left, cur->ImageDesc.Top);
+			uint_fast16_t copyHeight = cur->ImageDesc.Height;
+			for (; copyHeight > 0; copyHeight--) {
+				memset(dst, 0, cur->ImageDesc.Width * sizeof(uint16_t));
+				dst += info->stride;
+			}
+		} else if (curDisposal == DISPOSE_BACKGROUND) {// restore to background (under this image) color
 			uint32_t *dst = (uint32_t *) GET_ADDR(bm, info->stride, cur->ImageDesc.Left, cur->ImageDesc.Top);
 			uint_fast16_t copyHeight = cur->ImageDesc.Height;
 			for (; copyHeight > 0; copyHeight--) {
 				MEMSET_ARGB(dst, 0, cur->ImageDesc.Width);
 				dst += info->stride;
 			}
-		} else if (curDisposal == DISPOSE_PREVIOUS && nextDisposal == DISPOSE_PREVIOUS) {// restore to previous
-			argb *tmp = bm;
-			bm = backup;
-			backup = tmp;
+		} else if (curDisposal == DISPOSE_PREVIOUS && info->backupIndex == (int_fast32_t) info->currentIndex - 1) {
+			// restore to previous, backup is missing if the frame has been skipped while seeking
+			copyFrameArea(bm, info, &cur->ImageDesc, true);
 		}
 	}
-
-	// Save current image if next frame's disposal method == DISPOSE_PREVIOUS
-	if (nextDisposal == DISPOSE_PREVIOUS) {
-		memcpy(backup, bm, info->stride * fGif->SHeight * sizeof(argb));
-    }
 }
 
+/**
+ * Fills visible part of the canvas with background, padding at the ends of rows is left intact
+ * since buffers supplied by callers may end right after the last pixel.
+ */
 void prepareCanvas(const argb *bm, GifInfo *info) {
 	GifFileType *const gifFilePtr = info->gifFilePtr;
-	if (gifFilePtr->SColorMap && info->controlBlock->TransparentColor == NO_TRANSPARENT_COLOR) {
+	const bool isBackgroundOpaque = gifFilePtr->SColorMap && info->controlBlock->TransparentColor == NO_TRANSPARENT_COLOR;
+	uint_fast32_t rowLength = (uint_fast32_t) gifFilePtr->SWidth;
+	uint_fast32_t rowCount = (uint_fast32_t) gifFilePtr->SHeight;
+	if ((uint_fast32_t) info->stride == rowLength) {
+		rowLength *= rowCount;
+		rowCount = 1;
+	}
+	if (info->isRgb565) {
+		uint16_t bgColor = 0;
+		if (isBackgroundOpaque)
+			bgColor = toRgb565(gifFilePtr->SColorMap->Colors[gifFilePtr->SBackGroundColor]);
+		uint16_t *dst = (uint16_t *) bm;
+		for (; rowCount > 0; rowCount--) {
+			uint_fast32_t i;
+			for (i = 0; i < rowLength; i++) {
+				dst[i] = bgColor;
+			}
+			dst += info->stride;
+		}
+		return;
+	}
+	uint32_t bgColor = 0;
+	if (isBackgroundOpaque) {
 		argb bgColArgb = {
 				.rgb = gifFilePtr->SColorMap->Colors[gifFilePtr->SBackGroundColor],
 				.alpha = 0xFF
 		};
-		MEMSET_ARGB((uint32_t *) bm, *(uint32_t *) &bgColArgb, info->stride * gifFilePtr->SHeight);
-	} else {
-		MEMSET_ARGB((uint32_t *) bm, 0, info->stride * gifFilePtr->SHeight);
+		bgColor = *(uint32_t *) &bgColArgb;
+	}
+	uint32_t *dst = (uint32_t *) bm;
+	for (; rowCount > 0; rowCount--) {
+		MEMSET_ARGB(dst, bgColor, rowLength);
+		dst += info->stride;
 	}
 }
 
@@ -138,12 +405,56 @@ void drawNextBitmap(argb *bm, GifInfo *info) {
 	if (info->currentIndex > 0) {
 		disposeFrameIfNeeded(bm, info);
 	}
+	if (info->controlBlock[info->currentIndex].DisposalMode == DISPOSE_PREVIOUS) {
+		backupFrameArea(bm, info);
+	}
 	drawFrame(bm, info, info->gifFilePtr->SavedImages + info->currentIndex);
 }
 
+static void addDirtyArea(DirtyRect *rect, const GifImageDesc *area) {
+	const uint_fast32_t right = (uint_fast32_t) (area->Left + area->Width);
+	const uint_fast32_t bottom = (uint_fast32_t) (area->Top + area->Height);
+	if (rect->right <= rect->left || rect->bottom <= rect->top) {
+		rect->left = area->Left;
+		rect->top = area->Top;
+		rect->right = right;
+		rect->bottom = bottom;
+		return;
+	}
+	if (area->Left < rect->left)
+		rect->left = area->Left;
+	if (area->Top < rect->top)
+		rect->top = area->Top;
+	if (right > rect->right)
+		rect->right = right;
+	if (bottom > rect->bottom)
+		rect->bottom = bottom;
+}
+
+void addFrameDirtyArea(const GifInfo *info, DirtyRect *rect) {
+	const GifFileType *gifFilePtr = info->gifFilePtr;
+	if (info->currentIndex == 0) {
+		const GifImageDesc canvas = {.Width = gifFilePtr->SWidth, .Height = gifFilePtr->SHeight};
+		addDirtyArea(rect, &canvas);
+		return;
+	}
+	addDirtyArea(rect, &gifFilePtr->SavedImages[info->currentIndex].ImageDesc);
+	const uint_fast8_t previousDisposal = info->controlBlock[info->currentIndex - 1].DisposalMode;
+	if (previousDisposal == DISPOSE_BACKGROUND || previousDisposal == DISPOSE_PREVIOUS)
+		addDirtyArea(rect, &gifFilePtr->SavedImages[info->currentIndex - 1].ImageDesc);
+}
+
+void markCanvasDirty(GifInfo *info) {
+	info->dirtyRect.left = 0;
+	info->dirtyRect.top = 0;
+	info->dirtyRect.right = (uint_fast32_t) info->gifFilePtr->SWidth;
+	info->dirtyRect.bottom = (uint_fast32_t) info->gifFilePtr->SHeight;
+}
+
 uint_fast32_t getFrameDuration(GifInfo *info) {
 	uint_fast32_t frameDuration = info->controlBlock[info->currentIndex].DelayTime;
-	if (++info->currentIndex >= info->gifFilePtr->ImageCount) {
+	//playback of incomplete source waits for the next frame instead of looping
+	if (++info->currentIndex >= info->gifFilePtr->ImageCount && !info->isDataIncomplete) {
 		if (info->loopCount == 0 || info->currentLoop + 1 < info->loopCount) {
 			if (info->rewindFunction(info) != 0)
 				return 0;
@@ -161,5 +472,9 @@ uint_fast32_t getFrameDuration(GifInfo *info) {
 
 uint_fast32_t getBitmap(argb *bm, GifInfo *info) {
 	drawNextBitmap(bm, info);
+	if (info->snapshotCache != NULL)
+		captureSnapshot(bm, info);
+	if (info->animationCache != NULL)
+		captureAnimationFrame(bm, info);
 	return getFrameDuration(info);
 }
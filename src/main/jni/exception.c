@@ -4,6 +4,12 @@
 #define OUT_OF_MEMORY_ERROR_CLASS_NAME "java/lang/OutOfMemoryError"
 #define NULL_POINTER_EXCEPTION_CLASS_NAME "java/lang/NullPointerException"
 
+//glibc of headless build defines it as INT_MAX, which is too much for the message buffer on stack
+#if NL_TEXTMAX > 255
+#undef NL_TEXTMAX
+#define NL_TEXTMAX 255
+#endif
+
 inline void throwException(JNIEnv *env, enum Exception exception, char *message) {
 	if ((*env)->ExceptionCheck(env) == JNI_TRUE)
 		return;
@@ -27,6 +27,17 @@ static uint_fast8_t fileRead(GifFileType *gif, GifByteType *bytes, uint_fast8_t
 	return (uint_fast8_t) fread(bytes, 1, size, file);
 }
 
+static uint_fast8_t mappedFileReadFun(GifFileType *gif, GifByteType *bytes, uint_fast8_t size) {
+	MappedFileContainer *mfc = gif->UserData;
+	if (mfc->pos >= mfc->capacity)
+		return 0;
+	if (mfc->pos + size > mfc->capacity)
+		size -= mfc->pos + size - mfc->capacity;
+	memcpy(bytes, mfc->bytes + mfc->pos, (size_t) size);
+	mfc->pos += size;
+	return size;
+}
+
 static uint_fast8_t directByteBufferReadFun(GifFileType *gif, GifByteType *bytes, uint_fast8_t size) {
 	DirectByteBufferContainer *dbbc = gif->UserData;
 	if (dbbc->pos + size > dbbc->capacity)
@@ -38,34 +49,64 @@ static uint_fast8_t directByteBufferReadFun(GifFileType *gif, GifByteType *bytes
 
 static uint_fast8_t byteArrayReadFun(GifFileType *gif, GifByteType *bytes, uint_fast8_t size) {
 	ByteArrayContainer *bac = gif->UserData;
-	JNIEnv *env = getEnv();
-	if (!env)
-		return 0;
 	if (bac->pos + size > bac->arrLen)
 		size -= bac->pos + size - bac->arrLen;
-	(*env)->GetByteArrayRegion(env, bac->buffer, (jsize) bac->pos, size, (jbyte *) bytes);
+	memcpy(bytes, bac->bytes + bac->pos, (size_t) size);
 	bac->pos += size;
 	return size;
 }
 
-static uint_fast8_t streamReadFun(GifFileType *gif, GifByteType *bytes, uint_fast8_t size) {
-	StreamContainer *sc = gif->UserData;
+static uint_fast8_t incrementalReadFun(GifFileType *gif, GifByteType *bytes, uint_fast8_t size) {
+	IncrementalContainer *ic = gif->UserData;
+	const size_t limit = ic->readLimit < ic->length ? ic->readLimit : ic->length;
+	if (ic->pos >= limit)
+		return 0;
+	if (ic->pos + size > limit)
+		size = (uint_fast8_t) (limit - ic->pos);
+	memcpy(bytes, ic->bytes + ic->pos, (size_t) size);
+	ic->pos += size;
+	return size;
+}
+
+/**
+ * Refills read-ahead buffer with single InputStream.read() call.
+ * @return false if stream has ended or cannot be read
+ */
+static bool fillStreamBuffer(StreamContainer *sc) {
 	JNIEnv *env = getEnv();
 	if (env == NULL || (*env)->MonitorEnter(env, sc->stream) != 0)
-		return 0;
+		return false;
 
-	jint len = (*env)->CallIntMethod(env, sc->stream, sc->readMID, sc->buffer, 0, size);
+	jint len = (*env)->CallIntMethod(env, sc->stream, sc->readMID, sc->buffer, 0, STREAM_BUFFER_SIZE);
 	if ((*env)->ExceptionCheck(env)) {
 		(*env)->ExceptionClear(env);
 		len = 0;
 	}
 	else if (len > 0) {
-		(*env)->GetByteArrayRegion(env, sc->buffer, 0, len, (jbyte *) bytes);
+		(*env)->GetByteArrayRegion(env, sc->buffer, 0, len, (jbyte *) sc->readAhead);
 	}
 	if ((*env)->MonitorExit(env, sc->stream) != 0)
 		len = 0;
 
-	return (uint_fast8_t) (len >= 0 ? len : 0);
+	sc->readAheadPos = 0;
+	sc->readAheadLength = (uint_fast32_t) (len > 0 ? len : 0);
+	return len > 0;
+}
+
+static uint_fast8_t streamReadFun(GifFileType *gif, GifByteType *bytes, uint_fast8_t size) {
+	StreamContainer *sc = gif->UserData;
+	uint_fast8_t copied = 0;
+	while (copied < size) {
+		if (sc->readAheadPos == sc->readAheadLength && !fillStreamBuffer(sc))
+			break;
+		uint_fast32_t chunkSize = sc->readAheadLength - sc->readAheadPos;
+		if (chunkSize > (uint_fast32_t) (size - copied))
+			chunkSize = (uint_fast32_t) (size - copied);
+		memcpy(bytes + copied, sc->readAhead + sc->readAheadPos, chunkSize);
+		sc->readAheadPos += chunkSize;
+		copied += chunkSize;
+	}
+	return copied;
 }
 
 static int fileRewind(GifInfo *info) {
@@ -75,6 +116,29 @@ static int fileRewind(GifInfo *info) {
 	return -1;
 }
 
+/**
+ * Shrinks readable part of the mapping if file has been truncated since it was mapped,
+ * mapping is not extended if file has grown.
+ */
+static int refreshMappedFileCapacity(GifInfo *info) {
+	MappedFileContainer *mfc = info->gifFilePtr->UserData;
+	struct stat st;
+	if (fstat(mfc->fd, &st) != 0) {
+		info->gifFilePtr->Error = D_GIF_ERR_REWIND_FAILED;
+		return -1;
+	}
+	const jlong capacity = st.st_size > mfc->offset ? st.st_size - mfc->offset : 0;
+	if (capacity < mfc->capacity)
+		mfc->capacity = capacity;
+	return 0;
+}
+
+static int mappedFileRewindFun(GifInfo *info) {
+	MappedFileContainer *mfc = info->gifFilePtr->UserData;
+	mfc->pos = info->startPos;
+	return refreshMappedFileCapacity(info);
+}
+
 static int streamRewind(GifInfo *info) {
 	GifFileType *gif = info->gifFilePtr;
 	StreamContainer *sc = gif->UserData;
@@ -89,6 +153,8 @@ static int streamRewind(GifInfo *info) {
 		info->gifFilePtr->Error = D_GIF_ERR_REWIND_FAILED;
 		return -1;
 	}
+	sc->readAheadPos = 0;
+	sc->readAheadLength = 0;
 	return 0;
 }
 
@@ -104,30 +170,167 @@ static int directByteBufferRewindFun(GifInfo *info) {
 	return 0;
 }
 
-__unused JNIEXPORT jlong JNICALL
-Java_com_zing_zalo_gifplayer_GifInfoHandle_openFile(JNIEnv *env, jclass __unused class,
-                                                 jstring jfname, jboolean justDecodeMetaData, jint maxSize) {
-	if (isSourceNull(jfname, env)) {
-		return NULL_GIF_INFO;
+static int incrementalRewindFun(GifInfo *info) {
+	IncrementalContainer *ic = info->gifFilePtr->UserData;
+	ic->pos = (size_t) info->startPos;
+	return 0;
+}
+
+static long long fileTell(GifInfo *info) {
+	return ftello(info->gifFilePtr->UserData);
+}
+
+static int fileSeek(GifInfo *info, long long position) {
+	if (fseeko(info->gifFilePtr->UserData, position, SEEK_SET) == 0)
+		return 0;
+	info->gifFilePtr->Error = D_GIF_ERR_REWIND_FAILED;
+	return -1;
+}
+
+static long long mappedFileTellFun(GifInfo *info) {
+	MappedFileContainer *mfc = info->gifFilePtr->UserData;
+	return mfc->pos;
+}
+
+static int mappedFileSeekFun(GifInfo *info, long long position) {
+	MappedFileContainer *mfc = info->gifFilePtr->UserData;
+	mfc->pos = position;
+	return refreshMappedFileCapacity(info);
+}
+
+/**
+ * Releases array elements without copying them back, since they are only read,
+ * or frees bytes owned by the container.
+ */
+static void releaseByteArray(JNIEnv *env, ByteArrayContainer *bac) {
+	if (bac->array != NULL) {
+		(*env)->ReleaseByteArrayElements(env, bac->array, bac->bytes, JNI_ABORT);
+		(*env)->DeleteGlobalRef(env, bac->array);
+	} else {
+		free(bac->bytes);
 	}
+	free(bac);
+}
 
-	const char *const filename = (*env)->GetStringUTFChars(env, jfname, NULL);
-	if (filename == NULL) {
-		throwException(env, RUNTIME_EXCEPTION_BARE, "GetStringUTFChars failed");
+static long long byteArrayTell(GifInfo *info) {
+	ByteArrayContainer *bac = info->gifFilePtr->UserData;
+	return bac->pos;
+}
+
+static int byteArraySeek(GifInfo *info, long long position) {
+	ByteArrayContainer *bac = info->gifFilePtr->UserData;
+	bac->pos = (uint_fast32_t) position;
+	return 0;
+}
+
+static long long directByteBufferTellFun(GifInfo *info) {
+	DirectByteBufferContainer *dbbc = info->gifFilePtr->UserData;
+	return dbbc->pos;
+}
+
+static int directByteBufferSeekFun(GifInfo *info, long long position) {
+	DirectByteBufferContainer *dbbc = info->gifFilePtr->UserData;
+	dbbc->pos = position;
+	return 0;
+}
+
+static long long incrementalTellFun(GifInfo *info) {
+	IncrementalContainer *ic = info->gifFilePtr->UserData;
+	return (long long) ic->pos;
+}
+
+static int incrementalSeekFun(GifInfo *info, long long position) {
+	IncrementalContainer *ic = info->gifFilePtr->UserData;
+	ic->pos = (size_t) position;
+	return 0;
+}
+
+/**
+ * Maps file content starting at given offset into memory. Mapping has to start at page boundary so
+ * it may also cover some bytes before offset, these are skipped by container. Container takes
+ * ownership of the descriptor, it is used to detect truncation of the file.
+ * @return container or NULL if file cannot be mapped, eg. it is not a regular file
+ */
+static MappedFileContainer *mapFile(const int fd, const jlong offset, const jlong fileSize) {
+	if (fileSize <= offset) {
+		return NULL;
+	}
+	const long pageSize = sysconf(_SC_PAGESIZE);
+	if (pageSize <= 0) {
+		return NULL;
+	}
+	const jlong mappingOffset = offset - offset % pageSize;
+	const size_t mappingLength = (size_t) (fileSize - mappingOffset);
+	void *mapping = mmap(NULL, mappingLength, PROT_READ, MAP_PRIVATE, fd, (off_t) mappingOffset);
+	if (mapping == MAP_FAILED) {
+		return NULL;
+	}
+	MappedFileContainer *container = malloc(sizeof(MappedFileContainer));
+	if (container == NULL) {
+		munmap(mapping, mappingLength);
+		return NULL;
+	}
+	container->mapping = mapping;
+	container->mappingLength = mappingLength;
+	container->bytes = (jbyte *) mapping + (offset - mappingOffset);
+	container->capacity = fileSize - offset;
+	container->pos = 0;
+	container->fd = fd;
+	container->offset = offset;
+	return container;
+}
+
+/**
+ * Opens GIF from given file descriptor, which is owned by the handle afterwards or closed if
+ * opening fails. Memory mapping is used if possible, buffered stdio otherwise.
+ */
+static jlong openFileDescriptor(JNIEnv *env, const int fd, const jlong offset, jboolean justDecodeMetaData, jint maxSize, bool isHeaderOnly) {
+	struct stat st;
+	const bool isStatAvailable = fstat(fd, &st) == 0;
+	const jlong fileSize = isStatAvailable ? st.st_size : -1;
+
+	MappedFileContainer *container = NULL;
+	if (isStatAvailable && S_ISREG(st.st_mode)) {
+		container = mapFile(fd, offset, fileSize);
+	}
+	if (container != NULL) {
+		GifSourceDescriptor descriptor = {
+				.GifFileIn = DGifOpen(container, &mappedFileReadFun, &descriptor.Error),
+				.rewindFunc = mappedFileRewindFun,
+				.tellFunc = mappedFileTellFun,
+				.seekFunc = mappedFileSeekFun,
+				.startPos = container->pos,
+				.sourceLength = fileSize,
+				.isHeaderOnly = isHeaderOnly
+		};
+		GifInfo *info = createGifHandle(&descriptor, env, justDecodeMetaData, maxSize);
+		if (info == NULL) {
+			munmap(container->mapping, container->mappingLength);
+			close(container->fd);
+			free(container);
+		}
+		return (jlong) (intptr_t) info;
+	}
+
+	if (lseek64(fd, offset, SEEK_SET) == -1) {
+		close(fd);
+		throwGifIOException(D_GIF_ERR_OPEN_FAILED, env);
 		return NULL_GIF_INFO;
 	}
-	FILE *file = fopen(filename, "rb");
-	(*env)->ReleaseStringUTFChars(env, jfname, filename);
+	FILE *file = fdopen(fd, "rb");
 	if (file == NULL) {
+		close(fd);
 		throwGifIOException(D_GIF_ERR_OPEN_FAILED, env);
 		return NULL_GIF_INFO;
 	}
-	struct stat st;
 	GifSourceDescriptor descriptor = {
 			.GifFileIn = DGifOpen(file, &fileRead, &descriptor.Error),
 			.rewindFunc = fileRewind,
+			.tellFunc = fileTell,
+			.seekFunc = fileSeek,
 			.startPos = ftell(file),
-			.sourceLength = stat(filename, &st) == 0 ? st.st_size : -1
+			.sourceLength = fileSize,
+			.isHeaderOnly = isHeaderOnly
 	};
 	GifInfo *info = createGifHandle(&descriptor, env, justDecodeMetaData, maxSize);
 	if (info == NULL) {
@@ -136,6 +339,47 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_openFile(JNIEnv *env, jclass __unused
 	return (jlong) (intptr_t) info;
 }
 
+__unused JNIEXPORT jlong JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_openFile(JNIEnv *env, jclass __unused class,
+                                                 jstring jfname, jboolean justDecodeMetaData, jint maxSize) {
+	if (isSourceNull(jfname, env)) {
+		return NULL_GIF_INFO;
+	}
+
+	const char *const filename = (*env)->GetStringUTFChars(env, jfname, NULL);
+	if (filename == NULL) {
+		throwException(env, RUNTIME_EXCEPTION_BARE, "GetStringUTFChars failed");
+		return NULL_GIF_INFO;
+	}
+	const int fd = open(filename, O_RDONLY);
+	(*env)->ReleaseStringUTFChars(env, jfname, filename);
+	if (fd == -1) {
+		throwGifIOException(D_GIF_ERR_OPEN_FAILED, env);
+		return NULL_GIF_INFO;
+	}
+	return openFileDescriptor(env, fd, 0, justDecodeMetaData, maxSize, false);
+}
+
+__unused JNIEXPORT jlong JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_openFileHeader(JNIEnv *env, jclass __unused class, jstring jfname) {
+	if (isSourceNull(jfname, env)) {
+		return NULL_GIF_INFO;
+	}
+
+	const char *const filename = (*env)->GetStringUTFChars(env, jfname, NULL);
+	if (filename == NULL) {
+		throwException(env, RUNTIME_EXCEPTION_BARE, "GetStringUTFChars failed");
+		return NULL_GIF_INFO;
+	}
+	const int fd = open(filename, O_RDONLY);
+	(*env)->ReleaseStringUTFChars(env, jfname, filename);
+	if (fd == -1) {
+		throwGifIOException(D_GIF_ERR_OPEN_FAILED, env);
+		return NULL_GIF_INFO;
+	}
+	return openFileDescriptor(env, fd, 0, JNI_TRUE, INT32_MAX, true);
+}
+
 __unused JNIEXPORT jlong JNICALL
 Java_com_zing_zalo_gifplayer_GifInfoHandle_openByteArray(JNIEnv *env, jclass __unused class,
                                                       jbyteArray bytes, jboolean justDecodeMetaData, jint maxSize) {
@@ -147,17 +391,28 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_openByteArray(JNIEnv *env, jclass __u
 		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
 		return NULL_GIF_INFO;
 	}
-	container->buffer = (*env)->NewGlobalRef(env, bytes);
-	if (container->buffer == NULL) {
+	//elements are obtained once so reading does not need JNI calls, they are released on close
+	//ART returns elements of non-movable arrays, which large ones are, without copying
+	container->array = (*env)->NewGlobalRef(env, bytes);
+	if (container->array == NULL) {
 		free(container);
-		throwException(env, RUNTIME_EXCEPTION_BARE, "NewGlobalRef failed");
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return NULL_GIF_INFO;
+	}
+	container->arrLen = (*env)->GetArrayLength(env, container->array);
+	container->bytes = (*env)->GetByteArrayElements(env, container->array, NULL);
+	if (container->bytes == NULL) {
+		(*env)->DeleteGlobalRef(env, container->array);
+		free(container);
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
 		return NULL_GIF_INFO;
 	}
-	container->arrLen = (*env)->GetArrayLength(env, container->buffer);
 	container->pos = 0;
 	GifSourceDescriptor descriptor = {
 			.GifFileIn = DGifOpen(container, &byteArrayReadFun, &descriptor.Error),
 			.rewindFunc = byteArrayRewind,
+			.tellFunc = byteArrayTell,
+			.seekFunc = byteArraySeek,
 			.startPos = container->pos,
 			.sourceLength = container->arrLen
 	};
@@ -165,8 +420,7 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_openByteArray(JNIEnv *env, jclass __u
 	GifInfo *info = createGifHandle(&descriptor, env, justDecodeMetaData, maxSize);
 
 	if (info == NULL) {
-		(*env)->DeleteGlobalRef(env, container->buffer);
-		free(container);
+		releaseByteArray(env, container);
 	}
 	return (jlong) (intptr_t) info;
 }
@@ -193,6 +447,8 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_openDirectByteBuffer(JNIEnv *env, jcl
 	GifSourceDescriptor descriptor = {
 			.GifFileIn = DGifOpen(container, &directByteBufferReadFun, &descriptor.Error),
 			.rewindFunc = directByteBufferRewindFun,
+			.tellFunc = directByteBufferTellFun,
+			.seekFunc = directByteBufferSeekFun,
 			.startPos = container->pos,
 			.sourceLength = container->capacity
 	};
@@ -237,8 +493,9 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_openStream(JNIEnv *env, jclass __unus
 		return NULL_GIF_INFO;
 	}
 
-	container->buffer = (*env)->NewByteArray(env, 256);
+	container->buffer = (*env)->NewByteArray(env, STREAM_BUFFER_SIZE);
 	if (container->buffer == NULL) {
+		free(container);
 		(*env)->DeleteGlobalRef(env, streamCls);
 		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
 		return NULL_GIF_INFO;
@@ -251,6 +508,8 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_openStream(JNIEnv *env, jclass __unus
 
 	container->readMID = readMID;
 	container->resetMID = resetMID;
+	container->readAheadPos = 0;
+	container->readAheadLength = 0;
 	container->stream = (*env)->NewGlobalRef(env, stream);
 	if (container->stream == NULL) {
 		free(container);
@@ -264,10 +523,12 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_openStream(JNIEnv *env, jclass __unus
 			.GifFileIn = DGifOpen(container, &streamReadFun, &descriptor.Error),
 			.startPos = 0,
 			.rewindFunc = streamRewind,
+			.tellFunc = NULL, //streams can only be rewound, frames are skipped by decoding
+			.seekFunc = NULL,
 			.sourceLength = -1
 	};
 
-	(*env)->CallVoidMethod(env, stream, markMID, LONG_MAX);
+	(*env)->CallVoidMethod(env, stream, markMID, INT_MAX);
 	if (!(*env)->ExceptionCheck(env)) {
 		GifInfo *info = createGifHandle(&descriptor, env, justDecodeMetaData, maxSize);
 		return (jlong) (intptr_t) info;
@@ -280,6 +541,233 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_openStream(JNIEnv *env, jclass __unus
 	}
 }
 
+__unused JNIEXPORT jlong JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_openSpooledStream(JNIEnv *env, jclass __unused class, jobject stream,
+                                                          jboolean justDecodeMetaData, jint maxSize) {
+	if (isSourceNull(stream, env)) {
+		return NULL_GIF_INFO;
+	}
+	static jmethodID readMID = NULL;
+	if (readMID == NULL) {
+		jclass streamCls = (*env)->FindClass(env, "java/io/InputStream");
+		if (streamCls == NULL) {
+			return NULL_GIF_INFO;
+		}
+		readMID = (*env)->GetMethodID(env, streamCls, "read", "([BII)I");
+		(*env)->DeleteLocalRef(env, streamCls);
+	}
+	if (readMID == NULL) {
+		return NULL_GIF_INFO;
+	}
+
+	jbyteArray buffer = (*env)->NewByteArray(env, STREAM_BUFFER_SIZE);
+	if (buffer == NULL) {
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return NULL_GIF_INFO;
+	}
+	ByteArrayContainer *container = malloc(sizeof(ByteArrayContainer));
+	if (container == NULL) {
+		(*env)->DeleteLocalRef(env, buffer);
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return NULL_GIF_INFO;
+	}
+	container->bytes = NULL;
+	container->arrLen = 0;
+	container->pos = 0;
+	container->array = NULL;
+
+	//whole stream is spooled into native memory once, so rewinding does not need mark/reset
+	size_t capacity = 0;
+	while (1) {
+		const jint len = (*env)->CallIntMethod(env, stream, readMID, buffer, 0, STREAM_BUFFER_SIZE);
+		if ((*env)->ExceptionCheck(env)) {
+			(*env)->DeleteLocalRef(env, buffer);
+			free(container->bytes);
+			free(container);
+			return NULL_GIF_INFO;
+		}
+		if (len <= 0) {
+			if (len < 0)
+				break;
+			continue;
+		}
+		if ((size_t) container->arrLen + (size_t) len > capacity) {
+			const size_t newCapacity = capacity == 0 ? STREAM_BUFFER_SIZE * 4 : capacity * 2;
+			jbyte *newBytes = realloc(container->bytes, newCapacity);
+			if (newBytes == NULL || newCapacity > INT_MAX) {
+				(*env)->DeleteLocalRef(env, buffer);
+				free(newBytes != NULL ? newBytes : container->bytes);
+				free(container);
+				throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+				return NULL_GIF_INFO;
+			}
+			container->bytes = newBytes;
+			capacity = newCapacity;
+		}
+		(*env)->GetByteArrayRegion(env, buffer, 0, len, container->bytes + container->arrLen);
+		container->arrLen += len;
+	}
+	(*env)->DeleteLocalRef(env, buffer);
+
+	GifSourceDescriptor descriptor = {
+			.GifFileIn = DGifOpen(container, &byteArrayReadFun, &descriptor.Error),
+			.rewindFunc = byteArrayRewind,
+			.tellFunc = byteArrayTell,
+			.seekFunc = byteArraySeek,
+			.startPos = container->pos,
+			.sourceLength = container->arrLen
+	};
+
+	GifInfo *info = createGifHandle(&descriptor, env, justDecodeMetaData, maxSize);
+	if (info == NULL) {
+		free(container->bytes);
+		free(container);
+	}
+	return (jlong) (intptr_t) info;
+}
+
+/**
+ * Appends bytes to the container, growing its buffer geometrically.
+ * @return false if there is not enough memory or bytes cannot be copied from the array,
+ * exception is pending in the latter case
+ */
+static bool appendIncrementalBytes(JNIEnv *env, IncrementalContainer *ic, jbyteArray bytes, jint offset, jint length) {
+	if (ic->length + length > ic->capacity) {
+		size_t newCapacity = ic->capacity > 0 ? ic->capacity : STREAM_BUFFER_SIZE;
+		while (newCapacity < ic->length + length)
+			newCapacity *= 2;
+		jbyte *newBytes = newCapacity <= INT_MAX ? realloc(ic->bytes, newCapacity) : NULL;
+		if (newBytes == NULL)
+			return false;
+		ic->bytes = newBytes;
+		ic->capacity = newCapacity;
+	}
+	(*env)->GetByteArrayRegion(env, bytes, offset, length, ic->bytes + ic->length);
+	if ((*env)->ExceptionCheck(env))
+		return false;
+	ic->length += length;
+	return true;
+}
+
+/**
+ * Marks source as complete. Playback waiting for the next frame continues from the first one.
+ */
+static void completeIncrementalData(GifInfo *info) {
+	info->isDataIncomplete = false;
+	if (info->gifFilePtr->ImageCount > 0 && info->currentIndex >= info->gifFilePtr->ImageCount) {
+		info->currentIndex--;
+		getFrameDuration(info);
+	}
+}
+
+/**
+ * Scans metadata of all the frames which have arrived completely. Source ends at the first
+ * malformed frame, like in case of the other sources.
+ * @return false if there is not enough memory
+ */
+static bool scanArrivedFrames(GifInfo *info) {
+	IncrementalContainer *ic = info->gifFilePtr->UserData;
+	while (info->isDataIncomplete) {
+		bool isTrailer = false;
+		const size_t frameEnd = findNextFrameEnd(ic->bytes, ic->scannedLength, ic->length, &isTrailer);
+		if (isTrailer) {
+			completeIncrementalData(info);
+			break;
+		}
+		if (frameEnd == 0)
+			break;
+		//frame is scanned from its own position, playback continues where it has stopped
+		const size_t savedPos = ic->pos;
+		ic->pos = ic->scannedLength;
+		ic->readLimit = frameEnd;
+		const bool isFrameValid = scanNextFrame(info);
+		ic->pos = savedPos;
+		if (isFrameValid)
+			ic->scannedLength = frameEnd;
+		ic->readLimit = ic->scannedLength;
+		if (!isFrameValid)
+			completeIncrementalData(info);
+		if (info->gifFilePtr->Error == D_GIF_ERR_NOT_ENOUGH_MEM)
+			return false;
+	}
+	info->sourceLength = (jlong) ic->length;
+	return true;
+}
+
+__unused JNIEXPORT jlong JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_openIncremental(JNIEnv *env, jclass __unused class, jbyteArray bytes,
+                                                        jint length, jint maxSize) {
+	if (isSourceNull(bytes, env)) {
+		return NULL_GIF_INFO;
+	}
+	IncrementalContainer *container = malloc(sizeof(IncrementalContainer));
+	if (container == NULL) {
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return NULL_GIF_INFO;
+	}
+	container->bytes = NULL;
+	container->length = 0;
+	container->capacity = 0;
+	container->pos = 0;
+	container->scannedLength = 0;
+	if (!appendIncrementalBytes(env, container, bytes, 0, length)) {
+		free(container->bytes);
+		free(container);
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return NULL_GIF_INFO;
+	}
+	//header is read without limit, frames only up to the end of the last complete one
+	container->readLimit = SIZE_MAX;
+	GifSourceDescriptor descriptor = {
+			.GifFileIn = DGifOpen(container, &incrementalReadFun, &descriptor.Error),
+			.rewindFunc = incrementalRewindFun,
+			.tellFunc = incrementalTellFun,
+			.seekFunc = incrementalSeekFun,
+			.startPos = (long long) container->pos,
+			.sourceLength = (jlong) container->length,
+			.isIncremental = true
+	};
+
+	GifInfo *info = createGifHandle(&descriptor, env, JNI_FALSE, maxSize);
+	if (info == NULL) {
+		free(container->bytes);
+		free(container);
+		return NULL_GIF_INFO;
+	}
+	container->scannedLength = container->pos;
+	container->readLimit = container->pos;
+	if (!scanArrivedFrames(info)) {
+		cleanUp(info);
+		free(container->bytes);
+		free(container);
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return NULL_GIF_INFO;
+	}
+	return (jlong) (intptr_t) info;
+}
+
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_appendData(JNIEnv *env, jclass __unused class, jlong gifInfo,
+                                                   jbyteArray bytes, jint offset, jint length) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL || info->rewindFunction != incrementalRewindFun || !info->isDataIncomplete)
+		return;
+	if (!appendIncrementalBytes(env, info->gifFilePtr->UserData, bytes, offset, length) || !scanArrivedFrames(info))
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+}
+
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_finishData(JNIEnv *env, jclass __unused class, jlong gifInfo) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL || info->rewindFunction != incrementalRewindFun || !info->isDataIncomplete)
+		return;
+	if (!scanArrivedFrames(info))
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+	//truncated data, frames arrived so far are played in a loop
+	if (info->isDataIncomplete)
+		completeIncrementalData(info);
+}
+
 __unused JNIEXPORT jlong JNICALL
 Java_com_zing_zalo_gifplayer_GifInfoHandle_openFd(JNIEnv *env, jclass __unused handleClass, jobject jfd, jlong offset,
                                                jboolean justDecodeMetaData, jint maxSize) {
@@ -299,25 +787,7 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_openFd(JNIEnv *env, jclass __unused h
 		throwGifIOException(D_GIF_ERR_OPEN_FAILED, env);
 		return NULL_GIF_INFO;
 	}
-	if (lseek64(fd, offset, SEEK_SET) != -1) {
-		FILE *file = fdopen(fd, "rb");
-		if (file == NULL) {
-			throwGifIOException(D_GIF_ERR_OPEN_FAILED, env);
-			return NULL_GIF_INFO;
-		}
-		struct stat st;
-		GifSourceDescriptor descriptor = {
-				.GifFileIn = DGifOpen(file, &fileRead, &descriptor.Error),
-				.rewindFunc = fileRewind,
-				.startPos = ftell(file),
-				.sourceLength = fstat(fd, &st) == 0 ? st.st_size : -1
-		};
-		return (jlong) createGifHandle(&descriptor, env, justDecodeMetaData, maxSize);
-	} else {
-		close(fd);
-		throwGifIOException(D_GIF_ERR_OPEN_FAILED, env);
-		return (jlong) (intptr_t) NULL;
-	}
+	return openFileDescriptor(env, fd, offset, justDecodeMetaData, maxSize, false);
 }
 
 __unused JNIEXPORT void JNICALL
@@ -351,71 +821,83 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_free(JNIEnv *env, jclass __unused han
 	else if (info->rewindFunction == fileRewind) {
 		fclose(info->gifFilePtr->UserData);
 	}
+	else if (info->rewindFunction == mappedFileRewindFun) {
+		MappedFileContainer *mfc = info->gifFilePtr->UserData;
+		munmap(mfc->mapping, mfc->mappingLength);
+		close(mfc->fd);
+		free(mfc);
+	}
 	else if (info->rewindFunction == byteArrayRewind) {
-		ByteArrayContainer *bac = info->gifFilePtr->UserData;
-		if (bac->buffer != NULL) {
-			(*env)->DeleteGlobalRef(env, bac->buffer);
-		}
-		free(bac);
+		releaseByteArray(env, info->gifFilePtr->UserData);
 	}
 	else if (info->rewindFunction == directByteBufferRewindFun) {
 		free(info->gifFilePtr->UserData);
 	}
+	else if (info->rewindFunction == incrementalRewindFun) {
+		IncrementalContainer *ic = info->gifFilePtr->UserData;
+		free(ic->bytes);
+		free(ic);
+	}
 	info->gifFilePtr->UserData = NULL;
 	cleanUp(info);
 }
 
-__unused JNIEXPORT void JNICALL
-Java_com_zing_zalo_gifplayer_GifInfoHandle_setOptions(__unused JNIEnv *env, jclass __unused class, jlong gifInfo, jint sampleSize, jboolean isOpaque) {
+__unused JNIEXPORT jlong JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_openCursor(JNIEnv *env, jclass __unused handleClass, jlong gifInfo) {
 	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
-	if (info == NULL)
-		return;
-	info->isOpaque = isOpaque == JNI_TRUE;
-	if (sampleSize > 1 && sampleSize <= UINT_FAST16_MAX) {
-		info->sampleSize = (uint_fast16_t) sampleSize;
-	}
-	info->gifFilePtr->SHeight /= info->sampleSize;
-	info->gifFilePtr->SWidth /= info->sampleSize;
-	if (info->gifFilePtr->SHeight == 0) {
-		info->gifFilePtr->SHeight = 1;
-	}
-	if (info->gifFilePtr->SWidth == 0) {
-		info->gifFilePtr->SWidth = 1;
-	}
+	//frames of metadata only or still arriving sources are not rendered
+	if (info == NULL || info->isDataIncomplete || (info->rasterBits == NULL && info->areaSums == NULL))
+		return NULL_GIF_INFO;
+	//files and streams have single position, data of the other sources is shared
+	size_t containerSize;
+	if (info->rewindFunction == mappedFileRewindFun)
+		containerSize = sizeof(MappedFileContainer);
+	else if (info->rewindFunction == byteArrayRewind)
+		containerSize = sizeof(ByteArrayContainer);
+	else if (info->rewindFunction == directByteBufferRewindFun)
+		containerSize = sizeof(DirectByteBufferContainer);
+	else if (info->rewindFunction == incrementalRewindFun)
+		containerSize = sizeof(IncrementalContainer);
+	else
+		return NULL_GIF_INFO;
 
-	SavedImage *sp;
-	uint_fast32_t i;
-	for (i = 0; i < info->gifFilePtr->ImageCount; i++) {
-		sp = &info->gifFilePtr->SavedImages[i];
-		sp->ImageDesc.Width /= info->sampleSize;
-		sp->ImageDesc.Height /= info->sampleSize;
-		sp->ImageDesc.Left /= info->sampleSize;
-		sp->ImageDesc.Top /= info->sampleSize;
+	void *container = malloc(containerSize);
+	if (container == NULL) {
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return NULL_GIF_INFO;
 	}
+	memcpy(container, info->gifFilePtr->UserData, containerSize);
+	GifInfo *cursor = createCursor(info, container);
+	if (cursor == NULL) {
+		free(container);
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return NULL_GIF_INFO;
+	}
+	return (jlong) (intptr_t) cursor;
 }
 
-__unused JNIEXPORT jint JNICALL
-Java_com_zing_zalo_gifplayer_GifInfoHandle_getWidth(__unused JNIEnv *env, jclass __unused class, jlong gifInfo) {
-	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
-	if (info == NULL)
-		return 0;
-	return (jint) info->gifFilePtr->SWidth;
-}
-
-__unused JNIEXPORT jint JNICALL
-Java_com_zing_zalo_gifplayer_GifInfoHandle_getHeight(__unused JNIEnv *env, jclass __unused class, jlong gifInfo) {
-	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
-	if (info == NULL)
-		return 0;
-	return (jint) info->gifFilePtr->SHeight;
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_freeCursor(JNIEnv __unused *env, jclass __unused handleClass, jlong gifInfo) {
+	GifInfo *cursor = (GifInfo *) (intptr_t) gifInfo;
+	if (cursor == NULL)
+		return;
+	//data is owned by the source container
+	free(cursor->gifFilePtr->UserData);
+	cleanUpCursor(cursor);
 }
 
-__unused JNIEXPORT jint JNICALL
-Java_com_zing_zalo_gifplayer_GifInfoHandle_getNumberOfFrames(__unused JNIEnv *env, jclass __unused class, jlong gifInfo) {
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_setOptions(JNIEnv *env, jclass __unused class, jlong gifInfo, jint sampleSize, jboolean isOpaque) {
 	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
 	if (info == NULL)
-		return 0;
-	return (jint) info->gifFilePtr->ImageCount;
+		return;
+	info->isOpaque = isOpaque == JNI_TRUE;
+	if (sampleSize > 1 && sampleSize <= UINT_FAST16_MAX) {
+		GifWord width = info->originalWidth / (GifWord) sampleSize;
+		GifWord height = info->originalHeight / (GifWord) sampleSize;
+		if (!setTargetSize(info, width > 0 ? width : 1, height > 0 ? height : 1, false))
+			throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+	}
 }
 
 __unused JNIEXPORT jint JNICALL
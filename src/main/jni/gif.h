@@ -23,6 +23,8 @@
 #include <limits.h>
 #include <sys/cdefs.h>
 #include <sys/stat.h>
+#include <sys/mman.h>
+#include <fcntl.h>
 #include <pthread.h>
 #include <poll.h>
 #include <errno.h>
@@ -39,6 +41,8 @@
 #define GET_ADDR(bm, width, left, top) bm + top * width + left
 #define OOME_MESSAGE "Failed to allocate native memory"
 #define DEFAULT_FRAME_DURATION_MS 100
+#define INCOMPLETE_DATA_POLL_INTERVAL_MS 100
+#define STREAM_BUFFER_SIZE 8192
 
 /**
  * Some gif files are not strictly follow 89a.
@@ -87,44 +91,138 @@ typedef struct {
 
 typedef struct GifInfo GifInfo;
 
+/**
+ * Area of the canvas in pixels, empty if right does not exceed left.
+ */
+typedef struct {
+	uint_fast32_t left;
+	uint_fast32_t top;
+	uint_fast32_t right;
+	uint_fast32_t bottom;
+} DirtyRect;
+
+typedef struct {
+	uint32_t **snapshots;
+	uint_fast32_t frameCount;
+	uint_fast32_t interval;
+	size_t budget;
+	size_t usedBytes;
+} SnapshotCache;
+
+typedef struct {
+	uint32_t **frames;
+	uint_fast32_t frameCount;
+	uint_fast32_t cachedCount;
+	size_t budget;
+	size_t usedBytes;
+	bool isOverBudget;
+} AnimationCache;
+
 typedef int
 (*RewindFunc)(GifInfo *);
 
+typedef long long
+(*TellFunc)(GifInfo *);
+
+typedef int
+(*SeekFunc)(GifInfo *, long long);
+
 struct GifInfo {
 	void (*destructor)(GifInfo *, JNIEnv *);
 	GifFileType *gifFilePtr;
 	GifWord originalWidth, originalHeight;
-	uint_fast16_t sampleSize;
+	unsigned char *lineBuffer;
+	uint32_t *areaSums;
 	long long lastFrameRemainder;
 	long long nextStartTime;
 	uint_fast32_t currentIndex;
 	GraphicsControlBlock *controlBlock;
 	argb *backupPtr;
+	/**
+	 * Size of the backup in bytes
+	 */
+	size_t backupSize;
+	/**
+	 * Index of the frame whose area is saved in backup, -1 if there is no valid backup
+	 */
+	int_fast32_t backupIndex;
 	long long startPos;
 	unsigned char *rasterBits;
 	char *comment;
 	uint_fast16_t loopCount;
 	uint_fast16_t currentLoop;
 	RewindFunc rewindFunction;
+	TellFunc tellFunction;
+	SeekFunc seekFunction;
+	long long *frameOffsets;
+	SnapshotCache *snapshotCache;
+	AnimationCache *animationCache;
+	/**
+	 * Color map expanded into palette, color maps live as long as their frames, so it can
+	 * be identified by address
+	 */
+	const ColorMapObject *paletteColorMap;
+	uint32_t palette[256];
+	/**
+	 * Area changed by rendering since it was last queried
+	 */
+	DirtyRect dirtyRect;
 	jfloat speedFactor;
+	/**
+	 * Frames whose display time has passed are composed without being presented
+	 */
+	bool isRealTimePlayback;
+	/**
+	 * Number of frames skipped to keep up with the wall clock
+	 */
+	uint_fast32_t droppedFrameCount;
 	int32_t stride;
 	jlong sourceLength;
 	bool isOpaque;
+	bool isRgb565;
+	bool isDataIncomplete;
 	void *frameBufferDescriptor;
 };
 
+/**
+ * Canvas of the bitmap with RGB_565 config holds 16-bit pixels, red in the most significant bits.
+ */
+static inline uint16_t toRgb565(GifColorType color) {
+	return (uint16_t) (((color.Red & 0xF8) << 8) | ((color.Green & 0xFC) << 3) | (color.Blue >> 3));
+}
+
+static inline GifColorType fromRgb565(uint16_t pixel) {
+	const GifColorType color = {
+			.Red = (GifByteType) (((pixel >> 8) & 0xF8) | (pixel >> 13)),
+			.Green = (GifByteType) (((pixel >> 3) & 0xFC) | ((pixel >> 9) & 0x03)),
+			.Blue = (GifByteType) (((pixel << 3) & 0xF8) | ((pixel >> 2) & 0x07))
+	};
+	return color;
+}
+
+static inline size_t getCanvasPixelSize(const GifInfo *info) {
+	return info->isRgb565 ? sizeof(uint16_t) : sizeof(argb);
+}
+
 typedef struct {
 	jobject stream;
 	jclass streamCls;
 	jmethodID readMID;
 	jmethodID resetMID;
 	jbyteArray buffer;
+	uint_fast32_t readAheadPos;
+	uint_fast32_t readAheadLength;
+	GifByteType readAhead[STREAM_BUFFER_SIZE];
 } StreamContainer;
 
 typedef struct {
 	uint_fast32_t pos;
-	jbyteArray buffer;
+	jbyte *bytes;
 	jsize arrLen;
+	/**
+	 * Global reference of the array whose elements are read, NULL if bytes are owned by container
+	 */
+	jbyteArray array;
 } ByteArrayContainer;
 
 typedef struct {
@@ -133,12 +231,40 @@ typedef struct {
 	jlong capacity;
 } DirectByteBufferContainer;
 
+/**
+ * Mapped file may be truncated by another writer while it is open, reading pages past its new end
+ * raises SIGBUS. So descriptor is kept open and capacity is shrunk to the current file size on each
+ * rewind and seek, files should still be replaced by renaming rather than rewritten in place.
+ */
+typedef struct {
+	jlong pos;
+	jbyte *bytes;
+	jlong capacity;
+	void *mapping;
+	size_t mappingLength;
+	int fd;
+	jlong offset;
+} MappedFileContainer;
+
+typedef struct {
+	jbyte *bytes;
+	size_t length;
+	size_t capacity;
+	size_t pos;
+	size_t readLimit;
+	size_t scannedLength;
+} IncrementalContainer;
+
 typedef struct {
 	GifFileType *GifFileIn;
 	int Error;
 	long long startPos;
 	RewindFunc rewindFunc;
+	TellFunc tellFunc;
+	SeekFunc seekFunc;
 	jlong sourceLength;
+	bool isHeaderOnly;
+	bool isIncremental;
 } GifSourceDescriptor;
 
 __attribute__ ((visibility ("default"))) void DetachCurrentThread();
@@ -155,26 +281,68 @@ __attribute__ ((visibility ("default"))) long getRealTime();
 */
 void cleanUp(GifInfo *info);
 
+/**
+* Creates cursor sharing frame metadata, control blocks and color maps of the source, which has
+* to outlive it. Cursor has its own decoder state, raster and backup, so it can render frames on
+* another thread than the source.
+* @param container copy of the source container, reading the same data at its own position
+* @return cursor or NULL if allocation has failed
+*/
+GifInfo *createCursor(const GifInfo *source, void *container);
+
+/**
+* Frees memory owned by the cursor, except its container
+*/
+void cleanUpCursor(GifInfo *cursor);
+
 __attribute__ ((visibility ("default"))) void throwException(JNIEnv *env, enum Exception exception, char *message);
 
 bool isSourceNull(void *ptr, JNIEnv *env);
 
 static uint_fast8_t fileRead(GifFileType *gif, GifByteType *bytes, uint_fast8_t size);
 
+static uint_fast8_t mappedFileReadFun(GifFileType *gif, GifByteType *bytes, uint_fast8_t size);
+
 static uint_fast8_t directByteBufferReadFun(GifFileType *gif, GifByteType *bytes, uint_fast8_t size);
 
 static uint_fast8_t byteArrayReadFun(GifFileType *gif, GifByteType *bytes, uint_fast8_t size);
 
 static uint_fast8_t streamReadFun(GifFileType *gif, GifByteType *bytes, uint_fast8_t size);
 
+static uint_fast8_t incrementalReadFun(GifFileType *gif, GifByteType *bytes, uint_fast8_t size);
+
 static int fileRewind(GifInfo *info);
 
+static int mappedFileRewindFun(GifInfo *info);
+
 static int streamRewind(GifInfo *info);
 
 static int byteArrayRewind(GifInfo *info);
 
 static int directByteBufferRewindFun(GifInfo *info);
 
+static int incrementalRewindFun(GifInfo *info);
+
+static long long fileTell(GifInfo *info);
+
+static int fileSeek(GifInfo *info, long long position);
+
+static long long mappedFileTellFun(GifInfo *info);
+
+static int mappedFileSeekFun(GifInfo *info, long long position);
+
+static long long byteArrayTell(GifInfo *info);
+
+static int byteArraySeek(GifInfo *info, long long position);
+
+static long long directByteBufferTellFun(GifInfo *info);
+
+static int directByteBufferSeekFun(GifInfo *info, long long position);
+
+static long long incrementalTellFun(GifInfo *info);
+
+static int incrementalSeekFun(GifInfo *info, long long position);
+
 static int getComment(GifByteType *Bytes, GifInfo *);
 
 static int readExtensions(int ExtFunction, GifByteType *ExtData, GifInfo *info);
@@ -187,6 +355,10 @@ GifInfo *createGifHandle(GifSourceDescriptor *descriptor, JNIEnv *env, jboolean
 
 static inline void blitNormal(argb *bm, GifInfo *info, SavedImage *frame, ColorMapObject *cmap);
 
+static inline void blitAreaAveraged(argb *bm, GifInfo *info, SavedImage *frame);
+
+ColorMapObject *getFrameColorMap(const GifInfo *info, const SavedImage *frame);
+
 static void drawFrame(argb *bm, GifInfo *info, SavedImage *frame);
 
 static bool checkIfCover(const SavedImage *target, const SavedImage *covered);
@@ -211,10 +383,78 @@ __attribute__ ((visibility ("default"))) void drawNextBitmap(argb *bm, GifInfo *
 
 uint_fast32_t getFrameDuration(GifInfo *info);
 
+/**
+* Adds area changed by drawing the current frame over the previous one, that is the frame itself
+* and the previous frame if it is disposed. The first frame changes the whole canvas.
+*/
+void addFrameDirtyArea(const GifInfo *info, DirtyRect *rect);
+
+void markCanvasDirty(GifInfo *info);
+
 __attribute__ ((visibility ("default"))) JNIEnv *getEnv();
 
 __attribute__ ((visibility ("default"))) uint_fast32_t seek(GifInfo *info, uint_fast32_t desiredIndex, const void *pixels);
 
 void setGCBDefaults(GraphicsControlBlock *gcb);
 
+/**
+* Stores composited canvas of the current frame if it is due according to snapshot interval
+*/
+void captureSnapshot(const argb *bm, GifInfo *info);
+
+/**
+* Restores the latest snapshot between startIndex and desiredIndex and moves source to the following frame
+* @return true if canvas has been restored, false if there is no suitable snapshot
+*/
+bool restoreSnapshot(argb *bm, GifInfo *info, uint_fast32_t startIndex, uint_fast32_t desiredIndex);
+
+void releaseSnapshots(GifInfo *info);
+
+/**
+* Stores composited canvas of the current frame if it has not been cached yet, cache is dropped
+* when budget is exceeded
+*/
+void captureAnimationFrame(const argb *bm, GifInfo *info);
+
+/**
+* @return true if all the frames are cached, so they can be played without decoding
+*/
+bool isAnimationCached(const GifInfo *info);
+
+/**
+* Draws the current frame from animation cache and moves to the next one
+* @return duration of the drawn frame
+*/
+uint_fast32_t playCachedFrame(argb *bm, GifInfo *info);
+
+void releaseAnimationCache(GifInfo *info);
+
+/**
+* Changes pixel format of the canvas, cached canvases captured in the other format are freed
+*/
+void setCanvasFormat(GifInfo *info, bool isRgb565);
+
+bool setTargetSize(GifInfo *info, GifWord width, GifWord height, bool isAreaAveraged);
+
+void decodeScaledFrame(GifInfo *info);
+
+uint_fast32_t getStripCapacity(const GifInfo *info);
+
+/**
+* Scales frame geometry from original size to the current one of the logical screen
+*/
+void scaleFrameDesc(const GifInfo *info, GifImageDesc *desc);
+
+/**
+* Finds the end of the next frame record, together with extensions preceding it
+* @return position following the frame, 0 if its data has not arrived completely yet
+*/
+size_t findNextFrameEnd(const jbyte *bytes, size_t pos, size_t length, bool *isTrailer);
+
+/**
+* Reads metadata of the single frame record available at the current source position
+* @return false if frame is malformed or does not fit in the logical screen
+*/
+bool scanNextFrame(GifInfo *info);
+
 #endif
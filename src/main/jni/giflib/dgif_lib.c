@@ -10,6 +10,8 @@ two modules will be linked.  Preserve this property!
 
 #include <stdlib.h>
 #include <stdio.h>
+#include <stdint.h>
+#include <string.h>
 
 #ifdef _WIN32
 #include <io.h>
@@ -28,12 +30,9 @@ static int DGifSetupDecompress(GifFileType *GifFile);
 static int DGifDecompressLine(GifFileType *GifFile, GifPixelType *Line,
                               uint_fast32_t LineLen);
 
-static int DGifGetPrefixChar(GifPrefixType *Prefix, int Code, int ClearCode);
+static void DGifTraceString(const GifFilePrivateType *Private, GifPrefixType Code, GifPixelType *End);
 
-static int DGifDecompressInput(GifFileType *GifFile, int *Code);
-
-static int DGifBufferedInput(GifFileType *GifFile, GifByteType *Buf,
-                             GifByteType *NextByte);
+static int DGifReadCodeBlock(GifFileType *GifFile);
 
 /******************************************************************************
 GifFileType constructor with user supplied input function (TVT)
@@ -334,6 +333,20 @@ DGifGetLine(GifFileType *GifFile, GifPixelType *Line, uint_fast32_t LineLen) {
 		return GIF_ERROR;
 }
 
+/******************************************************************************
+Like DGifGetLine but Line may be overwritten by the caller before the whole
+image is decoded, eg. when the same buffer is reused for each line. Only
+strings output during this call are then copied in bulk.
+******************************************************************************/
+int
+DGifGetScratchLine(GifFileType *GifFile, GifPixelType *Line, uint_fast32_t LineLen) {
+	GifFilePrivateType *Private = (GifFilePrivateType *) GifFile->Private;
+
+	Private->LineSerial++;
+	Private->LastLocation = NULL;
+	return DGifGetLine(GifFile, Line, LineLen);
+}
+
 /******************************************************************************
 Get an extension block (see GIF manual) from GIF file. This routine only
 returns the first data block, and DGifGetExtensionNext should be called
@@ -521,7 +534,6 @@ static int
 DGifSetupDecompress(GifFileType *GifFile) {
 	int i, BitsPerPixel;
 	GifByteType CodeSize;
-	GifPrefixType *Prefix;
 	GifFilePrivateType *Private = (GifFilePrivateType *) GifFile->Private;
 
 	((GifFilePrivateType *) GifFile->Private)->Read(GifFile, &CodeSize, 1);    /* Read Code size from file. */
@@ -534,254 +546,249 @@ DGifSetupDecompress(GifFileType *GifFile) {
 	}
 
 	Private->Buf[0] = 0;    /* Input Buffer empty. */
+	Private->BlockPos = 1;
+	Private->BlockLen = 0;
 	Private->BitsPerPixel = BitsPerPixel;
 	Private->ClearCode = (1 << BitsPerPixel);
 	Private->EOFCode = Private->ClearCode + 1;
 	Private->RunningCode = Private->EOFCode + 1;
+	Private->FreeCode = Private->EOFCode + 1;
 	Private->RunningBits = BitsPerPixel + 1;    /* Number of bits per code. */
 	Private->MaxCode1 = 1 << Private->RunningBits;    /* Max. code + 1. */
 	Private->StackPtr = 0;    /* No pixels on the pixel stack. */
+	Private->StackPos = 0;
 	Private->LastCode = NO_SUCH_CODE;
+	Private->LastLocation = NULL;
+	Private->LineSerial++;    /* Locations of previous image are not valid any more. */
 	Private->CrntShiftState = 0;    /* No information in CrntShiftDWord. */
 	Private->CrntShiftDWord = 0;
 
-	Prefix = Private->Prefix;
-	for (i = 0; i <= LZ_MAX_CODE; i++)
-		Prefix[i] = NO_SUCH_CODE;
-
-	return GIF_OK;
-}
-
-/******************************************************************************
-The LZ decompression routine:
-This version decompress the given GIF file into Line of length LineLen.
-This routine can be called few times (one per scan line, for example), in
-order the complete the whole image.
-******************************************************************************/
-static int
-DGifDecompressLine(GifFileType *GifFile, GifPixelType *Line, uint_fast32_t LineLen) {
-	int i = 0, j;
-	int CrntCode, EOFCode, ClearCode, CrntPrefix, LastCode, StackPtr;
-	GifByteType *Stack, *Suffix;
-	GifPrefixType *Prefix;
-	GifFilePrivateType *Private = (GifFilePrivateType *) GifFile->Private;
-
-	StackPtr = Private->StackPtr;
-	Prefix = Private->Prefix;
-	Suffix = Private->Suffix;
-	Stack = Private->Stack;
-	EOFCode = Private->EOFCode;
-	ClearCode = Private->ClearCode;
-	LastCode = Private->LastCode;
-
-	if (StackPtr > LZ_MAX_CODE) {
-		return GIF_ERROR;
-	}
-
-	if (StackPtr != 0) {
-		/* Let pop the stack off before continueing to read the GIF file: */
-		while (StackPtr != 0 && i < LineLen)
-			Line[i++] = Stack[--StackPtr];
+	/* Root codes are single pixel strings, the longer ones are added while decoding. */
+	for (i = 0; i < Private->ClearCode; i++) {
+		Private->Location[i] = NULL;
+		Private->Length[i] = 1;
+		Private->First[i] = (GifByteType) i;
 	}
 
-	while (i < LineLen) {    /* Decode LineLen items. */
-		if (DGifDecompressInput(GifFile, &CrntCode) == GIF_ERROR)
-			return GIF_ERROR;
-
-		if (CrntCode == EOFCode) {
-			/* Note however that usually we will not be here as we will stop
-			 * decoding as soon as we got all the pixel, or EOF code will
-			 * not be read at all, and DGifGetLine/Pixel clean everything.  */
-			GifFile->Error = D_GIF_ERR_EOF_TOO_SOON;
-			return GIF_ERROR;
-		} else if (CrntCode == ClearCode) {
-			/* We need to start over again: */
-			for (j = 0; j <= LZ_MAX_CODE; j++)
-				Prefix[j] = NO_SUCH_CODE;
-			Private->RunningCode = Private->EOFCode + 1;
-			Private->RunningBits = Private->BitsPerPixel + 1;
-			Private->MaxCode1 = 1 << Private->RunningBits;
-			LastCode = Private->LastCode = NO_SUCH_CODE;
-		} else {
-			/* Its regular code - if in pixel range simply add it to output
-			 * stream, otherwise trace to codes linked list until the prefix
-			 * is in pixel range: */
-			if (CrntCode < ClearCode) {
-				/* This is simple - its pixel scalar, so add it to output: */
-				Line[i++] = CrntCode;
-			} else {
-				/* Its a code to needed to be traced: trace the linked list
-				 * until the prefix is a pixel, while pushing the suffix
-				 * pixels on our stack. If we done, pop the stack in reverse
-				 * (thats what stack is good for!) order to output.  */
-				if (Prefix[CrntCode] == NO_SUCH_CODE) {
-					/* Only allowed if CrntCode is exactly the running code:
-					 * In that case CrntCode = XXXCode, CrntCode or the
-					 * prefix code is last code and the suffix char is
-					 * exactly the prefix of last code! */
-					if (CrntCode == Private->RunningCode - 2) {
-						CrntPrefix = LastCode;
-						Suffix[Private->RunningCode - 2] =
-						Stack[StackPtr++] = DGifGetPrefixChar(Prefix,
-						                                      LastCode,
-						                                      ClearCode);
-					} else {
-						GifFile->Error = D_GIF_ERR_IMAGE_DEFECT;
-						return GIF_ERROR;
-					}
-				} else
-					CrntPrefix = CrntCode;
-
-				/* Now (if image is O.K.) we should not get a NO_SUCH_CODE
-				 * during the trace. As we might loop forever, in case of
-				 * defective image, we use StackPtr as loop counter and stop
-				 * before overflowing Stack[]. */
-				while (StackPtr < LZ_MAX_CODE &&
-				       CrntPrefix > ClearCode && CrntPrefix <= LZ_MAX_CODE) {
-					Stack[StackPtr++] = Suffix[CrntPrefix];
-					CrntPrefix = Prefix[CrntPrefix];
-				}
-				if (StackPtr >= LZ_MAX_CODE || CrntPrefix > LZ_MAX_CODE) {
-					GifFile->Error = D_GIF_ERR_IMAGE_DEFECT;
-					return GIF_ERROR;
-				}
-				/* Push the last character on stack: */
-				Stack[StackPtr++] = CrntPrefix;
-
-				/* Now lets pop all the stack into output: */
-				while (StackPtr != 0 && i < LineLen)
-					Line[i++] = Stack[--StackPtr];
-			}
-			if (LastCode != NO_SUCH_CODE && Prefix[Private->RunningCode - 2] == NO_SUCH_CODE) {
-				Prefix[Private->RunningCode - 2] = LastCode;
-
-				if (CrntCode == Private->RunningCode - 2) {
-					/* Only allowed if CrntCode is exactly the running code:
-					 * In that case CrntCode = XXXCode, CrntCode or the
-					 * prefix code is last code and the suffix char is
-					 * exactly the prefix of last code! */
-					Suffix[Private->RunningCode - 2] =
-							DGifGetPrefixChar(Prefix, LastCode, ClearCode);
-				} else {
-					Suffix[Private->RunningCode - 2] =
-							DGifGetPrefixChar(Prefix, CrntCode, ClearCode);
-				}
-			}
-			LastCode = CrntCode;
-		}
-	}
-
-	Private->LastCode = LastCode;
-	Private->StackPtr = StackPtr;
-
 	return GIF_OK;
 }
 
 /******************************************************************************
-Routine to trace the Prefixes linked list until we get a prefix which is
-not code, but a pixel value (less than ClearCode). Returns that pixel value.
-If image is defective, we might loop here forever, so we limit the loops to
-the maximum possible if image O.k. - LZ_MAX_CODE times.
+Writes string of given code ending just before End by walking its prefixes.
+Used only for codes which have not been output contiguously yet.
 ******************************************************************************/
-static int
-DGifGetPrefixChar(GifPrefixType *Prefix, int Code, int ClearCode) {
-	int i = 0;
-
-	while (Code > ClearCode && i++ <= LZ_MAX_CODE) {
-		if (Code > LZ_MAX_CODE) {
-			return NO_SUCH_CODE;
-		}
-		Code = Prefix[Code];
+static void
+DGifTraceString(const GifFilePrivateType *Private, GifPrefixType Code, GifPixelType *End) {
+	while (Code > Private->ClearCode) {
+		*--End = Private->Suffix[Code];
+		Code = Private->Prefix[Code];
 	}
-	return Code;
+	*--End = (GifPixelType) Code;
 }
 
 /******************************************************************************
-The LZ decompression input routine:
-This routine is responsable for the decompression of the bit stream from
-8 bits (bytes) packets, into the real codes.
-Returns GIF_OK if read successfully.
+Reads next data block of the image into Buf[1..Buf[0]]. The LZW termination
+code should come before the empty block, so it is treated as a defect here.
 ******************************************************************************/
 static int
-DGifDecompressInput(GifFileType *GifFile, int *Code) {
-	static const unsigned short CodeMasks[] = {
-			0x0000, 0x0001, 0x0003, 0x0007,
-			0x000f, 0x001f, 0x003f, 0x007f,
-			0x00ff, 0x01ff, 0x03ff, 0x07ff,
-			0x0fff
-	};
-
+DGifReadCodeBlock(GifFileType *GifFile) {
 	GifFilePrivateType *Private = (GifFilePrivateType *) GifFile->Private;
+	GifByteType *Buf = Private->Buf;
 
-	GifByteType NextByte;
-
-	/* The image can't contain more than LZ_BITS per code. */
-	if (Private->RunningBits > LZ_BITS) {
-		GifFile->Error = D_GIF_ERR_IMAGE_DEFECT;
+	if (Private->Read(GifFile, Buf, 1) != 1) {
+		GifFile->Error = D_GIF_ERR_READ_FAILED;
 		return GIF_ERROR;
 	}
-
-	while (Private->CrntShiftState < Private->RunningBits) {
-		/* Needs to get more bytes from input stream for next code: */
-		if (DGifBufferedInput(GifFile, Private->Buf, &NextByte) == GIF_ERROR) {
-			return GIF_ERROR;
-		}
-		Private->CrntShiftDWord |=
-				((unsigned long) NextByte) << Private->CrntShiftState;
-		Private->CrntShiftState += 8;
+	if (Buf[0] == 0) {
+		GifFile->Error = D_GIF_ERR_IMAGE_DEFECT;
+		return GIF_ERROR;
 	}
-	*Code = Private->CrntShiftDWord & CodeMasks[Private->RunningBits];
-
-	Private->CrntShiftDWord >>= Private->RunningBits;
-	Private->CrntShiftState -= Private->RunningBits;
-
-	/* If code cannot fit into RunningBits bits, must raise its size. Note
-	 * however that codes above 4095 are used for special signaling.
-	 * If we're using LZ_BITS bits already and we're at the max code, just
-	 * keep using the table as it is, don't increment Private->RunningCode.
-	 */
-	if (Private->RunningCode < LZ_MAX_CODE + 2 &&
-	    ++Private->RunningCode > Private->MaxCode1 &&
-	    Private->RunningBits < LZ_BITS) {
-		Private->MaxCode1 <<= 1;
-		Private->RunningBits++;
+	if (Private->Read(GifFile, &Buf[1], Buf[0]) != Buf[0]) {
+		GifFile->Error = D_GIF_ERR_READ_FAILED;
+		return GIF_ERROR;
 	}
+	Private->BlockPos = 1;
+	Private->BlockLen = Buf[0];
 	return GIF_OK;
 }
 
 /******************************************************************************
-This routines read one GIF data block at a time and buffers it internally
-so that the decompression routine could access it.
-The routine returns the next byte from its internal buffer (or read next
-block in if buffer empty) and returns GIF_OK if succesful.
+The LZ decompression routine:
+This version decompress the given GIF file into Line of length LineLen.
+This routine can be called few times (one per scan line, for example), in
+order the complete the whole image.
+Each code remembers where its string has been output lately, so strings are
+copied in bulk from there instead of walking the prefix chain. That is why
+lines already output must not be modified until the whole image is decoded,
+DGifGetScratchLine has to be used otherwise.
+String which does not fit into the line is kept on the stack for next call.
 ******************************************************************************/
 static int
-DGifBufferedInput(GifFileType *GifFile, GifByteType *Buf, GifByteType *NextByte) {
-	if (Buf[0] == 0) {
-		/* Needs to read the next buffer - this one is empty: */
-		if (((GifFilePrivateType *) GifFile->Private)->Read(GifFile, Buf, 1) != 1) {
-			GifFile->Error = D_GIF_ERR_READ_FAILED;
-			return GIF_ERROR;
+DGifDecompressLine(GifFileType *GifFile, GifPixelType *Line, uint_fast32_t LineLen) {
+	GifFilePrivateType *Private = (GifFilePrivateType *) GifFile->Private;
+	GifPixelType *Out = Line;
+	GifPixelType *const LineEnd = Line + LineLen;
+
+	if (Private->StackPos < Private->StackPtr) {
+		/* Let pop the stack off before continueing to read the GIF file: */
+		uint_fast32_t PendingLen = Private->StackPtr - Private->StackPos;
+		if (PendingLen > LineLen)
+			PendingLen = LineLen;
+		memcpy(Out, Private->Stack + Private->StackPos, PendingLen);
+		Out += PendingLen;
+		Private->StackPos += PendingLen;
+	}
+
+	const GifPrefixType ClearCode = Private->ClearCode;
+	const GifPrefixType EOFCode = Private->EOFCode;
+	GifPrefixType RunningCode = Private->RunningCode;
+	GifPrefixType RunningBits = Private->RunningBits;
+	GifPrefixType MaxCode1 = Private->MaxCode1;
+	GifPrefixType FreeCode = Private->FreeCode;
+	GifPrefixType LastCode = Private->LastCode;
+	const GifPixelType *LastLocation = Private->LastLocation;
+	uint64_t ShiftDWord = Private->CrntShiftDWord;
+	uint_fast8_t ShiftState = (uint_fast8_t) Private->CrntShiftState;
+	const GifByteType *const Buf = Private->Buf;
+	uint_fast16_t BlockPos = Private->BlockPos;
+	int Result = GIF_OK;
+
+	while (Out < LineEnd) {
+		GifPrefixType CrntCode;
+		/* Shift in whole bytes of the current block, next block is read only when needed. */
+		if (ShiftState < RunningBits) {
+			while (ShiftState <= 56 && BlockPos <= Private->BlockLen) {
+				ShiftDWord |= ((uint64_t) Buf[BlockPos++]) << ShiftState;
+				ShiftState += 8;
+			}
+			while (ShiftState < RunningBits) {
+				if (DGifReadCodeBlock(GifFile) == GIF_ERROR) {
+					Result = GIF_ERROR;
+					goto done;
+				}
+				BlockPos = Private->BlockPos;
+				while (ShiftState <= 56 && BlockPos <= Private->BlockLen) {
+					ShiftDWord |= ((uint64_t) Buf[BlockPos++]) << ShiftState;
+					ShiftState += 8;
+				}
+			}
 		}
-		/* There shouldn't be any empty data blocks here as the LZW spec
-		 * says the LZW termination code should come first.  Therefore we
-		 * shouldn't be inside this routine at that point.
+		CrntCode = (GifPrefixType) (ShiftDWord & ((1U << RunningBits) - 1));
+		ShiftDWord >>= RunningBits;
+		ShiftState -= RunningBits;
+
+		/* If code cannot fit into RunningBits bits, must raise its size. Note
+		 * however that codes above 4095 are used for special signaling.
+		 * If we're using LZ_BITS bits already and we're at the max code, just
+		 * keep using the table as it is, don't increment RunningCode.
 		 */
-		if (Buf[0] == 0) {
-			GifFile->Error = D_GIF_ERR_IMAGE_DEFECT;
-			return GIF_ERROR;
+		if (RunningCode < LZ_MAX_CODE + 2 &&
+		    ++RunningCode > MaxCode1 &&
+		    RunningBits < LZ_BITS) {
+			MaxCode1 <<= 1;
+			RunningBits++;
 		}
-		if (((GifFilePrivateType *) GifFile->Private)->Read(GifFile, &Buf[1], Buf[0]) != Buf[0]) {
-			GifFile->Error = D_GIF_ERR_READ_FAILED;
-			return GIF_ERROR;
+
+		const GifPixelType *CrntLocation;
+		bool IsComplete = true;
+		if (CrntCode < ClearCode) {
+			/* This is simple - its pixel scalar, so add it to output: */
+			CrntLocation = Out;
+			*Out++ = (GifPixelType) CrntCode;
+		} else if (CrntCode == ClearCode) {
+			/* We need to start over again: */
+			RunningCode = EOFCode + 1;
+			FreeCode = EOFCode + 1;
+			RunningBits = Private->BitsPerPixel + 1;
+			MaxCode1 = 1U << RunningBits;
+			LastCode = NO_SUCH_CODE;
+			LastLocation = NULL;
+			continue;
+		} else if (CrntCode == EOFCode) {
+			/* Note however that usually we will not be here as we will stop
+			 * decoding as soon as we got all the pixel, or EOF code will
+			 * not be read at all, and DGifGetLine/Pixel clean everything.  */
+			GifFile->Error = D_GIF_ERR_EOF_TOO_SOON;
+			Result = GIF_ERROR;
+			goto done;
+		} else {
+			/* Code which is not in the table yet is only allowed if it is
+			 * exactly the one being added now: In that case its string is
+			 * the last code followed by its own first pixel. */
+			GifPrefixType StringCode = CrntCode;
+			uint_fast16_t TailLen = 0;
+			if (CrntCode >= FreeCode) {
+				if (CrntCode != FreeCode || LastCode == NO_SUCH_CODE) {
+					GifFile->Error = D_GIF_ERR_IMAGE_DEFECT;
+					Result = GIF_ERROR;
+					goto done;
+				}
+				StringCode = LastCode;
+				TailLen = 1;
+			}
+			const uint_fast16_t StringLen = Private->Length[StringCode];
+			const GifPixelType *Source = NULL;
+			if (Private->LocationSerial[StringCode] == Private->LineSerial)
+				Source = Private->Location[StringCode];
+			CrntLocation = Out;
+			if (StringLen + TailLen <= (uint_fast32_t) (LineEnd - Out)) {
+				if (Source != NULL)
+					memcpy(Out, Source, StringLen);
+				else
+					DGifTraceString(Private, StringCode, Out + StringLen);
+				if (TailLen != 0)
+					Out[StringLen] = Private->First[LastCode];
+				Out += StringLen + TailLen;
+			} else {
+				/* String crosses the end of line, build it on the stack: */
+				if (Source != NULL)
+					memcpy(Private->Stack, Source, StringLen);
+				else
+					DGifTraceString(Private, StringCode, Private->Stack + StringLen);
+				if (TailLen != 0)
+					Private->Stack[StringLen] = Private->First[LastCode];
+				Private->StackPtr = StringLen + TailLen;
+				Private->StackPos = LineEnd - Out;
+				memcpy(Out, Private->Stack, Private->StackPos);
+				Out = LineEnd;
+				IsComplete = false;
+			}
 		}
-		*NextByte = Buf[1];
-		Buf[1] = 2;    /* We use now the second place as last char read! */
-		Buf[0]--;
-	} else {
-		*NextByte = Buf[Buf[1]++];
-		Buf[0]--;
+
+		if (LastCode != NO_SUCH_CODE && FreeCode <= LZ_MAX_CODE) {
+			/* New string is the last one followed by first pixel of current
+			 * one, it is contiguous only if both have been output together. */
+			Private->Prefix[FreeCode] = LastCode;
+			Private->First[FreeCode] = Private->First[LastCode];
+			Private->Suffix[FreeCode] = Private->First[CrntCode];
+			Private->Length[FreeCode] = (GifPrefixType) (Private->Length[LastCode] + 1);
+			if (LastLocation != NULL && LastLocation + Private->Length[LastCode] == CrntLocation)
+				Private->Location[FreeCode] = LastLocation;
+			else
+				Private->Location[FreeCode] = NULL;
+			Private->LocationSerial[FreeCode] = Private->LineSerial;
+			FreeCode++;
+		}
+		if (IsComplete) {
+			if (CrntCode > EOFCode) {
+				Private->Location[CrntCode] = CrntLocation;
+				Private->LocationSerial[CrntCode] = Private->LineSerial;
+			}
+			LastLocation = CrntLocation;
+		} else
+			LastLocation = NULL;
+		LastCode = CrntCode;
 	}
 
-	return GIF_OK;
+done:
+	Private->RunningCode = RunningCode;
+	Private->RunningBits = RunningBits;
+	Private->MaxCode1 = MaxCode1;
+	Private->FreeCode = FreeCode;
+	Private->LastCode = LastCode;
+	Private->LastLocation = LastLocation;
+	Private->CrntShiftDWord = ShiftDWord;
+	Private->CrntShiftState = ShiftState;
+	Private->BlockPos = BlockPos;
+	return Result;
 }
@@ -142,6 +142,8 @@ int DGifGetImageDesc(GifFileType *GifFile, bool changeImageCount);
 
 int DGifGetLine(GifFileType *GifFile, GifPixelType *GifLine, uint_fast32_t GifLineLen);
 
+int DGifGetScratchLine(GifFileType *GifFile, GifPixelType *GifLine, uint_fast32_t GifLineLen);
+
 int DGifGetExtension(GifFileType *GifFile, int *GifExtCode,
                      GifByteType **GifExtension);
 
@@ -36,11 +36,15 @@ typedef struct GifFilePrivateType {
 			RunningBits, /* The number of bits required to represent RunningCode. */
 			MaxCode1,    /* 1 bigger than max. possible code, in RunningBits bits. */
 			LastCode,    /* The code before the current code. */
+			FreeCode,    /* The first code not present in the table yet. */
 //      CrntCode,    /* Current algorithm code. */
-			StackPtr,    /* For character stack (see below). */
+			StackPtr,    /* Number of pixels on the stack (see below). */
+			StackPos,    /* Next pixel to be popped from the stack. */
+			BlockPos,    /* Next byte of the compressed block in Buf. */
+			BlockLen,    /* Length of the compressed block in Buf. */
 			CrntShiftState;
 	/* Number of bits in CrntShiftDWord. */
-	unsigned long CrntShiftDWord;
+	uint64_t CrntShiftDWord;
 	/* For bytes decomposition into codes. */
 	uint_fast32_t PixelCount;
 	/* Number of pixels in image. */
@@ -50,11 +54,22 @@ typedef struct GifFilePrivateType {
 //    OutputFunc Write;   /* function to write gif output (MRB) */
 	GifByteType Buf[256];
 	/* Compressed input is buffered here. */
-	GifByteType Stack[LZ_MAX_CODE];
-	/* Decoded pixels are stacked here. */
+	GifByteType Stack[LZ_MAX_CODE + 1];
+	/* Decoded pixels which did not fit into the line are kept here. */
 	GifByteType Suffix[LZ_MAX_CODE + 1];
 	/* So we can trace the codes. */
 	GifPrefixType Prefix[LZ_MAX_CODE + 1];
+	GifByteType First[LZ_MAX_CODE + 1];
+	/* First pixel of the string. */
+	GifPrefixType Length[LZ_MAX_CODE + 1];
+	/* Number of pixels in the string. */
+	const GifPixelType *Location[LZ_MAX_CODE + 1];
+	/* Where the string has been output lately or NULL if it is not contiguous. */
+	uint_fast32_t LocationSerial[LZ_MAX_CODE + 1];
+	/* Location is valid only if it has been set during the current LineSerial. */
+	uint_fast32_t LineSerial;
+	const GifPixelType *LastLocation;
+	/* Where the last code has been output or NULL if it was not completed. */
 //    bool gif89;
 } GifFilePrivateType;
 
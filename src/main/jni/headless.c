@@ -0,0 +1,11 @@
+#include "gif.h"
+
+//replaces bitmap.c in headless build, where Android graphics are not available
+
+int lockPixels(JNIEnv *env, jobject __unused jbitmap, GifInfo __unused *info, void __unused **pixels) {
+	throwException(env, RUNTIME_EXCEPTION_BARE, "Bitmaps are not supported in headless build");
+	return -2;
+}
+
+void unlockPixels(JNIEnv __unused *env, jobject __unused jbitmap) {
+}
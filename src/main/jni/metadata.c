@@ -19,14 +19,6 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_isAnimationCompleted(JNIEnv __unused
 		return JNI_FALSE;
 }
 
-__unused JNIEXPORT jint JNICALL
-Java_com_zing_zalo_gifplayer_GifInfoHandle_getLoopCount(JNIEnv __unused *env, jclass __unused handleClass,
-                                                     jlong gifInfo) {
-	if (gifInfo == 0)
-		return 0;
-	return (jint) ((GifInfo *) (intptr_t) gifInfo)->loopCount;
-}
-
 __unused JNIEXPORT void JNICALL
 Java_com_zing_zalo_gifplayer_GifInfoHandle_setLoopCount(JNIEnv __unused *env, jclass __unused handleClass,
                                                      jlong gifInfo, jint loopCount) {
@@ -34,20 +26,6 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_setLoopCount(JNIEnv __unused *env, jc
 		((GifInfo *) (intptr_t) gifInfo)->loopCount = (uint_fast16_t) loopCount;
 }
 
-__unused JNIEXPORT jint JNICALL
-Java_com_zing_zalo_gifplayer_GifInfoHandle_getDuration(JNIEnv *__unused  env, jclass __unused handleClass,
-                                                    jlong gifInfo) {
-	if (gifInfo == 0) {
-		return 0;
-	}
-	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
-	uint_fast32_t i;
-	jint sum = 0;
-	for (i = 0; i < info->gifFilePtr->ImageCount; i++)
-		sum += info->controlBlock[i].DelayTime;
-	return sum;
-}
-
 __unused JNIEXPORT jlong JNICALL
 Java_com_zing_zalo_gifplayer_GifInfoHandle_getSourceLength(JNIEnv __unused *env, jclass __unused handleClass,
                                                         jlong gifInfo) {
@@ -94,10 +72,22 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_getAllocationByteCount(JNIEnv *__unus
 		return 0;
 	}
 	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
-	GifWord pxCount = info->originalWidth + info->originalHeight;
-	size_t sum = pxCount * sizeof(char);
-	if (info->backupPtr != NULL)
-		sum += pxCount * sizeof(argb);
+	const size_t pxCount = (size_t) info->gifFilePtr->SWidth * info->gifFilePtr->SHeight;
+	size_t sum = 0;
+	if (info->lineBuffer != NULL) {
+		sum += info->originalWidth * getStripCapacity(info) * sizeof(GifPixelType);
+		if (info->areaSums != NULL)
+			sum += pxCount * 4 * sizeof(uint32_t);
+		else
+			sum += pxCount * sizeof(GifPixelType);
+	} else if (info->rasterBits != NULL) {
+		sum += (size_t) info->originalWidth * info->originalHeight * sizeof(GifPixelType);
+	}
+	sum += info->backupSize;
+	if (info->snapshotCache != NULL)
+		sum += info->snapshotCache->usedBytes;
+	if (info->animationCache != NULL)
+		sum += info->animationCache->usedBytes;
 	return (jlong) sum;
 }
 
@@ -125,6 +115,14 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_getCurrentFrameIndex(JNIEnv __unused
 	return (jint) ((GifInfo *) (intptr_t) gifInfo)->currentIndex;
 }
 
+__unused JNIEXPORT jint JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_getDroppedFrameCount(JNIEnv __unused *env, jclass __unused handleClass,
+                                                             jlong gifInfo) {
+	if (gifInfo == 0)
+		return 0;
+	return (jint) ((GifInfo *) (intptr_t) gifInfo)->droppedFrameCount;
+}
+
 __unused JNIEXPORT jlongArray JNICALL
 Java_com_zing_zalo_gifplayer_GifInfoHandle_getSavedState(JNIEnv *env, jclass __unused handleClass,
                                                       jlong gifInfo) {
@@ -164,12 +162,7 @@ jint restoreSavedState(GifInfo *info, JNIEnv *env, jlongArray state, void *pixel
 
 	uint_fast32_t lastFrameDuration = info->controlBlock[info->currentIndex].DelayTime;
 	if (info->currentIndex < savedIndex) {
-		if (info->currentIndex == 0)
-			prepareCanvas(pixels, info);
-		while (info->currentIndex < savedIndex) {
-			DDGifSlurp(info, true, false);
-			lastFrameDuration = getBitmap((argb *) pixels, info);
-		}
+		lastFrameDuration = seek(info, savedIndex - 1, pixels);
 	}
 
 	info->currentLoop = savedLoop;
@@ -193,21 +186,87 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_restoreSavedState(JNIEnv *env, jclass
 		return -1;
 	}
 	const jint invalidationDelay = restoreSavedState(info, env, state, pixels);
+	markCanvasDirty(info);
 	unlockPixels(env, jbitmap);
 	return invalidationDelay;
 }
 
-__unused JNIEXPORT jint JNICALL
-Java_com_zing_zalo_gifplayer_GifInfoHandle_getFrameDuration(__unused JNIEnv *env, jclass __unused handleClass, jlong gifInfo, jint index) {
-	GifInfo *const info = ((GifInfo *) (intptr_t) gifInfo);
-	return info == NULL ? 0 : (jint) info->controlBlock[index].DelayTime;
+/**
+ * Tells whether every pixel of every frame is opaque, that is no frame has transparent color,
+ * nothing is disposed to background and the first frame is drawn over opaque background
+ * or covers the whole canvas. First frame disposed to previous reveals the initial canvas,
+ * so it needs opaque background even if it covers the whole canvas.
+ */
+static bool isAnimationOpaque(const GifInfo *info) {
+	const GifFileType *const gifFilePtr = info->gifFilePtr;
+	//frames of incomplete source are not known yet
+	if (info->isDataIncomplete || gifFilePtr->ImageCount == 0) {
+		return false;
+	}
+	uint_fast32_t i;
+	for (i = 0; i < gifFilePtr->ImageCount; i++) {
+		if (info->controlBlock[i].TransparentColor != NO_TRANSPARENT_COLOR
+		    || info->controlBlock[i].DisposalMode == DISPOSE_BACKGROUND) {
+			return false;
+		}
+	}
+	if (gifFilePtr->SColorMap != NULL) {
+		return true;
+	}
+	if (info->controlBlock[0].DisposalMode == DISPOSE_PREVIOUS) {
+		return false;
+	}
+	const GifImageDesc *firstFrame = &gifFilePtr->SavedImages[0].ImageDesc;
+	return firstFrame->Left == 0 && firstFrame->Top == 0 && firstFrame->Width >= gifFilePtr->SWidth
+	       && firstFrame->Height >= gifFilePtr->SHeight;
 }
 
-__unused JNIEXPORT jboolean JNICALL
-Java_com_zing_zalo_gifplayer_GifInfoHandle_isOpaque(__unused JNIEnv *env, jclass __unused handleClass, jlong gifInfo) {
+/**
+ * Collects metadata which changes only when frames are scanned or options are set, in layout
+ * expected by GifMetadata: width, height, frame count, loop count, opacity flags and durations
+ * of all the frames.
+ */
+__unused JNIEXPORT jintArray JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_getMetadata(JNIEnv *env, jclass __unused handleClass, jlong gifInfo) {
 	GifInfo *const info = ((GifInfo *) (intptr_t) gifInfo);
-	if (info != NULL && info->isOpaque) {
-		return JNI_TRUE;
+	if (info == NULL)
+		return NULL;
+	const jsize frameCount = (jsize) info->gifFilePtr->ImageCount;
+	const jsize headerLength = 5;
+	const jintArray metadata = (*env)->NewIntArray(env, headerLength + frameCount);
+	if (metadata == NULL) {
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return NULL;
+	}
+	jint *values = (*env)->GetIntArrayElements(env, metadata, NULL);
+	if (values == NULL) {
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return NULL;
 	}
-	return JNI_FALSE;
+	values[0] = (jint) info->gifFilePtr->SWidth;
+	values[1] = (jint) info->gifFilePtr->SHeight;
+	values[2] = frameCount;
+	values[3] = (jint) info->loopCount;
+	values[4] = (info->isOpaque ? 1 : 0) | (isAnimationOpaque(info) ? 2 : 0);
+	jsize i;
+	for (i = 0; i < frameCount; i++)
+		values[headerLength + i] = (jint) info->controlBlock[i].DelayTime;
+	(*env)->ReleaseIntArrayElements(env, metadata, values, 0);
+	return metadata;
+}
+
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_scanFrames(JNIEnv *env, jclass __unused handleClass, jlong gifInfo) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL || info->gifFilePtr->ImageCount > 0)
+		return;
+	DDGifSlurp(info, false, false);
+	info->originalHeight = info->gifFilePtr->SHeight;
+	info->originalWidth = info->gifFilePtr->SWidth;
+	if (info->gifFilePtr->Error == D_GIF_ERR_NOT_ENOUGH_MEM)
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+	else if (info->gifFilePtr->ImageCount == 0)
+		throwGifIOException(D_GIF_ERR_NO_FRAMES, env);
+	else if (info->gifFilePtr->Error == D_GIF_ERR_REWIND_FAILED)
+		throwGifIOException(D_GIF_ERR_REWIND_FAILED, env);
 }
@@ -1,12 +1,22 @@
 #include "gif.h"
+#include "giflib/gif_lib_private.h"
 
 void cleanUp(GifInfo *info) {
 	free(info->backupPtr);
 	info->backupPtr = NULL;
+	info->backupSize = 0;
 	free(info->controlBlock);
 	info->controlBlock = NULL;
+	free(info->frameOffsets);
+	info->frameOffsets = NULL;
+	releaseSnapshots(info);
+	releaseAnimationCache(info);
 	free(info->rasterBits);
 	info->rasterBits = NULL;
+	free(info->lineBuffer);
+	info->lineBuffer = NULL;
+	free(info->areaSums);
+	info->areaSums = NULL;
 	free(info->comment);
 	info->comment = NULL;
 
@@ -14,6 +24,93 @@ void cleanUp(GifInfo *info) {
 	free(info);
 }
 
+GifInfo *createCursor(const GifInfo *source, void *container) {
+	GifInfo *cursor = malloc(sizeof(GifInfo));
+	if (cursor == NULL)
+		return NULL;
+	GifFileType *gifFilePtr = malloc(sizeof(GifFileType));
+	if (gifFilePtr == NULL) {
+		free(cursor);
+		return NULL;
+	}
+	//decoder state is private, it starts from scratch
+	GifFilePrivateType *private = calloc(1, sizeof(GifFilePrivateType));
+	if (private == NULL) {
+		free(gifFilePtr);
+		free(cursor);
+		return NULL;
+	}
+	*gifFilePtr = *source->gifFilePtr;
+	gifFilePtr->Image.ColorMap = NULL;
+	gifFilePtr->Error = 0;
+	gifFilePtr->UserData = container;
+	gifFilePtr->Private = private;
+	private->Read = ((GifFilePrivateType *) source->gifFilePtr->Private)->Read;
+
+	*cursor = *source;
+	cursor->destructor = NULL;
+	cursor->gifFilePtr = gifFilePtr;
+	cursor->currentIndex = 0;
+	cursor->nextStartTime = 0;
+	cursor->lastFrameRemainder = -1;
+	cursor->currentLoop = 0;
+	cursor->comment = NULL;
+	cursor->isRealTimePlayback = false;
+	cursor->droppedFrameCount = 0;
+	cursor->backupPtr = NULL;
+	cursor->backupSize = 0;
+	cursor->backupIndex = -1;
+	cursor->snapshotCache = NULL;
+	cursor->animationCache = NULL;
+	cursor->frameBufferDescriptor = NULL;
+	cursor->isRgb565 = false;
+	cursor->paletteColorMap = NULL;
+	cursor->dirtyRect = (DirtyRect) {0, 0, 0, 0};
+	cursor->lineBuffer = NULL;
+	cursor->areaSums = NULL;
+	cursor->rasterBits = NULL;
+
+	//buffers are sized like the ones of the source, which may have been downscaled
+	bool isAllocated = true;
+	if (source->lineBuffer != NULL) {
+		cursor->lineBuffer = malloc(source->originalWidth * getStripCapacity(source) * sizeof(GifPixelType));
+		isAllocated = cursor->lineBuffer != NULL;
+	}
+	if (source->areaSums != NULL) {
+		cursor->areaSums = malloc((size_t) gifFilePtr->SWidth * gifFilePtr->SHeight * 4 * sizeof(uint32_t));
+		isAllocated &= cursor->areaSums != NULL;
+	} else if (source->lineBuffer != NULL) {
+		cursor->rasterBits = malloc((size_t) gifFilePtr->SWidth * gifFilePtr->SHeight * sizeof(GifPixelType));
+		isAllocated &= cursor->rasterBits != NULL;
+	} else {
+		cursor->rasterBits = malloc((size_t) source->originalWidth * source->originalHeight * sizeof(GifPixelType));
+		isAllocated &= cursor->rasterBits != NULL;
+	}
+	if (!isAllocated) {
+		cleanUpCursor(cursor);
+		return NULL;
+	}
+	return cursor;
+}
+
+void cleanUpCursor(GifInfo *cursor) {
+	free(cursor->backupPtr);
+	releaseSnapshots(cursor);
+	releaseAnimationCache(cursor);
+	free(cursor->rasterBits);
+	free(cursor->lineBuffer);
+	free(cursor->areaSums);
+	if (cursor->gifFilePtr->Image.ColorMap != NULL)
+		GifFreeMapObject(cursor->gifFilePtr->Image.ColorMap);
+	free(cursor->gifFilePtr->Private);
+	free(cursor->gifFilePtr);
+	free(cursor);
+}
+
+static bool isSizeLimitExceeded(const GifFileType *gifFile, jint maxSize) {
+	return (int_fast64_t) gifFile->SWidth * gifFile->SHeight * (int_fast64_t) sizeof(argb) > maxSize;
+}
+
 GifInfo *createGifHandle(GifSourceDescriptor *descriptor, JNIEnv *env, jboolean justDecodeMetaData, jint maxSize) {
 	if (descriptor->startPos < 0) {
 		descriptor->Error = D_GIF_ERR_NOT_READABLE;
@@ -23,6 +120,12 @@ GifInfo *createGifHandle(GifSourceDescriptor *descriptor, JNIEnv *env, jboolean
 		throwGifIOException(descriptor->Error, env);
 		return NULL;
 	}
+	// Check size from logical screen descriptor before any frame is read.
+	if (!descriptor->isHeaderOnly && isSizeLimitExceeded(descriptor->GifFileIn, maxSize)) {
+		DGifCloseFile(descriptor->GifFileIn);
+		throwGifIOException(D_GIF_ERR_EXCEED_SIZE_LIMIT, env);
+		return NULL;
+	}
 
 	GifInfo *info = malloc(sizeof(GifInfo));
 	if (info == NULL) {
@@ -33,6 +136,7 @@ GifInfo *createGifHandle(GifSourceDescriptor *descriptor, JNIEnv *env, jboolean
 	info->controlBlock = malloc(sizeof(GraphicsControlBlock));
 	if (info->controlBlock == NULL) {
 		DGifCloseFile(descriptor->GifFileIn);
+		free(info);
 		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
 		return NULL;
 	}
@@ -47,21 +151,43 @@ GifInfo *createGifHandle(GifSourceDescriptor *descriptor, JNIEnv *env, jboolean
 	info->loopCount = 1;
 	info->currentLoop = 0;
 	info->speedFactor = 1.0;
+	info->isRealTimePlayback = false;
+	info->droppedFrameCount = 0;
 	info->sourceLength = descriptor->sourceLength;
 
 	info->backupPtr = NULL;
+	info->backupSize = 0;
+	info->backupIndex = -1;
 	info->rewindFunction = descriptor->rewindFunc;
+	info->tellFunction = descriptor->tellFunc;
+	info->seekFunction = descriptor->seekFunc;
+	info->frameOffsets = NULL;
+	info->snapshotCache = NULL;
+	info->animationCache = NULL;
 	info->frameBufferDescriptor = NULL;
 	info->isOpaque = false;
-	info->sampleSize = 1;
+	info->isRgb565 = false;
+	info->paletteColorMap = NULL;
+	info->dirtyRect = (DirtyRect) {0, 0, 0, 0};
+	info->lineBuffer = NULL;
+	info->areaSums = NULL;
+	info->rasterBits = NULL;
+	info->isDataIncomplete = descriptor->isIncremental;
 
-	DDGifSlurp(info, false, false);
-	// Check whether size from header is bigger than maxSize or not.
-    if (descriptor->GifFileIn->SHeight * descriptor->GifFileIn->SWidth * 4 > maxSize) {
-        descriptor->GifFileIn->Error = D_GIF_ERR_EXCEED_SIZE_LIMIT;
-        throwGifIOException(D_GIF_ERR_EXCEED_SIZE_LIMIT, env);
-        return NULL;
-    }
+	if (descriptor->isHeaderOnly) {
+		info->originalHeight = info->gifFilePtr->SHeight;
+		info->originalWidth = info->gifFilePtr->SWidth;
+		return info;
+	}
+	// Frames of incremental source are scanned one by one as their data arrives.
+	if (!descriptor->isIncremental)
+		DDGifSlurp(info, false, false);
+	// Frames bigger than logical screen enlarge it, so size has to be checked again.
+	if (isSizeLimitExceeded(descriptor->GifFileIn, maxSize)) {
+		cleanUp(info);
+		throwGifIOException(D_GIF_ERR_EXCEED_SIZE_LIMIT, env);
+		return NULL;
+	}
 
 	if (justDecodeMetaData == JNI_TRUE) {
 		info->rasterBits = NULL;
@@ -89,7 +215,7 @@ GifInfo *createGifHandle(GifSourceDescriptor *descriptor, JNIEnv *env, jboolean
 	descriptor->Error = descriptor->GifFileIn->Error;
 #endif
 
-	if (descriptor->GifFileIn->ImageCount == 0) {
+	if (descriptor->GifFileIn->ImageCount == 0 && !descriptor->isIncremental) {
 		descriptor->Error = D_GIF_ERR_NO_FRAMES;
 	}
 	else if (descriptor->GifFileIn->Error == D_GIF_ERR_REWIND_FAILED) {
@@ -119,6 +119,7 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_initTexImageDescriptor(JNIEnv *env, j
 		return;
 	}
 	info->stride = (int32_t) width;
+	setCanvasFormat(info, false);
 	info->frameBufferDescriptor = texImageDescriptor;
 	THROW_ON_NONZERO_RESULT(pthread_mutex_init(&texImageDescriptor->renderMutex, NULL), "Render mutex initialization failed ");
 }
@@ -0,0 +1,201 @@
+#include "gif.h"
+
+/**
+ * Area averaging is used only if no target pixel covers more source pixels, so sums fit 32 bits.
+ */
+#define MAX_AVERAGED_AREA 65536
+/**
+ * Preferred size of the buffer holding source lines, single line is used if it is longer.
+ */
+#define STRIP_BUFFER_SIZE 8192
+
+static inline GifWord scaleCoordinate(GifWord value, GifWord originalSize, GifWord targetSize) {
+	return (GifWord) ((uint_fast64_t) value * targetSize / originalSize);
+}
+
+/**
+ * Maps source range to the target one, so adjacent ranges stay adjacent after scaling.
+ * Ranges are never collapsed, so even 1 pixel wide frames remain visible.
+ */
+static void scaleRange(GifWord *start, GifWord *length, GifWord originalSize, GifWord targetSize) {
+	GifWord scaledStart = scaleCoordinate(*start, originalSize, targetSize);
+	GifWord scaledLength = scaleCoordinate(*start + *length, originalSize, targetSize) - scaledStart;
+	if (scaledLength < 1)
+		scaledLength = 1;
+	if (scaledStart + scaledLength > targetSize)
+		scaledStart = targetSize - scaledLength;
+	*start = scaledStart;
+	*length = scaledLength;
+}
+
+/**
+ * Number of source lines decoded at once, strings output within the same strip are copied
+ * in bulk by the decoder.
+ */
+uint_fast32_t getStripCapacity(const GifInfo *info) {
+	const uint_fast32_t capacity = STRIP_BUFFER_SIZE / info->originalWidth;
+	return capacity > 0 ? capacity : 1;
+}
+
+bool setTargetSize(GifInfo *info, GifWord width, GifWord height, bool isAreaAveraged) {
+	GifFileType *const gifFilePtr = info->gifFilePtr;
+	//frame geometry is scaled in place, so it can be done only once
+	if (gifFilePtr->SWidth != info->originalWidth || gifFilePtr->SHeight != info->originalHeight)
+		return true;
+	if (width < 1 || width > info->originalWidth)
+		width = info->originalWidth;
+	if (height < 1 || height > info->originalHeight)
+		height = info->originalHeight;
+	if (width == info->originalWidth && height == info->originalHeight)
+		return true;
+
+	releaseSnapshots(info);
+	releaseAnimationCache(info);
+	info->backupIndex = -1;
+	if (info->rasterBits != NULL) {
+		const uint_fast32_t footprintWidth = (info->originalWidth + width - 1) / width;
+		const uint_fast32_t footprintHeight = (info->originalHeight + height - 1) / height;
+		info->lineBuffer = malloc(info->originalWidth * getStripCapacity(info) * sizeof(GifPixelType));
+		if (info->lineBuffer == NULL)
+			return false;
+		if (isAreaAveraged && footprintWidth * footprintHeight <= MAX_AVERAGED_AREA) {
+			info->areaSums = malloc((size_t) width * height * 4 * sizeof(uint32_t));
+			if (info->areaSums == NULL) {
+				free(info->lineBuffer);
+				info->lineBuffer = NULL;
+				return false;
+			}
+			free(info->rasterBits);
+			info->rasterBits = NULL;
+		} else {
+			GifPixelType *tmpRasterBits = reallocarray(info->rasterBits, (size_t) width * height, sizeof(GifPixelType));
+			if (tmpRasterBits != NULL)
+				info->rasterBits = tmpRasterBits;
+		}
+	}
+
+	gifFilePtr->SWidth = width;
+	gifFilePtr->SHeight = height;
+	uint_fast32_t i;
+	for (i = 0; i < gifFilePtr->ImageCount; i++) {
+		scaleFrameDesc(info, &gifFilePtr->SavedImages[i].ImageDesc);
+	}
+	return true;
+}
+
+void scaleFrameDesc(const GifInfo *info, GifImageDesc *desc) {
+	scaleRange(&desc->Left, &desc->Width, info->originalWidth, info->gifFilePtr->SWidth);
+	scaleRange(&desc->Top, &desc->Height, info->originalHeight, info->gifFilePtr->SHeight);
+}
+
+/**
+ * Picks the first pixel of each target pixel footprint, only rows starting a footprint are used.
+ */
+static void sampleLine(GifInfo *info, const GifPixelType *line, uint_fast32_t y,
+                       uint_fast32_t srcWidth, uint_fast32_t srcHeight,
+                       uint_fast32_t dstWidth, uint_fast32_t dstHeight) {
+	const uint_fast32_t dstY = (uint_fast32_t) ((uint_fast64_t) y * dstHeight / srcHeight);
+	if (y > 0 && (uint_fast64_t) (y - 1) * dstHeight / srcHeight == dstY)
+		return;
+	GifPixelType *dst = info->rasterBits + dstY * dstWidth;
+	uint_fast32_t x, srcX = 0, remainder = dstWidth - 1;
+	for (x = 0; x < dstWidth; x++) {
+		dst[x] = line[srcX];
+		srcX += srcWidth / dstWidth;
+		remainder += srcWidth % dstWidth;
+		if (remainder >= dstWidth) {
+			srcX++;
+			remainder -= dstWidth;
+		}
+	}
+}
+
+/**
+ * Adds colors of opaque pixels to sums of target pixels covering them, transparent ones
+ * are only counted by the footprint size.
+ */
+static void accumulateLine(GifInfo *info, const GifPixelType *line, uint_fast32_t y,
+                           uint_fast32_t srcWidth, uint_fast32_t srcHeight,
+                           uint_fast32_t dstWidth, uint_fast32_t dstHeight,
+                           const ColorMapObject *cmap) {
+	const uint_fast32_t dstY = (uint_fast32_t) ((uint_fast64_t) y * dstHeight / srcHeight);
+	const int_fast16_t transpIndex = info->controlBlock[info->currentIndex].TransparentColor;
+	uint32_t *sums = info->areaSums + dstY * dstWidth * 4;
+	uint_fast32_t x, remainder = 0;
+	for (x = 0; x < srcWidth; x++) {
+		const GifPixelType index = line[x];
+		if (index != transpIndex && index < cmap->ColorCount) {
+			const GifColorType color = cmap->Colors[index];
+			sums[0] += color.Red;
+			sums[1] += color.Green;
+			sums[2] += color.Blue;
+			sums[3]++;
+		}
+		remainder += dstWidth;
+		if (remainder >= srcWidth) {
+			sums += 4;
+			remainder -= srcWidth;
+		}
+	}
+}
+
+void decodeScaledFrame(GifInfo *info) {
+	GifFileType *const gifFilePtr = info->gifFilePtr;
+	const SavedImage *frame = &gifFilePtr->SavedImages[info->currentIndex];
+	const uint_fast32_t srcWidth = (uint_fast32_t) gifFilePtr->Image.Width;
+	const uint_fast32_t srcHeight = (uint_fast32_t) gifFilePtr->Image.Height;
+	const uint_fast32_t dstWidth = (uint_fast32_t) frame->ImageDesc.Width;
+	const uint_fast32_t dstHeight = (uint_fast32_t) frame->ImageDesc.Height;
+	if (srcWidth > (uint_fast32_t) info->originalWidth || dstWidth > srcWidth || dstHeight > srcHeight) {
+		gifFilePtr->Error = D_GIF_ERR_IMG_NOT_CONFINED;
+		return;
+	}
+	const ColorMapObject *cmap = getFrameColorMap(info, frame);
+	if (info->areaSums != NULL)
+		memset(info->areaSums, 0, (size_t) dstWidth * dstHeight * 4 * sizeof(uint32_t));
+
+	/*
+	 * Interlaced image is read in 4 passes, the other one in a single pass
+	 * with unit jump.
+	 */
+	uint_fast8_t InterlacedOffset[] = {0, 4, 2, 1};
+	uint_fast8_t InterlacedJumps[] = {8, 8, 4, 2};
+	uint_fast8_t i, passCount = 4;
+	if (!gifFilePtr->Image.Interlace) {
+		passCount = 1;
+		InterlacedJumps[0] = 1;
+	}
+	const uint_fast32_t stripCapacity = getStripCapacity(info);
+	for (i = 0; i < passCount; i++) {
+		uint_fast32_t y = InterlacedOffset[i];
+		while (y < srcHeight) {
+			uint_fast32_t stripHeight = (srcHeight - y + InterlacedJumps[i] - 1) / InterlacedJumps[i];
+			if (stripHeight > stripCapacity)
+				stripHeight = stripCapacity;
+			if (DGifGetScratchLine(gifFilePtr, info->lineBuffer, srcWidth * stripHeight) == GIF_ERROR)
+				return;
+			const GifPixelType *line = info->lineBuffer;
+			for (; stripHeight > 0; stripHeight--, line += srcWidth, y += InterlacedJumps[i]) {
+				if (info->areaSums != NULL)
+					accumulateLine(info, line, y, srcWidth, srcHeight, dstWidth, dstHeight, cmap);
+				else
+					sampleLine(info, line, y, srcWidth, srcHeight, dstWidth, dstHeight);
+			}
+		}
+	}
+}
+
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_setTargetSize(JNIEnv *env, jclass __unused handleClass, jlong gifInfo,
+                                                      jint width, jint height, jboolean isAreaAveraged) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL)
+		return;
+	//out of range sizes are treated as original ones
+	if (width <= 0 || width > UINT16_MAX)
+		width = 0;
+	if (height <= 0 || height > UINT16_MAX)
+		height = 0;
+	if (!setTargetSize(info, (GifWord) width, (GifWord) height, isAreaAveraged == JNI_TRUE))
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+}
@@ -0,0 +1,488 @@
+#include "gif.h"
+
+/**
+ * Marks literal run in encoded snapshot, header without this flag denotes repeated pixel.
+ */
+#define LITERAL_RUN_FLAG 0x80000000U
+/**
+ * Shorter runs of equal pixels are stored as literals, since repeated run takes 2 words anyway.
+ */
+#define MIN_REPEAT_RUN_LENGTH 3
+/**
+ * Set in the length word of snapshot stored as palette indices.
+ */
+#define INDEXED_SNAPSHOT_FLAG 0x80000000U
+/**
+ * Canvas composed of more colors cannot be stored as indices.
+ */
+#define MAX_INDEXED_COLORS 256
+/**
+ * Size of the hash table used to build the palette, power of 2 several times bigger than palette.
+ */
+#define PALETTE_HASH_SIZE 1024
+
+/**
+ * Pixels of 16-bit canvas are stored as 32-bit values as well, so the same encodings apply.
+ */
+static inline uint32_t getCanvasPixel(const argb *bm, const GifInfo *info, uint_fast32_t x, uint_fast32_t y) {
+	if (info->isRgb565) {
+		return ((const uint16_t *) bm)[y * info->stride + x];
+	}
+	return ((const uint32_t *) bm)[y * info->stride + x];
+}
+
+static inline void setCanvasPixel(argb *bm, const GifInfo *info, uint_fast32_t x, uint_fast32_t y, uint32_t value) {
+	if (info->isRgb565) {
+		((uint16_t *) bm)[y * info->stride + x] = (uint16_t) value;
+	} else {
+		((uint32_t *) bm)[y * info->stride + x] = value;
+	}
+}
+
+static void appendRun(uint32_t *out, size_t *outPos, size_t *literalHeaderPos, uint32_t value, uint_fast32_t length) {
+	if (length >= MIN_REPEAT_RUN_LENGTH) {
+		*literalHeaderPos = 0;
+		out[(*outPos)++] = (uint32_t) length;
+		out[(*outPos)++] = value;
+		return;
+	}
+	for (; length > 0; length--) {
+		if (*literalHeaderPos == 0) {
+			*literalHeaderPos = *outPos;
+			out[(*outPos)++] = LITERAL_RUN_FLAG;
+		}
+		out[(*outPos)++] = value;
+		out[*literalHeaderPos]++;
+	}
+}
+
+/**
+ * Run-length encodes visible part of the canvas. Literal run is always followed by a repeated
+ * one (which saves at least 1 word) or by the end of data, so result never exceeds
+ * pixel count + 2 words. First word holds length of the whole snapshot.
+ * @return encoded snapshot or NULL if there is not enough memory
+ */
+static uint32_t *encodeRuns(const argb *bm, const GifInfo *info, size_t *size) {
+	const uint_fast32_t width = (uint_fast32_t) info->gifFilePtr->SWidth;
+	const uint_fast32_t height = (uint_fast32_t) info->gifFilePtr->SHeight;
+	uint32_t *out = malloc((width * height + 2) * sizeof(uint32_t));
+	if (out == NULL) {
+		return NULL;
+	}
+	size_t outPos = 1, literalHeaderPos = 0;
+	uint32_t runValue = 0;
+	uint_fast32_t runLength = 0, x, y;
+	for (y = 0; y < height; y++) {
+		for (x = 0; x < width; x++) {
+			const uint32_t pixel = getCanvasPixel(bm, info, x, y);
+			if (runLength > 0 && pixel == runValue) {
+				runLength++;
+				continue;
+			}
+			appendRun(out, &outPos, &literalHeaderPos, runValue, runLength);
+			runValue = pixel;
+			runLength = 1;
+		}
+	}
+	appendRun(out, &outPos, &literalHeaderPos, runValue, runLength);
+	out[0] = (uint32_t) outPos;
+
+	uint32_t *shrunk = realloc(out, outPos * sizeof(uint32_t));
+	if (shrunk != NULL) {
+		out = shrunk;
+	}
+	*size = outPos * sizeof(uint32_t);
+	return out;
+}
+
+static void decodeRuns(const uint32_t *snapshot, argb *bm, const GifInfo *info) {
+	const uint_fast32_t width = (uint_fast32_t) info->gifFilePtr->SWidth;
+	const uint32_t *src = snapshot + 1;
+	const uint32_t *const end = snapshot + snapshot[0];
+	uint32_t *dst = (uint32_t *) bm;
+	uint_fast32_t x = 0, y = 0;
+	while (src < end) {
+		const uint32_t header = *src++;
+		const bool isLiteral = (header & LITERAL_RUN_FLAG) != 0;
+		uint_fast32_t length = header & ~LITERAL_RUN_FLAG;
+		while (length > 0) {
+			uint_fast32_t chunkLength = width - x;
+			if (chunkLength > length) {
+				chunkLength = length;
+			}
+			if (info->isRgb565) {
+				uint_fast32_t i;
+				for (i = 0; i < chunkLength; i++) {
+					setCanvasPixel(bm, info, x + i, y, isLiteral ? src[i] : *src);
+				}
+				if (isLiteral) {
+					src += chunkLength;
+				}
+			} else if (isLiteral) {
+				memcpy(dst + x, src, chunkLength * sizeof(uint32_t));
+				src += chunkLength;
+			} else {
+				uint_fast32_t i;
+				for (i = x; i < x + chunkLength; i++) {
+					dst[i] = *src;
+				}
+			}
+			x += chunkLength;
+			length -= chunkLength;
+			if (x == width) {
+				x = 0;
+				y++;
+				dst += info->stride;
+			}
+		}
+		if (!isLiteral) {
+			src++;
+		}
+	}
+}
+
+/**
+ * Collects distinct colors of the visible part of the canvas.
+ * @return number of colors or 0 if there are more than MAX_INDEXED_COLORS of them
+ */
+static uint_fast32_t buildPalette(const argb *bm, const GifInfo *info, uint32_t *palette) {
+	const uint_fast32_t width = (uint_fast32_t) info->gifFilePtr->SWidth;
+	const uint_fast32_t height = (uint_fast32_t) info->gifFilePtr->SHeight;
+	uint32_t keys[PALETTE_HASH_SIZE];
+	bool isUsed[PALETTE_HASH_SIZE] = {false};
+	uint_fast32_t colorCount = 0, x, y;
+	uint32_t lastColor = 0;
+	bool hasLastColor = false;
+	for (y = 0; y < height; y++) {
+		for (x = 0; x < width; x++) {
+			const uint32_t color = getCanvasPixel(bm, info, x, y);
+			if (hasLastColor && color == lastColor) {
+				continue;
+			}
+			uint_fast32_t slot = (color * 2654435761U) >> 22;
+			while (isUsed[slot] && keys[slot] != color) {
+				slot = (slot + 1) & (PALETTE_HASH_SIZE - 1);
+			}
+			if (!isUsed[slot]) {
+				if (colorCount == MAX_INDEXED_COLORS) {
+					return 0;
+				}
+				isUsed[slot] = true;
+				keys[slot] = color;
+				palette[colorCount++] = color;
+			}
+			lastColor = color;
+			hasLastColor = true;
+		}
+	}
+	return colorCount;
+}
+
+/**
+ * Stores visible part of the canvas as 8-bit indices to the palette of its colors.
+ * Length word flagged with INDEXED_SNAPSHOT_FLAG is followed by palette size, palette itself
+ * and indices of all the pixels, row by row.
+ * @return encoded snapshot or NULL if there is not enough memory
+ */
+static uint32_t *encodeIndexed(const argb *bm, const GifInfo *info, const uint32_t *palette,
+                               uint_fast32_t colorCount, size_t words) {
+	const uint_fast32_t width = (uint_fast32_t) info->gifFilePtr->SWidth;
+	const uint_fast32_t height = (uint_fast32_t) info->gifFilePtr->SHeight;
+	uint32_t *out = malloc(words * sizeof(uint32_t));
+	if (out == NULL) {
+		return NULL;
+	}
+	out[0] = (uint32_t) words | INDEXED_SNAPSHOT_FLAG;
+	out[1] = (uint32_t) colorCount;
+	memcpy(out + 2, palette, colorCount * sizeof(uint32_t));
+	uint8_t *indices = (uint8_t *) (out + 2 + colorCount);
+
+	uint32_t keys[PALETTE_HASH_SIZE];
+	uint8_t values[PALETTE_HASH_SIZE];
+	bool isUsed[PALETTE_HASH_SIZE] = {false};
+	uint_fast32_t i, x, y;
+	for (i = 0; i < colorCount; i++) {
+		uint_fast32_t slot = (palette[i] * 2654435761U) >> 22;
+		while (isUsed[slot]) {
+			slot = (slot + 1) & (PALETTE_HASH_SIZE - 1);
+		}
+		isUsed[slot] = true;
+		keys[slot] = palette[i];
+		values[slot] = (uint8_t) i;
+	}
+	for (y = 0; y < height; y++) {
+		for (x = 0; x < width; x++) {
+			const uint32_t color = getCanvasPixel(bm, info, x, y);
+			uint_fast32_t slot = (color * 2654435761U) >> 22;
+			while (keys[slot] != color) {
+				slot = (slot + 1) & (PALETTE_HASH_SIZE - 1);
+			}
+			*indices++ = values[slot];
+		}
+	}
+	return out;
+}
+
+static void decodeIndexed(const uint32_t *snapshot, argb *bm, const GifInfo *info) {
+	const uint_fast32_t width = (uint_fast32_t) info->gifFilePtr->SWidth;
+	const uint_fast32_t height = (uint_fast32_t) info->gifFilePtr->SHeight;
+	const uint32_t *palette = snapshot + 2;
+	const uint8_t *indices = (const uint8_t *) (palette + snapshot[1]);
+	uint_fast32_t x, y;
+	for (y = 0; y < height; y++) {
+		for (x = 0; x < width; x++) {
+			setCanvasPixel(bm, info, x, y, palette[*indices++]);
+		}
+	}
+}
+
+/**
+ * Encodes the canvas in the smaller of run-length and indexed forms. The latter one is possible
+ * only if canvas has at most MAX_INDEXED_COLORS colors, which is common since most of the GIFs
+ * use single palette.
+ * @return encoded snapshot or NULL if there is not enough memory
+ */
+static uint32_t *encodeCanvas(const argb *bm, const GifInfo *info, size_t *size) {
+	uint32_t *snapshot = encodeRuns(bm, info, size);
+	if (snapshot == NULL) {
+		return NULL;
+	}
+	uint32_t palette[MAX_INDEXED_COLORS];
+	const uint_fast32_t colorCount = buildPalette(bm, info, palette);
+	if (colorCount == 0) {
+		return snapshot;
+	}
+	const size_t pixelCount = (size_t) info->gifFilePtr->SWidth * info->gifFilePtr->SHeight;
+	const size_t indexedWords = 2 + colorCount + (pixelCount + sizeof(uint32_t) - 1) / sizeof(uint32_t);
+	if (indexedWords * sizeof(uint32_t) >= *size) {
+		return snapshot;
+	}
+	uint32_t *indexed = encodeIndexed(bm, info, palette, colorCount, indexedWords);
+	if (indexed == NULL) {
+		return snapshot;
+	}
+	free(snapshot);
+	*size = indexedWords * sizeof(uint32_t);
+	return indexed;
+}
+
+static void decodeCanvas(const uint32_t *snapshot, argb *bm, const GifInfo *info) {
+	if ((snapshot[0] & INDEXED_SNAPSHOT_FLAG) != 0) {
+		decodeIndexed(snapshot, bm, info);
+	} else {
+		decodeRuns(snapshot, bm, info);
+	}
+}
+
+void releaseSnapshots(GifInfo *info) {
+	SnapshotCache *cache = info->snapshotCache;
+	if (cache == NULL) {
+		return;
+	}
+	uint_fast32_t i;
+	for (i = 0; i < cache->frameCount; i++) {
+		free(cache->snapshots[i]);
+	}
+	free(cache->snapshots);
+	free(cache);
+	info->snapshotCache = NULL;
+}
+
+void captureSnapshot(const argb *bm, GifInfo *info) {
+	SnapshotCache *cache = info->snapshotCache;
+	const uint_fast32_t index = info->currentIndex;
+	if (index == 0 || index % cache->interval != 0 || index >= cache->frameCount || cache->snapshots[index] != NULL) {
+		return;
+	}
+	//canvas covered by such frame is going to be restored from backup which is not stored here
+	if (info->controlBlock[index].DisposalMode == DISPOSE_PREVIOUS) {
+		return;
+	}
+	size_t size;
+	uint32_t *snapshot = encodeCanvas(bm, info, &size);
+	if (snapshot == NULL) {
+		return;
+	}
+	if (cache->usedBytes + size > cache->budget) {
+		free(snapshot);
+		return;
+	}
+	cache->snapshots[index] = snapshot;
+	cache->usedBytes += size;
+}
+
+bool restoreSnapshot(argb *bm, GifInfo *info, uint_fast32_t startIndex, uint_fast32_t desiredIndex) {
+	SnapshotCache *cache = info->snapshotCache;
+	if (cache == NULL || info->frameOffsets == NULL || desiredIndex >= cache->frameCount) {
+		return false;
+	}
+	uint_fast32_t i;
+	for (i = desiredIndex; i >= startIndex && i > 0; i--) {
+		if (cache->snapshots[i] == NULL) {
+			continue;
+		}
+		const uint_fast32_t nextIndex = i + 1;
+		if (nextIndex < info->gifFilePtr->ImageCount && info->seekFunction(info, info->frameOffsets[nextIndex]) != 0) {
+			return false;
+		}
+		decodeCanvas(cache->snapshots[i], bm, info);
+		info->currentIndex = nextIndex;
+		return true;
+	}
+	return false;
+}
+
+void releaseAnimationCache(GifInfo *info) {
+	AnimationCache *cache = info->animationCache;
+	if (cache == NULL) {
+		return;
+	}
+	uint_fast32_t i;
+	for (i = 0; i < cache->frameCount; i++) {
+		free(cache->frames[i]);
+	}
+	free(cache->frames);
+	free(cache);
+	info->animationCache = NULL;
+}
+
+/**
+ * Frees cached frames, later ones are not captured, so animation is decoded from the source.
+ */
+static void dropAnimationFrames(AnimationCache *cache) {
+	uint_fast32_t i;
+	for (i = 0; i < cache->frameCount; i++) {
+		free(cache->frames[i]);
+	}
+	free(cache->frames);
+	cache->frames = NULL;
+	cache->frameCount = 0;
+	cache->cachedCount = 0;
+	cache->usedBytes = 0;
+	cache->isOverBudget = true;
+}
+
+void captureAnimationFrame(const argb *bm, GifInfo *info) {
+	AnimationCache *cache = info->animationCache;
+	const uint_fast32_t index = info->currentIndex;
+	if (cache->isOverBudget) {
+		return;
+	}
+	//frame count of incremental source grows
+	if (index >= cache->frameCount) {
+		const uint_fast32_t frameCount = (uint_fast32_t) info->gifFilePtr->ImageCount;
+		uint32_t **frames = reallocarray(cache->frames, frameCount, sizeof(uint32_t *));
+		if (frames == NULL) {
+			dropAnimationFrames(cache);
+			return;
+		}
+		memset(frames + cache->frameCount, 0, (frameCount - cache->frameCount) * sizeof(uint32_t *));
+		cache->frames = frames;
+		cache->frameCount = frameCount;
+	}
+	if (cache->frames[index] != NULL) {
+		return;
+	}
+	size_t size;
+	uint32_t *frame = encodeCanvas(bm, info, &size);
+	if (frame == NULL || cache->usedBytes + size > cache->budget) {
+		free(frame);
+		dropAnimationFrames(cache);
+		return;
+	}
+	cache->frames[index] = frame;
+	cache->usedBytes += size;
+	cache->cachedCount++;
+}
+
+bool isAnimationCached(const GifInfo *info) {
+	const AnimationCache *cache = info->animationCache;
+	return cache != NULL && !info->isDataIncomplete && cache->cachedCount > 0
+	       && cache->cachedCount == info->gifFilePtr->ImageCount;
+}
+
+uint_fast32_t playCachedFrame(argb *bm, GifInfo *info) {
+	decodeCanvas(info->animationCache->frames[info->currentIndex], bm, info);
+	return getFrameDuration(info);
+}
+
+void setCanvasFormat(GifInfo *info, bool isRgb565) {
+	if (info->isRgb565 == isRgb565)
+		return;
+	info->isRgb565 = isRgb565;
+	//canvas in the new format does not hold the last frame, so composition starts over
+	if (!reset(info))
+		info->gifFilePtr->Error = D_GIF_ERR_REWIND_FAILED;
+	//captured canvases hold pixels in the previous format, caches are refilled in the new one
+	SnapshotCache *snapshotCache = info->snapshotCache;
+	if (snapshotCache != NULL) {
+		uint_fast32_t i;
+		for (i = 0; i < snapshotCache->frameCount; i++) {
+			free(snapshotCache->snapshots[i]);
+			snapshotCache->snapshots[i] = NULL;
+		}
+		snapshotCache->usedBytes = 0;
+	}
+	AnimationCache *animationCache = info->animationCache;
+	if (animationCache != NULL && !animationCache->isOverBudget) {
+		dropAnimationFrames(animationCache);
+		animationCache->isOverBudget = false;
+	}
+}
+
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_setSnapshotCache(JNIEnv *env, jclass __unused handleClass,
+                                                         jlong gifInfo, jint interval, jint budget) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL)
+		return;
+	releaseSnapshots(info);
+	//source position of the following frame is needed to continue from the snapshot
+	if (interval <= 0 || budget <= 0 || info->frameOffsets == NULL || info->gifFilePtr->ImageCount < 2)
+		return;
+
+	SnapshotCache *cache = malloc(sizeof(SnapshotCache));
+	if (cache == NULL) {
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return;
+	}
+	cache->snapshots = calloc(info->gifFilePtr->ImageCount, sizeof(uint32_t *));
+	if (cache->snapshots == NULL) {
+		free(cache);
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return;
+	}
+	cache->frameCount = (uint_fast32_t) info->gifFilePtr->ImageCount;
+	cache->interval = (uint_fast32_t) interval;
+	cache->budget = (size_t) budget;
+	cache->usedBytes = 0;
+	info->snapshotCache = cache;
+}
+
+__unused JNIEXPORT void JNICALL
+Java_com_zing_zalo_gifplayer_GifInfoHandle_setAnimationCache(JNIEnv *env, jclass __unused handleClass,
+                                                          jlong gifInfo, jint budget) {
+	GifInfo *info = (GifInfo *) (intptr_t) gifInfo;
+	if (info == NULL)
+		return;
+	//source position is not advanced by cached playback, so decoding has to start over
+	if (isAnimationCached(info))
+		reset(info);
+	releaseAnimationCache(info);
+	//single frame does not need to be decoded again anyway
+	if (budget <= 0 || (info->gifFilePtr->ImageCount == 1 && !info->isDataIncomplete))
+		return;
+
+	AnimationCache *cache = malloc(sizeof(AnimationCache));
+	if (cache == NULL) {
+		throwException(env, OUT_OF_MEMORY_ERROR, OOME_MESSAGE);
+		return;
+	}
+	cache->frames = NULL;
+	cache->frameCount = 0;
+	cache->cachedCount = 0;
+	cache->budget = (size_t) budget;
+	cache->usedBytes = 0;
+	cache->isOverBudget = false;
+	info->animationCache = cache;
+}
@@ -124,6 +124,7 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_bindSurface(JNIEnv *env, jclass __unu
 	const size_t bufferSize = buffer.stride * buffer.height * sizeof(argb);
 
 	info->stride = buffer.stride;
+	setCanvasFormat(info, false);
 	long long invalidationDelayMillis;
 	if (surfaceDescriptor->surfaceBackupPtr) {
 		memcpy(buffer.bits, surfaceDescriptor->surfaceBackupPtr, bufferSize);
@@ -182,16 +183,16 @@ Java_com_zing_zalo_gifplayer_GifInfoHandle_bindSurface(JNIEnv *env, jclass __unu
 		oldBufferBits = buffer.bits;
 
 		struct ARect *dirtyRectPtr;
+		struct ARect dirtyRect;
 		if (info->currentIndex == 0) {
 			dirtyRectPtr = NULL;
 		} else {
-			const GifImageDesc imageDesc = gifFilePtr->SavedImages[info->currentIndex].ImageDesc;
-			struct ARect dirtyRect = {
-					.left = imageDesc.Left,
-					.top = imageDesc.Top,
-					.right = imageDesc.Left + imageDesc.Width,
-					.bottom = imageDesc.Top + imageDesc.Height
-			};
+			DirtyRect frameArea = {0, 0, 0, 0};
+			addFrameDirtyArea(info, &frameArea);
+			dirtyRect.left = (int32_t) frameArea.left;
+			dirtyRect.top = (int32_t) frameArea.top;
+			dirtyRect.right = (int32_t) frameArea.right;
+			dirtyRect.bottom = (int32_t) frameArea.bottom;
 			dirtyRectPtr = &dirtyRect;
 		}
 		if (ANativeWindow_lock(window, &buffer, dirtyRectPtr) != 0) {
@@ -6,12 +6,14 @@ long long calculateInvalidationDelay(GifInfo *info, long renderStartTime, uint_f
 		if (info->speedFactor != 1.0) {
 			invalidationDelay /= info->speedFactor;
 		}
+		//wall clock playback keeps the schedule even if frame is late, lag is made up by skipping frames
+		const long long scheduledStartTime = renderStartTime + invalidationDelay;
 		const long renderingTime = getRealTime() - renderStartTime;
 		if (renderingTime >= invalidationDelay)
 			invalidationDelay = 0;
 		else
 			invalidationDelay -= renderingTime;
-		info->nextStartTime = renderStartTime + invalidationDelay;
+		info->nextStartTime = info->isRealTimePlayback ? scheduledStartTime : renderStartTime + invalidationDelay;
 		return invalidationDelay;
 	}
 	return -1;
@@ -0,0 +1,109 @@
+package com.zing.zalo.gifplayer;
+
+import android.graphics.Rect;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Runs the coordinator with a fake clock, frames posted to it are run by the test itself.
+ */
+public class GifFrameCoordinatorTest {
+    private final List<Runnable> mPostedFrames = new ArrayList<>();
+    private GifFrameCoordinator mCoordinator;
+
+    @Before
+    public void setUp() {
+        mCoordinator = new GifFrameCoordinator(new GifFrameCoordinator.FrameClock() {
+            @Override
+            public long uptimeMillis() {
+                return 42;
+            }
+
+            @Override
+            public void postFrame(Runnable frame) {
+                mPostedFrames.add(frame);
+            }
+        });
+    }
+
+    @Test
+    public void requestsBeforeFrameAreCoalesced() {
+        final CountingView view = new CountingView();
+        final GifDrawable[] drawables = createDrawables(30, view);
+        for (int i = 0; i < 3; i++) {
+            for (GifDrawable drawable : drawables)
+                mCoordinator.requestInvalidation(drawable);
+        }
+        assertEquals(1, mPostedFrames.size());
+
+        mPostedFrames.get(0).run();
+        assertEquals(30, view.mInvalidationCount);
+    }
+
+    @Test
+    public void cancelledDrawableIsNotInvalidated() {
+        final CountingView view = new CountingView();
+        final GifDrawable[] drawables = createDrawables(2, view);
+        mCoordinator.requestInvalidation(drawables[0]);
+        mCoordinator.requestInvalidation(drawables[1]);
+        mCoordinator.cancelInvalidation(drawables[0]);
+
+        mPostedFrames.get(0).run();
+        assertEquals(1, view.mInvalidationCount);
+    }
+
+    @Test
+    public void requestAfterFramePostsNextOne() {
+        final CountingView view = new CountingView();
+        final GifDrawable drawable = createDrawables(1, view)[0];
+        mCoordinator.requestInvalidation(drawable);
+        mPostedFrames.get(0).run();
+        mCoordinator.requestInvalidation(drawable);
+        assertEquals(2, mPostedFrames.size());
+        assertSame(mPostedFrames.get(0), mPostedFrames.get(1));
+
+        mPostedFrames.get(1).run();
+        assertEquals(2, view.mInvalidationCount);
+    }
+
+    @Test
+    public void timeComesFromClock() {
+        assertEquals(42, mCoordinator.uptimeMillis());
+    }
+
+    private static GifDrawable[] createDrawables(int count, View view) {
+        final GifDrawable[] drawables = new GifDrawable[count];
+        for (int i = 0; i < count; i++) {
+            drawables[i] = new GifDrawable();
+            drawables[i].parentView = new WeakReference<>(view);
+        }
+        return drawables;
+    }
+
+    private static final class CountingView extends View {
+        int mInvalidationCount;
+
+        CountingView() {
+            super(null);
+        }
+
+        @Override
+        public void invalidate() {
+            mInvalidationCount++;
+        }
+
+        @Override
+        public void invalidate(Rect dirty) {
+            mInvalidationCount++;
+        }
+    }
+}
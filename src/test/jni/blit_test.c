@@ -0,0 +1,275 @@
+/**
+ * Compares blitters of drawing.c with a per-pixel reference on random frames: strides with
+ * padding, frame rectangles, color map sizes, transparent indices and index patterns which
+ * produce opaque, transparent and mixed chunks. The file is built once per code path, see
+ * HostTest.mk, the NEON one with the lane emulation from neon/arm_neon.h.
+ *
+ * Usage: blit_test         random frames are compared
+ *        blit_test bench   blitting time of the reference and drawing.c is measured
+ */
+#include "test.h"
+#include "drawing.c"
+
+#if defined (HAS_NEON)
+#define CODE_PATH "neon"
+#elif defined (__SSE2__)
+#define CODE_PATH "sse2"
+#else
+#define CODE_PATH "scalar"
+#endif
+
+#define RANDOM_FRAME_COUNT 20000
+#define RANDOM_LINE_COUNT 20000
+#define MAX_LINE_LENGTH 100
+/**
+ * Words around canvases and lines which must never be written.
+ */
+#define GUARD_LENGTH 8
+#define GUARD_VALUE 0xDEADBEEFu
+#define BENCH_SIZE 480
+#define BENCH_REPEATS 60
+
+typedef enum {
+	INDICES_NOISE,
+	INDICES_KEY_RUNS,
+	INDICES_KEY_DENSE,
+	INDICES_KEY_STRIPES,
+	INDICES_OUT_OF_MAP,
+	INDICES_COUNT
+} IndexPattern;
+
+static unsigned long checkCount;
+
+/**
+ * Straightforward blitter: every pixel of the frame other than transparent one becomes
+ * an opaque color of the map, indices beyond the map are black.
+ */
+static void referenceBlit(argb *bm, const GifInfo *info, const SavedImage *frame, const ColorMapObject *cmap) {
+	const GifPixelType *src = info->rasterBits;
+	const int_fast16_t transpIndex = info->controlBlock[info->currentIndex].TransparentColor;
+	GifWord x, y;
+	for (y = 0; y < frame->ImageDesc.Height; y++) {
+		argb *dst = bm + (size_t) (frame->ImageDesc.Top + y) * info->stride + frame->ImageDesc.Left;
+		for (x = 0; x < frame->ImageDesc.Width; x++, src++, dst++) {
+			if (*src == transpIndex)
+				continue;
+			if (*src < cmap->ColorCount) {
+				dst->rgb = cmap->Colors[*src];
+			} else {
+				dst->rgb.Red = dst->rgb.Green = dst->rgb.Blue = 0;
+			}
+			dst->alpha = 0xFF;
+		}
+	}
+}
+
+static void fillIndices(GifPixelType *indices, size_t count, uint_fast32_t width, IndexPattern pattern,
+                        unsigned colorCount, GifPixelType key, TestRandom *random) {
+	size_t i;
+	for (i = 0; i < count; i++) {
+		GifPixelType index = (GifPixelType) randomBelow(random, colorCount);
+		switch (pattern) {
+			case INDICES_KEY_RUNS:
+				if ((i / 17) % 2)
+					index = key;
+				break;
+			case INDICES_KEY_DENSE:
+				if (randomBelow(random, 8) > 0)
+					index = key;
+				break;
+			case INDICES_KEY_STRIPES:
+				if (i % width < width / 2)
+					index = key;
+				break;
+			case INDICES_OUT_OF_MAP:
+				index = (GifPixelType) randomBelow(random, 256);
+				break;
+			default:
+				break;
+		}
+		indices[i] = index;
+	}
+}
+
+static ColorMapObject *makeRandomColorMap(TestRandom *random) {
+	ColorMapObject *cmap = GifMakeMapObject((uint_fast8_t) (1 + randomBelow(random, 8)), NULL);
+	if (cmap == NULL) {
+		fputs("out of memory\n", stderr);
+		exit(EXIT_FAILURE);
+	}
+	uint_fast16_t i;
+	for (i = 0; i < cmap->ColorCount; i++) {
+		const uint32_t color = nextRandom(random);
+		cmap->Colors[i].Red = (GifByteType) color;
+		cmap->Colors[i].Green = (GifByteType) (color >> 8);
+		cmap->Colors[i].Blue = (GifByteType) (color >> 16);
+	}
+	return cmap;
+}
+
+/**
+ * Blits random frame with both blitters onto canvases with the same random content and guards.
+ */
+static void compareRandomFrame(unsigned iteration, GifInfo *info, TestRandom *random) {
+	const uint_fast32_t width = 1 + randomBelow(random, 70);
+	const uint_fast32_t height = 1 + randomBelow(random, 20);
+	const uint_fast32_t stride = width + randomBelow(random, 5);
+	SavedImage frame = {0};
+	frame.ImageDesc.Left = (GifWord) randomBelow(random, width);
+	frame.ImageDesc.Top = (GifWord) randomBelow(random, height);
+	frame.ImageDesc.Width = (GifWord) (1 + randomBelow(random, width - frame.ImageDesc.Left));
+	frame.ImageDesc.Height = (GifWord) (1 + randomBelow(random, height - frame.ImageDesc.Top));
+
+	ColorMapObject *cmap = makeRandomColorMap(random);
+	const IndexPattern pattern = (IndexPattern) randomBelow(random, INDICES_COUNT);
+	//transparent index may also lie beyond the map
+	const GifPixelType key = (GifPixelType) randomBelow(random, randomBelow(random, 4) > 0 ? cmap->ColorCount : 256);
+	const size_t pixelCount = (size_t) frame.ImageDesc.Width * frame.ImageDesc.Height;
+	info->rasterBits = malloc(pixelCount);
+	fillIndices(info->rasterBits, pixelCount, (uint_fast32_t) frame.ImageDesc.Width, pattern, cmap->ColorCount, key,
+	            random);
+	info->controlBlock[0].TransparentColor = randomBelow(random, 3) > 0 ? key : NO_TRANSPARENT_COLOR;
+	info->stride = stride;
+
+	const size_t canvasLength = stride * height + 2 * GUARD_LENGTH;
+	uint32_t *expected = malloc(canvasLength * sizeof(uint32_t));
+	uint32_t *actual = malloc(canvasLength * sizeof(uint32_t));
+	size_t i;
+	for (i = 0; i < canvasLength; i++) {
+		expected[i] = actual[i] = i < GUARD_LENGTH || i >= canvasLength - GUARD_LENGTH ? GUARD_VALUE : nextRandom(random);
+	}
+	referenceBlit((argb *) (expected + GUARD_LENGTH), info, &frame, cmap);
+	//expanded palette is either cached from the previous frame or built from scratch
+	if (randomBelow(random, 2) > 0)
+		info->paletteColorMap = NULL;
+	blitNormal((argb *) (actual + GUARD_LENGTH), info, &frame, cmap);
+	checkCount++;
+	EXPECT(memcmp(expected, actual, canvasLength * sizeof(uint32_t)) == 0,
+	       "frame %u: %ux%u at %u,%u, stride %u, %u colors, key %d, pattern %d: canvases differ",
+	       iteration, (unsigned) frame.ImageDesc.Width, (unsigned) frame.ImageDesc.Height,
+	       (unsigned) frame.ImageDesc.Left, (unsigned) frame.ImageDesc.Top, (unsigned) stride,
+	       (unsigned) cmap->ColorCount, info->controlBlock[0].TransparentColor, pattern);
+
+	//color map of the next frame may reuse the address of this one
+	info->paletteColorMap = NULL;
+	GifFreeMapObject(cmap);
+	free(info->rasterBits);
+	free(expected);
+	free(actual);
+}
+
+/**
+ * Checks keyed lines of every length around chunk boundaries at unaligned addresses.
+ */
+static void compareRandomLine(unsigned iteration, TestRandom *random) {
+	uint32_t palette[256];
+	size_t i;
+	for (i = 0; i < 256; i++)
+		palette[i] = nextRandom(random);
+	const uint_fast32_t length = randomBelow(random, MAX_LINE_LENGTH + 1);
+	const size_t srcOffset = randomBelow(random, 16);
+	const size_t dstOffset = randomBelow(random, 4);
+	const GifPixelType key = (GifPixelType) randomBelow(random, 256);
+	GifPixelType src[MAX_LINE_LENGTH + 16];
+	fillIndices(src + srcOffset, length, 1 + randomBelow(random, 40), (IndexPattern) randomBelow(random, INDICES_COUNT),
+	            256, key, random);
+
+	uint32_t expected[MAX_LINE_LENGTH + 4 + GUARD_LENGTH];
+	uint32_t actual[MAX_LINE_LENGTH + 4 + GUARD_LENGTH];
+	for (i = 0; i < sizeof(expected) / sizeof(expected[0]); i++)
+		expected[i] = actual[i] = i < dstOffset || i >= dstOffset + length ? GUARD_VALUE : nextRandom(random);
+	for (i = 0; i < length; i++) {
+		if (src[srcOffset + i] != key)
+			expected[dstOffset + i] = palette[src[srcOffset + i]];
+	}
+	blitKeyedLine(actual + dstOffset, src + srcOffset, length, palette, key);
+	checkCount++;
+	EXPECT(memcmp(expected, actual, sizeof(expected)) == 0, "line %u: length %u, key %d: lines differ",
+	       iteration, (unsigned) length, key);
+}
+
+static void checkMemsetArgb(TestRandom *random) {
+	uint32_t words[64 + 2 * GUARD_LENGTH];
+	size_t count;
+	for (count = 0; count <= 64; count++) {
+		const uint32_t value = nextRandom(random);
+		size_t i;
+		for (i = 0; i < sizeof(words) / sizeof(words[0]); i++)
+			words[i] = GUARD_VALUE;
+		MEMSET_ARGB(words + GUARD_LENGTH, value, count);
+		bool isValid = true;
+		for (i = 0; i < sizeof(words) / sizeof(words[0]); i++) {
+			const bool isFilled = i >= GUARD_LENGTH && i < GUARD_LENGTH + count;
+			isValid &= words[i] == (isFilled ? value : GUARD_VALUE);
+		}
+		checkCount++;
+		EXPECT(isValid, "MEMSET_ARGB of %u words", (unsigned) count);
+	}
+}
+
+static double measureBlitting(argb *canvas, GifInfo *info, SavedImage *frame, ColorMapObject *cmap,
+                              bool isReference) {
+	double bestTime = -1;
+	int run, repeat;
+	for (run = 0; run < 7; run++) {
+		const double start = getMillis();
+		for (repeat = 0; repeat < BENCH_REPEATS; repeat++) {
+			if (isReference)
+				referenceBlit(canvas, info, frame, cmap);
+			else
+				blitNormal(canvas, info, frame, cmap);
+		}
+		const double time = getMillis() - start;
+		if (bestTime < 0 || time < bestTime)
+			bestTime = time;
+	}
+	return bestTime;
+}
+
+static void runBenchmark(void) {
+	static const char *const patternNames[INDICES_KEY_STRIPES + 1] = {"opaque", "key runs", "key dense", "key stripes"};
+	TestRandom random;
+	seedRandom(&random, 1);
+	GraphicsControlBlock controlBlock = {0};
+	GifInfo info = {0};
+	info.controlBlock = &controlBlock;
+	info.stride = BENCH_SIZE;
+	info.rasterBits = malloc(BENCH_SIZE * BENCH_SIZE);
+	SavedImage frame = {0};
+	frame.ImageDesc.Width = frame.ImageDesc.Height = BENCH_SIZE;
+	ColorMapObject *cmap = GifMakeMapObject(8, NULL);
+	argb *canvas = calloc(BENCH_SIZE * BENCH_SIZE, sizeof(argb));
+
+	IndexPattern pattern;
+	for (pattern = INDICES_NOISE; pattern <= INDICES_KEY_STRIPES; pattern++) {
+		fillIndices(info.rasterBits, BENCH_SIZE * BENCH_SIZE, BENCH_SIZE, pattern, 256, 7, &random);
+		controlBlock.TransparentColor = pattern == INDICES_NOISE ? NO_TRANSPARENT_COLOR : 7;
+		const double referenceTime = measureBlitting(canvas, &info, &frame, cmap, true);
+		const double time = measureBlitting(canvas, &info, &frame, cmap, false);
+		printf("blit %-6s %-12s %dx%d x%d  reference %7.2f ms  drawing.c %7.2f ms  %5.2fx\n", CODE_PATH,
+		       patternNames[pattern], BENCH_SIZE, BENCH_SIZE, BENCH_REPEATS, referenceTime, time,
+		       time > 0 ? referenceTime / time : 0);
+	}
+	GifFreeMapObject(cmap);
+	free(canvas);
+	free(info.rasterBits);
+}
+
+int main(int argc, char **argv) {
+	if (argc > 1 && strcmp(argv[1], "bench") == 0) {
+		runBenchmark();
+		return EXIT_SUCCESS;
+	}
+	TestRandom random;
+	seedRandom(&random, 14);
+	GraphicsControlBlock controlBlock = {0};
+	GifInfo info = {0};
+	info.controlBlock = &controlBlock;
+	unsigned i;
+	for (i = 0; i < RANDOM_FRAME_COUNT; i++)
+		compareRandomFrame(i, &info, &random);
+	for (i = 0; i < RANDOM_LINE_COUNT; i++)
+		compareRandomLine(i, &random);
+	checkMemsetArgb(&random);
+	return finishTest("blit_test " CODE_PATH, checkCount);
+}
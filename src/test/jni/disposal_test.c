@@ -0,0 +1,1284 @@
+/**
+ * Plays GIFs of the disposal corpus and compares every presented canvas with its golden image.
+ * Each GIF is played several times from a fresh handle: sequentially over two loops, with random
+ * seeks, with snapshot cache, with animation cache and in RGB_565, always on canvases whose stride
+ * is padded. Each run ends on a canvas of the other pixel format. Finally a memory mapped copy of
+ * the GIF is played and truncated while it is open, the GIF is played while it arrives in chunks
+ * to an incremental source and a cursor of a byte array source is played next to a fresh handle.
+ * Generated GIFs are also played decoded at smaller size, see verifyDownsampling. Golden images
+ * are composited by the reference in this file when the corpus is generated, then kept unchanged,
+ * so regressions of either the library or the reference show up.
+ *
+ * Corpus consists of name.gif files accompanied by name.pam goldens, which hold frames stacked
+ * from top to bottom as RGB_ALPHA tuples.
+ *
+ * Usage: disposal_test file.gif...       files are played and compared with their goldens
+ *        disposal_test generate directory corpus is written to the directory
+ */
+#include <limits.h>
+#include <math.h>
+#include <unistd.h>
+#include "test.h"
+#include "fake_jni.h"
+#include "gif.h"
+
+#define MAX_CORPUS_SIZE 24
+#define MAX_CORPUS_FRAMES 8
+#define CORPUS_COLOR_BITS 4
+#define CORPUS_COLOR_COUNT (1 << CORPUS_COLOR_BITS)
+#define MAX_STRIDE_PADDING 3
+#define CANVAS_GUARD_BYTE 0xA5
+#define ANIMATION_CACHE_BUDGET (1 << 30)
+#define SNAPSHOT_CACHE_BUDGET (1 << 30)
+#define MAX_INCREMENTAL_CHUNK 48
+#define MAX_DOWNSCALE_FACTOR 3
+#define DOWNSAMPLING_GIF_COUNT 30
+/**
+ * Mean of the footprint, the canvas below it and the coverage are each rounded by half at most
+ */
+#define STRADDLING_AREA_TOLERANCE 1.5
+
+void Java_com_zing_zalo_gifplayer_GifInfoHandle_setSnapshotCache(JNIEnv *env, jclass handleClass, jlong gifInfo,
+                                                                  jint interval, jint budget);
+
+void Java_com_zing_zalo_gifplayer_GifInfoHandle_setAnimationCache(JNIEnv *env, jclass handleClass, jlong gifInfo,
+                                                                   jint budget);
+
+jlong Java_com_zing_zalo_gifplayer_GifInfoHandle_getAllocationByteCount(JNIEnv *env, jclass handleClass, jlong gifInfo);
+
+jlong Java_com_zing_zalo_gifplayer_GifInfoHandle_openFile(JNIEnv *env, jclass handleClass, jstring jfname,
+                                                          jboolean justDecodeMetaData, jint maxSize);
+
+jboolean Java_com_zing_zalo_gifplayer_GifInfoHandle_reset(JNIEnv *env, jclass handleClass, jlong gifInfo);
+
+void Java_com_zing_zalo_gifplayer_GifInfoHandle_free(JNIEnv *env, jclass handleClass, jlong gifInfo);
+
+jintArray Java_com_zing_zalo_gifplayer_GifInfoHandle_getMetadata(JNIEnv *env, jclass handleClass, jlong gifInfo);
+
+jlong Java_com_zing_zalo_gifplayer_GifInfoHandle_openIncremental(JNIEnv *env, jclass handleClass, jbyteArray bytes,
+                                                                 jint length, jint maxSize);
+
+void Java_com_zing_zalo_gifplayer_GifInfoHandle_appendData(JNIEnv *env, jclass handleClass, jlong gifInfo,
+                                                           jbyteArray bytes, jint offset, jint length);
+
+void Java_com_zing_zalo_gifplayer_GifInfoHandle_finishData(JNIEnv *env, jclass handleClass, jlong gifInfo);
+
+jlong Java_com_zing_zalo_gifplayer_GifInfoHandle_openByteArray(JNIEnv *env, jclass handleClass, jbyteArray bytes,
+                                                               jboolean justDecodeMetaData, jint maxSize);
+
+jlong Java_com_zing_zalo_gifplayer_GifInfoHandle_openCursor(JNIEnv *env, jclass handleClass, jlong gifInfo);
+
+void Java_com_zing_zalo_gifplayer_GifInfoHandle_freeCursor(JNIEnv *env, jclass handleClass, jlong gifInfo);
+
+/**
+ * Kind of GIFs generated into the corpus.
+ */
+typedef struct {
+	const char *name;
+	unsigned gifCount;
+	/**
+	 * Disposal modes frames choose from, reserved ones 4-7 have to behave like no disposal
+	 */
+	const char *disposalModes;
+	unsigned fullFramePercent;
+	unsigned transparencyPercent;
+	unsigned globalColorMapPercent;
+	unsigned controlBlockPercent;
+} CorpusFamily;
+
+static const CorpusFamily CORPUS_FAMILIES[] = {
+		{"unspecified", 3, "0", 20, 60, 80, 100},
+		{"keep", 3, "1", 20, 60, 80, 100},
+		{"background", 3, "2", 20, 60, 80, 100},
+		{"previous", 3, "3", 20, 60, 80, 100},
+		{"reserved", 3, "4567", 20, 60, 80, 100},
+		{"mixed", 12, "0123", 20, 60, 80, 100},
+		{"full_frames", 6, "0123", 70, 50, 80, 100},
+		{"opaque", 4, "0123", 20, 15, 100, 100},
+		{"local_maps", 4, "0123", 20, 60, 0, 100},
+		{"no_control", 3, "0123", 20, 60, 80, 50},
+};
+
+typedef struct {
+	GifWord left, top, width, height;
+	int disposalMode;
+	int transparentIndex;
+	bool hasControlBlock;
+	bool isInterlaced;
+	bool hasColorMap;
+	GifColorType colors[CORPUS_COLOR_COUNT];
+	GifPixelType *pixels;
+} CorpusFrame;
+
+typedef struct {
+	GifWord width, height;
+	bool hasColorMap;
+	GifPixelType backgroundIndex;
+	GifColorType colors[CORPUS_COLOR_COUNT];
+	unsigned frameCount;
+	CorpusFrame frames[MAX_CORPUS_FRAMES];
+} CorpusGif;
+
+typedef struct {
+	MemorySource source;
+	GifInfo *info;
+	uint8_t *canvas;
+	uint_fast32_t stride;
+} Player;
+
+static unsigned long checkCount;
+
+static void randomColors(GifColorType *colors, TestRandom *random) {
+	int i;
+	for (i = 0; i < CORPUS_COLOR_COUNT; i++) {
+		const uint32_t color = nextRandom(random);
+		colors[i].Red = (GifByteType) color;
+		colors[i].Green = (GifByteType) (color >> 8);
+		colors[i].Blue = (GifByteType) (color >> 16);
+	}
+}
+
+static bool isChosen(TestRandom *random, unsigned percent) {
+	return randomBelow(random, 100) < percent;
+}
+
+static void generateCorpusGif(CorpusGif *gif, const CorpusFamily *family, TestRandom *random) {
+	gif->width = (GifWord) (4 + randomBelow(random, MAX_CORPUS_SIZE - 3));
+	gif->height = (GifWord) (4 + randomBelow(random, MAX_CORPUS_SIZE - 3));
+	gif->hasColorMap = isChosen(random, family->globalColorMapPercent);
+	gif->backgroundIndex = (GifPixelType) randomBelow(random, CORPUS_COLOR_COUNT);
+	randomColors(gif->colors, random);
+	gif->frameCount = 2 + randomBelow(random, MAX_CORPUS_FRAMES - 1);
+	unsigned i;
+	for (i = 0; i < gif->frameCount; i++) {
+		CorpusFrame *frame = gif->frames + i;
+		if (isChosen(random, family->fullFramePercent)) {
+			frame->left = frame->top = 0;
+			frame->width = gif->width;
+			frame->height = gif->height;
+		} else {
+			frame->width = (GifWord) (1 + randomBelow(random, gif->width));
+			frame->height = (GifWord) (1 + randomBelow(random, gif->height));
+			frame->left = (GifWord) randomBelow(random, gif->width - frame->width + 1);
+			frame->top = (GifWord) randomBelow(random, gif->height - frame->height + 1);
+		}
+		frame->hasControlBlock = isChosen(random, family->controlBlockPercent);
+		const size_t modeCount = strlen(family->disposalModes);
+		frame->disposalMode = frame->hasControlBlock ? family->disposalModes[randomBelow(random, modeCount)] - '0' : 0;
+		frame->transparentIndex = frame->hasControlBlock && isChosen(random, family->transparencyPercent) ?
+		                          (int) randomBelow(random, CORPUS_COLOR_COUNT) : NO_TRANSPARENT_COLOR;
+		frame->isInterlaced = isChosen(random, 30);
+		frame->hasColorMap = !gif->hasColorMap || isChosen(random, 30);
+		randomColors(frame->colors, random);
+		const size_t pixelCount = (size_t) frame->width * frame->height;
+		frame->pixels = malloc(pixelCount);
+		size_t p;
+		for (p = 0; p < pixelCount; p++) {
+			const bool isTransparent = frame->transparentIndex != NO_TRANSPARENT_COLOR && !isChosen(random, 70);
+			frame->pixels[p] = (GifPixelType) (isTransparent ? (uint32_t) frame->transparentIndex
+			                                                 : randomBelow(random, CORPUS_COLOR_COUNT));
+		}
+	}
+}
+
+static void freeCorpusGif(CorpusGif *gif) {
+	unsigned i;
+	for (i = 0; i < gif->frameCount; i++)
+		free(gif->frames[i].pixels);
+}
+
+typedef struct {
+	TestBytes bytes;
+	uint32_t bits;
+	unsigned bitCount;
+} CodeStream;
+
+static void putCode(CodeStream *stream, unsigned code) {
+	stream->bits |= code << stream->bitCount;
+	stream->bitCount += CORPUS_COLOR_BITS + 1;
+	while (stream->bitCount >= 8) {
+		appendByte(&stream->bytes, (uint8_t) stream->bits);
+		stream->bits >>= 8;
+		stream->bitCount -= 8;
+	}
+}
+
+/**
+ * Writes codes of the minimal width, clear code is repeated before decoder would widen them.
+ */
+static void writeUncompressedImage(TestBytes *out, const GifPixelType *pixels, size_t pixelCount) {
+	const unsigned clearCode = CORPUS_COLOR_COUNT;
+	const size_t clearInterval = (1u << (CORPUS_COLOR_BITS + 1)) - 3 - CORPUS_COLOR_COUNT;
+	CodeStream stream = {{0}, 0, 0};
+	size_t i;
+	for (i = 0; i < pixelCount; i++) {
+		if (i % clearInterval == 0)
+			putCode(&stream, clearCode);
+		putCode(&stream, pixels[i]);
+	}
+	putCode(&stream, clearCode + 1);
+	if (stream.bitCount > 0)
+		appendByte(&stream.bytes, (uint8_t) stream.bits);
+
+	appendByte(out, CORPUS_COLOR_BITS);
+	for (i = 0; i < stream.bytes.length; i += 255) {
+		const size_t blockLength = stream.bytes.length - i < 255 ? stream.bytes.length - i : 255;
+		appendByte(out, (uint8_t) blockLength);
+		appendBytes(out, stream.bytes.bytes + i, blockLength);
+	}
+	appendByte(out, 0);
+	free(stream.bytes.bytes);
+}
+
+static void encodeCorpusGif(TestBytes *out, const CorpusGif *gif) {
+	static const uint8_t loopExtension[] = {
+			0x21, 0xFF, 11, 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0', 3, 1, 0, 0, 0
+	};
+	appendBytes(out, "GIF89a", 6);
+	appendWord(out, (uint16_t) gif->width);
+	appendWord(out, (uint16_t) gif->height);
+	appendByte(out, gif->hasColorMap ? 0x80 | (CORPUS_COLOR_BITS - 1) : 0);
+	appendByte(out, gif->backgroundIndex);
+	appendByte(out, 0);
+	if (gif->hasColorMap)
+		appendBytes(out, gif->colors, sizeof(gif->colors));
+	appendBytes(out, loopExtension, sizeof(loopExtension));
+
+	unsigned i;
+	for (i = 0; i < gif->frameCount; i++) {
+		const CorpusFrame *frame = gif->frames + i;
+		if (frame->hasControlBlock) {
+			const bool isTransparent = frame->transparentIndex != NO_TRANSPARENT_COLOR;
+			const uint8_t controlBlock[] = {
+					0x21, 0xF9, 4, (uint8_t) (frame->disposalMode << 2 | isTransparent), 5, 0,
+					(uint8_t) (isTransparent ? frame->transparentIndex : 0), 0
+			};
+			appendBytes(out, controlBlock, sizeof(controlBlock));
+		}
+		appendByte(out, ',');
+		appendWord(out, (uint16_t) frame->left);
+		appendWord(out, (uint16_t) frame->top);
+		appendWord(out, (uint16_t) frame->width);
+		appendWord(out, (uint16_t) frame->height);
+		appendByte(out, (uint8_t) ((frame->hasColorMap ? 0x80 | (CORPUS_COLOR_BITS - 1) : 0) |
+		                           (frame->isInterlaced ? 0x40 : 0)));
+		if (frame->hasColorMap)
+			appendBytes(out, frame->colors, sizeof(frame->colors));
+
+		const size_t pixelCount = (size_t) frame->width * frame->height;
+		GifPixelType *stored = malloc(pixelCount);
+		if (frame->isInterlaced) {
+			static const GifWord offsets[] = {0, 4, 2, 1};
+			static const GifWord jumps[] = {8, 8, 4, 2};
+			size_t row = 0;
+			GifWord pass, y;
+			for (pass = 0; pass < 4; pass++) {
+				for (y = offsets[pass]; y < frame->height; y += jumps[pass], row++)
+					memcpy(stored + row * frame->width, frame->pixels + (size_t) y * frame->width, frame->width);
+			}
+		} else {
+			memcpy(stored, frame->pixels, pixelCount);
+		}
+		writeUncompressedImage(out, stored, pixelCount);
+		free(stored);
+	}
+	appendByte(out, ';');
+}
+
+static argb toArgb(GifColorType color) {
+	return (argb) {.rgb = color, .alpha = 0xFF};
+}
+
+/**
+ * Reference compositor following the GIF specification literally: canvas starts with opaque
+ * background color unless the first frame is transparent, disposal to background clears the area
+ * to transparent, disposal to previous restores the whole canvas saved before the frame.
+ * @param goldens canvases of all the frames stacked from top to bottom
+ */
+static void compositeCorpusGif(const CorpusGif *gif, argb *goldens) {
+	const size_t canvasLength = (size_t) gif->width * gif->height;
+	argb *canvas = goldens;
+	argb *backup = malloc(canvasLength * sizeof(argb));
+	const argb transparent = {{0, 0, 0}, 0};
+	const bool isBackgroundOpaque = gif->hasColorMap && gif->frames[0].transparentIndex == NO_TRANSPARENT_COLOR;
+	const argb background = isBackgroundOpaque ? toArgb(gif->colors[gif->backgroundIndex]) : transparent;
+	size_t p;
+	for (p = 0; p < canvasLength; p++)
+		canvas[p] = background;
+
+	unsigned i;
+	for (i = 0; i < gif->frameCount; i++) {
+		const CorpusFrame *frame = gif->frames + i;
+		if (i > 0) {
+			memcpy(canvas + canvasLength, canvas, canvasLength * sizeof(argb));
+			canvas += canvasLength;
+			const CorpusFrame *previous = frame - 1;
+			if (previous->disposalMode == DISPOSE_BACKGROUND) {
+				GifWord x, y;
+				for (y = previous->top; y < previous->top + previous->height; y++) {
+					for (x = previous->left; x < previous->left + previous->width; x++)
+						canvas[y * gif->width + x] = transparent;
+				}
+			} else if (previous->disposalMode == DISPOSE_PREVIOUS) {
+				memcpy(canvas, backup, canvasLength * sizeof(argb));
+			}
+		}
+		if (frame->disposalMode == DISPOSE_PREVIOUS)
+			memcpy(backup, canvas, canvasLength * sizeof(argb));
+		const GifColorType *colors = frame->hasColorMap ? frame->colors : gif->colors;
+		GifWord x, y;
+		for (y = 0; y < frame->height; y++) {
+			for (x = 0; x < frame->width; x++) {
+				const GifPixelType index = frame->pixels[y * frame->width + x];
+				if (index != frame->transparentIndex)
+					canvas[(frame->top + y) * gif->width + frame->left + x] = toArgb(colors[index]);
+			}
+		}
+	}
+	free(backup);
+}
+
+static bool writeFile(const char *path, const void *bytes, size_t length) {
+	FILE *file = fopen(path, "wb");
+	if (file == NULL)
+		return false;
+	const bool isWritten = fwrite(bytes, 1, length, file) == length;
+	return fclose(file) == 0 && isWritten;
+}
+
+static bool writeCorpusGif(const char *directory, const char *name, const CorpusGif *gif) {
+	char path[PATH_MAX];
+	TestBytes bytes = {0};
+	encodeCorpusGif(&bytes, gif);
+	snprintf(path, sizeof(path), "%s/%s.gif", directory, name);
+	bool isWritten = writeFile(path, bytes.bytes, bytes.length);
+	free(bytes.bytes);
+
+	const size_t goldenLength = (size_t) gif->width * gif->height * gif->frameCount;
+	argb *goldens = malloc(goldenLength * sizeof(argb));
+	compositeCorpusGif(gif, goldens);
+	TestBytes pam = {0};
+	char header[128];
+	const int headerLength = snprintf(header, sizeof(header),
+	                                  "P7\nWIDTH %d\nHEIGHT %d\nDEPTH 4\nMAXVAL 255\nTUPLTYPE RGB_ALPHA\nENDHDR\n",
+	                                  (int) gif->width, (int) (gif->height * gif->frameCount));
+	appendBytes(&pam, header, (size_t) headerLength);
+	appendBytes(&pam, goldens, goldenLength * sizeof(argb));
+	snprintf(path, sizeof(path), "%s/%s.pam", directory, name);
+	isWritten &= writeFile(path, pam.bytes, pam.length);
+	free(pam.bytes);
+	free(goldens);
+	return isWritten;
+}
+
+static int generateCorpus(const char *directory) {
+	TestRandom random;
+	seedRandom(&random, 16);
+	size_t f;
+	for (f = 0; f < sizeof(CORPUS_FAMILIES) / sizeof(CORPUS_FAMILIES[0]); f++) {
+		const CorpusFamily *family = CORPUS_FAMILIES + f;
+		unsigned i;
+		for (i = 0; i < family->gifCount; i++) {
+			CorpusGif gif;
+			generateCorpusGif(&gif, family, &random);
+			char name[64];
+			snprintf(name, sizeof(name), "%s_%02u", family->name, i);
+			const bool isWritten = writeCorpusGif(directory, name, &gif);
+			freeCorpusGif(&gif);
+			if (!isWritten) {
+				fprintf(stderr, "cannot write %s to %s\n", name, directory);
+				return EXIT_FAILURE;
+			}
+		}
+	}
+	return EXIT_SUCCESS;
+}
+
+/**
+ * @return pixels of the PAM image, NULL if it is not a valid RGB_ALPHA one of the given width
+ */
+static const argb *parseGoldens(const TestBytes *pam, int width, int *height) {
+	int parsedWidth, depth, maxValue, headerLength = 0;
+	char tupleType[16];
+	//bytes are not terminated, header is short enough to be parsed from a copy
+	char header[128] = {0};
+	memcpy(header, pam->bytes, pam->length < sizeof(header) - 1 ? pam->length : sizeof(header) - 1);
+	if (sscanf(header, "P7\nWIDTH %d\nHEIGHT %d\nDEPTH %d\nMAXVAL %d\nTUPLTYPE %15s\nENDHDR\n%n",
+	           &parsedWidth, height, &depth, &maxValue, tupleType, &headerLength) != 5 || headerLength == 0)
+		return NULL;
+	if (parsedWidth != width || depth != 4 || maxValue != 255 || strcmp(tupleType, "RGB_ALPHA") != 0)
+		return NULL;
+	if (pam->length - (size_t) headerLength != (size_t) width * *height * sizeof(argb))
+		return NULL;
+	return (const argb *) (pam->bytes + headerLength);
+}
+
+static int rewindMemorySource(GifInfo *info) {
+	MemorySource *source = info->gifFilePtr->UserData;
+	source->pos = (size_t) info->startPos;
+	return 0;
+}
+
+static long long tellMemorySource(GifInfo *info) {
+	MemorySource *source = info->gifFilePtr->UserData;
+	return (long long) source->pos;
+}
+
+static int seekMemorySource(GifInfo *info, long long position) {
+	MemorySource *source = info->gifFilePtr->UserData;
+	source->pos = (size_t) position;
+	return 0;
+}
+
+/**
+ * Replaces the canvas by a new one filled with guard bytes, like a caller switching to another buffer.
+ * The canvas ends right after the last visible pixel, so padding of the last row is not allocated.
+ */
+static bool changeCanvas(Player *player, bool isRgb565, TestRandom *random) {
+	free(player->canvas);
+	setCanvasFormat(player->info, isRgb565);
+	player->stride = (uint_fast32_t) player->info->gifFilePtr->SWidth + randomBelow(random, MAX_STRIDE_PADDING + 1);
+	player->info->stride = (uint32_t) player->stride;
+	const size_t canvasSize = (player->stride * (uint_fast32_t) (player->info->gifFilePtr->SHeight - 1)
+	                           + (uint_fast32_t) player->info->gifFilePtr->SWidth) * getCanvasPixelSize(player->info);
+	player->canvas = malloc(canvasSize);
+	if (player->canvas == NULL)
+		return false;
+	memset(player->canvas, CANVAS_GUARD_BYTE, canvasSize);
+	return true;
+}
+
+static bool openPlayer(Player *player, const TestBytes *gif, bool isRgb565, TestRandom *random) {
+	player->source = (MemorySource) {gif->bytes, gif->length, 0};
+	GifSourceDescriptor descriptor = {
+			.GifFileIn = DGifOpen(&player->source, &memorySourceRead, &descriptor.Error),
+			.rewindFunc = rewindMemorySource,
+			.tellFunc = tellMemorySource,
+			.seekFunc = seekMemorySource,
+			.sourceLength = (jlong) gif->length
+	};
+	descriptor.startPos = (long long) player->source.pos;
+	player->info = createGifHandle(&descriptor, NULL, JNI_FALSE, INT_MAX);
+	if (player->info == NULL)
+		return false;
+	player->canvas = NULL;
+	return changeCanvas(player, isRgb565, random);
+}
+
+static void closePlayer(Player *player) {
+	cleanUp(player->info);
+	free(player->canvas);
+}
+
+/**
+ * Renders the next frame the way GifInfoHandle.renderFrame does.
+ * @return index of the rendered frame
+ */
+static uint_fast32_t renderNextFrame(Player *player) {
+	GifInfo *info = player->info;
+	const uint_fast32_t index = info->currentIndex;
+	if (isAnimationCached(info)) {
+		playCachedFrame((argb *) player->canvas, info);
+	} else {
+		DDGifSlurp(info, true, false);
+		if (index == 0)
+			prepareCanvas((argb *) player->canvas, info);
+		getBitmap((argb *) player->canvas, info);
+	}
+	return index;
+}
+
+static void compareCanvas(const char *name, const char *scenario, const Player *player, uint_fast32_t index,
+                          const argb *goldens) {
+	const GifFileType *gifFile = player->info->gifFilePtr;
+	const argb *golden = goldens + (size_t) index * gifFile->SWidth * gifFile->SHeight;
+	const size_t pixelSize = getCanvasPixelSize(player->info);
+	bool isEqual = true;
+	bool isPaddingIntact = true;
+	GifWord x, y;
+	for (y = 0; y < gifFile->SHeight; y++) {
+		const uint8_t *padding = player->canvas + ((size_t) y * player->stride + (size_t) gifFile->SWidth) * pixelSize;
+		size_t i;
+		for (i = 0; y + 1 < gifFile->SHeight && i < (player->stride - (size_t) gifFile->SWidth) * pixelSize; i++)
+			isPaddingIntact &= padding[i] == CANVAS_GUARD_BYTE;
+		for (x = 0; x < gifFile->SWidth; x++, golden++) {
+			const size_t offset = (size_t) y * player->stride + x;
+			if (player->info->isRgb565) {
+				isEqual &= ((const uint16_t *) player->canvas)[offset] == toRgb565(golden->rgb);
+			} else {
+				isEqual &= memcmp((const argb *) player->canvas + offset, golden, sizeof(argb)) == 0;
+			}
+		}
+	}
+	checkCount++;
+	EXPECT(isEqual, "%s %s: frame %u differs from golden", name, scenario, (unsigned) index);
+	checkCount++;
+	EXPECT(isPaddingIntact, "%s %s: frame %u overwrote row padding", name, scenario, (unsigned) index);
+	checkCount++;
+	EXPECT(gifFile->Error == 0, "%s %s: frame %u error %d", name, scenario, (unsigned) index,
+	       gifFile->Error);
+}
+
+static void playLoops(const char *name, const char *scenario, Player *player, unsigned loopCount,
+                      const argb *goldens) {
+	const uint_fast32_t frameCount = (uint_fast32_t) player->info->gifFilePtr->ImageCount;
+	uint_fast32_t i;
+	for (i = 0; i < frameCount * loopCount; i++) {
+		const uint_fast32_t index = renderNextFrame(player);
+		checkCount++;
+		EXPECT(index == i % frameCount, "%s %s: frame %u rendered instead of %u", name, scenario, (unsigned) index,
+		       (unsigned) (i % frameCount));
+		compareCanvas(name, scenario, player, index, goldens);
+	}
+}
+
+/**
+ * Seeks to random frames, some of the seeks are followed by rendering of the next frame.
+ */
+static void seekRandomly(const char *name, const char *scenario, Player *player, const argb *goldens,
+                         TestRandom *random) {
+	const uint_fast32_t frameCount = (uint_fast32_t) player->info->gifFilePtr->ImageCount;
+	unsigned i;
+	for (i = 0; i < frameCount * 4; i++) {
+		const uint_fast32_t desiredIndex = randomBelow(random, frameCount);
+		seek(player->info, desiredIndex, player->canvas);
+		compareCanvas(name, scenario, player, desiredIndex, goldens);
+		if (randomBelow(random, 3) == 0) {
+			const uint_fast32_t index = renderNextFrame(player);
+			compareCanvas(name, scenario, player, index, goldens);
+		}
+	}
+}
+
+/**
+ * @return whether metadata of the handle flags the whole animation as opaque
+ */
+static bool isReportedOpaque(const GifInfo *info) {
+	JNIEnv *env = initFakeJni();
+	const jintArray metadata = Java_com_zing_zalo_gifplayer_GifInfoHandle_getMetadata(env, NULL,
+	                                                                                  (jlong) (intptr_t) info);
+	const bool isOpaque = (((const jint *) ((FakeArray *) metadata)->elements)[4] & 2) != 0;
+	free(metadata);
+	return isOpaque;
+}
+
+/**
+ * Animation flagged as opaque may be drawn without alpha, so none of its canvases may be transparent.
+ */
+static void verifyOpacity(const char *name, const Player *player, const argb *goldens) {
+	if (!isReportedOpaque(player->info))
+		return;
+	const GifFileType *gifFile = player->info->gifFilePtr;
+	const size_t pixelCount = (size_t) gifFile->SWidth * gifFile->SHeight * gifFile->ImageCount;
+	size_t i;
+	for (i = 0; i < pixelCount && goldens[i].alpha == 0xFF; i++);
+	checkCount++;
+	EXPECT(i == pixelCount, "%s: animation reported opaque but frame %u is transparent", name,
+	       (unsigned) (i / ((size_t) gifFile->SWidth * gifFile->SHeight)));
+}
+
+/**
+ * First frame covering the whole canvas but disposed to previous reveals the initial canvas,
+ * which is transparent without global color map, so the animation is not opaque.
+ */
+static void verifyFirstFrameDisposedToPrevious(TestRandom *random) {
+	CorpusGif gif = {.width = 8, .height = 8, .hasColorMap = false, .frameCount = 2};
+	unsigned i;
+	for (i = 0; i < gif.frameCount; i++) {
+		CorpusFrame *frame = gif.frames + i;
+		*frame = (CorpusFrame) {
+				.width = i == 0 ? gif.width : 2,
+				.height = i == 0 ? gif.height : 2,
+				.disposalMode = i == 0 ? DISPOSE_PREVIOUS : DISPOSE_DO_NOT,
+				.transparentIndex = NO_TRANSPARENT_COLOR,
+				.hasControlBlock = true,
+				.hasColorMap = true
+		};
+		randomColors(frame->colors, random);
+		frame->pixels = calloc((size_t) frame->width * frame->height, 1);
+	}
+	TestBytes bytes = {0};
+	encodeCorpusGif(&bytes, &gif);
+	argb goldens[2 * 8 * 8];
+	compositeCorpusGif(&gif, goldens);
+	Player player;
+	checkCount++;
+	if (openPlayer(&player, &bytes, false, random)) {
+		EXPECT(!isReportedOpaque(player.info), "first frame disposed to previous: animation reported opaque");
+		verifyOpacity("first frame disposed to previous", &player, goldens);
+		closePlayer(&player);
+	} else {
+		EXPECT(false, "cannot open GIF with first frame disposed to previous");
+	}
+	free(bytes.bytes);
+	freeCorpusGif(&gif);
+}
+
+/**
+ * Canvas pixel of the downsampling reference, colors are premultiplied by alpha.
+ */
+typedef struct {
+	double red, green, blue, alpha;
+} ScaledPixel;
+
+/**
+ * Maps range of the frame onto the target canvas: ends are scaled down, range never collapses
+ * and stays within the canvas.
+ */
+static void scaleReferenceRange(GifWord start, GifWord length, GifWord originalSize, GifWord targetSize,
+                                GifWord *scaledStart, GifWord *scaledLength) {
+	*scaledStart = start * targetSize / originalSize;
+	*scaledLength = (start + length) * targetSize / originalSize - *scaledStart;
+	if (*scaledLength < 1)
+		*scaledLength = 1;
+	if (*scaledStart + *scaledLength > targetSize)
+		*scaledStart = targetSize - *scaledLength;
+}
+
+/**
+ * @return first source pixel of the footprint of the target pixel, footprints split the source evenly
+ */
+static GifWord getFootprintStart(GifWord target, GifWord sourceSize, GifWord targetSize) {
+	return (target * sourceSize + targetSize - 1) / targetSize;
+}
+
+static ScaledPixel toScaledPixel(argb pixel) {
+	const double alpha = pixel.alpha / 255.0;
+	return (ScaledPixel) {pixel.rgb.Red * alpha, pixel.rgb.Green * alpha, pixel.rgb.Blue * alpha, pixel.alpha};
+}
+
+/**
+ * Reference compositor of downscaled frames, each frame is scaled on its own. Point sampling picks
+ * the first pixel of each footprint. Area averaging puts the mean of opaque pixels of the footprint,
+ * weighted by their share of it, over whatever the canvas holds. Disposal follows compositeCorpusGif
+ * on scaled areas of the frames.
+ * @param canvases canvases of all the frames stacked from top to bottom
+ */
+static void compositeScaledCorpusGif(const CorpusGif *gif, GifWord width, GifWord height, bool isAreaAveraged,
+                                     ScaledPixel *canvases) {
+	const size_t canvasLength = (size_t) width * height;
+	ScaledPixel *canvas = canvases;
+	ScaledPixel *backup = malloc(canvasLength * sizeof(ScaledPixel));
+	const bool isBackgroundOpaque = gif->hasColorMap && gif->frames[0].transparentIndex == NO_TRANSPARENT_COLOR;
+	const argb transparent = {{0, 0, 0}, 0};
+	const ScaledPixel background = toScaledPixel(isBackgroundOpaque ? toArgb(gif->colors[gif->backgroundIndex])
+	                                                                : transparent);
+	size_t p;
+	for (p = 0; p < canvasLength; p++)
+		canvas[p] = background;
+
+	GifWord left = 0, top = 0, frameWidth = 0, frameHeight = 0;
+	unsigned i;
+	for (i = 0; i < gif->frameCount; i++) {
+		const CorpusFrame *frame = gif->frames + i;
+		if (i > 0) {
+			memcpy(canvas + canvasLength, canvas, canvasLength * sizeof(ScaledPixel));
+			canvas += canvasLength;
+			const int previousDisposal = frame[-1].disposalMode;
+			if (previousDisposal == DISPOSE_BACKGROUND) {
+				GifWord x, y;
+				for (y = top; y < top + frameHeight; y++) {
+					for (x = left; x < left + frameWidth; x++)
+						canvas[y * width + x] = toScaledPixel(transparent);
+				}
+			} else if (previousDisposal == DISPOSE_PREVIOUS) {
+				memcpy(canvas, backup, canvasLength * sizeof(ScaledPixel));
+			}
+		}
+		if (frame->disposalMode == DISPOSE_PREVIOUS)
+			memcpy(backup, canvas, canvasLength * sizeof(ScaledPixel));
+		scaleReferenceRange(frame->left, frame->width, gif->width, width, &left, &frameWidth);
+		scaleReferenceRange(frame->top, frame->height, gif->height, height, &top, &frameHeight);
+		const GifColorType *colors = frame->hasColorMap ? frame->colors : gif->colors;
+		GifWord x, y;
+		for (y = 0; y < frameHeight; y++) {
+			const GifWord firstRow = getFootprintStart(y, frame->height, frameHeight);
+			const GifWord endRow = getFootprintStart(y + 1, frame->height, frameHeight);
+			for (x = 0; x < frameWidth; x++) {
+				const GifWord firstColumn = getFootprintStart(x, frame->width, frameWidth);
+				const GifWord endColumn = getFootprintStart(x + 1, frame->width, frameWidth);
+				ScaledPixel *dst = canvas + (top + y) * width + left + x;
+				if (!isAreaAveraged) {
+					const GifPixelType index = frame->pixels[firstRow * frame->width + firstColumn];
+					if (index != frame->transparentIndex)
+						*dst = toScaledPixel(toArgb(colors[index]));
+					continue;
+				}
+				ScaledPixel sum = {0, 0, 0, 0};
+				GifWord row, column;
+				for (row = firstRow; row < endRow; row++) {
+					for (column = firstColumn; column < endColumn; column++) {
+						const GifPixelType index = frame->pixels[row * frame->width + column];
+						if (index == frame->transparentIndex)
+							continue;
+						sum.red += colors[index].Red;
+						sum.green += colors[index].Green;
+						sum.blue += colors[index].Blue;
+						sum.alpha += 0xFF;
+					}
+				}
+				const double area = (double) (endRow - firstRow) * (endColumn - firstColumn);
+				const double inverseCoverage = 1 - sum.alpha / 0xFF / area;
+				dst->red = sum.red / area + dst->red * inverseCoverage;
+				dst->green = sum.green / area + dst->green * inverseCoverage;
+				dst->blue = sum.blue / area + dst->blue * inverseCoverage;
+				dst->alpha = sum.alpha / area + dst->alpha * inverseCoverage;
+			}
+		}
+	}
+	free(backup);
+}
+
+/**
+ * Downscales canvases by an integer factor, which matches compositing of downscaled frames
+ * when the frames consist of whole footprints, each either transparent or opaque.
+ */
+static void downscaleGoldens(const argb *goldens, const CorpusGif *gif, GifWord factor, bool isAreaAveraged,
+                             ScaledPixel *scaled) {
+	const GifWord width = gif->width / factor;
+	const GifWord height = gif->height / factor;
+	unsigned i;
+	for (i = 0; i < gif->frameCount; i++) {
+		const argb *golden = goldens + (size_t) i * gif->width * gif->height;
+		GifWord x, y;
+		for (y = 0; y < height; y++) {
+			for (x = 0; x < width; x++, scaled++) {
+				if (!isAreaAveraged) {
+					*scaled = toScaledPixel(golden[y * factor * gif->width + x * factor]);
+					continue;
+				}
+				*scaled = (ScaledPixel) {0, 0, 0, 0};
+				GifWord row, column;
+				for (row = y * factor; row < (y + 1) * factor; row++) {
+					for (column = x * factor; column < (x + 1) * factor; column++) {
+						const ScaledPixel pixel = toScaledPixel(golden[row * gif->width + column]);
+						scaled->red += pixel.red / (factor * factor);
+						scaled->green += pixel.green / (factor * factor);
+						scaled->blue += pixel.blue / (factor * factor);
+						scaled->alpha += pixel.alpha / (factor * factor);
+					}
+				}
+			}
+		}
+	}
+}
+
+static bool isScaledPixelClose(const ScaledPixel *pixel, const ScaledPixel *other, double tolerance) {
+	return fabs(pixel->red - other->red) <= tolerance && fabs(pixel->green - other->green) <= tolerance
+	       && fabs(pixel->blue - other->blue) <= tolerance && fabs(pixel->alpha - other->alpha) <= tolerance;
+}
+
+/**
+ * Generates GIF for downsampling by the factor. Aligned GIFs consist of frames covering whole
+ * blocks of factor by factor pixels, each block is either transparent or opaque, so their canvases
+ * can be downscaled directly. Frames of the other ones straddle footprints and often touch edges
+ * of the canvas or are a single pixel thin.
+ */
+static void generateDownsamplingGif(CorpusGif *gif, GifWord factor, bool isAligned, TestRandom *random) {
+	const GifWord unit = isAligned ? factor : 1;
+	const GifWord minSize = isAligned ? 2 : 5;
+	const GifWord maxSize = isAligned ? MAX_CORPUS_SIZE / factor : MAX_CORPUS_SIZE;
+	const GifWord widthUnits = (GifWord) (minSize + randomBelow(random, (uint32_t) (maxSize - minSize + 1)));
+	const GifWord heightUnits = (GifWord) (minSize + randomBelow(random, (uint32_t) (maxSize - minSize + 1)));
+	gif->width = widthUnits * unit;
+	gif->height = heightUnits * unit;
+	gif->hasColorMap = isChosen(random, 70);
+	gif->backgroundIndex = (GifPixelType) randomBelow(random, CORPUS_COLOR_COUNT);
+	randomColors(gif->colors, random);
+	gif->frameCount = 2 + randomBelow(random, MAX_CORPUS_FRAMES - 1);
+	unsigned i;
+	for (i = 0; i < gif->frameCount; i++) {
+		CorpusFrame *frame = gif->frames + i;
+		GifWord width = (GifWord) (1 + randomBelow(random, (uint32_t) widthUnits));
+		GifWord height = (GifWord) (1 + randomBelow(random, (uint32_t) heightUnits));
+		if (!isAligned && isChosen(random, 15))
+			width = 1;
+		if (!isAligned && isChosen(random, 15))
+			height = 1;
+		GifWord left = (GifWord) randomBelow(random, (uint32_t) (widthUnits - width + 1));
+		GifWord top = (GifWord) randomBelow(random, (uint32_t) (heightUnits - height + 1));
+		if (!isAligned && isChosen(random, 30))
+			left = widthUnits - width;
+		if (!isAligned && isChosen(random, 30))
+			top = heightUnits - height;
+		frame->left = left * unit;
+		frame->top = top * unit;
+		frame->width = width * unit;
+		frame->height = height * unit;
+		frame->hasControlBlock = true;
+		frame->disposalMode = (int) randomBelow(random, 4);
+		frame->transparentIndex = isChosen(random, 60) ? (int) randomBelow(random, CORPUS_COLOR_COUNT)
+		                                               : NO_TRANSPARENT_COLOR;
+		frame->isInterlaced = isChosen(random, 50);
+		frame->hasColorMap = !gif->hasColorMap || isChosen(random, 30);
+		randomColors(frame->colors, random);
+		frame->pixels = malloc((size_t) frame->width * frame->height);
+		GifWord x, y;
+		for (y = 0; y < frame->height; y++) {
+			for (x = 0; x < frame->width; x++) {
+				GifPixelType *pixel = frame->pixels + y * frame->width + x;
+				const bool isBlockStart = x % unit == 0 && y % unit == 0;
+				if (!isBlockStart) {
+					//blocks are transparent as a whole
+					const GifPixelType blockPixel = frame->pixels[(y - y % unit) * frame->width + x - x % unit];
+					if (blockPixel == frame->transparentIndex) {
+						*pixel = blockPixel;
+						continue;
+					}
+				} else if (frame->transparentIndex != NO_TRANSPARENT_COLOR && isChosen(random, 40)) {
+					*pixel = (GifPixelType) frame->transparentIndex;
+					continue;
+				}
+				*pixel = (GifPixelType) randomBelow(random, CORPUS_COLOR_COUNT);
+				if (*pixel == frame->transparentIndex)
+					*pixel = (GifPixelType) ((*pixel + 1) % CORPUS_COLOR_COUNT);
+			}
+		}
+	}
+}
+
+static void compareScaledCanvas(const char *scenario, const Player *player, uint_fast32_t index,
+                                const ScaledPixel *references, double tolerance) {
+	const GifFileType *gifFile = player->info->gifFilePtr;
+	const ScaledPixel *reference = references + (size_t) index * gifFile->SWidth * gifFile->SHeight;
+	const size_t pixelSize = getCanvasPixelSize(player->info);
+	bool isEqual = true;
+	bool isPaddingIntact = true;
+	GifWord x, y;
+	for (y = 0; y < gifFile->SHeight; y++) {
+		const uint8_t *padding = player->canvas + ((size_t) y * player->stride + (size_t) gifFile->SWidth) * pixelSize;
+		size_t i;
+		for (i = 0; y + 1 < gifFile->SHeight && i < (player->stride - (size_t) gifFile->SWidth) * pixelSize; i++)
+			isPaddingIntact &= padding[i] == CANVAS_GUARD_BYTE;
+		for (x = 0; x < gifFile->SWidth; x++, reference++) {
+			const size_t offset = (size_t) y * player->stride + x;
+			if (player->info->isRgb565) {
+				const GifColorType color = {(GifByteType) lround(reference->red), (GifByteType) lround(reference->green),
+				                            (GifByteType) lround(reference->blue)};
+				isEqual &= ((const uint16_t *) player->canvas)[offset] == toRgb565(color);
+			} else {
+				const argb pixel = ((const argb *) player->canvas)[offset];
+				const ScaledPixel actual = {pixel.rgb.Red, pixel.rgb.Green, pixel.rgb.Blue, pixel.alpha};
+				isEqual &= isScaledPixelClose(&actual, reference, tolerance);
+			}
+		}
+	}
+	checkCount++;
+	EXPECT(isEqual, "downsampling %s: frame %u differs from reference", scenario, (unsigned) index);
+	checkCount++;
+	EXPECT(isPaddingIntact, "downsampling %s: frame %u overwrote row padding", scenario, (unsigned) index);
+	checkCount++;
+	EXPECT(gifFile->Error == 0, "downsampling %s: frame %u error %d", scenario, (unsigned) index, gifFile->Error);
+}
+
+/**
+ * Plays generated GIFs decoded directly at smaller size, over two loops and then with random seeks.
+ * Frames which may be downscaled exactly are compared with downscaled goldens, the rest with the
+ * reference compositor of downscaled frames. Area averaged canvases are compared with tolerance
+ * of the rounding done by each blending.
+ */
+static void verifyDownsampling(TestRandom *random) {
+	static const struct {
+		const char *name;
+		bool isAligned;
+		bool isAreaAveraged;
+		bool isRgb565;
+	} scenarios[] = {
+			{"aligned point", true, false, false},
+			{"aligned point rgb565", true, false, true},
+			{"aligned area", true, true, false},
+			{"straddling point", false, false, false},
+			{"straddling point rgb565", false, false, true},
+			{"straddling area", false, true, false},
+	};
+	size_t s;
+	for (s = 0; s < sizeof(scenarios) / sizeof(scenarios[0]); s++) {
+		const char *name = scenarios[s].name;
+		unsigned g;
+		for (g = 0; g < DOWNSAMPLING_GIF_COUNT; g++) {
+			const GifWord factor = (GifWord) (2 + randomBelow(random, MAX_DOWNSCALE_FACTOR - 1));
+			CorpusGif gif;
+			generateDownsamplingGif(&gif, factor, scenarios[s].isAligned, random);
+			const GifWord width = scenarios[s].isAligned ? gif.width / factor
+			                                             : (GifWord) (1 + randomBelow(random, (uint32_t) gif.width - 1));
+			const GifWord height = scenarios[s].isAligned ? gif.height / factor
+			                                              : (GifWord) (1 + randomBelow(random, (uint32_t) gif.height - 1));
+			const size_t canvasLength = (size_t) width * height;
+			ScaledPixel *references = malloc(canvasLength * gif.frameCount * sizeof(ScaledPixel));
+			compositeScaledCorpusGif(&gif, width, height, scenarios[s].isAreaAveraged, references);
+			if (scenarios[s].isAligned) {
+				argb *goldens = malloc((size_t) gif.width * gif.height * gif.frameCount * sizeof(argb));
+				ScaledPixel *downscaled = malloc(canvasLength * gif.frameCount * sizeof(ScaledPixel));
+				compositeCorpusGif(&gif, goldens);
+				downscaleGoldens(goldens, &gif, factor, scenarios[s].isAreaAveraged, downscaled);
+				size_t p;
+				for (p = 0; p < canvasLength * gif.frameCount; p++) {
+					if (!isScaledPixelClose(references + p, downscaled + p, 1e-6))
+						break;
+				}
+				checkCount++;
+				EXPECT(p == canvasLength * gif.frameCount, "downsampling %s: reference differs from goldens", name);
+				free(goldens);
+				free(downscaled);
+			}
+
+			TestBytes bytes = {0};
+			encodeCorpusGif(&bytes, &gif);
+			Player player;
+			checkCount++;
+			if (!openPlayer(&player, &bytes, scenarios[s].isRgb565, random)) {
+				EXPECT(false, "downsampling %s: cannot open GIF", name);
+			} else {
+				checkCount++;
+				if (setTargetSize(player.info, width, height, scenarios[s].isAreaAveraged)
+				    && changeCanvas(&player, scenarios[s].isRgb565, random)) {
+					const GifWord frameCount = player.info->gifFilePtr->ImageCount;
+					double tolerance = 0;
+					if (scenarios[s].isAreaAveraged) {
+						//fully covered pixels are rounded only once
+						tolerance = scenarios[s].isAligned ? 0.5 : STRADDLING_AREA_TOLERANCE;
+					}
+					uint_fast32_t i;
+					for (i = 0; i < frameCount * 2; i++) {
+						const uint_fast32_t index = renderNextFrame(&player);
+						checkCount++;
+						EXPECT(index == i % frameCount, "downsampling %s: frame %u rendered instead of %u", name,
+						       (unsigned) index, (unsigned) (i % frameCount));
+						compareScaledCanvas(name, &player, index, references, tolerance);
+					}
+					for (i = 0; i < frameCount * 2; i++) {
+						const uint_fast32_t desiredIndex = randomBelow(random, (uint32_t) frameCount);
+						seek(player.info, desiredIndex, player.canvas);
+						compareScaledCanvas(name, &player, desiredIndex, references, tolerance);
+					}
+				} else {
+					EXPECT(false, "downsampling %s: cannot set target size", name);
+				}
+				closePlayer(&player);
+			}
+			free(bytes.bytes);
+			free(references);
+			freeCorpusGif(&gif);
+		}
+	}
+}
+
+/**
+ * Plays a memory mapped copy of the GIF, then truncates the copy like another writer rewriting it
+ * in place. Playback from the start may fail afterwards but must not read past the new end of file.
+ */
+static void verifyTruncatedFile(const char *path, const TestBytes *gif, const TestBytes *pam, TestRandom *random) {
+	char copyPath[] = "/tmp/disposal_test_XXXXXX";
+	const int fd = mkstemp(copyPath);
+	checkCount++;
+	if (fd == -1 || write(fd, gif->bytes, gif->length) != (ssize_t) gif->length) {
+		EXPECT(false, "cannot copy %s to %s", path, copyPath);
+		if (fd != -1) {
+			close(fd);
+			unlink(copyPath);
+		}
+		return;
+	}
+	JNIEnv *env = initFakeJni();
+	const jlong handle = Java_com_zing_zalo_gifplayer_GifInfoHandle_openFile(env, NULL, (jstring) copyPath, JNI_FALSE,
+	                                                                         INT_MAX);
+	Player player = {.info = (GifInfo *) (intptr_t) handle, .canvas = NULL};
+	int goldenHeight;
+	const argb *goldens = NULL;
+	checkCount++;
+	if (player.info != NULL && changeCanvas(&player, false, random))
+		goldens = parseGoldens(pam, player.info->gifFilePtr->SWidth, &goldenHeight);
+	if (goldens == NULL) {
+		EXPECT(false, "cannot play mapped copy of %s", path);
+	} else {
+		playLoops(path, "mapped file", &player, 1, goldens);
+
+		const jlong truncatedLength = (jlong) gif->length / 2;
+		checkCount++;
+		EXPECT(ftruncate(fd, truncatedLength) == 0, "cannot truncate %s", copyPath);
+		checkCount++;
+		EXPECT(Java_com_zing_zalo_gifplayer_GifInfoHandle_reset(env, NULL, handle) == JNI_TRUE,
+		       "%s mapped file: reset after truncation failed", path);
+		const MappedFileContainer *container = player.info->gifFilePtr->UserData;
+		checkCount++;
+		EXPECT(container->capacity == truncatedLength, "%s mapped file: capacity %lld after truncation to %lld",
+		       path, (long long) container->capacity, (long long) truncatedLength);
+		uint_fast32_t i;
+		for (i = 0; i < (uint_fast32_t) player.info->gifFilePtr->ImageCount; i++)
+			renderNextFrame(&player);
+		checkCount++;
+		EXPECT(player.info->gifFilePtr->Error != 0, "%s mapped file: truncation not detected", path);
+	}
+	checkCount++;
+	EXPECT(takeFakeException() == NULL, "%s mapped file: exception thrown", path);
+	Java_com_zing_zalo_gifplayer_GifInfoHandle_free(env, NULL, handle);
+	free(player.canvas);
+	close(fd);
+	unlink(copyPath);
+}
+
+/**
+ * @return length of the header, logical screen descriptor and global color table
+ */
+static jint getHeaderLength(const TestBytes *gif) {
+	const uint8_t flags = gif->bytes[10];
+	return 13 + ((flags & 0x80) != 0 ? 3 << ((flags & 7) + 1) : 0);
+}
+
+/**
+ * Feeds the GIF to an incremental source in chunks of random size, like a download, rendering each
+ * frame as soon as it arrives. Once copying of one chunk fails, which has to leave the source intact.
+ */
+static void verifyIncrementalSource(const char *path, const TestBytes *gif, const TestBytes *pam, TestRandom *random) {
+	JNIEnv *env = initFakeJni();
+	const jbyteArray bytes = newFakeByteArray(gif->bytes, gif->length);
+	const jint length = (jint) gif->length;
+	jint offset = getHeaderLength(gif) + (jint) randomBelow(random, MAX_INCREMENTAL_CHUNK);
+	if (offset > length)
+		offset = length;
+	const jlong handle = Java_com_zing_zalo_gifplayer_GifInfoHandle_openIncremental(env, NULL, bytes, offset, INT_MAX);
+	Player player = {.info = (GifInfo *) (intptr_t) handle, .canvas = NULL};
+	int goldenHeight;
+	const argb *goldens = NULL;
+	checkCount++;
+	if (player.info != NULL && changeCanvas(&player, false, random))
+		goldens = parseGoldens(pam, player.info->gifFilePtr->SWidth, &goldenHeight);
+	if (goldens == NULL) {
+		EXPECT(false, "cannot open incremental source of %s", path);
+		Java_com_zing_zalo_gifplayer_GifInfoHandle_free(env, NULL, handle);
+		free(player.canvas);
+		free(bytes);
+		return;
+	}
+	const uint_fast32_t expectedFrameCount = (uint_fast32_t) goldenHeight / player.info->gifFilePtr->SHeight;
+	const uint_fast32_t failingAppendIndex = randomBelow(random, 4);
+	uint_fast32_t appendIndex, renderedCount = 0;
+	for (appendIndex = 0; player.info->isDataIncomplete; appendIndex++) {
+		while (renderedCount < (uint_fast32_t) player.info->gifFilePtr->ImageCount) {
+			const uint_fast32_t index = renderNextFrame(&player);
+			checkCount++;
+			EXPECT(index == renderedCount, "%s incremental: frame %u rendered instead of %u", path, (unsigned) index,
+			       (unsigned) renderedCount);
+			compareCanvas(path, "incremental", &player, index, goldens);
+			renderedCount++;
+		}
+		if (offset == length) {
+			Java_com_zing_zalo_gifplayer_GifInfoHandle_finishData(env, NULL, handle);
+			break;
+		}
+		jint chunkLength = 1 + (jint) randomBelow(random, MAX_INCREMENTAL_CHUNK);
+		if (chunkLength > length - offset)
+			chunkLength = length - offset;
+		const GifWord frameCount = player.info->gifFilePtr->ImageCount;
+		const size_t arrivedLength = ((IncrementalContainer *) player.info->gifFilePtr->UserData)->length;
+		if (appendIndex == failingAppendIndex) {
+			fakeJni.byteArrayRegionFailureCountdown = 0;
+			Java_com_zing_zalo_gifplayer_GifInfoHandle_appendData(env, NULL, handle, bytes, offset, chunkLength);
+			const char *exception = takeFakeException();
+			checkCount++;
+			EXPECT(exception != NULL && strcmp(exception, "java/lang/ArrayIndexOutOfBoundsException") == 0,
+			       "%s incremental: %s thrown when bytes cannot be copied", path, exception);
+			checkCount++;
+			EXPECT(((IncrementalContainer *) player.info->gifFilePtr->UserData)->length == arrivedLength
+			       && player.info->gifFilePtr->ImageCount == frameCount,
+			       "%s incremental: bytes which cannot be copied were appended", path);
+		}
+		Java_com_zing_zalo_gifplayer_GifInfoHandle_appendData(env, NULL, handle, bytes, offset, chunkLength);
+		offset += chunkLength;
+		checkCount++;
+		EXPECT(takeFakeException() == NULL, "%s incremental: exception thrown by append", path);
+		checkCount++;
+		EXPECT(player.info->gifFilePtr->ImageCount >= frameCount, "%s incremental: frame count dropped from %u to %u",
+		       path, (unsigned) frameCount, (unsigned) player.info->gifFilePtr->ImageCount);
+	}
+	checkCount++;
+	EXPECT(!player.info->isDataIncomplete && player.info->gifFilePtr->ImageCount == expectedFrameCount,
+	       "%s incremental: %u frames arrived instead of %u", path, (unsigned) player.info->gifFilePtr->ImageCount,
+	       (unsigned) expectedFrameCount);
+	while (renderedCount < (uint_fast32_t) player.info->gifFilePtr->ImageCount) {
+		compareCanvas(path, "incremental", &player, renderNextFrame(&player), goldens);
+		renderedCount++;
+	}
+	Java_com_zing_zalo_gifplayer_GifInfoHandle_free(env, NULL, handle);
+	free(player.canvas);
+	free(bytes);
+}
+
+/**
+ * @return whether visible pixels of both ARGB canvases are equal
+ */
+static bool isCanvasEqual(const Player *player, const Player *otherPlayer) {
+	const GifFileType *gifFile = player->info->gifFilePtr;
+	GifWord y;
+	for (y = 0; y < gifFile->SHeight; y++) {
+		if (memcmp((const argb *) player->canvas + y * player->stride,
+		           (const argb *) otherPlayer->canvas + y * otherPlayer->stride, gifFile->SWidth * sizeof(argb)) != 0)
+			return false;
+	}
+	return true;
+}
+
+/**
+ * Plays a cursor of a byte array source next to a fresh handle of the same bytes. Source keeps
+ * playing and seeking meanwhile, since cursors share only its data. Cursor is freed before
+ * the source, which has to stay playable afterwards.
+ */
+static void verifyCursor(const char *path, const TestBytes *gif, const TestBytes *pam, TestRandom *random) {
+	JNIEnv *env = initFakeJni();
+	const jbyteArray bytes = newFakeByteArray(gif->bytes, gif->length);
+	const jlong sourceHandle = Java_com_zing_zalo_gifplayer_GifInfoHandle_openByteArray(env, NULL, bytes, JNI_FALSE,
+	                                                                                    INT_MAX);
+	const jlong freshHandle = Java_com_zing_zalo_gifplayer_GifInfoHandle_openByteArray(env, NULL, bytes, JNI_FALSE,
+	                                                                                   INT_MAX);
+	Player source = {.info = (GifInfo *) (intptr_t) sourceHandle, .canvas = NULL};
+	Player fresh = {.info = (GifInfo *) (intptr_t) freshHandle, .canvas = NULL};
+	Player cursor = {.info = NULL, .canvas = NULL};
+	int goldenHeight;
+	const argb *goldens = NULL;
+	checkCount++;
+	if (source.info != NULL && fresh.info != NULL && changeCanvas(&source, false, random)
+	    && changeCanvas(&fresh, false, random)) {
+		goldens = parseGoldens(pam, source.info->gifFilePtr->SWidth, &goldenHeight);
+		//cursor starts from the first frame wherever the source is
+		const uint_fast32_t sourceFrameCount = randomBelow(random, (uint32_t) source.info->gifFilePtr->ImageCount);
+		uint_fast32_t i;
+		for (i = 0; i < sourceFrameCount; i++)
+			renderNextFrame(&source);
+		cursor.info = (GifInfo *) (intptr_t) Java_com_zing_zalo_gifplayer_GifInfoHandle_openCursor(env, NULL,
+		                                                                                          sourceHandle);
+	}
+	if (goldens == NULL || cursor.info == NULL || !changeCanvas(&cursor, false, random)) {
+		EXPECT(false, "cannot open cursor of %s", path);
+	} else {
+		const uint_fast32_t frameCount = (uint_fast32_t) source.info->gifFilePtr->ImageCount;
+		uint_fast32_t i;
+		for (i = 0; i < frameCount * 2; i++) {
+			//cursors are driven by seeks, consecutive ones decode just the next frame
+			const uint_fast32_t index = i % frameCount;
+			seek(cursor.info, index, cursor.canvas);
+			renderNextFrame(&fresh);
+			compareCanvas(path, "cursor", &cursor, index, goldens);
+			checkCount++;
+			EXPECT(isCanvasEqual(&cursor, &fresh), "%s cursor: frame %u differs from fresh handle", path,
+			       (unsigned) index);
+			if (randomBelow(random, 2) == 0) {
+				compareCanvas(path, "cursor source", &source, renderNextFrame(&source), goldens);
+			} else {
+				const uint_fast32_t desiredIndex = randomBelow(random, frameCount);
+				seek(source.info, desiredIndex, source.canvas);
+				compareCanvas(path, "cursor source", &source, desiredIndex, goldens);
+			}
+		}
+		Java_com_zing_zalo_gifplayer_GifInfoHandle_freeCursor(env, NULL, (jlong) (intptr_t) cursor.info);
+		checkCount++;
+		EXPECT(reset(source.info), "%s cursor source: reset failed", path);
+		playLoops(path, "cursor source", &source, 1, goldens);
+	}
+	checkCount++;
+	EXPECT(takeFakeException() == NULL, "%s cursor: exception thrown", path);
+	Java_com_zing_zalo_gifplayer_GifInfoHandle_free(env, NULL, sourceHandle);
+	Java_com_zing_zalo_gifplayer_GifInfoHandle_free(env, NULL, freshHandle);
+	free(source.canvas);
+	free(fresh.canvas);
+	free(cursor.canvas);
+	free(bytes);
+}
+
+static void verifyCorpusGif(const char *path, TestRandom *random) {
+	TestBytes gif = {0};
+	TestBytes pam = {0};
+	char pamPath[PATH_MAX];
+	const size_t pathLength = strlen(path);
+	snprintf(pamPath, sizeof(pamPath), "%.*s.pam", (int) (pathLength > 4 ? pathLength - 4 : pathLength), path);
+	checkCount++;
+	if (!readWholeFile(path, &gif) || !readWholeFile(pamPath, &pam)) {
+		EXPECT(false, "cannot read %s or %s", path, pamPath);
+		free(gif.bytes);
+		free(pam.bytes);
+		return;
+	}
+
+	static const struct {
+		const char *name;
+		bool isRgb565;
+		jint snapshotInterval;
+		bool isAnimationCached;
+	} scenarios[] = {
+			{"argb", false, 0, false},
+			{"argb snapshots", false, 2, false},
+			{"argb animation cache", false, 0, true},
+			{"rgb565", true, 0, false},
+			{"rgb565 snapshots", true, 1, false},
+			{"rgb565 animation cache", true, 0, true},
+	};
+	size_t s;
+	for (s = 0; s < sizeof(scenarios) / sizeof(scenarios[0]); s++) {
+		Player player;
+		checkCount++;
+		if (!openPlayer(&player, &gif, scenarios[s].isRgb565, random)) {
+			EXPECT(false, "cannot open %s", path);
+			break;
+		}
+		int goldenHeight;
+		const argb *goldens = parseGoldens(&pam, player.info->gifFilePtr->SWidth, &goldenHeight);
+		const int expectedHeight = player.info->gifFilePtr->SHeight * player.info->gifFilePtr->ImageCount;
+		checkCount++;
+		if (goldens == NULL || goldenHeight != expectedHeight) {
+			EXPECT(false, "%s does not match %s", pamPath, path);
+			closePlayer(&player);
+			break;
+		}
+		if (s == 0)
+			verifyOpacity(path, &player, goldens);
+		const jlong handle = (jlong) (intptr_t) player.info;
+		if (scenarios[s].snapshotInterval > 0)
+			Java_com_zing_zalo_gifplayer_GifInfoHandle_setSnapshotCache(NULL, NULL, handle,
+			                                                            scenarios[s].snapshotInterval,
+			                                                            SNAPSHOT_CACHE_BUDGET);
+		if (scenarios[s].isAnimationCached)
+			Java_com_zing_zalo_gifplayer_GifInfoHandle_setAnimationCache(NULL, NULL, handle, ANIMATION_CACHE_BUDGET);
+
+		const jlong initialByteCount = Java_com_zing_zalo_gifplayer_GifInfoHandle_getAllocationByteCount(NULL, NULL,
+		                                                                                                  handle);
+		playLoops(path, scenarios[s].name, &player, 2, goldens);
+		if (scenarios[s].isAnimationCached) {
+			checkCount++;
+			EXPECT(isAnimationCached(player.info), "%s %s: animation is not cached", path, scenarios[s].name);
+			//cached frames are allocated during playback, so the handle has to report them afterwards
+			checkCount++;
+			EXPECT(Java_com_zing_zalo_gifplayer_GifInfoHandle_getAllocationByteCount(NULL, NULL, handle)
+			       > initialByteCount, "%s %s: cached frames are not counted", path, scenarios[s].name);
+		}
+		seekRandomly(path, scenarios[s].name, &player, goldens, random);
+		//canvas in the other format does not hold the last frame, so playback has to start over
+		checkCount++;
+		if (!changeCanvas(&player, !scenarios[s].isRgb565, random)) {
+			EXPECT(false, "cannot allocate canvas of %s", path);
+			closePlayer(&player);
+			break;
+		}
+		playLoops(path, scenarios[s].name, &player, 1, goldens);
+		seekRandomly(path, scenarios[s].name, &player, goldens, random);
+		closePlayer(&player);
+	}
+	verifyTruncatedFile(path, &gif, &pam, random);
+	verifyIncrementalSource(path, &gif, &pam, random);
+	verifyCursor(path, &gif, &pam, random);
+	free(gif.bytes);
+	free(pam.bytes);
+}
+
+int main(int argc, char **argv) {
+	if (argc == 3 && strcmp(argv[1], "generate") == 0)
+		return generateCorpus(argv[2]);
+	TestRandom random;
+	seedRandom(&random, 16);
+	int i;
+	for (i = 1; i < argc; i++)
+		verifyCorpusGif(argv[i], &random);
+	verifyFirstFrameDisposedToPrevious(&random);
+	verifyDownsampling(&random);
+	checkCount++;
+	EXPECT(argc > 1, "no GIFs given");
+	return finishTest("disposal_test", checkCount);
+}
@@ -0,0 +1,241 @@
+/**
+ * Minimal JNI environment for host tests calling JNI entry points of the library. Arrays are
+ * plain memory blocks, strings are C strings and classes are their names. Thrown exceptions are
+ * only recorded. Functions which are not emulated abort the test, so unexpected use shows up.
+ */
+#ifndef FAKE_JNI_H
+#define FAKE_JNI_H
+
+#include <stdarg.h>
+#include <stdbool.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <jni.h>
+
+typedef struct {
+	jsize length;
+	size_t elementSize;
+	uint8_t elements[];
+} FakeArray;
+
+typedef struct {
+	JNIEnv env;
+	struct JNINativeInterface_ functions;
+	/**
+	 * Class name of the pending exception, NULL if there is none
+	 */
+	const char *pendingException;
+	/**
+	 * Number of the following GetByteArrayRegion calls which succeed before one of them throws,
+	 * negative if none of them throws
+	 */
+	int byteArrayRegionFailureCountdown;
+} FakeJni;
+
+static FakeJni fakeJni;
+
+static void fakeJniUnsupported(void) {
+	fprintf(stderr, "unsupported JNI function called\n");
+	abort();
+}
+
+static void fakeJniThrow(const char *className) {
+	if (fakeJni.pendingException == NULL)
+		fakeJni.pendingException = className;
+}
+
+static jboolean fakeExceptionCheck(__unused JNIEnv *env) {
+	return fakeJni.pendingException != NULL ? JNI_TRUE : JNI_FALSE;
+}
+
+static void fakeExceptionClear(__unused JNIEnv *env) {
+	fakeJni.pendingException = NULL;
+}
+
+static jclass fakeFindClass(__unused JNIEnv *env, const char *name) {
+	return (jclass) name;
+}
+
+static jint fakeThrowNew(__unused JNIEnv *env, jclass clazz, __unused const char *message) {
+	fakeJniThrow((const char *) clazz);
+	return 0;
+}
+
+static jint fakeThrow(__unused JNIEnv *env, jthrowable throwable) {
+	fakeJniThrow((const char *) throwable);
+	return 0;
+}
+
+static jmethodID fakeGetMethodID(__unused JNIEnv *env, __unused jclass clazz, __unused const char *name,
+                                 __unused const char *signature) {
+	return (jmethodID) 1;
+}
+
+/**
+ * Constructed objects are represented by their classes, which is enough for exceptions.
+ */
+static jobject fakeNewObject(__unused JNIEnv *env, jclass clazz, __unused jmethodID methodID, ...) {
+	return (jobject) clazz;
+}
+
+static jobject fakeNewRef(__unused JNIEnv *env, jobject object) {
+	return object;
+}
+
+static void fakeDeleteRef(__unused JNIEnv *env, __unused jobject object) {
+}
+
+static FakeArray *newFakeArray(jsize length, size_t elementSize) {
+	FakeArray *array = calloc(1, sizeof(FakeArray) + (size_t) length * elementSize);
+	if (array == NULL) {
+		fprintf(stderr, "out of memory\n");
+		abort();
+	}
+	array->length = length;
+	array->elementSize = elementSize;
+	return array;
+}
+
+static jsize fakeGetArrayLength(__unused JNIEnv *env, jarray array) {
+	return ((FakeArray *) array)->length;
+}
+
+static bool isFakeRegionValid(jarray array, jsize start, jsize length) {
+	const FakeArray *fakeArray = (const FakeArray *) array;
+	if (start < 0 || length < 0 || start > fakeArray->length - length) {
+		fakeJniThrow("java/lang/ArrayIndexOutOfBoundsException");
+		return false;
+	}
+	return true;
+}
+
+static void fakeGetByteArrayRegion(__unused JNIEnv *env, jbyteArray array, jsize start, jsize length, jbyte *buffer) {
+	if (fakeJni.byteArrayRegionFailureCountdown == 0) {
+		fakeJni.byteArrayRegionFailureCountdown = -1;
+		fakeJniThrow("java/lang/ArrayIndexOutOfBoundsException");
+		return;
+	}
+	if (fakeJni.byteArrayRegionFailureCountdown > 0)
+		fakeJni.byteArrayRegionFailureCountdown--;
+	if (isFakeRegionValid(array, start, length))
+		memcpy(buffer, ((FakeArray *) array)->elements + start, (size_t) length);
+}
+
+static void fakeGetLongArrayRegion(__unused JNIEnv *env, jlongArray array, jsize start, jsize length, jlong *buffer) {
+	if (isFakeRegionValid(array, start, length))
+		memcpy(buffer, ((FakeArray *) array)->elements + start * sizeof(jlong), length * sizeof(jlong));
+}
+
+static void fakeSetIntArrayRegion(__unused JNIEnv *env, jintArray array, jsize start, jsize length,
+                                  const jint *buffer) {
+	if (isFakeRegionValid(array, start, length))
+		memcpy(((FakeArray *) array)->elements + start * sizeof(jint), buffer, length * sizeof(jint));
+}
+
+static void fakeSetLongArrayRegion(__unused JNIEnv *env, jlongArray array, jsize start, jsize length,
+                                   const jlong *buffer) {
+	if (isFakeRegionValid(array, start, length))
+		memcpy(((FakeArray *) array)->elements + start * sizeof(jlong), buffer, length * sizeof(jlong));
+}
+
+static jbyte *fakeGetByteArrayElements(__unused JNIEnv *env, jbyteArray array, jboolean *isCopy) {
+	if (isCopy != NULL)
+		*isCopy = JNI_FALSE;
+	return (jbyte *) ((FakeArray *) array)->elements;
+}
+
+static void fakeReleaseByteArrayElements(__unused JNIEnv *env, __unused jbyteArray array, __unused jbyte *elements,
+                                         __unused jint mode) {
+}
+
+static jint *fakeGetIntArrayElements(__unused JNIEnv *env, jintArray array, jboolean *isCopy) {
+	if (isCopy != NULL)
+		*isCopy = JNI_FALSE;
+	return (jint *) ((FakeArray *) array)->elements;
+}
+
+static void fakeReleaseIntArrayElements(__unused JNIEnv *env, __unused jintArray array, __unused jint *elements,
+                                        __unused jint mode) {
+}
+
+static jintArray fakeNewIntArray(__unused JNIEnv *env, jsize length) {
+	return (jintArray) newFakeArray(length, sizeof(jint));
+}
+
+static jlongArray fakeNewLongArray(__unused JNIEnv *env, jsize length) {
+	return (jlongArray) newFakeArray(length, sizeof(jlong));
+}
+
+static jbyteArray fakeNewByteArray(__unused JNIEnv *env, jsize length) {
+	return (jbyteArray) newFakeArray(length, sizeof(jbyte));
+}
+
+static const char *fakeGetStringUTFChars(__unused JNIEnv *env, jstring string, jboolean *isCopy) {
+	if (isCopy != NULL)
+		*isCopy = JNI_FALSE;
+	return (const char *) string;
+}
+
+static void fakeReleaseStringUTFChars(__unused JNIEnv *env, __unused jstring string, __unused const char *chars) {
+}
+
+/**
+ * @return environment with no pending exception
+ */
+static inline JNIEnv *initFakeJni(void) {
+	void **slots = (void **) &fakeJni.functions;
+	size_t i;
+	for (i = 0; i < sizeof(fakeJni.functions) / sizeof(void *); i++)
+		slots[i] = (void *) fakeJniUnsupported;
+	struct JNINativeInterface_ *functions = &fakeJni.functions;
+	functions->ExceptionCheck = fakeExceptionCheck;
+	functions->ExceptionClear = fakeExceptionClear;
+	functions->FindClass = fakeFindClass;
+	functions->ThrowNew = fakeThrowNew;
+	functions->Throw = fakeThrow;
+	functions->GetMethodID = fakeGetMethodID;
+	functions->NewObject = fakeNewObject;
+	functions->NewGlobalRef = fakeNewRef;
+	functions->DeleteGlobalRef = fakeDeleteRef;
+	functions->DeleteLocalRef = fakeDeleteRef;
+	functions->GetArrayLength = fakeGetArrayLength;
+	functions->GetByteArrayRegion = fakeGetByteArrayRegion;
+	functions->GetLongArrayRegion = fakeGetLongArrayRegion;
+	functions->SetIntArrayRegion = fakeSetIntArrayRegion;
+	functions->SetLongArrayRegion = fakeSetLongArrayRegion;
+	functions->GetByteArrayElements = fakeGetByteArrayElements;
+	functions->ReleaseByteArrayElements = fakeReleaseByteArrayElements;
+	functions->GetIntArrayElements = fakeGetIntArrayElements;
+	functions->ReleaseIntArrayElements = fakeReleaseIntArrayElements;
+	functions->NewIntArray = fakeNewIntArray;
+	functions->NewLongArray = fakeNewLongArray;
+	functions->NewByteArray = fakeNewByteArray;
+	functions->GetStringUTFChars = fakeGetStringUTFChars;
+	functions->ReleaseStringUTFChars = fakeReleaseStringUTFChars;
+	fakeJni.env = functions;
+	fakeJni.pendingException = NULL;
+	fakeJni.byteArrayRegionFailureCountdown = -1;
+	return &fakeJni.env;
+}
+
+/**
+ * @return array holding copy of the bytes, it should be freed by the caller
+ */
+static inline jbyteArray newFakeByteArray(const void *bytes, size_t length) {
+	FakeArray *array = newFakeArray((jsize) length, sizeof(jbyte));
+	memcpy(array->elements, bytes, length);
+	return (jbyteArray) array;
+}
+
+/**
+ * Takes the pending exception.
+ * @return class name of the exception, NULL if there was none
+ */
+static inline const char *takeFakeException(void) {
+	const char *className = fakeJni.pendingException;
+	fakeJni.pendingException = NULL;
+	return className;
+}
+
+#endif
@@ -0,0 +1,331 @@
+/**
+ * Plays GIFs with wall clock playback through GifInfoHandle.renderFrame while time comes from
+ * a fake clock, so late rendering is reproduced exactly. Each GIF is played by scripted cases:
+ * lag shorter than a frame, lag covering a few frames, lag reaching the last frame of the loop
+ * and lag longer than the rest of the loop, then by random lags compared with a model of the
+ * schedule. Presented canvases are compared with the ones of sequential playback of the same GIF,
+ * with and without animation cache. bitmap.c and time.c are built into this file, the former on
+ * the stub NDK header from ndk/android/bitmap.h, the latter reading the fake clock.
+ *
+ * Usage: frame_skip_test file.gif...
+ */
+#include <limits.h>
+#include "test.h"
+#include "fake_jni.h"
+#include "gif.h"
+
+static long fakeClockMillis;
+
+#define clock_gettime(clockId, ts) \
+	((void) (clockId), (ts)->tv_sec = fakeClockMillis / 1000, (ts)->tv_nsec = fakeClockMillis % 1000 * 1000000L)
+#include "time.c"
+#undef clock_gettime
+#include "bitmap.c"
+
+#define CLOCK_START_MILLIS 1000000L
+#define RANDOM_RENDER_COUNT 300
+#define ANIMATION_CACHE_BUDGET (1 << 30)
+
+jlong Java_com_zing_zalo_gifplayer_GifInfoHandle_openByteArray(JNIEnv *env, jclass handleClass, jbyteArray bytes,
+                                                               jboolean justDecodeMetaData, jint maxSize);
+
+void Java_com_zing_zalo_gifplayer_GifInfoHandle_free(JNIEnv *env, jclass handleClass, jlong gifInfo);
+
+void Java_com_zing_zalo_gifplayer_GifInfoHandle_setRealTimePlayback(JNIEnv *env, jclass handleClass, jlong gifInfo,
+                                                                    jboolean isRealTime);
+
+void Java_com_zing_zalo_gifplayer_GifInfoHandle_setAnimationCache(JNIEnv *env, jclass handleClass, jlong gifInfo,
+                                                                   jint budget);
+
+/**
+ * Bitmap passed to renderFrame as jobject.
+ */
+typedef struct {
+	AndroidBitmapInfo info;
+	argb *pixels;
+} TestBitmap;
+
+int AndroidBitmap_getInfo(__unused JNIEnv *env, jobject jbitmap, AndroidBitmapInfo *info) {
+	*info = ((TestBitmap *) jbitmap)->info;
+	return ANDROID_BITMAP_RESULT_SUCCESS;
+}
+
+int AndroidBitmap_lockPixels(__unused JNIEnv *env, jobject jbitmap, void **addrPtr) {
+	*addrPtr = ((TestBitmap *) jbitmap)->pixels;
+	return ANDROID_BITMAP_RESULT_SUCCESS;
+}
+
+int AndroidBitmap_unlockPixels(__unused JNIEnv *env, __unused jobject jbitmap) {
+	return ANDROID_BITMAP_RESULT_SUCCESS;
+}
+
+/**
+ * Expected schedule of wall clock playback: late frames are skipped within the current loop,
+ * except the last one, and nothing is skipped if lag exceeds the rest of the loop.
+ */
+typedef struct {
+	uint_fast32_t nextIndex;
+	long long nextStartTime;
+	uint_fast32_t droppedFrameCount;
+} ScheduleModel;
+
+typedef struct {
+	const char *name;
+	JNIEnv *env;
+	jlong handle;
+	GifInfo *info;
+	TestBitmap bitmap;
+	/**
+	 * Canvases of sequential playback for all the frames
+	 */
+	const argb *references;
+	ScheduleModel model;
+} SkipPlayer;
+
+static unsigned long checkCount;
+
+static uint_fast32_t getDuration(const GifInfo *info, uint_fast32_t index) {
+	return info->controlBlock[index].DelayTime;
+}
+
+/**
+ * Advances the model like renderFrame called at the current fake time.
+ * @return expected invalidation delay, the presented frame index is stored in presentedIndex
+ */
+static long long renderModelFrame(ScheduleModel *model, const GifInfo *info, uint_fast32_t *presentedIndex) {
+	const uint_fast32_t lastIndex = (uint_fast32_t) info->gifFilePtr->ImageCount - 1;
+	long long scheduledTime = fakeClockMillis;
+	if (model->nextStartTime != 0 && model->nextStartTime < fakeClockMillis) {
+		long long lag = fakeClockMillis - model->nextStartTime;
+		long long loopRemainder = 0;
+		uint_fast32_t i;
+		for (i = model->nextIndex; i <= lastIndex; i++)
+			loopRemainder += getDuration(info, i);
+		if (lag < loopRemainder) {
+			while (model->nextIndex < lastIndex && lag >= (long long) getDuration(info, model->nextIndex)) {
+				lag -= getDuration(info, model->nextIndex);
+				model->nextIndex++;
+				model->droppedFrameCount++;
+			}
+			scheduledTime -= lag;
+		}
+	}
+	*presentedIndex = model->nextIndex;
+	const long long duration = getDuration(info, model->nextIndex);
+	model->nextStartTime = scheduledTime + duration;
+	model->nextIndex = model->nextIndex < lastIndex ? model->nextIndex + 1 : 0;
+	const long long delay = duration - (fakeClockMillis - scheduledTime);
+	return delay > 0 ? delay : 0;
+}
+
+static bool openSkipPlayer(SkipPlayer *player, const char *name, jbyteArray bytes) {
+	player->name = name;
+	player->env = initFakeJni();
+	player->handle = Java_com_zing_zalo_gifplayer_GifInfoHandle_openByteArray(player->env, NULL, bytes, JNI_FALSE,
+	                                                                           INT_MAX);
+	player->info = (GifInfo *) (intptr_t) player->handle;
+	player->bitmap.pixels = NULL;
+	player->model = (ScheduleModel) {0, 0, 0};
+	if (player->info == NULL)
+		return false;
+	const GifFileType *gifFile = player->info->gifFilePtr;
+	player->bitmap.info = (AndroidBitmapInfo) {
+			.width = (uint32_t) gifFile->SWidth,
+			.height = (uint32_t) gifFile->SHeight,
+			.stride = (uint32_t) (gifFile->SWidth * sizeof(argb)),
+			.format = ANDROID_BITMAP_FORMAT_RGBA_8888
+	};
+	player->bitmap.pixels = calloc((size_t) gifFile->SWidth * gifFile->SHeight, sizeof(argb));
+	//endless loop and distinct durations, so any skipped or repeated frame shifts the schedule
+	player->info->loopCount = 0;
+	uint_fast32_t i;
+	for (i = 0; i < (uint_fast32_t) gifFile->ImageCount; i++)
+		player->info->controlBlock[i].DelayTime = 40 + 10 * (i % 7);
+	return player->bitmap.pixels != NULL;
+}
+
+static void closeSkipPlayer(SkipPlayer *player) {
+	Java_com_zing_zalo_gifplayer_GifInfoHandle_free(player->env, NULL, player->handle);
+	free(player->bitmap.pixels);
+}
+
+/**
+ * @return canvases of all the frames rendered one by one, NULL if the GIF cannot be opened
+ */
+static argb *renderSequentially(const char *name, jbyteArray bytes) {
+	SkipPlayer player;
+	if (!openSkipPlayer(&player, name, bytes)) {
+		closeSkipPlayer(&player);
+		return NULL;
+	}
+	const size_t canvasLength = (size_t) player.info->gifFilePtr->SWidth * player.info->gifFilePtr->SHeight;
+	const uint_fast32_t frameCount = (uint_fast32_t) player.info->gifFilePtr->ImageCount;
+	argb *references = malloc(canvasLength * frameCount * sizeof(argb));
+	uint_fast32_t i;
+	for (i = 0; references != NULL && i < frameCount; i++) {
+		Java_com_zing_zalo_gifplayer_GifInfoHandle_renderFrame(player.env, NULL, player.handle,
+		                                                      (jobject) &player.bitmap);
+		memcpy(references + i * canvasLength, player.bitmap.pixels, canvasLength * sizeof(argb));
+	}
+	closeSkipPlayer(&player);
+	return references;
+}
+
+/**
+ * Renders frame at the current fake time and checks it against the model.
+ */
+static void renderAndCheck(SkipPlayer *player, const char *scenario) {
+	uint_fast32_t expectedIndex;
+	const long long expectedDelay = renderModelFrame(&player->model, player->info, &expectedIndex);
+	const jlong delay = Java_com_zing_zalo_gifplayer_GifInfoHandle_renderFrame(player->env, NULL, player->handle,
+	                                                                          (jobject) &player->bitmap);
+	const uint_fast32_t frameCount = (uint_fast32_t) player->info->gifFilePtr->ImageCount;
+	const uint_fast32_t presentedIndex = (player->info->currentIndex + frameCount - 1) % frameCount;
+	checkCount++;
+	EXPECT(presentedIndex == expectedIndex, "%s %s: frame %u presented instead of %u", player->name, scenario,
+	       (unsigned) presentedIndex, (unsigned) expectedIndex);
+	checkCount++;
+	EXPECT(delay == expectedDelay, "%s %s: frame %u delay %lld instead of %lld", player->name, scenario,
+	       (unsigned) presentedIndex, (long long) delay, expectedDelay);
+	checkCount++;
+	EXPECT(player->info->droppedFrameCount == player->model.droppedFrameCount,
+	       "%s %s: %u frames dropped instead of %u", player->name, scenario,
+	       (unsigned) player->info->droppedFrameCount, (unsigned) player->model.droppedFrameCount);
+	const size_t canvasLength = (size_t) player->info->gifFilePtr->SWidth * player->info->gifFilePtr->SHeight;
+	checkCount++;
+	EXPECT(memcmp(player->bitmap.pixels, player->references + presentedIndex * canvasLength,
+	              canvasLength * sizeof(argb)) == 0, "%s %s: frame %u differs from sequential playback",
+	       player->name, scenario, (unsigned) presentedIndex);
+}
+
+/**
+ * @return sum of durations of frames from the first index up to, but not including, the end one
+ */
+static long getDurationSum(const GifInfo *info, uint_fast32_t first, uint_fast32_t end) {
+	long sum = 0;
+	for (; first < end; first++)
+		sum += (long) getDuration(info, first);
+	return sum;
+}
+
+/**
+ * Starts the loop on time, so the next frame to be rendered is the second one.
+ */
+static void startLoop(SkipPlayer *player) {
+	while (player->model.nextIndex != 0) {
+		fakeClockMillis = player->model.nextStartTime;
+		renderAndCheck(player, "loop start");
+	}
+	fakeClockMillis = player->model.nextStartTime != 0 ? player->model.nextStartTime : fakeClockMillis;
+	renderAndCheck(player, "loop start");
+}
+
+static void playScriptedCases(SkipPlayer *player) {
+	const GifInfo *info = player->info;
+	const uint_fast32_t lastIndex = (uint_fast32_t) info->gifFilePtr->ImageCount - 1;
+
+	startLoop(player);
+	fakeClockMillis = player->model.nextStartTime + (long) getDuration(info, 1) - 1;
+	renderAndCheck(player, "lag shorter than frame");
+	const uint_fast32_t droppedBeforeSkip = player->model.droppedFrameCount;
+
+	startLoop(player);
+	fakeClockMillis = player->model.nextStartTime + getDurationSum(info, 1, lastIndex) - 1;
+	renderAndCheck(player, "lag covering frames");
+	checkCount++;
+	EXPECT(player->info->droppedFrameCount == droppedBeforeSkip + lastIndex - 2,
+	       "%s: %u frames dropped by lag covering frames", player->name,
+	       (unsigned) (player->info->droppedFrameCount - droppedBeforeSkip));
+
+	startLoop(player);
+	fakeClockMillis = player->model.nextStartTime + getDurationSum(info, 1, lastIndex + 1) - 1;
+	renderAndCheck(player, "lag reaching last frame");
+	checkCount++;
+	EXPECT(player->model.nextIndex == 0, "%s: last frame skipped", player->name);
+
+	startLoop(player);
+	const uint_fast32_t droppedBeforePause = player->model.droppedFrameCount;
+	fakeClockMillis = player->model.nextStartTime + getDurationSum(info, 1, lastIndex + 1);
+	renderAndCheck(player, "lag longer than loop remainder");
+	checkCount++;
+	EXPECT(player->info->droppedFrameCount == droppedBeforePause, "%s: frames dropped after pause", player->name);
+}
+
+static void playRandomLags(SkipPlayer *player, TestRandom *random) {
+	unsigned i;
+	for (i = 0; i < RANDOM_RENDER_COUNT; i++) {
+		//mostly on time or slightly late, sometimes late by several frames or paused
+		const uint32_t kind = randomBelow(random, 10);
+		long lag = 0;
+		if (kind >= 5 && kind < 8)
+			lag = (long) randomBelow(random, 100);
+		else if (kind == 8)
+			lag = (long) randomBelow(random, 400);
+		else if (kind == 9)
+			lag = (long) randomBelow(random, 5000);
+		fakeClockMillis = player->model.nextStartTime + lag;
+		renderAndCheck(player, "random lag");
+	}
+}
+
+static void verifyGif(const char *path, TestRandom *random) {
+	TestBytes gif = {0};
+	checkCount++;
+	if (!readWholeFile(path, &gif)) {
+		EXPECT(false, "cannot read %s", path);
+		return;
+	}
+	const jbyteArray bytes = newFakeByteArray(gif.bytes, gif.length);
+	argb *references = renderSequentially(path, bytes);
+	checkCount++;
+	EXPECT(references != NULL, "cannot open %s", path);
+
+	static const struct {
+		const char *name;
+		bool isAnimationCached;
+	} scenarios[] = {
+			{"decoding", false},
+			{"animation cache", true},
+	};
+	size_t s;
+	for (s = 0; references != NULL && s < sizeof(scenarios) / sizeof(scenarios[0]); s++) {
+		SkipPlayer player;
+		char name[PATH_MAX + 32];
+		snprintf(name, sizeof(name), "%s %s", path, scenarios[s].name);
+		checkCount++;
+		if (!openSkipPlayer(&player, name, bytes) || player.info->gifFilePtr->ImageCount < 3) {
+			EXPECT(player.info != NULL, "cannot open %s", path);
+			closeSkipPlayer(&player);
+			continue;
+		}
+		player.references = references;
+		Java_com_zing_zalo_gifplayer_GifInfoHandle_setRealTimePlayback(player.env, NULL, player.handle, JNI_TRUE);
+		if (scenarios[s].isAnimationCached)
+			Java_com_zing_zalo_gifplayer_GifInfoHandle_setAnimationCache(player.env, NULL, player.handle,
+			                                                             ANIMATION_CACHE_BUDGET);
+		fakeClockMillis = CLOCK_START_MILLIS;
+		playScriptedCases(&player);
+		playRandomLags(&player, random);
+		if (scenarios[s].isAnimationCached) {
+			checkCount++;
+			EXPECT(isAnimationCached(player.info), "%s: animation is not cached", name);
+		}
+		checkCount++;
+		EXPECT(takeFakeException() == NULL, "%s: exception thrown", name);
+		closeSkipPlayer(&player);
+	}
+	free(references);
+	free(bytes);
+	free(gif.bytes);
+}
+
+int main(int argc, char **argv) {
+	TestRandom random;
+	seedRandom(&random, 19);
+	int i;
+	for (i = 1; i < argc; i++)
+		verifyGif(argv[i], &random);
+	checkCount++;
+	EXPECT(argc > 1, "no GIFs given");
+	return finishTest("frame_skip_test", checkCount);
+}
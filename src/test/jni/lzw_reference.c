@@ -0,0 +1,253 @@
+#include <string.h>
+#include "giflib/gif_lib.h"
+#include "lzw_reference.h"
+
+#define LZ_BITS 12
+#define NO_SUCH_CODE 4098
+
+static size_t referenceRead(ReferenceLzw *lzw, uint8_t *bytes, size_t size) {
+	if (lzw->pos >= lzw->length)
+		return 0;
+	if (size > lzw->length - lzw->pos)
+		size = lzw->length - lzw->pos;
+	memcpy(bytes, lzw->bytes + lzw->pos, size);
+	lzw->pos += size;
+	return size;
+}
+
+int referenceLzwSetup(ReferenceLzw *lzw, const uint8_t *bytes, size_t length, size_t pos, uint_fast32_t pixelCount) {
+	int i;
+	uint8_t CodeSize = 0;
+
+	lzw->bytes = bytes;
+	lzw->length = length;
+	lzw->pos = pos;
+	lzw->Error = 0;
+	lzw->PixelCount = pixelCount;
+	referenceRead(lzw, &CodeSize, 1);
+
+	if (CodeSize > 8) {
+		lzw->Error = D_GIF_ERR_READ_FAILED;
+		return GIF_ERROR;
+	}
+
+	lzw->Buf[0] = 0;
+	lzw->BitsPerPixel = CodeSize;
+	lzw->ClearCode = (1 << CodeSize);
+	lzw->EOFCode = lzw->ClearCode + 1;
+	lzw->RunningCode = lzw->EOFCode + 1;
+	lzw->RunningBits = CodeSize + 1;
+	lzw->MaxCode1 = 1 << lzw->RunningBits;
+	lzw->StackPtr = 0;
+	lzw->LastCode = NO_SUCH_CODE;
+	lzw->CrntShiftState = 0;
+	lzw->CrntShiftDWord = 0;
+
+	for (i = 0; i <= REFERENCE_LZ_MAX_CODE; i++)
+		lzw->Prefix[i] = NO_SUCH_CODE;
+
+	return GIF_OK;
+}
+
+static int referenceGetCodeNext(ReferenceLzw *lzw, uint8_t **CodeBlock) {
+	uint8_t Buf;
+
+	if (referenceRead(lzw, &Buf, 1) != 1) {
+		lzw->Error = D_GIF_ERR_READ_FAILED;
+		return GIF_ERROR;
+	}
+
+	if (Buf > 0) {
+		*CodeBlock = lzw->Buf;
+		(*CodeBlock)[0] = Buf;
+		if (referenceRead(lzw, &((*CodeBlock)[1]), Buf) != Buf) {
+			lzw->Error = D_GIF_ERR_READ_FAILED;
+			return GIF_ERROR;
+		}
+	} else {
+		*CodeBlock = NULL;
+		lzw->Buf[0] = 0;
+		lzw->PixelCount = 0;
+	}
+
+	return GIF_OK;
+}
+
+static int referenceGetPrefixChar(const unsigned int *Prefix, int Code, int ClearCode) {
+	int i = 0;
+
+	while (Code > ClearCode && i++ <= REFERENCE_LZ_MAX_CODE) {
+		if (Code > REFERENCE_LZ_MAX_CODE) {
+			return NO_SUCH_CODE;
+		}
+		Code = Prefix[Code];
+	}
+	return Code;
+}
+
+static int referenceBufferedInput(ReferenceLzw *lzw, uint8_t *Buf, uint8_t *NextByte) {
+	if (Buf[0] == 0) {
+		if (referenceRead(lzw, Buf, 1) != 1) {
+			lzw->Error = D_GIF_ERR_READ_FAILED;
+			return GIF_ERROR;
+		}
+		if (Buf[0] == 0) {
+			lzw->Error = D_GIF_ERR_IMAGE_DEFECT;
+			return GIF_ERROR;
+		}
+		if (referenceRead(lzw, &Buf[1], Buf[0]) != Buf[0]) {
+			lzw->Error = D_GIF_ERR_READ_FAILED;
+			return GIF_ERROR;
+		}
+		*NextByte = Buf[1];
+		Buf[1] = 2;
+		Buf[0]--;
+	} else {
+		*NextByte = Buf[Buf[1]++];
+		Buf[0]--;
+	}
+
+	return GIF_OK;
+}
+
+static int referenceDecompressInput(ReferenceLzw *lzw, int *Code) {
+	static const unsigned short CodeMasks[] = {
+			0x0000, 0x0001, 0x0003, 0x0007,
+			0x000f, 0x001f, 0x003f, 0x007f,
+			0x00ff, 0x01ff, 0x03ff, 0x07ff,
+			0x0fff
+	};
+	uint8_t NextByte;
+
+	if (lzw->RunningBits > LZ_BITS) {
+		lzw->Error = D_GIF_ERR_IMAGE_DEFECT;
+		return GIF_ERROR;
+	}
+
+	while (lzw->CrntShiftState < lzw->RunningBits) {
+		if (referenceBufferedInput(lzw, lzw->Buf, &NextByte) == GIF_ERROR) {
+			return GIF_ERROR;
+		}
+		lzw->CrntShiftDWord |= ((unsigned long) NextByte) << lzw->CrntShiftState;
+		lzw->CrntShiftState += 8;
+	}
+	*Code = (int) (lzw->CrntShiftDWord & CodeMasks[lzw->RunningBits]);
+
+	lzw->CrntShiftDWord >>= lzw->RunningBits;
+	lzw->CrntShiftState -= lzw->RunningBits;
+
+	if (lzw->RunningCode < REFERENCE_LZ_MAX_CODE + 2 &&
+	    ++lzw->RunningCode > lzw->MaxCode1 &&
+	    lzw->RunningBits < LZ_BITS) {
+		lzw->MaxCode1 <<= 1;
+		lzw->RunningBits++;
+	}
+	return GIF_OK;
+}
+
+static int referenceDecompressLine(ReferenceLzw *lzw, uint8_t *Line, uint_fast32_t LineLen) {
+	uint_fast32_t i = 0;
+	int j;
+	int CrntCode, EOFCode, ClearCode, CrntPrefix, LastCode, StackPtr;
+	uint8_t *Stack, *Suffix;
+	unsigned int *Prefix;
+
+	StackPtr = lzw->StackPtr;
+	Prefix = lzw->Prefix;
+	Suffix = lzw->Suffix;
+	Stack = lzw->Stack;
+	EOFCode = lzw->EOFCode;
+	ClearCode = lzw->ClearCode;
+	LastCode = lzw->LastCode;
+
+	if (StackPtr > REFERENCE_LZ_MAX_CODE) {
+		return GIF_ERROR;
+	}
+
+	if (StackPtr != 0) {
+		while (StackPtr != 0 && i < LineLen)
+			Line[i++] = Stack[--StackPtr];
+	}
+
+	while (i < LineLen) {
+		if (referenceDecompressInput(lzw, &CrntCode) == GIF_ERROR)
+			return GIF_ERROR;
+
+		if (CrntCode == EOFCode) {
+			lzw->Error = D_GIF_ERR_EOF_TOO_SOON;
+			return GIF_ERROR;
+		} else if (CrntCode == ClearCode) {
+			for (j = 0; j <= REFERENCE_LZ_MAX_CODE; j++)
+				Prefix[j] = NO_SUCH_CODE;
+			lzw->RunningCode = lzw->EOFCode + 1;
+			lzw->RunningBits = lzw->BitsPerPixel + 1;
+			lzw->MaxCode1 = 1 << lzw->RunningBits;
+			LastCode = lzw->LastCode = NO_SUCH_CODE;
+		} else {
+			if (CrntCode < ClearCode) {
+				Line[i++] = (uint8_t) CrntCode;
+			} else {
+				if (Prefix[CrntCode] == NO_SUCH_CODE) {
+					if (CrntCode == lzw->RunningCode - 2) {
+						CrntPrefix = LastCode;
+						Suffix[lzw->RunningCode - 2] =
+						Stack[StackPtr++] = (uint8_t) referenceGetPrefixChar(Prefix, LastCode, ClearCode);
+					} else {
+						lzw->Error = D_GIF_ERR_IMAGE_DEFECT;
+						return GIF_ERROR;
+					}
+				} else
+					CrntPrefix = CrntCode;
+
+				while (StackPtr < REFERENCE_LZ_MAX_CODE &&
+				       CrntPrefix > ClearCode && CrntPrefix <= REFERENCE_LZ_MAX_CODE) {
+					Stack[StackPtr++] = Suffix[CrntPrefix];
+					CrntPrefix = Prefix[CrntPrefix];
+				}
+				if (StackPtr >= REFERENCE_LZ_MAX_CODE || CrntPrefix > REFERENCE_LZ_MAX_CODE) {
+					lzw->Error = D_GIF_ERR_IMAGE_DEFECT;
+					return GIF_ERROR;
+				}
+				Stack[StackPtr++] = (uint8_t) CrntPrefix;
+
+				while (StackPtr != 0 && i < LineLen)
+					Line[i++] = Stack[--StackPtr];
+			}
+			if (LastCode != NO_SUCH_CODE && Prefix[lzw->RunningCode - 2] == NO_SUCH_CODE) {
+				Prefix[lzw->RunningCode - 2] = (unsigned int) LastCode;
+
+				if (CrntCode == lzw->RunningCode - 2) {
+					Suffix[lzw->RunningCode - 2] = (uint8_t) referenceGetPrefixChar(Prefix, LastCode, ClearCode);
+				} else {
+					Suffix[lzw->RunningCode - 2] = (uint8_t) referenceGetPrefixChar(Prefix, CrntCode, ClearCode);
+				}
+			}
+			LastCode = CrntCode;
+		}
+	}
+
+	lzw->LastCode = LastCode;
+	lzw->StackPtr = StackPtr;
+
+	return GIF_OK;
+}
+
+int referenceLzwGetLine(ReferenceLzw *lzw, uint8_t *line, uint_fast32_t lineLength) {
+	uint8_t *Dummy;
+
+	if ((lzw->PixelCount -= lineLength) > 0xffff0000UL) {
+		lzw->Error = D_GIF_ERR_DATA_TOO_BIG;
+		return GIF_ERROR;
+	}
+
+	if (referenceDecompressLine(lzw, line, lineLength) == GIF_OK) {
+		if (lzw->PixelCount == 0) {
+			do
+				if (referenceGetCodeNext(lzw, &Dummy) == GIF_ERROR)
+					return GIF_ERROR;
+			while (Dummy != NULL);
+		}
+		return GIF_OK;
+	} else
+		return GIF_ERROR;
+}
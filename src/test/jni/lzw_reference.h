@@ -0,0 +1,43 @@
+/**
+ * LZW decoder of stock giflib, which walks prefix chains one pixel at a time. It is kept as the
+ * reference the decoder in giflib/dgif_lib.c is compared against, bit for bit.
+ */
+#ifndef LZW_REFERENCE_H
+#define LZW_REFERENCE_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+#define REFERENCE_LZ_MAX_CODE 4095
+
+typedef struct {
+	const uint8_t *bytes;
+	size_t length;
+	size_t pos;
+	int BitsPerPixel, ClearCode, EOFCode, RunningCode, RunningBits, MaxCode1, LastCode, StackPtr, CrntShiftState;
+	unsigned long CrntShiftDWord;
+	uint_fast32_t PixelCount;
+	uint8_t Buf[256];
+	uint8_t Stack[REFERENCE_LZ_MAX_CODE];
+	uint8_t Suffix[REFERENCE_LZ_MAX_CODE + 1];
+	unsigned int Prefix[REFERENCE_LZ_MAX_CODE + 1];
+	/**
+	 * giflib error code of the last failure
+	 */
+	int Error;
+} ReferenceLzw;
+
+/**
+ * Starts decoding image data beginning with the LZW code size byte at pos, like
+ * DGifGetImageDesc does after reading the descriptor.
+ * @return GIF_OK or GIF_ERROR
+ */
+int referenceLzwSetup(ReferenceLzw *lzw, const uint8_t *bytes, size_t length, size_t pos, uint_fast32_t pixelCount);
+
+/**
+ * Decodes next lineLength pixels, like DGifGetLine does.
+ * @return GIF_OK or GIF_ERROR
+ */
+int referenceLzwGetLine(ReferenceLzw *lzw, uint8_t *line, uint_fast32_t lineLength);
+
+#endif
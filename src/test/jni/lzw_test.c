@@ -0,0 +1,616 @@
+/**
+ * Compares LZW decoder of giflib/dgif_lib.c with the stock giflib one kept in lzw_reference.c.
+ * Images are decoded by both, in the same portions the library uses: whole image at once,
+ * row by row, interlaced row order and strips reused like DGifGetScratchLine callers do.
+ * Pixels, results, error codes and source positions have to be identical after every call.
+ *
+ * Usage: lzw_test [file.gif...]       generated, corrupted and given GIFs are compared
+ *        lzw_test bench [file.gif...] decoding time of generated and given GIFs is measured
+ */
+#include "test.h"
+#include "lzw_reference.h"
+
+#define LZ_MAX_CODE 4095
+#define MAX_IMAGE_COUNT 64
+#define MAX_PIXEL_COUNT (16 * 1024 * 1024)
+#define GENERATED_GIF_COUNT 400
+#define CORRUPTIONS_PER_GIF 8
+#define DICTIONARY_SIZE 8192
+
+typedef enum {
+	CLEAR_WHEN_FULL,
+	CLEAR_DEFERRED,
+	CLEAR_EARLY,
+	CLEAR_POLICY_COUNT
+} ClearPolicy;
+
+typedef enum {
+	PATTERN_NOISE,
+	PATTERN_RUNS,
+	PATTERN_FLAT,
+	PATTERN_STRIPES,
+	PATTERN_COUNT
+} PixelPattern;
+
+typedef enum {
+	MODE_WHOLE,
+	MODE_ROWS,
+	MODE_INTERLACED,
+	MODE_SCRATCH,
+	MODE_COUNT
+} LineMode;
+
+static const char *const MODE_NAMES[MODE_COUNT] = {"whole", "rows", "interlaced", "scratch"};
+
+/**
+ * Location of the image in GIF data.
+ */
+typedef struct {
+	size_t descriptorPos;
+	size_t codeSizePos;
+	uint_fast32_t width;
+	uint_fast32_t height;
+} ImageRecord;
+
+/**
+ * Writes codes into data sub-blocks, code size grows exactly like in the decoder.
+ */
+typedef struct {
+	TestBytes *out;
+	TestRandom *random;
+	uint8_t block[255];
+	size_t blockLength;
+	size_t blockCapacity;
+	uint64_t bits;
+	unsigned bitCount;
+	unsigned codeSize;
+	unsigned runningCode;
+	unsigned runningBits;
+	unsigned maxCode1;
+} CodeWriter;
+
+/**
+ * Strings known to the encoder, entries of older generations are treated as empty.
+ */
+typedef struct {
+	uint32_t keys[DICTIONARY_SIZE];
+	uint16_t codes[DICTIONARY_SIZE];
+	uint32_t generations[DICTIONARY_SIZE];
+	uint32_t generation;
+} Dictionary;
+
+static Dictionary dictionary;
+static unsigned long checkCount;
+
+static void chooseBlockCapacity(CodeWriter *writer) {
+	writer->blockCapacity = randomBelow(writer->random, 4) == 0 ? 1 + randomBelow(writer->random, 255) : 255;
+}
+
+static void flushBlock(CodeWriter *writer) {
+	if (writer->blockLength == 0)
+		return;
+	appendByte(writer->out, (uint8_t) writer->blockLength);
+	appendBytes(writer->out, writer->block, writer->blockLength);
+	writer->blockLength = 0;
+	chooseBlockCapacity(writer);
+}
+
+static void putDataByte(CodeWriter *writer, uint8_t byte) {
+	writer->block[writer->blockLength++] = byte;
+	if (writer->blockLength == writer->blockCapacity)
+		flushBlock(writer);
+}
+
+static void resetCodeSize(CodeWriter *writer) {
+	writer->runningCode = (1U << writer->codeSize) + 2;
+	writer->runningBits = writer->codeSize + 1;
+	writer->maxCode1 = 1U << writer->runningBits;
+}
+
+static void writeCode(CodeWriter *writer, unsigned code) {
+	writer->bits |= (uint64_t) code << writer->bitCount;
+	writer->bitCount += writer->runningBits;
+	while (writer->bitCount >= 8) {
+		putDataByte(writer, (uint8_t) writer->bits);
+		writer->bits >>= 8;
+		writer->bitCount -= 8;
+	}
+	if (writer->runningCode < LZ_MAX_CODE + 2 && ++writer->runningCode > writer->maxCode1 && writer->runningBits < 12) {
+		writer->maxCode1 <<= 1;
+		writer->runningBits++;
+	}
+	if (code == 1U << writer->codeSize)
+		resetCodeSize(writer);
+}
+
+static int findString(uint32_t key) {
+	uint32_t slot = (key * 2654435761U) & (DICTIONARY_SIZE - 1);
+	while (dictionary.generations[slot] == dictionary.generation) {
+		if (dictionary.keys[slot] == key)
+			return dictionary.codes[slot];
+		slot = (slot + 1) & (DICTIONARY_SIZE - 1);
+	}
+	return -1;
+}
+
+static void addString(uint32_t key, unsigned code) {
+	uint32_t slot = (key * 2654435761U) & (DICTIONARY_SIZE - 1);
+	while (dictionary.generations[slot] == dictionary.generation)
+		slot = (slot + 1) & (DICTIONARY_SIZE - 1);
+	dictionary.generations[slot] = dictionary.generation;
+	dictionary.keys[slot] = key;
+	dictionary.codes[slot] = (uint16_t) code;
+}
+
+/**
+ * Appends code size byte, data sub-blocks and block terminator of LZW compressed pixels.
+ */
+static void encodeImage(TestBytes *out, const uint8_t *pixels, size_t pixelCount, unsigned codeSize,
+                        ClearPolicy policy, TestRandom *random) {
+	const unsigned clearCode = 1U << codeSize;
+	CodeWriter writer = {.out = out, .random = random, .codeSize = codeSize};
+	chooseBlockCapacity(&writer);
+	resetCodeSize(&writer);
+	appendByte(out, (uint8_t) codeSize);
+
+	dictionary.generation++;
+	unsigned nextCode = clearCode + 2;
+	//leading clear code is optional
+	if (randomBelow(random, 4) != 0)
+		writeCode(&writer, clearCode);
+	if (pixelCount > 0) {
+		unsigned prefix = pixels[0];
+		size_t i;
+		for (i = 1; i < pixelCount; i++) {
+			const uint32_t key = (prefix << 8) | pixels[i];
+			const int code = findString(key);
+			if (code >= 0) {
+				prefix = (unsigned) code;
+				continue;
+			}
+			writeCode(&writer, prefix);
+			if (nextCode <= LZ_MAX_CODE) {
+				addString(key, nextCode++);
+			} else if (policy == CLEAR_WHEN_FULL) {
+				writeCode(&writer, clearCode);
+				dictionary.generation++;
+				nextCode = clearCode + 2;
+			}
+			if (policy == CLEAR_EARLY && randomBelow(random, 300) == 0) {
+				writeCode(&writer, clearCode);
+				if (randomBelow(random, 2) == 0)
+					writeCode(&writer, clearCode);
+				dictionary.generation++;
+				nextCode = clearCode + 2;
+			}
+			prefix = pixels[i];
+		}
+		writeCode(&writer, prefix);
+	}
+	writeCode(&writer, clearCode + 1);
+	if (writer.bitCount > 0)
+		putDataByte(&writer, (uint8_t) writer.bits);
+	flushBlock(&writer);
+	appendByte(out, 0);
+}
+
+static void fillPixels(uint8_t *pixels, uint_fast32_t width, uint_fast32_t height, unsigned colorCount,
+                       PixelPattern pattern, TestRandom *random) {
+	const size_t pixelCount = (size_t) width * height;
+	size_t i = 0;
+	switch (pattern) {
+		case PATTERN_NOISE:
+			for (i = 0; i < pixelCount; i++)
+				pixels[i] = (uint8_t) randomBelow(random, colorCount);
+			break;
+		case PATTERN_RUNS:
+			while (i < pixelCount) {
+				const uint8_t color = (uint8_t) randomBelow(random, colorCount);
+				size_t runLength = 1 + randomBelow(random, 64);
+				for (; runLength > 0 && i < pixelCount; runLength--)
+					pixels[i++] = color;
+			}
+			break;
+		case PATTERN_FLAT: {
+			const uint8_t color = (uint8_t) randomBelow(random, colorCount);
+			for (i = 0; i < pixelCount; i++)
+				pixels[i] = randomBelow(random, 5000) == 0 ? (uint8_t) randomBelow(random, colorCount) : color;
+			break;
+		}
+		default: {
+			const unsigned period = 1 + randomBelow(random, 7);
+			uint_fast32_t x, y;
+			for (y = 0; y < height; y++)
+				for (x = 0; x < width; x++)
+					pixels[i++] = (uint8_t) (((x + y) % period) % colorCount);
+			break;
+		}
+	}
+}
+
+static void writeGifHeader(TestBytes *gif, uint_fast32_t width, uint_fast32_t height, unsigned colorBits,
+                           TestRandom *random) {
+	appendBytes(gif, "GIF89a", 6);
+	appendWord(gif, (uint16_t) width);
+	appendWord(gif, (uint16_t) height);
+	appendByte(gif, (uint8_t) (0x80 | (colorBits - 1)));
+	appendByte(gif, 0);
+	appendByte(gif, 0);
+	size_t i;
+	for (i = 0; i < 3U << colorBits; i++)
+		appendByte(gif, (uint8_t) nextRandom(random));
+}
+
+static void writeImage(TestBytes *gif, uint_fast32_t width, uint_fast32_t height, bool isInterlaced,
+                       unsigned codeSize, PixelPattern pattern, ClearPolicy policy, TestRandom *random) {
+	uint8_t *pixels = malloc((size_t) width * height + 1);
+	fillPixels(pixels, width, height, 1U << codeSize, pattern, random);
+	appendByte(gif, ',');
+	appendWord(gif, 0);
+	appendWord(gif, 0);
+	appendWord(gif, (uint16_t) width);
+	appendWord(gif, (uint16_t) height);
+	appendByte(gif, isInterlaced ? 0x40 : 0);
+	encodeImage(gif, pixels, (size_t) width * height, codeSize, policy, random);
+	free(pixels);
+}
+
+/**
+ * Generates GIF with a few images of random sizes, code sizes, contents and clear policies.
+ */
+static void generateGif(TestBytes *gif, TestRandom *random) {
+	const unsigned codeSize = 1 + randomBelow(random, 8);
+	const uint_fast32_t width = 1 + randomBelow(random, randomBelow(random, 8) == 0 ? 1200 : 160);
+	const uint_fast32_t height = 1 + randomBelow(random, randomBelow(random, 8) == 0 ? 600 : 160);
+	writeGifHeader(gif, width, height, codeSize, random);
+	unsigned imageCount = 1 + randomBelow(random, 3);
+	for (; imageCount > 0; imageCount--) {
+		writeImage(gif, 1 + randomBelow(random, width), 1 + randomBelow(random, height), randomBelow(random, 2) == 0,
+		           codeSize, (PixelPattern) randomBelow(random, PATTERN_COUNT),
+		           (ClearPolicy) randomBelow(random, CLEAR_POLICY_COUNT), random);
+	}
+	appendByte(gif, ';');
+}
+
+static void corruptGif(TestBytes *gif, TestRandom *random) {
+	switch (randomBelow(random, 3)) {
+		case 0: {
+			unsigned flipCount = 1 + randomBelow(random, 4);
+			for (; flipCount > 0; flipCount--)
+				gif->bytes[13 + randomBelow(random, (uint32_t) gif->length - 13)] ^= (uint8_t) (1 + randomBelow(random, 255));
+			break;
+		}
+		case 1:
+			gif->length = 13 + randomBelow(random, (uint32_t) gif->length - 13);
+			break;
+		default:
+			gif->bytes[13 + randomBelow(random, (uint32_t) gif->length - 13)] = 0;
+			break;
+	}
+}
+
+/**
+ * Finds images by walking blocks with the library, data sub-blocks are skipped without decoding.
+ */
+static size_t scanImages(const TestBytes *gif, ImageRecord *images) {
+	MemorySource source = {.bytes = gif->bytes, .length = gif->length};
+	int error;
+	GifFileType *gifFile = DGifOpen(&source, memorySourceRead, &error);
+	if (gifFile == NULL)
+		return 0;
+	size_t count = 0;
+	GifRecordType type;
+	while (count < MAX_IMAGE_COUNT && DGifGetRecordType(gifFile, &type) == GIF_OK) {
+		if (type == IMAGE_DESC_RECORD_TYPE) {
+			const size_t descriptorPos = source.pos;
+			if (descriptorPos + 9 > gif->length)
+				break;
+			const uint8_t flags = gif->bytes[descriptorPos + 8];
+			const size_t codeSizePos = descriptorPos + 9 + ((flags & 0x80) ? 3U << ((flags & 0x07) + 1) : 0);
+			const bool isDescriptorRead = DGifGetImageDesc(gifFile, false) == GIF_OK;
+			const size_t pixelCount = (size_t) gifFile->Image.Width * gifFile->Image.Height;
+			if (codeSizePos < gif->length && pixelCount > 0 && pixelCount <= MAX_PIXEL_COUNT) {
+				images[count++] = (ImageRecord) {
+						.descriptorPos = descriptorPos,
+						.codeSizePos = codeSizePos,
+						.width = gifFile->Image.Width,
+						.height = gifFile->Image.Height
+				};
+			}
+			GifByteType *block = NULL;
+			if (!isDescriptorRead)
+				break;
+			do {
+				if (DGifGetCodeNext(gifFile, &block) == GIF_ERROR)
+					goto done;
+			} while (block != NULL);
+		} else if (type == EXTENSION_RECORD_TYPE) {
+			int code;
+			GifByteType *extension;
+			if (DGifGetExtension(gifFile, &code, &extension) == GIF_ERROR)
+				break;
+			while (extension != NULL) {
+				if (DGifGetExtensionNext(gifFile, &extension) == GIF_ERROR)
+					goto done;
+			}
+		} else {
+			break;
+		}
+	}
+done:
+	DGifCloseFile(gifFile);
+	return count;
+}
+
+/**
+ * Row decoded by the call-th DGifGetLine call in interlaced order.
+ */
+static uint_fast32_t getInterlacedRow(uint_fast32_t call, uint_fast32_t height) {
+	static const uint_fast8_t offsets[] = {0, 4, 2, 1};
+	static const uint_fast8_t jumps[] = {8, 8, 4, 2};
+	uint_fast8_t pass;
+	for (pass = 0; pass < 4; pass++) {
+		const uint_fast32_t passRows = height > offsets[pass] ? (height - offsets[pass] + jumps[pass] - 1) / jumps[pass] : 0;
+		if (call < passRows)
+			return offsets[pass] + call * jumps[pass];
+		call -= passRows;
+	}
+	return 0;
+}
+
+/**
+ * Raster shared by consecutive images, like the library does.
+ */
+typedef struct {
+	uint8_t *actual;
+	uint8_t *expected;
+} Rasters;
+
+/**
+ * Decodes the image by both decoders. Rasters are reused by consecutive images, so strings
+ * remembered from previous images must not be copied from there.
+ */
+static void compareImage(const char *name, const TestBytes *gif, GifFileType *gifFile, const ImageRecord *image,
+                         size_t imageIndex, LineMode mode, const Rasters *rasters, TestRandom *random) {
+	MemorySource *source = gifFile->UserData;
+	ReferenceLzw *reference = malloc(sizeof(ReferenceLzw));
+	uint8_t *const actual = rasters->actual, *const expected = rasters->expected;
+	const uint_fast32_t width = image->width, height = image->height;
+	const size_t pixelCount = (size_t) width * height;
+	memset(actual, 0xA5, pixelCount);
+	memset(expected, 0xA5, pixelCount);
+
+	source->pos = image->descriptorPos;
+	const int setupResult = DGifGetImageDesc(gifFile, false);
+	const int referenceSetupResult = referenceLzwSetup(reference, gif->bytes, gif->length, image->codeSizePos,
+	                                                   (uint_fast32_t) pixelCount);
+	checkCount++;
+	EXPECT(setupResult == referenceSetupResult, "%s image %zu: setup result %d, expected %d",
+	       name, imageIndex, setupResult, referenceSetupResult);
+	if (setupResult == GIF_ERROR || referenceSetupResult == GIF_ERROR) {
+		free(reference);
+		return;
+	}
+
+	const uint_fast32_t stripHeight = 1 + randomBelow(random, 4);
+	uint_fast32_t call, callCount;
+	switch (mode) {
+		case MODE_WHOLE:
+			callCount = 1;
+			break;
+		case MODE_SCRATCH:
+			callCount = (height + stripHeight - 1) / stripHeight;
+			break;
+		default:
+			callCount = height;
+			break;
+	}
+	for (call = 0; call < callCount; call++) {
+		size_t offset;
+		uint_fast32_t lineLength;
+		int result;
+		switch (mode) {
+			case MODE_WHOLE:
+				offset = 0;
+				lineLength = (uint_fast32_t) pixelCount;
+				break;
+			case MODE_ROWS:
+				offset = (size_t) call * width;
+				lineLength = width;
+				break;
+			case MODE_INTERLACED:
+				offset = (size_t) getInterlacedRow(call, height) * width;
+				lineLength = width;
+				break;
+			default: {
+				const uint_fast32_t remainingRows = height - call * stripHeight;
+				//the same buffer is reused by every strip, its content must not matter
+				offset = 0;
+				lineLength = (remainingRows < stripHeight ? remainingRows : stripHeight) * width;
+				size_t i;
+				for (i = 0; i < lineLength; i++)
+					actual[i] = (uint8_t) nextRandom(random);
+				memcpy(expected, actual, lineLength);
+				break;
+			}
+		}
+		if (mode == MODE_SCRATCH)
+			result = DGifGetScratchLine(gifFile, actual + offset, lineLength);
+		else
+			result = DGifGetLine(gifFile, actual + offset, lineLength);
+		const int referenceResult = referenceLzwGetLine(reference, expected + offset, lineLength);
+
+		checkCount += 3;
+		EXPECT(result == referenceResult, "%s image %zu %s call %lu: result %d, expected %d",
+		       name, imageIndex, MODE_NAMES[mode], (unsigned long) call, result, referenceResult);
+		//pixels written before an error have to match too
+		EXPECT(memcmp(actual + offset, expected + offset, lineLength) == 0, "%s image %zu %s call %lu: pixels differ",
+		       name, imageIndex, MODE_NAMES[mode], (unsigned long) call);
+		EXPECT(source->pos == reference->pos, "%s image %zu %s call %lu: position %zu, expected %zu",
+		       name, imageIndex, MODE_NAMES[mode], (unsigned long) call, source->pos, reference->pos);
+		if (result == GIF_ERROR || referenceResult == GIF_ERROR) {
+			checkCount++;
+			EXPECT(gifFile->Error == reference->Error, "%s image %zu %s call %lu: error %d, expected %d",
+			       name, imageIndex, MODE_NAMES[mode], (unsigned long) call, gifFile->Error, reference->Error);
+			break;
+		}
+	}
+	free(reference);
+}
+
+static void compareGif(const char *name, const TestBytes *gif, TestRandom *random) {
+	ImageRecord images[MAX_IMAGE_COUNT];
+	const size_t imageCount = scanImages(gif, images);
+	size_t maxPixelCount = 0, i;
+	for (i = 0; i < imageCount; i++) {
+		if (images[i].width * images[i].height > maxPixelCount)
+			maxPixelCount = images[i].width * images[i].height;
+	}
+	if (maxPixelCount == 0)
+		return;
+	const Rasters rasters = {.actual = malloc(maxPixelCount), .expected = malloc(maxPixelCount)};
+	LineMode mode;
+	for (mode = MODE_WHOLE; mode < MODE_COUNT; mode++) {
+		MemorySource source = {.bytes = gif->bytes, .length = gif->length};
+		int error;
+		GifFileType *gifFile = DGifOpen(&source, memorySourceRead, &error);
+		if (gifFile == NULL)
+			break;
+		for (i = 0; i < imageCount; i++)
+			compareImage(name, gif, gifFile, images + i, i, mode, &rasters, random);
+		DGifCloseFile(gifFile);
+	}
+	free(rasters.actual);
+	free(rasters.expected);
+}
+
+static void compareGifWithCorruptions(const char *name, const TestBytes *gif, TestRandom *random) {
+	compareGif(name, gif, random);
+	if (gif->length <= 14)
+		return;
+	char corruptedName[256];
+	TestBytes corrupted = {0};
+	unsigned variant;
+	for (variant = 0; variant < CORRUPTIONS_PER_GIF; variant++) {
+		corrupted.length = 0;
+		appendBytes(&corrupted, gif->bytes, gif->length);
+		corruptGif(&corrupted, random);
+		snprintf(corruptedName, sizeof(corruptedName), "%s corrupted #%u", name, variant);
+		compareGif(corruptedName, &corrupted, random);
+	}
+	free(corrupted.bytes);
+}
+
+/**
+ * @return best time of several repetitions of decoding all images in milliseconds
+ */
+static double measureDecoding(const TestBytes *gif, const ImageRecord *images, size_t imageCount, bool isReference) {
+	MemorySource source = {.bytes = gif->bytes, .length = gif->length};
+	int error;
+	GifFileType *gifFile = DGifOpen(&source, memorySourceRead, &error);
+	ReferenceLzw *reference = malloc(sizeof(ReferenceLzw));
+	size_t maxPixelCount = 0, i;
+	for (i = 0; i < imageCount; i++) {
+		if (images[i].width * images[i].height > maxPixelCount)
+			maxPixelCount = images[i].width * images[i].height;
+	}
+	uint8_t *raster = malloc(maxPixelCount);
+	double best = 1e30;
+	int repetition;
+	for (repetition = 0; repetition < 7; repetition++) {
+		const double start = getMillis();
+		for (i = 0; i < imageCount; i++) {
+			const uint_fast32_t pixelCount = images[i].width * images[i].height;
+			if (isReference) {
+				if (referenceLzwSetup(reference, gif->bytes, gif->length, images[i].codeSizePos, pixelCount) == GIF_OK)
+					referenceLzwGetLine(reference, raster, pixelCount);
+			} else {
+				source.pos = images[i].descriptorPos;
+				if (DGifGetImageDesc(gifFile, false) == GIF_OK)
+					DGifGetLine(gifFile, raster, pixelCount);
+			}
+		}
+		const double elapsed = getMillis() - start;
+		if (elapsed < best)
+			best = elapsed;
+	}
+	free(raster);
+	free(reference);
+	DGifCloseFile(gifFile);
+	return best;
+}
+
+static void benchmarkGif(const char *name, const TestBytes *gif) {
+	ImageRecord images[MAX_IMAGE_COUNT];
+	const size_t imageCount = scanImages(gif, images);
+	double megapixels = 0;
+	size_t i;
+	for (i = 0; i < imageCount; i++)
+		megapixels += images[i].width * images[i].height / 1e6;
+	const double referenceTime = measureDecoding(gif, images, imageCount, true);
+	const double time = measureDecoding(gif, images, imageCount, false);
+	printf("%-24s %7.2f Mpx  stock %8.2f ms  new %8.2f ms  %5.2fx\n",
+	       name, megapixels, referenceTime, time, time > 0 ? referenceTime / time : 0);
+}
+
+static void runBenchmark(int fileCount, char **paths) {
+	static const char *const patternNames[PATTERN_COUNT] = {"noise", "runs", "flat", "stripes"};
+	TestRandom random;
+	seedRandom(&random, 1);
+	PixelPattern pattern;
+	for (pattern = PATTERN_NOISE; pattern < PATTERN_COUNT; pattern++) {
+		TestBytes gif = {0};
+		writeGifHeader(&gif, 1024, 1024, 8, &random);
+		writeImage(&gif, 1024, 1024, false, 8, pattern, CLEAR_WHEN_FULL, &random);
+		appendByte(&gif, ';');
+		char name[64];
+		snprintf(name, sizeof(name), "generated %s", patternNames[pattern]);
+		benchmarkGif(name, &gif);
+		free(gif.bytes);
+	}
+	int i;
+	for (i = 0; i < fileCount; i++) {
+		TestBytes gif = {0};
+		if (readWholeFile(paths[i], &gif))
+			benchmarkGif(paths[i], &gif);
+		else
+			fprintf(stderr, "cannot read %s\n", paths[i]);
+		free(gif.bytes);
+	}
+}
+
+int main(int argc, char **argv) {
+	if (argc > 1 && strcmp(argv[1], "bench") == 0) {
+		runBenchmark(argc - 2, argv + 2);
+		return EXIT_SUCCESS;
+	}
+	TestRandom random;
+	seedRandom(&random, 6);
+	char name[64];
+	unsigned seed;
+	for (seed = 0; seed < GENERATED_GIF_COUNT; seed++) {
+		TestBytes gif = {0};
+		generateGif(&gif, &random);
+		snprintf(name, sizeof(name), "generated #%u", seed);
+		compareGifWithCorruptions(name, &gif, &random);
+		free(gif.bytes);
+	}
+	//strings longer than lines and the table filled without clearing
+	TestBytes gif = {0};
+	writeGifHeader(&gif, 16, 4096, 2, &random);
+	writeImage(&gif, 16, 4096, false, 2, PATTERN_FLAT, CLEAR_DEFERRED, &random);
+	writeImage(&gif, 7, 4096, true, 2, PATTERN_STRIPES, CLEAR_DEFERRED, &random);
+	appendByte(&gif, ';');
+	compareGifWithCorruptions("long strings", &gif, &random);
+	free(gif.bytes);
+
+	int i;
+	for (i = 1; i < argc; i++) {
+		TestBytes file = {0};
+		checkCount++;
+		EXPECT(readWholeFile(argv[i], &file), "cannot read %s", argv[i]);
+		compareGifWithCorruptions(argv[i], &file, &random);
+		free(file.bytes);
+	}
+	return finishTest("lzw_test", checkCount);
+}
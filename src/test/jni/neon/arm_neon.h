@@ -0,0 +1,120 @@
+/**
+ * Lane by lane emulation of the NEON intrinsics used by drawing.c, so the NEON code path can be
+ * built and checked on hosts without ARM toolchain. It verifies lane logic of the path, not the
+ * code generated for real NEON units.
+ */
+#ifndef HOST_ARM_NEON_H
+#define HOST_ARM_NEON_H
+
+#include <stdint.h>
+#include <string.h>
+
+typedef struct {
+	uint8_t lanes[16];
+} uint8x16_t;
+
+typedef struct {
+	uint16_t lanes[8];
+} uint16x8_t;
+
+typedef struct {
+	uint32_t lanes[4];
+} uint32x4_t;
+
+typedef struct {
+	uint64_t lanes[2];
+} uint64x2_t;
+
+typedef struct {
+	uint8x16_t val[2];
+} uint8x16x2_t;
+
+typedef struct {
+	uint16x8_t val[2];
+} uint16x8x2_t;
+
+#define vgetq_lane_u64(vector, lane) ((vector).lanes[lane])
+
+static inline uint8x16_t vld1q_u8(const uint8_t *src) {
+	uint8x16_t result;
+	memcpy(result.lanes, src, sizeof(result.lanes));
+	return result;
+}
+
+static inline uint32x4_t vld1q_u32(const uint32_t *src) {
+	uint32x4_t result;
+	memcpy(result.lanes, src, sizeof(result.lanes));
+	return result;
+}
+
+static inline void vst1q_u32(uint32_t *dst, uint32x4_t vector) {
+	memcpy(dst, vector.lanes, sizeof(vector.lanes));
+}
+
+static inline uint8x16_t vdupq_n_u8(uint8_t value) {
+	uint8x16_t result;
+	memset(result.lanes, value, sizeof(result.lanes));
+	return result;
+}
+
+static inline uint8x16_t vceqq_u8(uint8x16_t a, uint8x16_t b) {
+	uint8x16_t result;
+	int i;
+	for (i = 0; i < 16; i++) {
+		result.lanes[i] = a.lanes[i] == b.lanes[i] ? 0xFF : 0;
+	}
+	return result;
+}
+
+static inline uint8x16x2_t vzipq_u8(uint8x16_t a, uint8x16_t b) {
+	uint8x16x2_t result;
+	int i;
+	for (i = 0; i < 8; i++) {
+		result.val[0].lanes[2 * i] = a.lanes[i];
+		result.val[0].lanes[2 * i + 1] = b.lanes[i];
+		result.val[1].lanes[2 * i] = a.lanes[8 + i];
+		result.val[1].lanes[2 * i + 1] = b.lanes[8 + i];
+	}
+	return result;
+}
+
+static inline uint16x8x2_t vzipq_u16(uint16x8_t a, uint16x8_t b) {
+	uint16x8x2_t result;
+	int i;
+	for (i = 0; i < 4; i++) {
+		result.val[0].lanes[2 * i] = a.lanes[i];
+		result.val[0].lanes[2 * i + 1] = b.lanes[i];
+		result.val[1].lanes[2 * i] = a.lanes[4 + i];
+		result.val[1].lanes[2 * i + 1] = b.lanes[4 + i];
+	}
+	return result;
+}
+
+static inline uint32x4_t vbslq_u32(uint32x4_t mask, uint32x4_t a, uint32x4_t b) {
+	uint32x4_t result;
+	int i;
+	for (i = 0; i < 4; i++) {
+		result.lanes[i] = (mask.lanes[i] & a.lanes[i]) | (~mask.lanes[i] & b.lanes[i]);
+	}
+	return result;
+}
+
+static inline uint64x2_t vreinterpretq_u64_u8(uint8x16_t vector) {
+	uint64x2_t result;
+	memcpy(result.lanes, vector.lanes, sizeof(result.lanes));
+	return result;
+}
+
+static inline uint16x8_t vreinterpretq_u16_u8(uint8x16_t vector) {
+	uint16x8_t result;
+	memcpy(result.lanes, vector.lanes, sizeof(result.lanes));
+	return result;
+}
+
+static inline uint32x4_t vreinterpretq_u32_u16(uint16x8_t vector) {
+	uint32x4_t result;
+	memcpy(result.lanes, vector.lanes, sizeof(result.lanes));
+	return result;
+}
+
+#endif
@@ -0,0 +1,151 @@
+/**
+ * Helpers shared by host tests and benchmarks of the decoding core, see HostTest.mk.
+ */
+#ifndef HOST_TEST_H
+#define HOST_TEST_H
+
+#include <stdbool.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include "giflib/gif_lib.h"
+
+/**
+ * Number of failures reported in detail, the rest is only counted.
+ */
+#define REPORTED_FAILURE_LIMIT 10
+
+static unsigned long testFailureCount;
+
+/**
+ * Counts failure of the condition and prints the message for the first few ones.
+ */
+#define EXPECT(condition, ...) \
+	do { \
+		if (!(condition)) { \
+			if (testFailureCount++ < REPORTED_FAILURE_LIMIT) { \
+				fprintf(stderr, "FAIL %s:%d: ", __FILE__, __LINE__); \
+				fprintf(stderr, __VA_ARGS__); \
+				fputc('\n', stderr); \
+			} \
+		} \
+	} while (0)
+
+/**
+ * Prints summary of the test and returns process exit status.
+ */
+static inline int finishTest(const char *name, unsigned long checkCount) {
+	if (testFailureCount == 0) {
+		printf("%s: %lu checks passed\n", name, checkCount);
+		return EXIT_SUCCESS;
+	}
+	printf("%s: %lu of %lu checks FAILED\n", name, testFailureCount, checkCount);
+	return EXIT_FAILURE;
+}
+
+/**
+ * Deterministic xorshift64* generator, so failures can be reproduced from the seed.
+ */
+typedef struct {
+	uint64_t state;
+} TestRandom;
+
+static inline void seedRandom(TestRandom *random, uint64_t seed) {
+	random->state = seed * 0x9E3779B97F4A7C15ULL + 1;
+}
+
+static inline uint32_t nextRandom(TestRandom *random) {
+	uint64_t x = random->state;
+	x ^= x >> 12;
+	x ^= x << 25;
+	x ^= x >> 27;
+	random->state = x;
+	return (uint32_t) ((x * 0x2545F4914F6CDD1DULL) >> 32);
+}
+
+/**
+ * @return random number in [0, bound)
+ */
+static inline uint32_t randomBelow(TestRandom *random, uint32_t bound) {
+	return (uint32_t) (((uint64_t) nextRandom(random) * bound) >> 32);
+}
+
+static inline double getMillis(void) {
+	struct timespec now;
+	clock_gettime(CLOCK_MONOTONIC, &now);
+	return now.tv_sec * 1e3 + now.tv_nsec / 1e6;
+}
+
+/**
+ * Growing byte array.
+ */
+typedef struct {
+	uint8_t *bytes;
+	size_t length;
+	size_t capacity;
+} TestBytes;
+
+static inline void appendBytes(TestBytes *array, const void *bytes, size_t length) {
+	if (array->length + length > array->capacity) {
+		size_t capacity = array->capacity > 0 ? array->capacity * 2 : 4096;
+		while (capacity < array->length + length)
+			capacity *= 2;
+		array->bytes = realloc(array->bytes, capacity);
+		if (array->bytes == NULL) {
+			fputs("out of memory\n", stderr);
+			exit(EXIT_FAILURE);
+		}
+		array->capacity = capacity;
+	}
+	memcpy(array->bytes + array->length, bytes, length);
+	array->length += length;
+}
+
+static inline void appendByte(TestBytes *array, uint8_t byte) {
+	appendBytes(array, &byte, 1);
+}
+
+static inline void appendWord(TestBytes *array, uint16_t word) {
+	appendByte(array, (uint8_t) word);
+	appendByte(array, (uint8_t) (word >> 8));
+}
+
+/**
+ * @return false if file cannot be read
+ */
+static inline bool readWholeFile(const char *path, TestBytes *array) {
+	FILE *file = fopen(path, "rb");
+	if (file == NULL)
+		return false;
+	uint8_t chunk[8192];
+	size_t length;
+	while ((length = fread(chunk, 1, sizeof(chunk), file)) > 0)
+		appendBytes(array, chunk, length);
+	const bool isError = ferror(file) != 0;
+	fclose(file);
+	return !isError;
+}
+
+/**
+ * GIF data read by giflib from memory, short reads at the end are reported like files do.
+ */
+typedef struct {
+	const uint8_t *bytes;
+	size_t length;
+	size_t pos;
+} MemorySource;
+
+static inline uint_fast8_t memorySourceRead(GifFileType *gif, GifByteType *bytes, uint_fast8_t size) {
+	MemorySource *source = gif->UserData;
+	if (source->pos >= source->length)
+		return 0;
+	if (size > source->length - source->pos)
+		size = (uint_fast8_t) (source->length - source->pos);
+	memcpy(bytes, source->bytes + source->pos, size);
+	source->pos += size;
+	return size;
+}
+
+#endif